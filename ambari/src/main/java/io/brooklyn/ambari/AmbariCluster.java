@@ -22,6 +22,8 @@ package io.brooklyn.ambari;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import com.google.common.collect.ImmutableList;
 import org.apache.brooklyn.api.catalog.Catalog;
 import org.apache.brooklyn.api.entity.EntitySpec;
@@ -36,10 +38,12 @@ import org.apache.brooklyn.entity.group.Cluster;
 import org.apache.brooklyn.entity.software.base.SoftwareProcess;
 import org.apache.brooklyn.entity.stock.BasicStartable;
 import org.apache.brooklyn.util.core.flags.SetFromFlag;
+import org.apache.brooklyn.util.time.Duration;
 
 import com.google.common.reflect.TypeToken;
 
 import io.brooklyn.ambari.agent.AmbariAgent;
+import io.brooklyn.ambari.cluster.PreparedBlueprint;
 import io.brooklyn.ambari.rest.AmbariApiException;
 import io.brooklyn.ambari.server.AmbariServer;
 import io.brooklyn.ambari.service.ExtraService;
@@ -99,6 +103,48 @@ public interface AmbariCluster extends BasicStartable {
             "The base url of the ambari repo", 
             "http://public-repo-1.hortonworks.com");
 
+    @SetFromFlag("preProvisionRepository")
+    ConfigKey<Boolean> PRE_PROVISION_REPOSITORY = ConfigKeys.newBooleanConfigKey(
+            "repository.preProvision",
+            "Whether Brooklyn fetches the Ambari repository definition and key once for the whole cluster and copies "
+                    + "them to the nodes, rather than each node downloading them",
+            false);
+
+    @SetFromFlag("packageCache")
+    ConfigKey<Boolean> PACKAGE_CACHE = ConfigKeys.newBooleanConfigKey(
+            "repository.packageCache",
+            "Whether the Ambari server runs a cache of the Ambari package repository, which the agents then install from",
+            false);
+
+    @SetFromFlag("packageCachePort")
+    ConfigKey<Integer> PACKAGE_CACHE_PORT = ConfigKeys.newIntegerConfigKey(
+            "repository.packageCache.port",
+            "The port the package cache listens on, on the Ambari server",
+            8090);
+
+    @SetFromFlag("packageCacheTimeout")
+    ConfigKey<Duration> PACKAGE_CACHE_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "repository.packageCache.timeout",
+            "How long the agents wait for the package cache of the Ambari server before installing from the upstream "
+                    + "repository instead",
+            Duration.minutes(20));
+
+    @SetFromFlag("singleSessionLifecycle")
+    ConfigKey<Boolean> SINGLE_SESSION_LIFECYCLE = ConfigKeys.newBooleanConfigKey(
+            "lifecycle.singleSession",
+            "Whether each Ambari node uploads its files in one archive and runs its install, customize and launch phases "
+                    + "as one script at launch, rather than over an ssh session per step. The pre- and post- install and "
+                    + "customize commands then all run before that script, so the post-install and post-customize "
+                    + "commands run out of order: before the phase they follow, not after it. Whether the node runs is "
+                    + "still checked over its own ssh session",
+            false);
+
+    @SetFromFlag("aptKeyUrl")
+    ConfigKey<String> APT_KEY_URL = ConfigKeys.newStringConfigKey(
+            "repository.aptKeyUrl",
+            "The url of the key the Ambari apt repository is signed with, fetched when the repository is pre-provisioned",
+            "https://keyserver.ubuntu.com/pks/lookup?op=get&options=mr&search=0xB9733A7A07513CAD");
+
     @Deprecated
     @SetFromFlag("extraServices")
     @SuppressWarnings("serial")
@@ -129,6 +175,12 @@ public interface AmbariCluster extends BasicStartable {
     @SetFromFlag("hostAddressSensor")
     ConfigKey<AttributeSensor<String>> ETC_HOST_ADDRESS = AmbariConfigAndSensors.ETC_HOST_ADDRESS;
 
+    @SetFromFlag("etcHostsMaxConcurrency")
+    ConfigKey<Integer> ETC_HOSTS_MAX_CONCURRENCY = AmbariConfigAndSensors.ETC_HOSTS_MAX_CONCURRENCY;
+
+    @SetFromFlag("etcHostsStrategy")
+    ConfigKey<EtcHostsStrategy> ETC_HOSTS_STRATEGY = AmbariConfigAndSensors.ETC_HOSTS_STRATEGY;
+
     @SetFromFlag("version")
     ConfigKey<String> SUGGESTED_VERSION = ConfigKeys.newConfigKeyWithDefault(SoftwareProcess.SUGGESTED_VERSION, "2.2.0.0");
 
@@ -160,6 +212,39 @@ public interface AmbariCluster extends BasicStartable {
                     + "effector to continue deployment",
             Boolean.FALSE);
 
+    @SetFromFlag("localLayout")
+    ConfigKey<Boolean> LOCAL_LAYOUT = ConfigKeys.newBooleanConfigKey(
+            "ambari.layout.local",
+            "Lays the services of a services based deployment out on the hosts locally, from the cardinality of their "
+                    + "components in the stack, rather than asking Ambari for a recommendation. Much faster on large "
+                    + "clusters, but ignores the hardware of the hosts",
+            Boolean.FALSE);
+
+    @SetFromFlag("prepareBlueprint")
+    ConfigKey<Boolean> PREPARE_BLUEPRINT = ConfigKeys.newBooleanConfigKey(
+            "ambari.blueprint.prepare",
+            "Registers the blueprint of a host groups based deployment as soon as the Ambari server is up, while the "
+                    + "agents are still starting. It is replaced at deployment time if it no longer matches",
+            Boolean.FALSE);
+
+    @SetFromFlag("deploymentQuorum")
+    ConfigKey<Double> DEPLOYMENT_QUORUM = ConfigKeys.newDoubleConfigKey(
+            "ambari.deployment.quorum",
+            "Fraction of the agents of the worker host groups which must have registered for the cluster to be deployed, "
+                    + "once every agent of the other host groups has. The others are added to the cluster as they "
+                    + "register. 1 waits for every agent",
+            1.0);
+
+    @SetFromFlag("workerComponents")
+    @SuppressWarnings("serial")
+    ConfigKey<List<String>> WORKER_COMPONENTS = ConfigKeys.newConfigKey(
+            new TypeToken<List<String>>() {},
+            "ambari.deployment.quorum.workerComponents",
+            "Components of the worker host groups, i.e. the host groups a quorum deployment does not wait for entirely. "
+                    + "Client components are always worker components",
+            ImmutableList.of("DATANODE", "NODEMANAGER", "HBASE_REGIONSERVER", "SUPERVISOR", "ACCUMULO_TSERVER",
+                    "FLUME_HANDLER", "METRICS_MONITOR", "GANGLIA_MONITOR"));
+
     @SetFromFlag("domainName")
     ConfigKey<String> DOMAIN_NAME = ConfigKeys.newStringConfigKey(
             "ambari.domain.name", 
@@ -176,6 +261,50 @@ public interface AmbariCluster extends BasicStartable {
 
     AttributeSensor<Boolean> CLUSTER_SERVICES_INSTALLED = Sensors.newBooleanSensor("ambari.cluster.servicesInstalled");
 
+    AttributeSensor<Duration> ETC_HOSTS_PROPAGATION_TIME = Sensors.newSensor(
+            Duration.class,
+            "ambari.cluster.etcHostsPropagationTime",
+            "Time taken by the last update of the hostname and /etc/hosts of the Ambari nodes");
+
+    @SuppressWarnings("serial")
+    AttributeSensor<Map<String, String>> ETC_HOSTS_MAPPING = Sensors.newSensor(
+            new TypeToken<Map<String, String>>() {},
+            "ambari.cluster.etcHostsMapping",
+            "IP address to hostname mapping last applied to the /etc/hosts of the Ambari nodes");
+
+    @SuppressWarnings("serial")
+    AttributeSensor<Map<String, List<String>>> COMPONENT_HOSTS = Sensors.newSensor(
+            new TypeToken<Map<String, List<String>>>() {},
+            "ambari.cluster.componentHosts",
+            "FQDNs of the Ambari agents each component is assigned to, by component, including the agents added since "
+                    + "the cluster was deployed");
+
+    @SuppressWarnings("serial")
+    AttributeSensor<Map<String, List<String>>> HOST_GROUP_COMPONENTS = Sensors.newSensor(
+            new TypeToken<Map<String, List<String>>>() {},
+            "ambari.cluster.hostGroupComponents",
+            "Components of each host group of the deployed blueprint, by host group name");
+
+    AttributeSensor<Integer> PENDING_AGENTS = Sensors.newIntegerSensor(
+            "ambari.cluster.pendingAgents",
+            "Number of expected Ambari agents which have not registered with the Ambari server yet");
+
+    @SuppressWarnings("serial")
+    AttributeSensor<List<String>> CLUSTER_HOSTS = Sensors.newSensor(
+            new TypeToken<List<String>>() {},
+            "ambari.cluster.hosts",
+            "FQDNs of the Ambari agents the cluster was deployed on or which were added to it since");
+
+    AttributeSensor<PreparedBlueprint> PREPARED_BLUEPRINT = Sensors.newSensor(
+            PreparedBlueprint.class,
+            "ambari.cluster.preparedBlueprint",
+            "Blueprint registered with the Ambari server ahead of the deployment, if any");
+
+    AttributeSensor<String> SCALE_OUT_HOST_GROUP = Sensors.newStringSensor(
+            "ambari.cluster.scaleOutHostGroup",
+            "Blueprint host group the agents added to a services based deployment join, the one with the most hosts "
+                    + "among those without master components. Not set if there is no such host group");
+
 
     String AMBARI_ALERTS_CONFIG_PREFIX = "ambari.alerts.notification.";
 
@@ -223,6 +352,23 @@ public interface AmbariCluster extends BasicStartable {
      */
     AmbariServer getMasterAmbariServer();
 
+    /**
+     * Returns the Ambari agent of the cluster with the given FQDN. Lookups are served from an index kept up to date
+     * as agents get their FQDN and leave the cluster, rather than by walking the entity tree.
+     *
+     * @param fqdn the FQDN of the agent.
+     * @return the Ambari agent, or {@code null} if the cluster has none with this FQDN.
+     */
+    @Nullable
+    AmbariAgent getAmbariAgentByFqdn(String fqdn);
+
+    /**
+     * Sets the hostname and /etc/hosts of every Ambari node of the cluster, so that all the nodes can resolve each
+     * other. Nodes which already have the previous mapping only receive the entries added since, and nodes which
+     * already have the current one are left untouched.
+     */
+    void setHostsOnAmbariNodes();
+
     /**
      * Configure and deploy a new Hadoop cluster on the registered Ambari agents.
      */
@@ -248,6 +394,18 @@ public interface AmbariCluster extends BasicStartable {
      */
     void addHostsToHostGroup(String displayName, List<AmbariAgent> hosts);
 
+    /**
+     * Adds the agents which registered with the Ambari server after a quorum deployment to their host groups. Does
+     * nothing until the cluster is complete, nor when the deployment waited for every agent.
+     */
+    void addLateAgents();
+
+    /**
+     * Registers the blueprint of a host groups based deployment with the Ambari server, ahead of its deployment. Does
+     * nothing if the blueprint is already being registered, or if the cluster has already been deployed.
+     */
+    void prepareBlueprint();
+
     /**
      * Add alert notification
      * @param name Notification name
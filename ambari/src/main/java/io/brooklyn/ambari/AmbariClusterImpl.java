@@ -25,13 +25,18 @@ import static com.google.common.collect.Iterables.transform;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import org.apache.brooklyn.api.effector.Effector;
+import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.api.entity.EntityLocal;
 import org.apache.brooklyn.api.entity.EntitySpec;
 import org.apache.brooklyn.api.location.Location;
@@ -40,6 +45,7 @@ import org.apache.brooklyn.config.ConfigKey;
 import org.apache.brooklyn.core.entity.Attributes;
 import org.apache.brooklyn.core.entity.Entities;
 import org.apache.brooklyn.core.entity.lifecycle.ServiceStateLogic;
+import org.apache.brooklyn.core.entity.trait.Startable;
 import org.apache.brooklyn.core.mgmt.BrooklynTaskTags;
 import org.apache.brooklyn.core.mgmt.internal.EffectorUtils;
 import org.apache.brooklyn.enricher.stock.Enrichers;
@@ -47,23 +53,38 @@ import org.apache.brooklyn.entity.software.base.SoftwareProcess;
 import org.apache.brooklyn.entity.stock.BasicStartableImpl;
 import org.apache.brooklyn.util.collections.MutableList;
 import org.apache.brooklyn.util.collections.MutableMap;
+import org.apache.brooklyn.util.collections.MutableSet;
 import org.apache.brooklyn.util.core.flags.TypeCoercions;
 import org.apache.brooklyn.util.core.task.Tasks;
+import org.apache.brooklyn.util.exceptions.Exceptions;
 import org.apache.brooklyn.util.guava.Maybe;
+import org.apache.brooklyn.util.time.Duration;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
 import io.brooklyn.ambari.agent.AmbariAgent;
 import io.brooklyn.ambari.agent.AmbariAgentImpl;
+import io.brooklyn.ambari.cluster.AgentFqdnIndex;
 import io.brooklyn.ambari.cluster.ClusterStateEventListener;
+import io.brooklyn.ambari.cluster.DeploymentQuorum;
+import io.brooklyn.ambari.cluster.HostGroupMerger;
+import io.brooklyn.ambari.cluster.PreparedBlueprint;
 import io.brooklyn.ambari.cluster.RegisteredHostEventListener;
+import io.brooklyn.ambari.cluster.ServerUpEventListener;
 import io.brooklyn.ambari.hostgroup.AmbariHostGroup;
 import io.brooklyn.ambari.rest.AmbariApiException;
 import io.brooklyn.ambari.rest.domain.Bindings;
@@ -75,6 +96,7 @@ import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
 import io.brooklyn.ambari.rest.domain.RecommendationWrappers;
 import io.brooklyn.ambari.rest.domain.Request;
 import io.brooklyn.ambari.rest.domain.Stack;
+import io.brooklyn.ambari.rest.domain.StackServices;
 import io.brooklyn.ambari.server.AmbariServer;
 import io.brooklyn.ambari.service.ExtraService;
 import io.brooklyn.ambari.service.ExtraServiceException;
@@ -99,6 +121,9 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
     private boolean isHostGroupsDeployment;
     private List<String> services;
     private Map<String, List<String>> componentsByNode;
+    private final AgentFqdnIndex agentFqdnIndex = new AgentFqdnIndex(this);
+    private final RepositoryResourceCache repositoryResourceCache = new RepositoryResourceCache();
+    private Task<PreparedBlueprint> blueprintPreparation;
 
     private Function<AmbariNode, String> mapAmbariNodeToFQDN = new Function<AmbariNode, String>() {
         @Nullable
@@ -139,7 +164,6 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
                 .from(getMasterAmbariServer())
                 .build());
 
-        componentsByNode = new MutableMap<String, List<String>>();
         addDeprecatedExtraServiceToExtraServices();
         for (EntitySpec<? extends ExtraService> entitySpec : getConfig(EXTRA_HADOOP_SERVICES)) {
             LOG.warn(EXTRA_HADOOP_SERVICES.getName() + " configuration key is deprecated. Extra services should now be defined through as children by using 'brooklyn.children'");
@@ -154,7 +178,7 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
             }
         });
 
-        for (ExtraService extraService : Entities.descendants(this, ExtraService.class)) {
+        for (ExtraService extraService : getExtraServices()) {
             if (extraService.getConfig(ExtraService.SERVICE_NAME) == null && extraService.getConfig(ExtraService.COMPONENT_NAMES) == null) {
                 continue;
             }
@@ -170,10 +194,6 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
                         throw new IllegalStateException(String.format("Extra component \"%s\" of entity \"%s\" cannot be bound to \"%s\" host group because it does not exist. Please choose from %s or " + getConfig(SERVER_HOST_GROUP),
                                 componentMapping.getComponent(), extraService.getEntityType().getName(), componentMapping.getHost(), ambariHostGroupNames));
                     }
-                    if (!componentsByNode.containsKey(componentMapping.getHost())) {
-                        componentsByNode.put(componentMapping.getHost(), MutableList.<String>of());
-                    }
-                    componentsByNode.get(componentMapping.getHost()).add(componentMapping.getComponent());
                 }
             } else {
                 checkNotNull(extraService.getConfig(ExtraService.SERVICE_NAME),
@@ -186,7 +206,47 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
                 }
             }
         }
+        componentsByNode = isHostGroupsDeployment
+                ? getComponentsByNodeFromExtraServices()
+                : new MutableMap<String, List<String>>();
+    }
+
+    /**
+     * @return the components the extra services bind to each host group. Only used by a host groups based deployment.
+     */
+    private synchronized Map<String, List<String>> getComponentsByNode() {
+        // Not persisted, and the configuration of the extra services is not there yet when the cluster is rebound
+        if (componentsByNode == null) {
+            componentsByNode = getComponentsByNodeFromExtraServices();
+        }
+        return componentsByNode;
+    }
 
+    /**
+     * @return the components the extra services bind to each host group. Those which cannot be bound, which would
+     * have failed {@link #init()} in a host groups based deployment, are left out.
+     */
+    private Map<String, List<String>> getComponentsByNodeFromExtraServices() {
+        Map<String, List<String>> result = new MutableMap<String, List<String>>();
+        for (ExtraService extraService : getExtraServices()) {
+            if (extraService.getConfig(ExtraService.COMPONENT_NAMES) == null || extraService.getConfig(ExtraService.BIND_TO) == null) {
+                continue;
+            }
+            for (ExtraService.ComponentMapping componentMapping : extraService.getComponentMappings()) {
+                if (!result.containsKey(componentMapping.getHost())) {
+                    result.put(componentMapping.getHost(), MutableList.<String>of());
+                }
+                result.get(componentMapping.getHost()).add(componentMapping.getComponent());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void onManagementStarting() {
+        super.onManagementStarting();
+        // Subscriptions are not persisted, so this is done here rather than in init() to cover rebind as well
+        agentFqdnIndex.subscribe();
     }
 
     private void addDeprecatedExtraServiceToExtraServices() {
@@ -201,11 +261,33 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
 
     @Override
     public void start(Collection<? extends Location> locations) {
+        if (isHostGroupsDeployment && getConfig(PREPARE_BLUEPRINT)) {
+            // The blueprint only depends on the host groups, so it is registered while the agents are still starting
+            subscribe(getMasterAmbariServer(), AmbariServer.SERVICE_UP, new ServerUpEventListener(this));
+        }
         super.start(locations);
         subscribe(getMasterAmbariServer(), AmbariServer.REGISTERED_HOSTS, new RegisteredHostEventListener(this, config().get(AmbariCluster.PAUSE_FOR_DEPLOYMENT)));
         subscribe(getMasterAmbariServer(), AmbariServer.CLUSTER_STATE, new ClusterStateEventListener(this));
 
-        EtcHostsManager.setHostsOnMachines(getAmbariNodes(), getConfig(ETC_HOST_ADDRESS));
+        setHostsOnAmbariNodes();
+    }
+
+    @Override
+    public void setHostsOnAmbariNodes() {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            Map<String, String> mapping;
+            if (getConfig(ETC_HOSTS_STRATEGY) == EtcHostsStrategy.DNS) {
+                mapping = EtcHostsManager.setHostsOnDnsResponder(getMasterAmbariServer(), getAmbariNodes(), getConfig(ETC_HOST_ADDRESS));
+            } else {
+                mapping = EtcHostsManager.setHostsOnMachines(getAmbariNodes(), getConfig(ETC_HOST_ADDRESS),
+                        getConfig(ETC_HOSTS_MAX_CONCURRENCY), getConfig(ETC_HOSTS_STRATEGY), getAttribute(ETC_HOSTS_MAPPING));
+            }
+            sensors().set(ETC_HOSTS_MAPPING, mapping);
+        } finally {
+            sensors().set(ETC_HOSTS_PROPAGATION_TIME, Duration.millis(stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+            LOG.debug("{} set hostname and /etc/hosts on Ambari nodes in {}", this, getAttribute(ETC_HOSTS_PROPAGATION_TIME));
+        }
     }
 
     @Override
@@ -239,12 +321,187 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
         if (effector.isAbsentOrNull()) {
             throw new IllegalStateException("Cannot get the addHostsToHostGroup effector");
         }
-        getMasterAmbariServer().invoke(effector.get(), ImmutableMap.of(
+        final Map<String, List<String>> hostGroupComponents = getAttribute(HOST_GROUP_COMPONENTS);
+        // The host group all the nodes of a services based deployment are provisioned by is not in the recommendation,
+        // unlike the ones of each role
+        final String blueprintHostGroupName = !isHostGroupsDeployment && getAttribute(SCALE_OUT_HOST_GROUP) != null
+                && (hostGroupComponents == null || !hostGroupComponents.containsKey(hostgroupName))
+                ? getAttribute(SCALE_OUT_HOST_GROUP)
+                : hostgroupName;
+        if (hostGroupComponents != null && !hostGroupComponents.containsKey(blueprintHostGroupName)) {
+            throw new IllegalStateException(String.format("Cannot add hosts to host group %s, as the blueprint of %s has "
+                    + "no such host group. A services based deployment adds them to its largest host group without master "
+                    + "components, and there is none", blueprintHostGroupName, this));
+        }
+        // Both a resize and a late registration can add the same agent
+        final List<String> requested = Lists.transform(hosts, mapAmbariNodeToFQDN);
+        final List<String> fqdns = claimClusterHosts(requested);
+        if (fqdns.size() < requested.size()) {
+            LOG.info("{} not adding {} to host group {} again, as they are already in the cluster",
+                    new Object[] {this, Sets.difference(ImmutableSet.copyOf(requested), ImmutableSet.copyOf(fqdns)), blueprintHostGroupName});
+        }
+        if (fqdns.isEmpty()) {
+            return;
+        }
+        addComponentHosts(blueprintHostGroupName, hosts, fqdns);
+        if (!blueprintHostGroupName.equals(hostgroupName)) {
+            addRoleHostGroupMembers(blueprintHostGroupName, hosts);
+        }
+        Task<?> task = getMasterAmbariServer().invoke(effector.get(), ImmutableMap.of(
                 "Blueprint Name", getConfig(AmbariCluster.BLUEPRINT_NAME),
-                "Hostgroup Name", hostgroupName,
-                "Hosts", Lists.transform(hosts, mapAmbariNodeToFQDN),
+                "Hostgroup Name", blueprintHostGroupName,
+                "Hosts", fqdns,
                 "Cluster Name", getConfig(AmbariCluster.CLUSTER_NAME)
         ));
+        // So that they are added again the next time
+        Futures.addCallback(task, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                releaseClusterHosts(fqdns);
+            }
+        });
+    }
+
+    @Override
+    public void addLateAgents() {
+        if (!isQuorumDeployment() || !isClusterComplete()) {
+            return;
+        }
+        List<String> registeredHosts = getMasterAmbariServer().getAttribute(AmbariServer.REGISTERED_HOSTS);
+        List<String> clusterHosts = getAttribute(CLUSTER_HOSTS);
+        if (registeredHosts == null) {
+            return;
+        }
+
+        ListMultimap<String, AmbariAgent> lateAgentsByHostGroup = MultimapBuilder.linkedHashKeys().arrayListValues().build();
+        for (String fqdn : registeredHosts) {
+            if (clusterHosts != null && clusterHosts.contains(fqdn)) {
+                continue;
+            }
+            AmbariAgent ambariAgent = getAmbariAgentByFqdn(fqdn);
+            AmbariHostGroup hostGroup = ambariAgent != null
+                    ? Iterables.getFirst(Iterables.filter(Entities.ancestors(ambariAgent), AmbariHostGroup.class), null)
+                    : null;
+            if (hostGroup != null) {
+                lateAgentsByHostGroup.put(hostGroup.getDisplayName(), ambariAgent);
+            }
+        }
+        for (String hostGroupName : lateAgentsByHostGroup.keySet()) {
+            List<AmbariAgent> lateAgents = lateAgentsByHostGroup.get(hostGroupName);
+            LOG.info("{} adding {} late agent(s) to host group {}", new Object[] {this, lateAgents.size(), hostGroupName});
+            addHostsToHostGroup(hostGroupName, lateAgents);
+        }
+    }
+
+    /**
+     * @return whether enough of the expected agents are in the given registered hosts for the cluster to be deployed.
+     */
+    public boolean isReadyToDeploy(List<String> registeredHosts) {
+        Integer expectedAgents = getAttribute(EXPECTED_AGENTS);
+        if (!isQuorumDeployment()) {
+            return expectedAgents != null && registeredHosts.size() == expectedAgents;
+        }
+
+        DeploymentQuorum deploymentQuorum = new DeploymentQuorum(getConfig(DEPLOYMENT_QUORUM), getConfig(WORKER_COMPONENTS));
+        if (getMasterAmbariServer().agentOnServer()) {
+            deploymentQuorum.addMasterHosts(Iterables.size(getAmbariServers()),
+                    Lists.newArrayList(transform(getAmbariServers(), mapAmbariNodeToFQDN)));
+        }
+        for (AmbariHostGroup hostGroup : getHostGroups()) {
+            List<String> components = MutableList.copyOf(hostGroup.getComponents());
+            if (getComponentsByNode().containsKey(hostGroup.getDisplayName())) {
+                components.addAll(getComponentsByNode().get(hostGroup.getDisplayName()));
+            }
+            deploymentQuorum.addHostGroup(components, hostGroup.getConfig(AmbariHostGroup.INITIAL_SIZE), hostGroup.getHostFQDNs());
+        }
+        return deploymentQuorum.isReached(registeredHosts);
+    }
+
+    private boolean isQuorumDeployment() {
+        Double quorum = getConfig(DEPLOYMENT_QUORUM);
+        return quorum != null && quorum < 1;
+    }
+
+    /**
+     * In a quorum deployment, leaves out the hosts which have not registered yet; they are added once they have.
+     */
+    private List<String> getHostsToDeploy(List<String> hosts) {
+        List<String> registeredHosts = getMasterAmbariServer().getAttribute(AmbariServer.REGISTERED_HOSTS);
+        if (!isQuorumDeployment() || registeredHosts == null) {
+            return hosts;
+        }
+        return ImmutableList.copyOf(Iterables.filter(hosts, Predicates.in(ImmutableSet.copyOf(registeredHosts))));
+    }
+
+    /**
+     * Adds the given hosts to {@link #CLUSTER_HOSTS}.
+     *
+     * @return those which were not there yet.
+     */
+    private synchronized List<String> claimClusterHosts(List<String> fqdns) {
+        List<String> clusterHosts = MutableList.copyOf(getAttribute(CLUSTER_HOSTS));
+        List<String> claimed = MutableList.of();
+        for (String fqdn : fqdns) {
+            if (!clusterHosts.contains(fqdn) && !claimed.contains(fqdn)) {
+                claimed.add(fqdn);
+            }
+        }
+        clusterHosts.addAll(claimed);
+        sensors().set(CLUSTER_HOSTS, ImmutableList.copyOf(clusterHosts));
+        return claimed;
+    }
+
+    private synchronized void releaseClusterHosts(List<String> fqdns) {
+        List<String> clusterHosts = MutableList.copyOf(getAttribute(CLUSTER_HOSTS));
+        clusterHosts.removeAll(fqdns);
+        sensors().set(CLUSTER_HOSTS, ImmutableList.copyOf(clusterHosts));
+
+        Map<String, List<String>> componentHosts = MutableMap.of();
+        for (Map.Entry<String, List<String>> entry : getComponentHosts().entrySet()) {
+            List<String> hosts = MutableList.copyOf(entry.getValue());
+            hosts.removeAll(fqdns);
+            componentHosts.put(entry.getKey(), ImmutableList.copyOf(hosts));
+        }
+        sensors().set(COMPONENT_HOSTS, componentHosts);
+    }
+
+    /**
+     * Adds the given hosts to {@link #COMPONENT_HOSTS} for the components of the blueprint host group they join, and
+     * sets these components on the agents.
+     */
+    private synchronized void addComponentHosts(String blueprintHostGroupName, List<AmbariAgent> ambariAgents, List<String> fqdns) {
+        Map<String, List<String>> hostGroupComponents = getAttribute(HOST_GROUP_COMPONENTS);
+        List<String> components = hostGroupComponents != null ? hostGroupComponents.get(blueprintHostGroupName) : null;
+        if (components == null) {
+            LOG.warn("{} does not know the components of host group {}, so {} are not added to {}",
+                    new Object[] {this, blueprintHostGroupName, fqdns, COMPONENT_HOSTS.getName()});
+            return;
+        }
+        for (AmbariAgent ambariAgent : ambariAgents) {
+            if (fqdns.contains(ambariAgent.getFqdn())) {
+                ambariAgent.setComponents(components);
+            }
+        }
+        Map<String, List<String>> componentHosts = MutableMap.copyOf(getComponentHosts());
+        for (String component : components) {
+            List<String> hosts = MutableList.copyOf(componentHosts.get(component));
+            for (String fqdn : fqdns) {
+                if (!hosts.contains(fqdn)) {
+                    hosts.add(fqdn);
+                }
+            }
+            componentHosts.put(component, ImmutableList.copyOf(hosts));
+        }
+        sensors().set(COMPONENT_HOSTS, componentHosts);
+    }
+
+    private Map<String, List<String>> getComponentHosts() {
+        Map<String, List<String>> componentHosts = getAttribute(COMPONENT_HOSTS);
+        return componentHosts != null ? componentHosts : ImmutableMap.<String, List<String>>of();
     }
 
     @Override
@@ -330,15 +587,14 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
         // Wait for the Ambari server to be up
         getMasterAmbariServer().waitForServiceUp();
 
-        final Map<String, List<String>> componentsByNodeName = new MutableMap<String, List<String>>();
-
         RecommendationWrapper recommendationWrapper = null;
 
         if (isHostGroupsDeployment) {
             LOG.info("{} getting the recommendation from AmbariHostGroup configuration", this);
             recommendationWrapper = getRecommendationWrapperFromAmbariHostGroups();
         } else {
-            LOG.info("{} getting the recommendation from Ambari for the services: {}", this, services);
+            LOG.info("{} getting the recommendation from {} for the services: {}",
+                    new Object[] {this, getConfig(LOCAL_LAYOUT) ? "the local layout engine" : "Ambari", services});
             recommendationWrapper = getRecommendationWrapperFromAmbariServer();
         }
 
@@ -347,22 +603,10 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
         checkNotNull(recommendationWrapper.getRecommendation().getBlueprint());
         checkNotNull(recommendationWrapper.getRecommendation().getBindings());
 
-        for (HostGroup hostGroup : recommendationWrapper.getRecommendation().getBlueprint().getHostGroups()) {
-            if (!componentsByNodeName.containsKey(hostGroup.getName())) {
-                componentsByNodeName.put(hostGroup.getName(), new MutableList<String>());
-            }
-            final List<HostComponent> hostComponents = MutableList.copyOf(hostGroup.getComponents());
-            for (HostComponent component : hostComponents) {
-                // ZKFC (ZooKeeper Failover Controller) is disabled if HA setup is not present
-                // ZKFC requires at least 2 NameNodes in a HA setup to operate and/or install correctly
-                if (StringUtils.equals(component.getName(), "ZKFC") && !isHaEnabled(getConfig(AMBARI_CONFIGURATIONS))) {
-                    hostGroup.getComponents().remove(component);
-                    continue;
-                }
-                componentsByNodeName.get(hostGroup.getName()).add(component.getName());
-            }
-        }
+        final Map<String, List<String>> componentsByNodeName = removeDisabledComponents(recommendationWrapper.getRecommendation().getBlueprint());
 
+        final ListMultimap<String, String> hostsByComponent = MultimapBuilder.treeKeys().arrayListValues().build();
+        final List<String> clusterHosts = MutableList.of();
         for (HostGroup hostGroup : recommendationWrapper.getRecommendation().getBindings().getHostGroups()) {
             AmbariAgent ambariAgent = null;
 
@@ -370,24 +614,41 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
                 final Map<String, String> host = hostGroup.getHosts().get(i);
                 final String fqdn = host.get("fqdn");
                 if (StringUtils.isNotBlank(fqdn)) {
+                    clusterHosts.add(fqdn);
                     final List<String> components = componentsByNodeName.get(hostGroup.getName());
                     ambariAgent = getAmbariAgentByFqdn(fqdn);
                     if (ambariAgent != null && components != null) {
                         ambariAgent.setComponents(components);
+                        for (String component : components) {
+                            hostsByComponent.put(component, fqdn);
+                        }
                     }
                 }
             }
         }
-
-        Map<String, Map> configuration = MutableMap.copyOf(getConfig(AMBARI_CONFIGURATIONS));
-
-        if (configuration.size() == 0) {
-            configuration.putAll(DEFAULT_CONFIG_MAP);
+        final Map<String, List<String>> componentHosts = MutableMap.of();
+        for (String component : hostsByComponent.keySet()) {
+            componentHosts.put(component, ImmutableList.copyOf(hostsByComponent.get(component)));
         }
-
-        for (ExtraService extraService : getExtraServices()) {
-            configuration = mergeMaps(configuration, extraService.getAmbariConfig(this));
+        sensors().set(COMPONENT_HOSTS, componentHosts);
+        final Map<String, List<String>> hostGroupComponents = MutableMap.of();
+        for (Map.Entry<String, List<String>> entry : componentsByNodeName.entrySet()) {
+            hostGroupComponents.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
         }
+        sensors().set(HOST_GROUP_COMPONENTS, hostGroupComponents);
+        if (!isHostGroupsDeployment) {
+            final StackServices stackServices = getMasterAmbariServer().getStackServices(getConfig(HADOOP_STACK_NAME), getConfig(HADOOP_STACK_VERSION));
+            final String scaleOutHostGroup = getScaleOutHostGroup(recommendationWrapper.getRecommendation(),
+                    new LayoutEngine(stackServices).getMasterComponents());
+            if (scaleOutHostGroup == null) {
+                LOG.warn("{} has no host group without master components, so no hosts can be added to it", this);
+            }
+            sensors().set(SCALE_OUT_HOST_GROUP, scaleOutHostGroup);
+            createRoleHostGroups(recommendationWrapper.getRecommendation().getBindings(), hostGroupComponents);
+        }
+        claimClusterHosts(clusterHosts);
+
+        Map<String, Map> configuration = getClusterConfiguration();
 
         LOG.info("{} calling pre-cluster-deploy on all Ambari nodes", this);
         try {
@@ -405,7 +666,8 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
 
         LOG.info("{} calling cluster-deploy", this);
         try {
-            Request request = getMasterAmbariServer().deployCluster(getConfig(AmbariCluster.CLUSTER_NAME), getConfig(AmbariCluster.BLUEPRINT_NAME), recommendationWrapper, configuration);
+            Request request = createCluster(recommendationWrapper, configuration);
+            LOG.info("{} cluster-deploy accepted as {}", this, request != null ? request.getHref() : null);
         } catch (AmbariApiException ex) {
             // If the cluster failed to deploy, we first put the server "ON FIRE" and throw again the exception for the
             // cluster to handle it properly.
@@ -414,6 +676,116 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
         }
     }
 
+    @Override
+    public synchronized void prepareBlueprint() {
+        if (blueprintPreparation != null || getAttribute(PREPARED_BLUEPRINT) != null
+                || Boolean.TRUE.equals(getAttribute(CLUSTER_SERVICES_INITIALISE_CALLED))) {
+            return;
+        }
+        LOG.info("{} registering blueprint {} ahead of the deployment", this, getConfig(BLUEPRINT_NAME));
+        blueprintPreparation = Entities.submit(this, Tasks.<PreparedBlueprint>builder()
+                .displayName("prepareBlueprint")
+                .description("Registers the blueprint of the cluster while its agents are starting")
+                .body(new Callable<PreparedBlueprint>() {
+                    @Override
+                    public PreparedBlueprint call() {
+                        final RecommendationWrapper recommendationWrapper = getRecommendationWrapperFromAmbariHostGroups();
+                        final Blueprint blueprint = recommendationWrapper.getRecommendation().getBlueprint();
+                        removeDisabledComponents(blueprint);
+                        final Map<String, Map> configuration = getClusterConfiguration();
+                        getMasterAmbariServer().createBlueprint(getConfig(BLUEPRINT_NAME), recommendationWrapper, configuration);
+                        final PreparedBlueprint preparedBlueprint = new PreparedBlueprint(getConfig(BLUEPRINT_NAME), blueprint.getHostGroups(), configuration);
+                        sensors().set(PREPARED_BLUEPRINT, preparedBlueprint);
+                        return preparedBlueprint;
+                    }
+                })
+                .build());
+    }
+
+    /**
+     * Creates the cluster, reusing the blueprint registered by {@link #prepareBlueprint()} if it is the one the
+     * recommendation needs, and registering the blueprint otherwise.
+     */
+    private Request createCluster(RecommendationWrapper recommendationWrapper, Map<String, Map> configuration) throws AmbariApiException {
+        final String clusterName = getConfig(AmbariCluster.CLUSTER_NAME);
+        final String blueprintName = getConfig(AmbariCluster.BLUEPRINT_NAME);
+        final PreparedBlueprint preparedBlueprint = getPreparedBlueprint();
+        if (preparedBlueprint != null) {
+            if (preparedBlueprint.matches(blueprintName, recommendationWrapper.getRecommendation().getBlueprint().getHostGroups(), configuration)) {
+                LOG.info("{} deploying the blueprint {} registered ahead of the deployment", this, blueprintName);
+                return getMasterAmbariServer().createClusterFromBlueprint(clusterName, blueprintName, recommendationWrapper);
+            }
+            LOG.info("{} replacing the blueprint {} registered ahead of the deployment, as it no longer matches the cluster", this, preparedBlueprint.getName());
+            getMasterAmbariServer().deleteBlueprint(preparedBlueprint.getName());
+        }
+        return getMasterAmbariServer().deployCluster(clusterName, blueprintName, recommendationWrapper, configuration);
+    }
+
+    /**
+     * Waits for the blueprint registered by {@link #prepareBlueprint()}, if any. After a rebind, it is the one
+     * registered before.
+     *
+     * @return the registered blueprint, or {@code null} if none was registered.
+     */
+    @Nullable
+    private PreparedBlueprint getPreparedBlueprint() {
+        final Task<PreparedBlueprint> preparation;
+        synchronized (this) {
+            preparation = blueprintPreparation;
+        }
+        if (preparation == null) {
+            return getAttribute(PREPARED_BLUEPRINT);
+        }
+        try {
+            return preparation.get();
+        } catch (InterruptedException ex) {
+            throw Exceptions.propagate(ex);
+        } catch (ExecutionException ex) {
+            // Typically an extra service whose configuration depends on the deployment; the blueprint is registered now
+            LOG.info("{} could not register the blueprint ahead of the deployment: {}", this, Exceptions.collapseText(ex));
+            return null;
+        }
+    }
+
+    /**
+     * Removes the components which cannot be deployed with the cluster configuration from the given blueprint.
+     *
+     * @return the names of the remaining components, by host group name.
+     */
+    private Map<String, List<String>> removeDisabledComponents(Blueprint blueprint) {
+        final Map<String, List<String>> componentsByNodeName = new MutableMap<String, List<String>>();
+        for (HostGroup hostGroup : blueprint.getHostGroups()) {
+            if (!componentsByNodeName.containsKey(hostGroup.getName())) {
+                componentsByNodeName.put(hostGroup.getName(), new MutableList<String>());
+            }
+            final List<HostComponent> hostComponents = MutableList.copyOf(hostGroup.getComponents());
+            for (HostComponent component : hostComponents) {
+                // ZKFC (ZooKeeper Failover Controller) is disabled if HA setup is not present
+                // ZKFC requires at least 2 NameNodes in a HA setup to operate and/or install correctly
+                if (StringUtils.equals(component.getName(), "ZKFC") && !isHaEnabled(getConfig(AMBARI_CONFIGURATIONS))) {
+                    hostGroup.getComponents().remove(component);
+                    continue;
+                }
+                componentsByNodeName.get(hostGroup.getName()).add(component.getName());
+            }
+        }
+
+        return componentsByNodeName;
+    }
+
+    private Map<String, Map> getClusterConfiguration() {
+        Map<String, Map> configuration = MutableMap.copyOf(getConfig(AMBARI_CONFIGURATIONS));
+
+        if (configuration.size() == 0) {
+            configuration.putAll(DEFAULT_CONFIG_MAP);
+        }
+
+        for (ExtraService extraService : getExtraServices()) {
+            configuration = mergeMaps(configuration, extraService.getAmbariConfig(this));
+        }
+        return configuration;
+    }
+
     @Override
     public void postDeployCluster() throws ExtraServiceException {
         // Set the flag to true so the post deployment won't happen multiple times
@@ -464,14 +836,14 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
             HostGroup.Builder hostGroupBuilder = new HostGroup.Builder()
                     .setName(ambariHostGroup.getDisplayName())
                     .addComponents(ambariHostGroup.getComponents());
-            if (componentsByNode.containsKey(ambariHostGroup.getDisplayName())) {
-                hostGroupBuilder.addComponents(componentsByNode.get(ambariHostGroup.getDisplayName()));
+            if (getComponentsByNode().containsKey(ambariHostGroup.getDisplayName())) {
+                hostGroupBuilder.addComponents(getComponentsByNode().get(ambariHostGroup.getDisplayName()));
             }
             blueprintBuilder.addHostGroup(hostGroupBuilder.build());
 
             bindingsBuilder.addHostGroup(new HostGroup.Builder()
                     .setName(ambariHostGroup.getDisplayName())
-                    .addHosts(ambariHostGroup.getHostFQDNs())
+                    .addHosts(getHostsToDeploy(ambariHostGroup.getHostFQDNs()))
                     .build());
         }
 
@@ -480,8 +852,8 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
             HostGroup.Builder hostGroupBuilder = new HostGroup.Builder()
                     .setName(getConfig(SERVER_HOST_GROUP))
                     .addComponents(serverComponentsList);
-            if (componentsByNode.containsKey(getConfig(SERVER_HOST_GROUP))) {
-                hostGroupBuilder.addComponents(componentsByNode.get(getConfig(SERVER_HOST_GROUP)));
+            if (getComponentsByNode().containsKey(getConfig(SERVER_HOST_GROUP))) {
+                hostGroupBuilder.addComponents(getComponentsByNode().get(getConfig(SERVER_HOST_GROUP)));
             }
             blueprintBuilder.addHostGroup(hostGroupBuilder.build());
             Iterable<AmbariServer> ambariServers = getAmbariServers();
@@ -529,14 +901,42 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
 
     private RecommendationWrapper getRecommendationWrapperFromAmbariServer() {
         final List<String> hosts = getMasterAmbariServer().getAttribute(AmbariServer.REGISTERED_HOSTS);
+        if (getConfig(LOCAL_LAYOUT)) {
+            final StackServices stackServices = getMasterAmbariServer().getStackServices(getConfig(HADOOP_STACK_NAME), getConfig(HADOOP_STACK_VERSION));
+            return new LayoutEngine(stackServices).layout(getConfig(HADOOP_STACK_NAME), getConfig(HADOOP_STACK_VERSION), hosts, services);
+        }
         final RecommendationWrappers recommendationWrappers = getMasterAmbariServer()
                 .getRecommendations(getConfig(HADOOP_STACK_NAME), getConfig(HADOOP_STACK_VERSION), hosts, services);
 
         return recommendationWrappers.getRecommendationWrappers().size() > 0
-                ? recommendationWrappers.getRecommendationWrappers().get(0)
+                ? HostGroupMerger.merge(recommendationWrappers.getRecommendationWrappers().get(0))
                 : null;
     }
 
+    /**
+     * @return the host group of the given recommendation with the most hosts among those without any of the given
+     * master components, or {@code null} if there is none.
+     */
+    @Nullable
+    static String getScaleOutHostGroup(Recommendation recommendation, Set<String> masterComponents) {
+        final Set<String> masterHostGroups = MutableSet.of();
+        for (HostGroup hostGroup : recommendation.getBlueprint().getHostGroups()) {
+            for (HostComponent component : hostGroup.getComponents()) {
+                if (masterComponents.contains(component.getName())) {
+                    masterHostGroups.add(hostGroup.getName());
+                }
+            }
+        }
+        HostGroup largest = null;
+        for (HostGroup hostGroup : recommendation.getBindings().getHostGroups()) {
+            if (!masterHostGroups.contains(hostGroup.getName())
+                    && (largest == null || hostGroup.getHosts().size() > largest.getHosts().size())) {
+                largest = hostGroup;
+            }
+        }
+        return largest != null ? largest.getName() : null;
+    }
+
     private Task<List<?>> createParallelTask(String taskName, final Function<ExtraService, ?> fn) {
         List<Task<?>> tasks = Lists.newArrayList();
         for (final ExtraService extraService : getExtraServices()) {
@@ -561,16 +961,18 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
         return Entities.descendants(this, ExtraService.class);
     }
 
+    @Override
     @Nullable
-    private AmbariAgent getAmbariAgentByFqdn(@Nonnull String fqdn) {
-        checkNotNull(fqdn);
+    public AmbariAgent getAmbariAgentByFqdn(@Nonnull String fqdn) {
+        return agentFqdnIndex.get(fqdn);
+    }
 
-        for (AmbariAgent ambariAgent : Entities.descendants(this, AmbariAgent.class)) {
-            if (StringUtils.equals(ambariAgent.getFqdn(), fqdn)) {
-                return ambariAgent;
-            }
-        }
-        return null;
+    /**
+     * @return the cache the Ambari repository resources are fetched through when {@link #PRE_PROVISION_REPOSITORY} is
+     * set, so that they are fetched once for all the nodes of the cluster.
+     */
+    RepositoryResourceCache getRepositoryResourceCache() {
+        return repositoryResourceCache;
     }
 
     private void calculateTotalAgents() {
@@ -589,12 +991,64 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
         }
 
         setAttribute(EXPECTED_AGENTS, agentsToExpect);
+        setAttribute(PENDING_AGENTS, agentsToExpect);
     }
 
     private Iterable<AmbariHostGroup> getHostGroups() {
         return Entities.descendants(this, AmbariHostGroup.class);
     }
 
+    /**
+     * Creates one {@link AmbariHostGroup} per host group of the given bindings of a services based deployment, so that
+     * each role can be resized on its own. As an entity cannot change parent, the agents bound to a host group stay
+     * children of the host group they were provisioned by, and become members of the one of their role.
+     */
+    void createRoleHostGroups(Bindings bindings, Map<String, List<String>> hostGroupComponents) {
+        for (HostGroup hostGroup : bindings.getHostGroups()) {
+            final AmbariHostGroup roleHostGroup = addChild(EntitySpec.create(AmbariHostGroup.class)
+                    .configure(AmbariHostGroup.INITIAL_SIZE, 0)
+                    .configure(AmbariHostGroup.HADOOP_COMPONENTS, hostGroupComponents.get(hostGroup.getName()))
+                    .displayName(hostGroup.getName()));
+            Entities.invokeEffector(this, roleHostGroup, Startable.START,
+                    ImmutableMap.of("locations", getLocations())).getUnchecked();
+
+            final List<AmbariAgent> ambariAgents = MutableList.of();
+            for (Map<String, String> host : hostGroup.getHosts()) {
+                final String fqdn = host.get("fqdn");
+                final AmbariAgent ambariAgent = StringUtils.isNotBlank(fqdn) ? getAmbariAgentByFqdn(fqdn) : null;
+                if (ambariAgent != null) {
+                    ambariAgents.add(ambariAgent);
+                }
+            }
+            addRoleHostGroupMembers(hostGroup.getName(), ambariAgents);
+        }
+    }
+
+    /**
+     * Adds the given agents, or the entity they share their server with, to the members of the host group of the given
+     * role. The agents of the Ambari servers are not, as resizing the host group must not stop them.
+     */
+    private void addRoleHostGroupMembers(String hostGroupName, List<AmbariAgent> ambariAgents) {
+        AmbariHostGroup roleHostGroup = null;
+        for (AmbariHostGroup hostGroup : Iterables.filter(getChildren(), AmbariHostGroup.class)) {
+            if (hostGroup.getDisplayName().equals(hostGroupName)) {
+                roleHostGroup = hostGroup;
+            }
+        }
+        if (roleHostGroup == null) {
+            return;
+        }
+        for (AmbariAgent ambariAgent : ambariAgents) {
+            Entity member = ambariAgent;
+            while (member.getParent() != null && !(member.getParent() instanceof AmbariHostGroup)) {
+                member = member.getParent();
+            }
+            if (member.getParent() != null && !member.getParent().equals(roleHostGroup)) {
+                roleHostGroup.addMember(member);
+            }
+        }
+    }
+
     private void createClusterTopology() {
         int totalHostGroup = getAttribute(EXPECTED_AGENTS);
         // getAttribute(EXPECTED_AGENTS) = number of agents defined + agent on server. As createClusterTopology()
@@ -604,10 +1058,12 @@ public class AmbariClusterImpl extends BasicStartableImpl implements AmbariClust
             totalHostGroup--;
         }
 
-        for (int i = 0; i < totalHostGroup; i++) {
+        // The roles of the nodes are only known once Ambari recommends them, so they are all provisioned by one host
+        // group, and the deployment then creates one host group per role
+        if (totalHostGroup > 0) {
             addChild(EntitySpec.create(AmbariHostGroup.class)
-                    .configure(AmbariHostGroup.INITIAL_SIZE, 1)
-                    .displayName(String.format("host-group-%d", (i + 1))));
+                    .configure(AmbariHostGroup.INITIAL_SIZE, totalHostGroup)
+                    .displayName("host-group"));
         }
     }
 
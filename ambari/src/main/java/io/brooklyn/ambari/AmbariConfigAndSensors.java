@@ -23,6 +23,7 @@ import org.apache.brooklyn.api.sensor.AttributeSensor;
 import org.apache.brooklyn.config.ConfigKey;
 import org.apache.brooklyn.core.config.ConfigKeys;
 import org.apache.brooklyn.core.entity.Attributes;
+import org.apache.brooklyn.core.sensor.Sensors;
 
 import com.google.common.reflect.TypeToken;
 
@@ -37,4 +38,25 @@ public class AmbariConfigAndSensors {
             new TypeToken<AttributeSensor<String>>() {},
             "entity.hostAddressSensor", "The sensor to use to obtain addresses for each machine's host file",
             Attributes.SUBNET_ADDRESS);
+
+    /**
+     * Sets how many machines have their /etc/hosts file updated at once.
+     */
+    public static final ConfigKey<Integer> ETC_HOSTS_MAX_CONCURRENCY = ConfigKeys.newIntegerConfigKey(
+            "entity.etcHosts.maxConcurrency", "The maximum number of machines whose host file is updated in parallel",
+            20);
+
+    /**
+     * Sets how machines' /etc/hosts file is updated.
+     */
+    public static final ConfigKey<EtcHostsStrategy> ETC_HOSTS_STRATEGY = ConfigKeys.newConfigKey(
+            EtcHostsStrategy.class,
+            "entity.etcHosts.strategy", "How each machine's host file is updated: APPEND, MANAGED_BLOCK or DNS",
+            EtcHostsStrategy.APPEND);
+
+    /**
+     * Records the version of the host mapping last applied to a machine's /etc/hosts file.
+     */
+    public static final AttributeSensor<String> ETC_HOSTS_VERSION = Sensors.newStringSensor(
+            "entity.etcHosts.version", "Version of the host mapping last applied to the machine's host file");
 }
@@ -20,13 +20,31 @@ package io.brooklyn.ambari;
 
 import static org.apache.brooklyn.util.ssh.BashCommands.*;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.api.location.OsDetails;
+import org.apache.brooklyn.core.entity.Entities;
 import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.collections.MutableList;
 import org.apache.brooklyn.util.ssh.BashCommands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
 
 
 public class AmbariInstallCommands {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AmbariInstallCommands.class);
+
     private static final String CENTOS_REPO_LIST_LOCATION = "/etc/yum.repos.d/ambari.repo";
     private static final String CENTOS_7_AMBARI_REPO_LOCATION = "%s/ambari/centos7/%s/updates/%s/ambari.repo";
     private static final String CENTOS_6_AMBARI_REPO_LOCATION = "%s/ambari/centos6/%s/updates/%s/ambari.repo";
@@ -39,58 +57,234 @@ public class AmbariInstallCommands {
     private static final String UBUNTU_14_AMBARI_REPO_LOCATION = "%s/ambari/ubuntu14/%s/updates/%s/ambari.list";
     private static final String UBUNTU_12_AMBARI_REPO_LOCATION = "%s/ambari/ubuntu12/%s/updates/%s/ambari.list";
 
+    private static final String INSTALLED_VERSION = "BROOKLYN_AMBARI_VERSION=";
+    private static final String INSTALLED_NTP = "BROOKLYN_AMBARI_NTP=true";
+    private static final String INSTALLED_REPO = "BROOKLYN_AMBARI_REPO=true";
+
     private String repoBaseUrl;
     private String version;
+    private String packageCacheUrl;
 
     public AmbariInstallCommands(String version, String repoBaseUrl) {
+        this(version, repoBaseUrl, null);
+    }
+
+    /**
+     * @param packageCacheUrl the url of the package cache serving the repository at {@code repoBaseUrl}, which the
+     *                        repository definitions are then pointed at. Can be {@code null}.
+     */
+    public AmbariInstallCommands(String version, String repoBaseUrl, @Nullable String packageCacheUrl) {
         this.version = version;
         this.repoBaseUrl = repoBaseUrl;
+        this.packageCacheUrl = packageCacheUrl;
     }
 
     public String installAmbariRequirements(SshMachineLocation machine) {
         return BashCommands.chainGroup(BashCommands.INSTALL_CURL,
                 installExecutable("ntp"),
-                BashCommands.alternatives(sudo("service ntpd start"),
-                        sudo("service ntp start")),
+                startNtp(),
                 createCommandToAddAmbariToRepositoriesList(machine));
     }
 
-    private String createCommandToAddAmbariToRepositoriesList(SshMachineLocation sshMachineLocation) {
-        return alternatives(setupAptRepo(sshMachineLocation), setupYumRepo(sshMachineLocation), setupZypperRepo());
+    /**
+     * Returns the commands probing, in one go, the installed version of the given package and whether ntp and the Ambari
+     * repository of this version are there. {@link #isInstalled(String)} tells from their output whether the install
+     * steps can be skipped, e.g. on images which were baked with Ambari already on them.
+     */
+    public List<String> checkInstalled(String packageName) {
+        return ImmutableList.of(
+                String.format("V=$(dpkg-query -W -f='${Status} ${Version}' %s 2>/dev/null | sed -n 's/^install ok installed //p')", packageName),
+                String.format("[ -n \"$V\" ] || V=$(rpm -q --queryformat '%%{VERSION}' %s 2>/dev/null) || V=\"\"", packageName),
+                "echo \"" + INSTALLED_VERSION + "$V\"",
+                "command -v ntpd > /dev/null 2>&1 && echo " + INSTALLED_NTP,
+                String.format("grep -qs 'updates/%s' %s %s %s && echo %s",
+                        version, UBUNTU_REPO_LIST_LOCATION, CENTOS_REPO_LIST_LOCATION, SUSE_REPO_LIST_LOCATION, INSTALLED_REPO),
+                "true");
     }
 
-    private String setupAptRepo(SshMachineLocation sshMachineLocation) {
-        final String osDetailsVersion = getOsVersion(sshMachineLocation);
+    /**
+     * @param checkOutput the output of the commands returned by {@link #checkInstalled(String)}.
+     * @return whether the package is installed at this version, along with ntp and the Ambari repository.
+     */
+    public boolean isInstalled(@Nullable String checkOutput) {
+        if (checkOutput == null) {
+            return false;
+        }
+        String installedVersion = null;
+        boolean ntp = false;
+        boolean repo = false;
+        for (String line : Splitter.on('\n').trimResults().split(checkOutput)) {
+            if (line.startsWith(INSTALLED_VERSION)) {
+                installedVersion = line.substring(INSTALLED_VERSION.length());
+            } else if (line.equals(INSTALLED_NTP)) {
+                ntp = true;
+            } else if (line.equals(INSTALLED_REPO)) {
+                repo = true;
+            }
+        }
+        // Packages carry the build number: 2.2.0.0-1310 in deb, 2.2.0.0 and release 1310 in rpm
+        boolean versionMatches = installedVersion != null
+                && (installedVersion.equals(version) || installedVersion.startsWith(version + "-"));
+        return versionMatches && ntp && repo;
+    }
 
-        String repoUrl;
-        if (osDetailsVersion.startsWith("14")) {
-            repoUrl = UBUNTU_14_AMBARI_REPO_LOCATION;
-        } else {
-            repoUrl = UBUNTU_12_AMBARI_REPO_LOCATION;
+    /**
+     * Returns the command running {@code installedCommands} if the given package is installed as per
+     * {@link #isInstalled(String)}, and {@code otherCommands} otherwise. Unlike {@link #checkInstalled(String)}, the
+     * machine decides, which saves a round-trip. The output of the check is echoed, so {@link #isInstalled(String)}
+     * still tells from the output which commands ran.
+     */
+    public String ifInstalled(String packageName, List<String> installedCommands, List<String> otherCommands) {
+        String check = "echo \"$BROOKLYN_AMBARI_CHECK\" | grep -qxE ";
+        return Joiner.on('\n').join(ImmutableList.<String>builder()
+                .add("BROOKLYN_AMBARI_CHECK=$(")
+                .addAll(checkInstalled(packageName))
+                .add(")")
+                .add("echo \"$BROOKLYN_AMBARI_CHECK\"")
+                // The same match as isInstalled
+                .add(String.format("if %s'%s%s(-.*)?' && %s'%s' && %s'%s'; then",
+                        check, INSTALLED_VERSION, version.replace(".", "\\."), check, INSTALLED_NTP, check, INSTALLED_REPO))
+                .addAll(installedCommands)
+                .add("else")
+                .addAll(otherCommands)
+                .add("fi")
+                .build());
+    }
+
+    /**
+     * @return the command starting ntp, which the install steps otherwise do.
+     */
+    public String startNtp() {
+        return alternatives(sudo("service ntpd start"), sudo("service ntp start"));
+    }
+
+    /**
+     * Returns the commands to install the Ambari requirements on a machine of the given cluster. When the cluster has
+     * {@link AmbariCluster#PRE_PROVISION_REPOSITORY} set, the repository definition and key are taken from the
+     * cluster's cache rather than downloaded by the machine.
+     */
+    public String installAmbariRequirements(SshMachineLocation machine, @Nullable AmbariCluster ambariCluster) {
+        if (ambariCluster != null && Boolean.TRUE.equals(ambariCluster.getConfig(AmbariCluster.PRE_PROVISION_REPOSITORY))) {
+            Entity cluster = Entities.deproxy(ambariCluster);
+            RepositoryResourceCache resources = cluster instanceof AmbariClusterImpl
+                    ? ((AmbariClusterImpl) cluster).getRepositoryResourceCache()
+                    : new RepositoryResourceCache();
+            Optional<String> commands = installPreProvisionedAmbariRequirements(machine, resources, ambariCluster.getConfig(AmbariCluster.APT_KEY_URL));
+            if (commands.isPresent()) {
+                return commands.get();
+            }
+            LOG.warn("Cannot tell the package manager of {}, it will download the Ambari repository itself", machine);
+        }
+        return installAmbariRequirements(machine);
+    }
+
+    /**
+     * Returns the commands to install the Ambari repository definition, and the repository key for apt, along with the
+     * other Ambari requirements. Unlike {@link #installAmbariRequirements(SshMachineLocation)}, the machine does not
+     * download them: they are taken from the given cache, so they are fetched once for all the machines sharing it,
+     * and carried by the commands themselves, so nothing is copied to a machine which ends up not running them.
+     *
+     * @param machine the machine to install the requirements on.
+     * @param resources the cache to take the repository definition and key from.
+     * @param aptKeyUrl the URL of the key the Ambari apt repository is signed with.
+     * @return the commands, or absent if the package manager of the machine cannot be told from its OS details.
+     */
+    public Optional<String> installPreProvisionedAmbariRequirements(SshMachineLocation machine, RepositoryResourceCache resources, String aptKeyUrl) {
+        PackageManager packageManager = getPackageManager(machine);
+        if (packageManager == null) {
+            return Optional.absent();
+        }
+
+        String repoDefinition = resources.get(getRepoUrl(packageManager, machine));
+        if (packageCacheUrl != null) {
+            repoDefinition = repoDefinition.replace(PackageCacheCommands.stripTrailingSlash(repoBaseUrl),
+                    PackageCacheCommands.stripTrailingSlash(packageCacheUrl));
         }
+        List<String> commands = MutableList.of(
+                BashCommands.INSTALL_CURL,
+                installExecutable("ntp"),
+                startNtp(),
+                sudo(String.format("sh -c \"%s > %s\"", decode(repoDefinition), packageManager.repoListLocation)));
+        if (packageManager == PackageManager.APT) {
+            commands.add(sudo(String.format("sh -c \"%s | apt-key add -\"", decode(resources.get(aptKeyUrl)))));
+            commands.add(sudo("apt-get update"));
+        }
+        return Optional.of(chainGroup(commands));
+    }
+
+    /**
+     * @return the command writing the given content to its standard output. It is base64 encoded so that no quoting
+     * is needed whatever the content.
+     */
+    private String decode(String content) {
+        return String.format("echo %s | base64 -d", BaseEncoding.base64().encode(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String createCommandToAddAmbariToRepositoriesList(SshMachineLocation sshMachineLocation) {
+        return alternatives(setupAptRepo(sshMachineLocation), setupYumRepo(sshMachineLocation), setupZypperRepo(sshMachineLocation));
+    }
 
-        return ifExecutableElse1("apt-get", chainGroup(sudo(commandToDownloadUrlAs(String.format(repoUrl, repoBaseUrl, getMajorVersion(), version), UBUNTU_REPO_LIST_LOCATION)),
+    private String setupAptRepo(SshMachineLocation sshMachineLocation) {
+        return ifExecutableElse1("apt-get", chainGroup(downloadRepoDefinition(PackageManager.APT, sshMachineLocation),
                 sudo("apt-key adv --recv-keys --keyserver keyserver.ubuntu.com B9733A7A07513CAD"),
                 sudo("apt-get update")));
     }
 
     private String setupYumRepo(SshMachineLocation sshMachineLocation) {
+        return ifExecutableElse1("yum", downloadRepoDefinition(PackageManager.YUM, sshMachineLocation));
+    }
+
+    private String setupZypperRepo(SshMachineLocation sshMachineLocation) {
+        return ifExecutableElse1("zypper", downloadRepoDefinition(PackageManager.ZYPPER, sshMachineLocation));
+    }
+
+    private String downloadRepoDefinition(PackageManager packageManager, SshMachineLocation sshMachineLocation) {
+        String download = sudo(commandToDownloadUrlAs(getRepoUrl(packageManager, sshMachineLocation), packageManager.repoListLocation));
+        if (packageCacheUrl == null) {
+            return download;
+        }
+        return chainGroup(download, PackageCacheCommands.useCache(packageManager.repoListLocation, repoBaseUrl, packageCacheUrl));
+    }
+
+    private String getRepoUrl(PackageManager packageManager, SshMachineLocation sshMachineLocation) {
         final String osDetailsVersion = getOsVersion(sshMachineLocation);
 
         String repoUrl;
-        if (osDetailsVersion.startsWith("7")) {
-            repoUrl = CENTOS_7_AMBARI_REPO_LOCATION;
-        } else if (osDetailsVersion.startsWith("6")) {
-            repoUrl = CENTOS_6_AMBARI_REPO_LOCATION;
-        } else {
-            repoUrl = CENTOS_5_AMBARI_REPO_LOCATION;
+        switch (packageManager) {
+            case APT:
+                if (osDetailsVersion.startsWith("14")) {
+                    repoUrl = UBUNTU_14_AMBARI_REPO_LOCATION;
+                } else {
+                    repoUrl = UBUNTU_12_AMBARI_REPO_LOCATION;
+                }
+                break;
+            case YUM:
+                if (osDetailsVersion.startsWith("7")) {
+                    repoUrl = CENTOS_7_AMBARI_REPO_LOCATION;
+                } else if (osDetailsVersion.startsWith("6")) {
+                    repoUrl = CENTOS_6_AMBARI_REPO_LOCATION;
+                } else {
+                    repoUrl = CENTOS_5_AMBARI_REPO_LOCATION;
+                }
+                break;
+            default:
+                repoUrl = SUSE_AMBARI_REPO_LOCATION;
         }
-
-        return ifExecutableElse1("yum", sudo(commandToDownloadUrlAs(String.format(repoUrl, repoBaseUrl, getMajorVersion(), version), CENTOS_REPO_LIST_LOCATION)));
+        return String.format(repoUrl, repoBaseUrl, getMajorVersion(), version);
     }
 
-    private String setupZypperRepo() {
-        return ifExecutableElse1("zypper", sudo(commandToDownloadUrlAs(String.format(SUSE_AMBARI_REPO_LOCATION, repoBaseUrl, getMajorVersion(), version), SUSE_REPO_LIST_LOCATION)));
+    @Nullable
+    private PackageManager getPackageManager(SshMachineLocation sshMachineLocation) {
+        OsDetails osDetails = sshMachineLocation != null ? sshMachineLocation.getOsDetails() : null;
+        String name = osDetails != null && osDetails.getName() != null ? osDetails.getName().toLowerCase() : "";
+        if (name.contains("ubuntu") || name.contains("debian")) {
+            return PackageManager.APT;
+        } else if (name.contains("centos") || name.contains("rhel") || name.contains("red hat")) {
+            return PackageManager.YUM;
+        } else if (name.contains("suse") || name.contains("sles")) {
+            return PackageManager.ZYPPER;
+        }
+        return null;
     }
 
     private String getOsVersion(SshMachineLocation sshMachineLocation) {
@@ -104,4 +298,16 @@ public class AmbariInstallCommands {
     private String getMajorVersion() {
         return version.charAt(0) + ".x";
     }
+
+    private enum PackageManager {
+        APT(UBUNTU_REPO_LIST_LOCATION),
+        YUM(CENTOS_REPO_LIST_LOCATION),
+        ZYPPER(SUSE_REPO_LIST_LOCATION);
+
+        private final String repoListLocation;
+
+        PackageManager(String repoListLocation) {
+            this.repoListLocation = repoListLocation;
+        }
+    }
 }
@@ -34,6 +34,12 @@ public interface AmbariNode extends SoftwareProcess, UsesJava {
             "entity.fqdn",
             "The fully qualified domain name of the entity.");
 
+    AttributeSensor<Boolean> INSTALL_SKIPPED = Sensors.newBooleanSensor(
+            "ambari.install.skipped",
+            "Whether the install phase was skipped, as the image already had the Ambari package, ntp and repository at the suggested version.");
+
+    AttributeSensor<String> ETC_HOSTS_VERSION = AmbariConfigAndSensors.ETC_HOSTS_VERSION;
+
     /**
      * Sets the fully qualified domain name for this entity.
      *
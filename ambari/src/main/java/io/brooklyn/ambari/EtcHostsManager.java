@@ -21,13 +21,26 @@ package io.brooklyn.ambari;
 
 import static org.apache.brooklyn.util.ssh.BashCommands.*;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.Nullable;
 
 import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.mgmt.Task;
 import org.apache.brooklyn.api.sensor.AttributeSensor;
 import org.apache.brooklyn.core.entity.Attributes;
+import org.apache.brooklyn.core.entity.Entities;
 import org.apache.brooklyn.core.location.Machines;
 import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.core.task.Tasks;
+import org.apache.brooklyn.util.exceptions.Exceptions;
 import org.apache.brooklyn.util.guava.Maybe;
 import org.apache.brooklyn.util.ssh.BashCommands;
 import org.apache.brooklyn.util.text.Identifiers;
@@ -36,13 +49,19 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 
 public class EtcHostsManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(EtcHostsManager.class);
 
+    static final String BLOCK_BEGIN = "# BEGIN brooklyn-ambari managed hosts";
+    static final String BLOCK_END = "# END brooklyn-ambari managed hosts";
+
     private EtcHostsManager() {
     }
 
@@ -56,61 +75,314 @@ public class EtcHostsManager {
     }
 
     public static void setHostsOnMachines(Iterable<? extends Entity> machines, AttributeSensor<String> addressSensor) {
-        Map<String, String> mapping = gatherIpHostnameMapping(machines, addressSensor);
+        setHostsOnMachines(machines, addressSensor, AmbariConfigAndSensors.ETC_HOSTS_MAX_CONCURRENCY.getDefaultValue());
+    }
+
+    public static void setHostsOnMachines(Iterable<? extends Entity> machines, AttributeSensor<String> addressSensor, int maxConcurrency) {
+        setHostsOnMachines(machines, addressSensor, maxConcurrency, AmbariConfigAndSensors.ETC_HOSTS_STRATEGY.getDefaultValue());
+    }
+
+    /**
+     * For each machine, set its own hostname correctly, and add the other entity's details to /etc/hosts. Machines
+     * are updated in parallel, as one task per machine, with at most {@code maxConcurrency} of them running at once.
+     * A machine that fails does not stop the others from being updated.
+     *
+     * @param machines       machines to have their hostname and /etc/hosts set
+     * @param addressSensor  the sensor containing the IP address for each machine
+     * @param maxConcurrency the maximum number of machines updated at once
+     * @param strategy       how /etc/hosts is updated on each machine
+     * @throws RuntimeException listing the failures once all the machines have been attempted, if any failed
+     */
+    public static void setHostsOnMachines(Iterable<? extends Entity> machines, AttributeSensor<String> addressSensor,
+            int maxConcurrency, EtcHostsStrategy strategy) {
+        setHostsOnMachines(machines, addressSensor, maxConcurrency, strategy, null);
+    }
+
+    /**
+     * As {@link #setHostsOnMachines(Iterable, AttributeSensor, int, EtcHostsStrategy)}, but only does the work each
+     * machine is missing. The version of the mapping applied to a machine is recorded in its
+     * {@link AmbariConfigAndSensors#ETC_HOSTS_VERSION} sensor:
+     * <ul>
+     *     <li>a machine already at the current version is skipped;</li>
+     *     <li>a machine at the version of {@code appliedMapping} only receives the entries added since, provided that
+     *     no entry of {@code appliedMapping} was changed or removed;</li>
+     *     <li>any other machine, typically a new one, receives the full mapping and has its hostname set.</li>
+     * </ul>
+     *
+     * @param appliedMapping the mapping previously applied to the machines, or {@code null} to apply the full mapping
+     *                       to every machine not already at the current version
+     * @return the mapping applied, to pass as {@code appliedMapping} next time
+     */
+    public static Map<String, String> setHostsOnMachines(Iterable<? extends Entity> machines, final AttributeSensor<String> addressSensor,
+            int maxConcurrency, final EtcHostsStrategy strategy, @Nullable Map<String, String> appliedMapping) {
+        Preconditions.checkArgument(maxConcurrency > 0, "Max concurrency must be positive, was %s", maxConcurrency);
+        Preconditions.checkNotNull(strategy, "Strategy must not be null");
+        Preconditions.checkArgument(strategy != EtcHostsStrategy.DNS, "Machines of the %s strategy are updated through their DNS responder", strategy);
+        final Map<String, String> mapping = gatherIpHostnameMapping(machines, addressSensor);
+        final String version = mappingVersion(mapping, strategy);
+        // Only a mapping that grew can be applied incrementally: changed or removed entries need the full mapping
+        final Map<String, String> addedEntries = appliedMapping != null ? addedEntries(appliedMapping, mapping) : null;
+        final String appliedVersion = addedEntries != null ? mappingVersion(appliedMapping, strategy) : null;
+        // Rendered once for all the machines, as it is the same for each of them
+        final String hostsBlock = strategy == EtcHostsStrategy.MANAGED_BLOCK ? renderHostsBlock(mapping) : null;
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        Map<Entity, Task<Void>> tasks = Maps.newLinkedHashMap();
 
-        for (Entity e : machines) {
-            Maybe<SshMachineLocation> sshLocation = Machines.findUniqueSshMachineLocation(e.getLocations());
+        for (final Entity e : machines) {
+            final Maybe<SshMachineLocation> sshLocation = Machines.findUniqueSshMachineLocation(e.getLocations());
 
             if (!sshLocation.isPresentAndNonNull()) {
                 LOG.debug("{} has no {}, not setting hostname or updating /etc/hosts", e, SshMachineLocation.class);
                 continue;
             }
+            final String machineVersion = e.getAttribute(AmbariConfigAndSensors.ETC_HOSTS_VERSION);
+            if (version.equals(machineVersion)) {
+                LOG.debug("{} already has host mapping {}, not updating /etc/hosts", e, version);
+                continue;
+            }
+
+            tasks.put(e, Entities.submit(e, Tasks.<Void>builder()
+                    .displayName("set hostname and fill /etc/hosts")
+                    .body(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            // Taken and given back by the task itself, so that a task which never runs holds no permit
+                            try {
+                                permits.acquire();
+                            } catch (InterruptedException ex) {
+                                throw Exceptions.propagate(ex);
+                            }
+                            try {
+                                boolean applied;
+                                if (appliedVersion != null && appliedVersion.equals(machineVersion)) {
+                                    applied = addHostsOnMachine(sshLocation.get(), addedEntries, strategy);
+                                } else if (strategy == EtcHostsStrategy.MANAGED_BLOCK) {
+                                    applied = setHostsBlockOnMachine(e, sshLocation.get(), mapping, hostsBlock, addressSensor);
+                                } else {
+                                    applied = setHostsOnMachine(e, sshLocation.get(), mapping, addressSensor);
+                                }
+                                if (applied) {
+                                    e.sensors().set(AmbariConfigAndSensors.ETC_HOSTS_VERSION, version);
+                                }
+                                return null;
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    })
+                    .build()));
+        }
+
+        List<Throwable> failures = Lists.newArrayList();
+        for (Map.Entry<Entity, Task<Void>> entry : tasks.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException ex) {
+                LOG.warn("Failed to set hostname and /etc/hosts on {}: {}", entry.getKey(), ex.getCause().toString());
+                failures.add(ex.getCause());
+            } catch (InterruptedException ex) {
+                throw Exceptions.propagate(ex);
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw Exceptions.create(String.format("Failed to set /etc/hosts on %d of %d machines", failures.size(), tasks.size()), failures);
+        }
+        return mapping;
+    }
 
-            SshMachineLocation loc = sshLocation.get();
-            ImmutableList.Builder<String> commands = ImmutableList.builder();
+    private static boolean setHostsOnMachine(Entity e, SshMachineLocation loc, Map<String, String> mapping, AttributeSensor<String> addressSensor) {
+        ImmutableList.Builder<String> commands = ImmutableList.builder();
 
-            // It would be great if we could use BashCommands.setHostname(), but it doesn't quite do what we need: it
-            // maps the hostname to 127.0.0.1. But this then means that e.g. "ping myhostname" pings 127.0.0.1, and that
-            // behaviour causes some processes to bind ports to 127.0.0.1 instead of 0.0.0.0. What we need instead is
-            // that the first line maps the hostname to its actual IP address. So we partly override the behaviour of
-            // this method later by pre-pending to /etc/hosts.
+        // It would be great if we could use BashCommands.setHostname(), but it doesn't quite do what we need: it
+        // maps the hostname to 127.0.0.1. But this then means that e.g. "ping myhostname" pings 127.0.0.1, and that
+        // behaviour causes some processes to bind ports to 127.0.0.1 instead of 0.0.0.0. What we need instead is
+        // that the first line maps the hostname to its actual IP address. So we partly override the behaviour of
+        // this method later by pre-pending to /etc/hosts.
 
-            // Find and set entity's own hostname
-            Maybe<String> ip = Machines.findSubnetOrPrivateIp(e);
-            String key = e.getAttribute(addressSensor);
-            if (ip.isAbsentOrNull()) {
-                LOG.debug("{} has no IP address, not setting hostname", e);
-                continue;
-            } else if (!mapping.containsKey(key)) {
-                LOG.debug("{} has no hostname mapping, not setting hostname", e);
-            } else {
-                commands.addAll(BashCommands.setHostname(mapping.get(key)));
+        // Find and set entity's own hostname
+        Maybe<String> ip = Machines.findSubnetOrPrivateIp(e);
+        String key = e.getAttribute(addressSensor);
+        if (ip.isAbsentOrNull()) {
+            LOG.debug("{} has no IP address, not setting hostname", e);
+            return false;
+        } else if (!mapping.containsKey(key)) {
+            LOG.debug("{} has no hostname mapping, not setting hostname", e);
+        } else {
+            commands.addAll(BashCommands.setHostname(mapping.get(key)));
+        }
+
+        // Add the other entity's details to /etc/hosts
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            boolean isMyOwnEntry = entry.getKey().equals(key);
+            String[] values = hostNames(entry.getValue());
+
+            if (isMyOwnEntry)
+                commands.add(prependToEtcHosts(ip.get(), values));
+            else
+                commands.add(appendToEtcHosts(entry.getKey(), values));
+        }
+
+        // Ensure that 127.0.0.1 maps to localhost, and nothing else
+        String bakFileExtension = "bak" + Identifiers.makeRandomId(4);
+        commands.add(
+                sudo("sed -i." + bakFileExtension + " -e \'s/127.0.0.1\\s.*/127.0.0.1 localhost/\' /etc/hosts"));
+
+        loc.execCommands("set hostname and fill /etc/hosts", commands.build());
+        return true;
+    }
+
+    /**
+     * Sets the machine's own hostname, then uploads the rendered hosts block and swaps it into /etc/hosts in place of
+     * the previous one, if any. The new file is written next to /etc/hosts and renamed over it, so that /etc/hosts is
+     * never seen half written.
+     */
+    private static boolean setHostsBlockOnMachine(Entity e, SshMachineLocation loc, Map<String, String> mapping, String hostsBlock,
+            AttributeSensor<String> addressSensor) {
+        ImmutableList.Builder<String> commands = ImmutableList.builder();
+
+        String key = e.getAttribute(addressSensor);
+        if (Machines.findSubnetOrPrivateIp(e).isAbsentOrNull()) {
+            LOG.debug("{} has no IP address, not setting hostname", e);
+            return false;
+        } else if (!mapping.containsKey(key)) {
+            LOG.debug("{} has no hostname mapping, not setting hostname", e);
+        } else {
+            commands.addAll(BashCommands.setHostname(mapping.get(key)));
+        }
+
+        String uploadedBlock = "/tmp/brooklyn-etc-hosts-" + Identifiers.makeRandomId(8);
+        loc.copyTo(new ByteArrayInputStream(hostsBlock.getBytes(StandardCharsets.UTF_8)), uploadedBlock);
+
+        // Drop the previous block and ensure that 127.0.0.1 maps to localhost, and nothing else. Setting the hostname
+        // comments out the previous 127.0.0.1 line, which is dropped too so that repeated runs leave the same file.
+        commands.add(sudo("sh -c \"sed"
+                + " -e '/^" + BLOCK_BEGIN + "$/,/^" + BLOCK_END + "$/d'"
+                + " -e '/^#127.0.0.1 localhost$/d'"
+                + " -e 's/^127.0.0.1\\s.*/127.0.0.1 localhost/'"
+                + " /etc/hosts | cat - " + uploadedBlock + " > /etc/hosts.brooklyn"
+                + " && chmod 644 /etc/hosts.brooklyn"
+                + " && mv -f /etc/hosts.brooklyn /etc/hosts\""));
+        commands.add("rm -f " + uploadedBlock);
+
+        loc.execCommands("set hostname and swap /etc/hosts block", commands.build());
+        return true;
+    }
+
+    /**
+     * Adds the given entries to a machine which already has the rest of the mapping. With a managed block, the entries
+     * are inserted at the end of the block, in place of its end marker.
+     */
+    private static boolean addHostsOnMachine(SshMachineLocation loc, Map<String, String> entries, EtcHostsStrategy strategy) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+        ImmutableList.Builder<String> commands = ImmutableList.builder();
+        if (strategy == EtcHostsStrategy.MANAGED_BLOCK) {
+            String uploadedEntries = "/tmp/brooklyn-etc-hosts-" + Identifiers.makeRandomId(8);
+            String blockEnd = renderHostsEntries(entries) + BLOCK_END + "\n";
+            loc.copyTo(new ByteArrayInputStream(blockEnd.getBytes(StandardCharsets.UTF_8)), uploadedEntries);
+            commands.add(sudo("sh -c \"sed -e '/^" + BLOCK_END + "$/d' /etc/hosts"
+                    + " | cat - " + uploadedEntries + " > /etc/hosts.brooklyn"
+                    + " && chmod 644 /etc/hosts.brooklyn"
+                    + " && mv -f /etc/hosts.brooklyn /etc/hosts\""));
+            commands.add("rm -f " + uploadedEntries);
+        } else {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                commands.add(appendToEtcHosts(entry.getKey(), hostNames(entry.getValue())));
             }
+        }
+        loc.execCommands("add new hosts to /etc/hosts", commands.build());
+        return true;
+    }
+
+    /**
+     * Updates the hosts the DNS responder of the {@link EtcHostsStrategy#DNS} strategy answers for: the mapping of the
+     * given machines is uploaded to the responder's machine as a single file, then reloaded. The responder is left
+     * untouched if it already has the current version of the mapping.
+     *
+     * @param responder     the entity whose machine runs the DNS responder
+     * @param machines      machines to be resolved by the responder
+     * @param addressSensor the sensor containing the IP address for each machine
+     * @return the mapping applied
+     */
+    public static Map<String, String> setHostsOnDnsResponder(Entity responder, Iterable<? extends Entity> machines, AttributeSensor<String> addressSensor) {
+        Map<String, String> mapping = gatherIpHostnameMapping(machines, addressSensor);
+        String version = mappingVersion(mapping, EtcHostsStrategy.DNS);
+        if (version.equals(responder.getAttribute(AmbariConfigAndSensors.ETC_HOSTS_VERSION))) {
+            LOG.debug("{} already has host mapping {}, not updating its DNS responder", responder, version);
+            return mapping;
+        }
+        Maybe<SshMachineLocation> sshLocation = Machines.findUniqueSshMachineLocation(responder.getLocations());
+        if (!sshLocation.isPresentAndNonNull()) {
+            throw new IllegalStateException(String.format("%s has no %s, cannot update its DNS responder", responder, SshMachineLocation.class.getSimpleName()));
+        }
+
+        String uploadedHosts = "/tmp/brooklyn-dns-hosts-" + Identifiers.makeRandomId(8);
+        sshLocation.get().copyTo(new ByteArrayInputStream(renderHostsEntries(mapping).getBytes(StandardCharsets.UTF_8)), uploadedHosts);
+        int exitCode = sshLocation.get().execCommands("update DNS responder hosts", HostsDnsCommands.reloadHosts(uploadedHosts));
+        if (exitCode != 0) {
+            throw new IllegalStateException(String.format("Failed to update the DNS responder hosts of %s, exit code %d", responder, exitCode));
+        }
+        responder.sensors().set(AmbariConfigAndSensors.ETC_HOSTS_VERSION, version);
+        return mapping;
+    }
 
-            // Add the other entity's details to /etc/hosts
-            for (Map.Entry<String, String> entry : mapping.entrySet()) {
-                boolean isMyOwnEntry = entry.getKey().equals(key);
-                String fqdn = entry.getValue();
-                if (fqdn.endsWith("."))
-                    fqdn = fqdn.substring(0, fqdn.length() - 1);
-                int dotAt = fqdn.indexOf('.');
-                String[] values = dotAt > 0
-                        ? new String[]{fqdn, fqdn.substring(0, dotAt)}
-                        : new String[]{fqdn};
-
-                if (isMyOwnEntry)
-                    commands.add(prependToEtcHosts(ip.get(), values));
-                else
-                    commands.add(appendToEtcHosts(entry.getKey(), values));
+    /**
+     * Renders the given mapping as /etc/hosts entries, one per IP address, between the managed block markers.
+     *
+     * @param mapping a map from IP address to fully-qualified domain name.
+     * @return the block of entries, ending with a new line.
+     */
+    static String renderHostsBlock(Map<String, String> mapping) {
+        return BLOCK_BEGIN + "\n" + renderHostsEntries(mapping) + BLOCK_END + "\n";
+    }
+
+    /**
+     * Renders the given mapping as /etc/hosts entries, one per IP address, ordered by address.
+     */
+    static String renderHostsEntries(Map<String, String> mapping) {
+        StringBuilder entries = new StringBuilder();
+        for (Map.Entry<String, String> entry : new TreeMap<>(mapping).entrySet()) {
+            entries.append(entry.getKey());
+            for (String hostName : hostNames(entry.getValue())) {
+                entries.append(' ').append(hostName);
             }
+            entries.append('\n');
+        }
+        return entries.toString();
+    }
 
-            // Ensure that 127.0.0.1 maps to localhost, and nothing else
-            String bakFileExtension = "bak" + Identifiers.makeRandomId(4);
-            commands.add(
-                    sudo("sed -i." + bakFileExtension + " -e \'s/127.0.0.1\\s.*/127.0.0.1 localhost/\' /etc/hosts"));
+    /**
+     * @return a digest identifying the given mapping, as applied with the given strategy.
+     */
+    static String mappingVersion(Map<String, String> mapping, EtcHostsStrategy strategy) {
+        return Hashing.sha1().hashString(strategy + "\n" + renderHostsEntries(mapping), StandardCharsets.UTF_8).toString();
+    }
 
-            loc.execCommands("set hostname and fill /etc/hosts", commands.build());
+    /**
+     * @return the entries of {@code mapping} for addresses not in {@code appliedMapping}, or {@code null} if an entry of
+     * {@code appliedMapping} was removed or maps to a different name in {@code mapping}.
+     */
+    @Nullable
+    private static Map<String, String> addedEntries(Map<String, String> appliedMapping, Map<String, String> mapping) {
+        for (Map.Entry<String, String> entry : appliedMapping.entrySet()) {
+            if (!entry.getValue().equals(mapping.get(entry.getKey()))) {
+                return null;
+            }
         }
+        return Maps.newHashMap(Maps.difference(mapping, appliedMapping).entriesOnlyOnLeft());
+    }
+
+    /**
+     * @return the fully-qualified domain name, without trailing dot, followed by its short name if it has one.
+     */
+    private static String[] hostNames(String fqdn) {
+        if (fqdn.endsWith("."))
+            fqdn = fqdn.substring(0, fqdn.length() - 1);
+        int dotAt = fqdn.indexOf('.');
+        return dotAt > 0
+                ? new String[]{fqdn, fqdn.substring(0, dotAt)}
+                : new String[]{fqdn};
     }
 
     public static Map<String, String> gatherIpHostnameMapping(Iterable<? extends Entity> entities) {
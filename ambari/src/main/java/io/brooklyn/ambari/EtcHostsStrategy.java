@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+/**
+ * How the hostname to IP address mapping of the Ambari nodes is made available to each machine.
+ */
+public enum EtcHostsStrategy {
+
+    /**
+     * Appends one /etc/hosts entry per node with its own command. Running it again appends the entries again.
+     */
+    APPEND,
+
+    /**
+     * Renders all the entries once, uploads them to each machine as a single file and swaps them into /etc/hosts
+     * between marker lines. Running it again replaces the previous entries.
+     */
+    MANAGED_BLOCK,
+
+    /**
+     * Runs a DNS responder on the Ambari server host, answering for all the nodes, and points each node's resolver at
+     * it when the node is installed. Updating the mapping only touches the Ambari server host.
+     *
+     * @see HostsDnsCommands
+     */
+    DNS
+}
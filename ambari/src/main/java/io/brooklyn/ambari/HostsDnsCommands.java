@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.apache.brooklyn.util.ssh.BashCommands.alternatives;
+import static org.apache.brooklyn.util.ssh.BashCommands.installPackage;
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Commands for the {@link EtcHostsStrategy#DNS} strategy: dnsmasq runs on the Ambari server host and answers for the
+ * cluster hosts from a hosts file, forwarding any other query to the host's original name servers. Each node points
+ * its resolver at it once, so the mapping then only needs updating in one place.
+ */
+public class HostsDnsCommands {
+
+    public static final String CONFIG_DIR = "/etc/brooklyn-ambari";
+    public static final String HOSTS_FILE = CONFIG_DIR + "/hosts";
+    public static final String UPSTREAM_RESOLV_FILE = CONFIG_DIR + "/resolv.upstream";
+    public static final String DNSMASQ_CONFIG_FILE = "/etc/dnsmasq.d/brooklyn-ambari.conf";
+    public static final int DNS_PORT = 53;
+
+    private HostsDnsCommands() {
+    }
+
+    /**
+     * @return the dnsmasq configuration answering on the given addresses from {@code hostsFile}.
+     */
+    public static List<String> responderConfig(String listenAddresses, int port, String hostsFile, String upstreamResolvFile) {
+        return ImmutableList.of(
+                "port=" + port,
+                "bind-interfaces",
+                "listen-address=" + listenAddresses,
+                "no-hosts",
+                "addn-hosts=" + hostsFile,
+                "resolv-file=" + upstreamResolvFile);
+    }
+
+    /**
+     * Installs and starts dnsmasq, answering on the given address and on the loopback address, and points the host's
+     * own resolver at it. The host's original name servers are kept, the first time, as the upstream ones.
+     */
+    public static List<String> installResponder(String listenAddress) {
+        StringBuilder config = new StringBuilder();
+        for (String line : responderConfig(listenAddress + ",127.0.0.1", DNS_PORT, HOSTS_FILE, UPSTREAM_RESOLV_FILE)) {
+            config.append(" '").append(line).append("'");
+        }
+        return ImmutableList.<String>builder()
+                .add(installPackage("dnsmasq"))
+                .add(sudo("mkdir -p " + CONFIG_DIR + " /etc/dnsmasq.d"))
+                .add(sudo("touch " + HOSTS_FILE))
+                .add(sudo("sh -c \"test -e " + UPSTREAM_RESOLV_FILE
+                        + " || grep -v '^nameserver 127.0.0.1$' /etc/resolv.conf > " + UPSTREAM_RESOLV_FILE + " || true\""))
+                .add(sudo("sh -c \"printf '%s\\n'" + config + " > " + DNSMASQ_CONFIG_FILE + "\""))
+                .add(sudo("sh -c \"grep -q '^conf-dir=/etc/dnsmasq.d' /etc/dnsmasq.conf"
+                        + " || echo 'conf-dir=/etc/dnsmasq.d' >> /etc/dnsmasq.conf\""))
+                .add(alternatives(sudo("systemctl restart dnsmasq"), sudo("service dnsmasq restart")))
+                .addAll(useResponder("127.0.0.1"))
+                .build();
+    }
+
+    /**
+     * Replaces the hosts the responder answers for with the given uploaded file, and has dnsmasq reload it.
+     */
+    public static List<String> reloadHosts(String uploadedHostsFile) {
+        return ImmutableList.of(
+                sudo("cp " + uploadedHostsFile + " " + HOSTS_FILE + ".new"),
+                sudo("chmod 644 " + HOSTS_FILE + ".new"),
+                sudo("mv -f " + HOSTS_FILE + ".new " + HOSTS_FILE),
+                sudo("pkill -HUP -x dnsmasq"),
+                "rm -f " + uploadedHostsFile);
+    }
+
+    /**
+     * Makes the given responder the first name server of the host, through the resolver configuration of the
+     * distribution so that it survives the regeneration of {@code /etc/resolv.conf}: the resolvconf {@code head} file
+     * where resolvconf manages it, and a dhclient {@code prepend domain-name-servers} otherwise. As dhclient only applies
+     * it at the next lease, the current {@code /etc/resolv.conf} is updated the same way in the latter case. The host's
+     * own hostname is then resolved through the responder too, rather than to 127.0.0.1 as set by
+     * {@code BashCommands.setHostname}.
+     */
+    public static List<String> useResponder(String responderAddress) {
+        return useResponder(responderAddress, "/etc");
+    }
+
+    /**
+     * As {@link #useResponder(String)}, for the configuration under {@code etcDir} rather than {@code /etc}.
+     */
+    static List<String> useResponder(String responderAddress, String etcDir) {
+        String nameserver = "nameserver " + responderAddress;
+        String prepend = "prepend domain-name-servers " + responderAddress + ";";
+        String resolvconfDir = etcDir + "/resolvconf/resolv.conf.d";
+        String dhclientConf = etcDir + "/dhcp/dhclient.conf";
+        return ImmutableList.of(
+                sudo("sh -c \"if test -d " + resolvconfDir + " && command -v resolvconf > /dev/null; then "
+                        + prependLine(nameserver, resolvconfDir + "/head") + " && resolvconf -u;"
+                        + " else mkdir -p " + etcDir + "/dhcp"
+                        + " && { grep -qxF '" + prepend + "' " + dhclientConf + " 2> /dev/null || echo '" + prepend + "' >> " + dhclientConf + "; }"
+                        + " && " + prependLine(nameserver, etcDir + "/resolv.conf") + "; fi\""),
+                sudo("sed -i -e 's/^127.0.0.1\\s.*/127.0.0.1 localhost/' " + etcDir + "/hosts"));
+    }
+
+    /**
+     * @return a command making {@code line} the first line of {@code file}, in place so that a symbolic link is kept.
+     */
+    private static String prependLine(String line, String file) {
+        return "{ echo '" + line + "'; grep -vxF '" + line + "' " + file + " 2> /dev/null || true; } > " + file + ".brooklyn"
+                + " && cat " + file + ".brooklyn > " + file
+                + " && rm -f " + file + ".brooklyn";
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.util.collections.MutableList;
+import org.apache.brooklyn.util.collections.MutableMap;
+import org.apache.brooklyn.util.collections.MutableSet;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+
+import io.brooklyn.ambari.rest.domain.Bindings;
+import io.brooklyn.ambari.rest.domain.Blueprint;
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.rest.domain.Recommendation;
+import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
+import io.brooklyn.ambari.rest.domain.Stack;
+import io.brooklyn.ambari.rest.domain.StackService;
+import io.brooklyn.ambari.rest.domain.StackServices;
+
+/**
+ * Lays the components of the given services out on the given hosts locally, from the category and cardinality of each
+ * component in the stack, rather than asking the Ambari stack advisor:
+ * <ul>
+ *     <li>masters are put on as few hosts as their cardinality allows, spread across the first
+ *     {@value #MASTER_HOSTS} hosts;</li>
+ *     <li>slaves are put on every host without masters, or on every host if they all have masters. Optional slaves,
+ *     such as {@code JOURNALNODE}, are left out;</li>
+ *     <li>clients, and components whose cardinality is {@code ALL}, are put on every host.</li>
+ * </ul>
+ * Hosts with the same components form one host group. Unlike the stack advisor, the engine ignores the hosts'
+ * hardware and any component specific placement rules of the stack.
+ */
+public class LayoutEngine {
+
+    public static final String STACK_SERVICES_FIELDS = "StackServices/service_name,"
+            + "components/StackServiceComponents/component_name,"
+            + "components/StackServiceComponents/component_category,"
+            + "components/StackServiceComponents/cardinality";
+
+    /**
+     * Number of hosts the masters are spread across, unless a master needs more.
+     */
+    public static final int MASTER_HOSTS = 3;
+
+    private static final String MASTER = "MASTER";
+    private static final String SLAVE = "SLAVE";
+
+    private final Map<String, List<StackService.StackServiceComponentInfo>> componentsByService = MutableMap.of();
+
+    /**
+     * @param stackServices the services of the stack, with at least the {@link #STACK_SERVICES_FIELDS}.
+     */
+    public LayoutEngine(StackServices stackServices) {
+        checkNotNull(stackServices, "stackServices");
+        for (StackService stackService : stackServices.getStackServices()) {
+            if (stackService.getServiceInfo() == null || stackService.getServiceInfo().getService() == null) {
+                continue;
+            }
+            List<StackService.StackServiceComponentInfo> components = MutableList.of();
+            for (StackService.StackServiceComponent component : stackService.getComponents()) {
+                if (component.getComponentInfo() != null && component.getComponentInfo().getComponent() != null) {
+                    components.add(component.getComponentInfo());
+                }
+            }
+            componentsByService.put(stackService.getServiceInfo().getService(), components);
+        }
+    }
+
+    /**
+     * @return the names of the master components of the stack.
+     */
+    public Set<String> getMasterComponents() {
+        final Set<String> masterComponents = MutableSet.of();
+        for (List<StackService.StackServiceComponentInfo> components : componentsByService.values()) {
+            for (StackService.StackServiceComponentInfo component : components) {
+                if (MASTER.equals(component.getCategory())) {
+                    masterComponents.add(component.getComponent());
+                }
+            }
+        }
+        return masterComponents;
+    }
+
+    /**
+     * @return the layout of the given services on the given hosts, as a stack advisor recommendation.
+     * @throws IllegalArgumentException if there are no hosts, or if a service is not in the stack.
+     */
+    public RecommendationWrapper layout(String stackName, String stackVersion, List<String> hosts, List<String> services) {
+        checkArgument(!hosts.isEmpty(), "No hosts to lay the services out on");
+        final Map<String, Set<String>> componentsByHost = MutableMap.of();
+        for (String host : hosts) {
+            componentsByHost.put(host, MutableSet.<String>of());
+        }
+
+        final List<StackService.StackServiceComponentInfo> components = MutableList.of();
+        for (String service : services) {
+            checkArgument(componentsByService.containsKey(service), "Service %s is not in stack %s-%s", service, stackName, stackVersion);
+            components.addAll(componentsByService.get(service));
+        }
+
+        final int masterHosts = Math.min(hosts.size(), MASTER_HOSTS);
+        int next = 0;
+        for (StackService.StackServiceComponentInfo component : components) {
+            Cardinality cardinality = Cardinality.parse(component.getCardinality());
+            if (MASTER.equals(component.getCategory()) && !cardinality.isAll()) {
+                // Like Ambari, a master which can have any number of instances, e.g. ZooKeeper, gets one per master host
+                int count = Math.min(hosts.size(), cardinality.getMax() == Integer.MAX_VALUE
+                        ? Math.max(masterHosts, cardinality.getMin())
+                        : Math.max(1, cardinality.getMin()));
+                int spread = Math.max(masterHosts, count);
+                for (int i = 0; i < count; i++) {
+                    componentsByHost.get(hosts.get((next + i) % spread)).add(component.getComponent());
+                }
+                next = (next + count) % masterHosts;
+            }
+        }
+
+        final List<String> workerHosts = MutableList.of();
+        for (String host : hosts) {
+            if (componentsByHost.get(host).isEmpty()) {
+                workerHosts.add(host);
+            }
+        }
+        for (StackService.StackServiceComponentInfo component : components) {
+            Cardinality cardinality = Cardinality.parse(component.getCardinality());
+            List<String> componentHosts;
+            if (cardinality.isAll() || !(MASTER.equals(component.getCategory()) || SLAVE.equals(component.getCategory()))) {
+                componentHosts = hosts;
+            } else if (SLAVE.equals(component.getCategory()) && cardinality.getMin() > 0) {
+                List<String> candidates = workerHosts.size() >= cardinality.getMin() ? workerHosts : hosts;
+                componentHosts = candidates.subList(0, Math.min(candidates.size(), cardinality.getMax()));
+            } else {
+                continue;
+            }
+            for (String host : componentHosts) {
+                componentsByHost.get(host).add(component.getComponent());
+            }
+        }
+
+        final ListMultimap<Set<String>, String> hostsByComponents = MultimapBuilder.linkedHashKeys().arrayListValues().build();
+        for (Map.Entry<String, Set<String>> entry : componentsByHost.entrySet()) {
+            hostsByComponents.put(entry.getValue(), entry.getKey());
+        }
+        final Blueprint.Builder blueprintBuilder = new Blueprint.Builder();
+        final Bindings.Builder bindingsBuilder = new Bindings.Builder();
+        int hostGroup = 0;
+        for (Set<String> hostGroupComponents : hostsByComponents.keySet()) {
+            String name = String.format("host-group-%d", ++hostGroup);
+            List<String> hostGroupHosts = hostsByComponents.get(hostGroupComponents);
+            blueprintBuilder.addHostGroup(new HostGroup.Builder()
+                    .setName(name)
+                    .addComponents(ImmutableList.copyOf(hostGroupComponents))
+                    .setCardinality(hostGroupHosts.size())
+                    .build());
+            bindingsBuilder.addHostGroup(new HostGroup.Builder()
+                    .setName(name)
+                    .addHosts(hostGroupHosts)
+                    .build());
+        }
+
+        return new RecommendationWrapper.Builder()
+                .setStack(new Stack.Builder()
+                        .setName(stackName)
+                        .setVersion(stackVersion)
+                        .build())
+                .setRecommendation(new Recommendation.Builder()
+                        .setBlueprint(blueprintBuilder.build())
+                        .setBindings(bindingsBuilder.build())
+                        .build())
+                .build();
+    }
+
+    /**
+     * How many hosts a component can be on, as given by its stack: {@code 1}, {@code 1-2}, {@code 1+}, {@code 0+} or
+     * {@code ALL}.
+     */
+    public static class Cardinality {
+
+        private final int min;
+        private final int max;
+        private final boolean all;
+
+        private Cardinality(int min, int max, boolean all) {
+            this.min = min;
+            this.max = max;
+            this.all = all;
+        }
+
+        /**
+         * @return the cardinality, any number of hosts if none is given.
+         * @throws IllegalArgumentException if the cardinality cannot be parsed.
+         */
+        public static Cardinality parse(@Nullable String cardinality) {
+            String value = StringUtils.trimToEmpty(cardinality);
+            try {
+                if (value.isEmpty()) {
+                    return new Cardinality(0, Integer.MAX_VALUE, false);
+                } else if (value.equalsIgnoreCase("ALL")) {
+                    return new Cardinality(0, Integer.MAX_VALUE, true);
+                } else if (value.endsWith("+")) {
+                    return new Cardinality(Integer.parseInt(value.substring(0, value.length() - 1)), Integer.MAX_VALUE, false);
+                } else if (value.contains("-")) {
+                    return new Cardinality(Integer.parseInt(StringUtils.substringBefore(value, "-")),
+                            Integer.parseInt(StringUtils.substringAfter(value, "-")), false);
+                }
+                int count = Integer.parseInt(value);
+                return new Cardinality(count, count, false);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cardinality " + cardinality, e);
+            }
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        /**
+         * @return whether the component goes on every host.
+         */
+        public boolean isAll() {
+            return all;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+
+import java.util.List;
+
+import org.apache.brooklyn.util.ssh.BashCommands;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Commands for the package cache: a small caching proxy, run on the Ambari server host, which serves the Ambari
+ * package repository to the other nodes. Packages are downloaded from the upstream repository once for the whole
+ * cluster; repository metadata is passed through. The nodes' repository definitions are rewritten to point at it.
+ * <p/>
+ * The proxy only listens on the address the nodes reach the server at, and runs as {@value #USER} once it has bound
+ * its port.
+ */
+public class PackageCacheCommands {
+
+    public static final String SCRIPT_URL = "classpath://io/brooklyn/ambari/server/package-cache.py";
+    public static final String INSTALL_DIR = "/opt/brooklyn-ambari";
+    public static final String SCRIPT_FILE = INSTALL_DIR + "/package-cache.py";
+    public static final String PID_FILE = INSTALL_DIR + "/package-cache.pid";
+    public static final String CACHE_DIR = "/var/cache/brooklyn-ambari/packages";
+    public static final String LOG_FILE = "/var/log/brooklyn-ambari-package-cache.log";
+    public static final String USER = "nobody";
+    /**
+     * The path the proxy answers on itself, without reaching the upstream repository.
+     */
+    public static final String STATUS_PATH = "/.package-cache/status";
+
+    private PackageCacheCommands() {
+    }
+
+    /**
+     * Installs the cache script copied to {@code uploadedScript}, (re)starts it on the given address and port in front
+     * of the given upstream repository and waits for it to answer.
+     */
+    public static List<String> startCache(String uploadedScript, String address, int port, String upstreamBaseUrl) {
+        return ImmutableList.<String>builder()
+                .add(BashCommands.INSTALL_CURL)
+                .add(sudo("mkdir -p " + INSTALL_DIR + " " + CACHE_DIR))
+                .add(sudo("chown -R " + USER + " " + CACHE_DIR))
+                .add(sudo(String.format("mv -f %s %s", uploadedScript, SCRIPT_FILE)))
+                .add(stopCache())
+                .add(sudo(String.format("sh -c \"nohup \\$(command -v python || command -v python3 || command -v python2) %s %d '%s' %s %s %s >> %s 2>&1 < /dev/null & echo \\$! > %s\"",
+                        SCRIPT_FILE, port, upstreamBaseUrl, CACHE_DIR, address, USER, LOG_FILE, PID_FILE)))
+                .add(String.format("for i in $(seq 1 30); do curl -sf -o /dev/null http://%s:%d%s && break; sleep 1; done", address, port, STATUS_PATH))
+                .add(String.format("curl -sf -o /dev/null http://%s:%d%s", address, port, STATUS_PATH))
+                .build();
+    }
+
+    /**
+     * @return the command stopping the cache, if it runs.
+     */
+    public static String stopCache() {
+        return sudo(String.format("sh -c \"test -f %s && kill \\$(cat %s) 2>/dev/null; rm -f %s; true\"", PID_FILE, PID_FILE, PID_FILE));
+    }
+
+    /**
+     * @return the command pointing the repository definition at {@code file} to the cache instead of the upstream repository.
+     */
+    public static String useCache(String file, String upstreamBaseUrl, String cacheUrl) {
+        return sudo(String.format("sed -i 's|%s|%s|g' %s", stripTrailingSlash(upstreamBaseUrl), stripTrailingSlash(cacheUrl), file));
+    }
+
+    static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
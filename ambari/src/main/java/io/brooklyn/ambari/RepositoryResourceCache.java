@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.apache.brooklyn.util.core.ResourceUtils;
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Fetches the repository resources needed to install Ambari, i.e. repository definitions and keys, once on the
+ * Brooklyn side for a whole cluster. Concurrent lookups of the same URL wait for a single fetch, and failed fetches
+ * are not cached so that the next lookup tries again.
+ */
+public class RepositoryResourceCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryResourceCache.class);
+
+    private final LoadingCache<String, String> resources;
+
+    public RepositoryResourceCache() {
+        this(new Function<String, String>() {
+            @Override
+            public String apply(String url) {
+                return ResourceUtils.create(RepositoryResourceCache.class).getResourceAsString(url);
+            }
+        });
+    }
+
+    public RepositoryResourceCache(final Function<String, String> fetcher) {
+        checkNotNull(fetcher, "fetcher");
+        resources = CacheBuilder.newBuilder().build(new CacheLoader<String, String>() {
+            @Override
+            public String load(String url) {
+                LOG.debug("Fetching repository resource {}", url);
+                return checkNotNull(fetcher.apply(url), "No content at %s", url);
+            }
+        });
+    }
+
+    /**
+     * @return the content at the given URL, fetched on the first lookup.
+     * @throws RuntimeException if the content cannot be fetched.
+     */
+    public String get(String url) {
+        try {
+            return resources.getUnchecked(url);
+        } catch (RuntimeException e) {
+            throw Exceptions.propagate(e.getCause() != null ? e.getCause() : e);
+        }
+    }
+}
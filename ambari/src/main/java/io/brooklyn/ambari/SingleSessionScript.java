@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.entity.software.base.lifecycle.ScriptHelper;
+import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.apache.brooklyn.util.ssh.BashCommands;
+import org.apache.brooklyn.util.text.Identifiers;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Gathers the lifecycle phases of a node into one script, and the files they need into one archive, so that the whole
+ * of install, customize and launch takes two ssh sessions: one uploading the archive and one running the script. The
+ * script echoes a marker as it enters each phase, which tells which phase failed.
+ */
+public class SingleSessionScript {
+
+    public static final String PHASE_MARKER = "BROOKLYN_AMBARI_PHASE=";
+
+    private final String archivePath;
+    private final String filesDir;
+    private final Map<String, byte[]> files = Maps.newLinkedHashMap();
+    private final List<String> commands = Lists.newArrayList();
+
+    public SingleSessionScript() {
+        String id = Identifiers.makeRandomId(8);
+        this.archivePath = "/tmp/brooklyn-ambari-files-" + id + ".zip";
+        this.filesDir = "/tmp/brooklyn-ambari-files-" + id;
+    }
+
+    /**
+     * Adds a file to the archive uploaded ahead of the script.
+     *
+     * @return the path of the file on the machine, while the script runs.
+     */
+    public String addFile(String name, byte[] content) {
+        checkArgument(!files.containsKey(name), "File %s already added", name);
+        files.put(name, content);
+        return filesDir + "/" + name;
+    }
+
+    /**
+     * Adds a phase running the given commands, after the phases already added.
+     */
+    public SingleSessionScript addPhase(String phase, List<String> phaseCommands) {
+        commands.add(String.format("echo '%s%s'", PHASE_MARKER, phase));
+        commands.addAll(phaseCommands);
+        return this;
+    }
+
+    /**
+     * @return the commands of the script: extracting the archive, the phases in order, then removing the files.
+     */
+    public List<String> getCommands() {
+        if (files.isEmpty()) {
+            return ImmutableList.copyOf(commands);
+        }
+        return ImmutableList.<String>builder()
+                .add(BashCommands.INSTALL_UNZIP)
+                .add(String.format("unzip -o -q %s -d %s", archivePath, filesDir))
+                .add("rm -f " + archivePath)
+                .addAll(commands)
+                .add(sudo("rm -rf " + filesDir))
+                .build();
+    }
+
+    String getArchivePath() {
+        return archivePath;
+    }
+
+    /**
+     * @return the files added, zipped.
+     */
+    public byte[] getArchive() {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                zip.putNextEntry(new ZipEntry(file.getKey()));
+                zip.write(file.getValue());
+                zip.closeEntry();
+            }
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+        return archive.toByteArray();
+    }
+
+    /**
+     * Uploads the archive, if any file was added, then runs the phases with the given script.
+     *
+     * @return the output of the script.
+     * @throws IllegalStateException if the script fails, naming the phase it failed in.
+     */
+    public String run(SshMachineLocation machine, ScriptHelper script) {
+        if (!files.isEmpty()) {
+            int result = machine.copyTo(new ByteArrayInputStream(getArchive()), archivePath);
+            if (result != 0) {
+                throw new IllegalStateException(String.format("Failed to copy %s to %s: exit code %d", archivePath, machine, result));
+            }
+        }
+        int result = script.body.append(getCommands()).gatherOutput().execute();
+        String output = script.getResultStdout();
+        if (result != 0) {
+            throw new IllegalStateException(String.format("Execution failed on %s while %s: exit code %d",
+                    machine, getLastPhase(output), result));
+        }
+        return output;
+    }
+
+    /**
+     * @return the last phase the output of a script shows it entered, or {@code null} if none.
+     */
+    @Nullable
+    public static String getLastPhase(@Nullable String output) {
+        String phase = null;
+        if (output != null) {
+            for (String line : Splitter.on('\n').trimResults().split(output)) {
+                if (line.startsWith(PHASE_MARKER)) {
+                    phase = line.substring(PHASE_MARKER.length());
+                }
+            }
+        }
+        return phase;
+    }
+}
@@ -51,6 +51,11 @@ public interface AmbariAgent extends AmbariNode {
             "ambari.server.fqdn", 
             "Fully Qualified Domain Name of ambari server that agent should register to");
 
+    @SetFromFlag("packageCacheUrl")
+    ConfigKey<String> PACKAGE_CACHE_URL = ConfigKeys.newStringConfigKey(
+            "ambari.packageCacheUrl",
+            "Url of the Ambari package repository cache the agent installs from, if any");
+
     @SetFromFlag("stackVersion")
     ConfigKey<String> HADOOP_STACK_VERSION = AmbariCluster.HADOOP_STACK_VERSION;
 
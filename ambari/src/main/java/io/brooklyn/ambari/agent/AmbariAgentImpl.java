@@ -24,12 +24,19 @@ import static org.apache.brooklyn.core.sensor.DependentConfiguration.attributeWh
 import java.util.List;
 import javax.annotation.Nullable;
 
+import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.api.mgmt.Task;
+import org.apache.brooklyn.core.sensor.DependentConfiguration;
 import org.apache.brooklyn.entity.software.base.SoftwareProcess;
 import org.apache.brooklyn.entity.software.base.SoftwareProcessImpl;
 import org.apache.brooklyn.util.core.config.ConfigBag;
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.base.Predicates;
 
 import io.brooklyn.ambari.AmbariCluster;
+import io.brooklyn.ambari.server.AmbariServer;
 
 public class AmbariAgentImpl extends SoftwareProcessImpl implements AmbariAgent {
     @Override
@@ -84,6 +91,10 @@ public class AmbariAgentImpl extends SoftwareProcessImpl implements AmbariAgent
                         attributeWhenReady(ambariCluster.getMasterAmbariServer(), FQDN))
                 .configure(SoftwareProcess.SUGGESTED_VERSION,
                         ambariCluster.getConfig(AmbariCluster.SUGGESTED_VERSION));
+        if (Boolean.TRUE.equals(ambariCluster.getConfig(AmbariCluster.PACKAGE_CACHE))) {
+            agentSpec.configure(PACKAGE_CACHE_URL, packageCacheUrlWhenReady(ambariCluster.getMasterAmbariServer(),
+                    ambariCluster.getConfig(AmbariCluster.PACKAGE_CACHE_TIMEOUT)));
+        }
         if (configBag != null) {
             agentSpec.configure(configBag.getAllConfig());
         }
@@ -93,4 +104,17 @@ public class AmbariAgentImpl extends SoftwareProcessImpl implements AmbariAgent
         }
         return agentSpec;
     }
+
+    /**
+     * @return the task resolving to the url of the package cache of the given server, or to an empty string if the
+     * server could not start it or has not started it within the given timeout.
+     */
+    static Task<String> packageCacheUrlWhenReady(Entity ambariServer, Duration timeout) {
+        return DependentConfiguration.builder()
+                .attributeWhenReady(ambariServer, AmbariServer.PACKAGE_CACHE_URL)
+                .readiness(Predicates.notNull())
+                .timeout(timeout)
+                .onTimeoutReturn("")
+                .build();
+    }
 }
@@ -22,32 +22,40 @@ import static java.lang.String.format;
 import static org.apache.brooklyn.util.ssh.BashCommands.installPackage;
 import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.api.entity.EntityLocal;
 import org.apache.brooklyn.core.entity.Attributes;
 import org.apache.brooklyn.core.entity.Entities;
 import org.apache.brooklyn.entity.java.JavaSoftwareProcessSshDriver;
 import org.apache.brooklyn.entity.software.base.SoftwareProcess;
+import org.apache.brooklyn.entity.software.base.lifecycle.ScriptHelper;
 import org.apache.brooklyn.location.ssh.SshMachineLocation;
 import org.apache.brooklyn.util.collections.MutableMap;
 import org.apache.brooklyn.util.ssh.BashCommands;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
 import io.brooklyn.ambari.AmbariCluster;
 import io.brooklyn.ambari.AmbariInstallCommands;
+import io.brooklyn.ambari.AmbariNode;
+import io.brooklyn.ambari.EtcHostsStrategy;
+import io.brooklyn.ambari.HostsDnsCommands;
+import io.brooklyn.ambari.SingleSessionScript;
 import io.brooklyn.ambari.hostgroup.AmbariHostGroup;
 import io.brooklyn.ambari.server.AmbariServer;
 
 public class AmbariAgentSshDriver extends JavaSoftwareProcessSshDriver implements AmbariAgentDriver {
     public static final Logger log = LoggerFactory.getLogger(AmbariAgentSshDriver.class);
-    private final AmbariInstallCommands defaultAmbariInstallHelper =
-            new AmbariInstallCommands(
-                    entity.getConfig(SoftwareProcess.SUGGESTED_VERSION),
-                    entity.getConfig(AmbariCluster.REPO_BASE_URL));
+
+    private SingleSessionScript singleSessionScript;
+    private AmbariInstallCommands pendingInstallCheck;
 
     public AmbariAgentSshDriver(EntityLocal entity, SshMachineLocation machine) {
         super(entity, machine);
@@ -91,20 +99,52 @@ public class AmbariAgentSshDriver extends JavaSoftwareProcessSshDriver implement
                 : parentFQDN;
 
         getEntity().setFqdn(fqdn);
-        ImmutableList<String> commands =
-                ImmutableList.<String>builder()
-                        .add(defaultAmbariInstallHelper.installAmbariRequirements(getMachine()))
-                        .addAll(BashCommands.setHostname(fqdn))
-                        .add(installPackage("ambari-agent"))
-                        .add(BashCommands.appendToEtcHosts(
-                                getParentAmbariCluster().getMasterAmbariServer().sensors().get(Attributes.SUBNET_ADDRESS),
-                                getEntity().getAmbariServerFQDN()))
-                        .build();
-
-        newScript(INSTALLING).body
+        AmbariCluster ambariCluster = getParentAmbariCluster();
+        String version = entity.getConfig(SoftwareProcess.SUGGESTED_VERSION);
+        String repoBaseUrl = entity.getConfig(AmbariCluster.REPO_BASE_URL);
+        AmbariInstallCommands ambariInstallHelper = new AmbariInstallCommands(version, repoBaseUrl);
+        List<String> installedCommands = ImmutableList.<String>builder()
+                .add(ambariInstallHelper.startNtp())
+                .addAll(BashCommands.setHostname(fqdn))
+                .build();
+        ImmutableList.Builder<String> builder = ImmutableList.<String>builder();
+        // The machine skips the install steps itself if it has the agent already, in the same session
+        builder.add(ambariInstallHelper.ifInstalled("ambari-agent", installedCommands,
+                getInstallCommands(version, repoBaseUrl, fqdn, ambariCluster)));
+        builder.add(BashCommands.appendToEtcHosts(
+                ambariCluster.getMasterAmbariServer().sensors().get(Attributes.SUBNET_ADDRESS),
+                getEntity().getAmbariServerFQDN()));
+
+        // An agent on the server host already uses the responder installed with the server
+        if (ambariCluster.getConfig(AmbariCluster.ETC_HOSTS_STRATEGY) == EtcHostsStrategy.DNS && parentFQDN.isEmpty()) {
+            builder.addAll(HostsDnsCommands.useResponder(
+                    ambariCluster.getMasterAmbariServer().sensors().get(ambariCluster.getConfig(AmbariCluster.ETC_HOST_ADDRESS))));
+        }
+        ImmutableList<String> commands = builder.build();
+
+        if (isSingleSession()) {
+            singleSessionScript = new SingleSessionScript();
+            singleSessionScript.addPhase(INSTALLING, commands);
+            pendingInstallCheck = ambariInstallHelper;
+            return;
+        }
+        ScriptHelper script = newScript(INSTALLING).body
                 .append(commands)
                 .failOnNonZeroResultCode()
-                .execute();
+                .gatherOutput();
+        script.execute();
+        entity.sensors().set(AmbariNode.INSTALL_SKIPPED, ambariInstallHelper.isInstalled(script.getResultStdout()));
+    }
+
+    private List<String> getInstallCommands(String version, String repoBaseUrl, String fqdn, AmbariCluster ambariCluster) {
+        // Waits for the package cache of the server to be up, if the agent uses one; empty if it is not available
+        AmbariInstallCommands ambariInstallHelper = new AmbariInstallCommands(version, repoBaseUrl,
+                Strings.emptyToNull(entity.getConfig(AmbariAgent.PACKAGE_CACHE_URL)));
+        return ImmutableList.<String>builder()
+                .add(ambariInstallHelper.installAmbariRequirements(getMachine(), ambariCluster))
+                .addAll(BashCommands.setHostname(fqdn))
+                .add(installPackage("ambari-agent"))
+                .build();
     }
 
     @Override
@@ -112,6 +152,14 @@ public class AmbariAgentSshDriver extends JavaSoftwareProcessSshDriver implement
         String tmpConfigFileLoc = "/tmp/ambari-agent.ini";
         String destinationConfigFile = "/etc/ambari-agent/conf/ambari-agent.ini";
 
+        if (isSingleSession()) {
+            String configFile = getSingleSessionScript().addFile("ambari-agent.ini",
+                    processTemplate(getTemplateConfigurationUrl()).getBytes(StandardCharsets.UTF_8));
+            getSingleSessionScript().addPhase(CUSTOMIZING,
+                    ImmutableList.of(sudo(format("mv %s %s", configFile, destinationConfigFile))));
+            return;
+        }
+
         copyTemplate(getTemplateConfigurationUrl(), tmpConfigFileLoc);
 
         newScript(CUSTOMIZING)
@@ -123,9 +171,34 @@ public class AmbariAgentSshDriver extends JavaSoftwareProcessSshDriver implement
 
     @Override
     public void launch() {
+        if (isSingleSession()) {
+            String output = getSingleSessionScript()
+                    .addPhase(LAUNCHING, ImmutableList.of(sudo("ambari-agent start")))
+                    .run(getMachine(), newScript(LAUNCHING));
+            singleSessionScript = null;
+            if (pendingInstallCheck != null) {
+                entity.sensors().set(AmbariNode.INSTALL_SKIPPED, pendingInstallCheck.isInstalled(output));
+                pendingInstallCheck = null;
+            }
+            return;
+        }
         newScript(LAUNCHING).body.append(sudo("ambari-agent start")).failOnNonZeroResultCode().execute();
     }
 
+    private boolean isSingleSession() {
+        return Boolean.TRUE.equals(entity.getConfig(AmbariCluster.SINGLE_SESSION_LIFECYCLE));
+    }
+
+    /**
+     * @return the script the phases are gathered in until launch; a new one if install did not run, e.g. on restart.
+     */
+    private SingleSessionScript getSingleSessionScript() {
+        if (singleSessionScript == null) {
+            singleSessionScript = new SingleSessionScript();
+        }
+        return singleSessionScript;
+    }
+
     String getTemplateConfigurationUrl() {
         return entity.getConfig(AmbariAgent.TEMPLATE_CONFIGURATION_URL);
     }
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.api.sensor.SensorEvent;
+import org.apache.brooklyn.api.sensor.SensorEventListener;
+import org.apache.brooklyn.core.entity.Entities;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Maps;
+
+import io.brooklyn.ambari.AmbariNode;
+import io.brooklyn.ambari.agent.AmbariAgent;
+
+/**
+ * Maps the FQDN of every {@link AmbariAgent} below a root entity to the agent itself. The index follows
+ * {@link AmbariNode#FQDN} changes and the entities added to and removed from the tree once {@link #subscribe()} has
+ * been called.
+ * <p/>
+ * A lookup found in the index, and still accurate, does not walk the tree. A miss, or an entry which is no longer
+ * accurate, scans the agents once and rebuilds the index from them, as sensor events are delivered asynchronously and
+ * an FQDN may not have reached the index yet. Subscriptions do not survive rebind, so a rebound index starts empty and
+ * is built again on the first lookup.
+ */
+public class AgentFqdnIndex {
+
+    private final EntityLocal root;
+    private final Map<String, AmbariAgent> agentsByFqdn = Maps.newHashMap();
+    private final Map<String, String> fqdnsByAgentId = Maps.newHashMap();
+
+    public AgentFqdnIndex(EntityLocal root) {
+        this.root = checkNotNull(root, "root");
+    }
+
+    /**
+     * Subscribes to the FQDN of the agents and to the children added and removed below the root entity.
+     */
+    public void subscribe() {
+        new EntityTreeSubscription(root)
+                .onSensor(AmbariNode.FQDN, new SensorEventListener<String>() {
+                    @Override
+                    public void onEvent(SensorEvent<String> event) {
+                        if (event.getSource() instanceof AmbariAgent) {
+                            put((AmbariAgent) event.getSource(), event.getValue());
+                        }
+                    }
+                })
+                .onChildAdded(new SensorEventListener<Entity>() {
+                    @Override
+                    public void onEvent(SensorEvent<Entity> event) {
+                        // Their FQDN may have been set before their parent was subscribed to
+                        for (AmbariAgent ambariAgent : Entities.descendantsAndSelf(event.getValue(), AmbariAgent.class)) {
+                            put(ambariAgent, ambariAgent.getFqdn());
+                        }
+                    }
+                })
+                .onChildRemoved(new SensorEventListener<Entity>() {
+                    @Override
+                    public void onEvent(SensorEvent<Entity> event) {
+                        remove(event.getValue());
+                    }
+                })
+                .subscribe();
+    }
+
+    /**
+     * @return the agent with the given FQDN, or {@code null} if there is none below the root entity.
+     */
+    @Nullable
+    public synchronized AmbariAgent get(String fqdn) {
+        checkNotNull(fqdn, "fqdn");
+        AmbariAgent ambariAgent = agentsByFqdn.get(fqdn);
+        if (ambariAgent == null || !fqdn.equals(ambariAgent.getFqdn()) || !Entities.isManaged(ambariAgent)) {
+            rebuild();
+            ambariAgent = agentsByFqdn.get(fqdn);
+        }
+        return ambariAgent;
+    }
+
+    public synchronized int size() {
+        return agentsByFqdn.size();
+    }
+
+    synchronized void put(AmbariAgent ambariAgent, @Nullable String fqdn) {
+        String previous = StringUtils.isBlank(fqdn)
+                ? fqdnsByAgentId.remove(ambariAgent.getId())
+                : fqdnsByAgentId.put(ambariAgent.getId(), fqdn);
+        if (previous != null && agentsByFqdn.get(previous) == ambariAgent) {
+            agentsByFqdn.remove(previous);
+        }
+        if (StringUtils.isNotBlank(fqdn)) {
+            agentsByFqdn.put(fqdn, ambariAgent);
+        }
+    }
+
+    synchronized void remove(Entity entity) {
+        for (AmbariAgent ambariAgent : Entities.descendantsAndSelf(entity, AmbariAgent.class)) {
+            put(ambariAgent, null);
+        }
+    }
+
+    synchronized void rebuild() {
+        agentsByFqdn.clear();
+        fqdnsByAgentId.clear();
+        for (AmbariAgent ambariAgent : Entities.descendants(root, AmbariAgent.class)) {
+            put(ambariAgent, ambariAgent.getFqdn());
+        }
+    }
+}
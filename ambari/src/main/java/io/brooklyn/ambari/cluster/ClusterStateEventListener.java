@@ -46,6 +46,10 @@ public final class ClusterStateEventListener implements SensorEventListener<Stri
                 throw ex;
             }
         }
+        // Agents which registered while the cluster was being deployed
+        if ("COMPLETED".equals(sensorEvent.getValue())) {
+            entity.addLateAgents();
+        }
     }
 
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Tells whether enough agents have registered with the Ambari server for a quorum deployment to go ahead: every host of
+ * the host groups with master components, and a fraction of the hosts of the groups with only worker components. The
+ * others join the cluster as they register.
+ */
+public class DeploymentQuorum {
+
+    private final double workerFraction;
+    private final Set<String> workerComponents;
+    private final Set<String> masterHosts = Sets.newHashSet();
+    private final Set<String> workerHosts = Sets.newHashSet();
+    private int expectedMasters;
+    private int expectedWorkers;
+
+    /**
+     * @param workerFraction the fraction of the worker hosts which must have registered, from 0 to 1.
+     * @param workerComponents the components of the worker host groups. Client components, whose name ends with
+     *                         {@code _CLIENT}, are always counted as such.
+     */
+    public DeploymentQuorum(double workerFraction, Collection<String> workerComponents) {
+        checkArgument(workerFraction >= 0 && workerFraction <= 1, "Worker fraction %s must be between 0 and 1", workerFraction);
+        this.workerFraction = workerFraction;
+        this.workerComponents = ImmutableSet.copyOf(workerComponents);
+    }
+
+    /**
+     * @return whether a host group with the given components has only worker components.
+     */
+    public boolean isWorkerGroup(@Nullable Collection<String> components) {
+        if (components != null) {
+            for (String component : components) {
+                if (!workerComponents.contains(component) && !component.endsWith("_CLIENT")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a host group to wait for.
+     *
+     * @param components the components of the host group.
+     * @param expectedSize the number of hosts the host group is expected to have.
+     * @param hosts the FQDNs of the hosts of the host group known so far.
+     */
+    public DeploymentQuorum addHostGroup(@Nullable Collection<String> components, int expectedSize, Collection<String> hosts) {
+        if (isWorkerGroup(components)) {
+            expectedWorkers += expectedSize;
+            workerHosts.addAll(hosts);
+        } else {
+            addMasterHosts(expectedSize, hosts);
+        }
+        return this;
+    }
+
+    /**
+     * Adds hosts which must all have registered, e.g. the Ambari server hosts when they run an agent.
+     */
+    public DeploymentQuorum addMasterHosts(int expectedSize, Collection<String> hosts) {
+        expectedMasters += expectedSize;
+        masterHosts.addAll(hosts);
+        return this;
+    }
+
+    /**
+     * @return the number of worker hosts which must have registered.
+     */
+    public int getRequiredWorkers() {
+        return (int) Math.ceil(workerFraction * expectedWorkers);
+    }
+
+    /**
+     * @return whether the given registered hosts make a quorum.
+     */
+    public boolean isReached(Collection<String> registeredHosts) {
+        Set<String> registered = ImmutableSet.copyOf(registeredHosts);
+        return Sets.intersection(masterHosts, registered).size() >= expectedMasters
+                && Sets.intersection(workerHosts, registered).size() >= getRequiredWorkers();
+    }
+}
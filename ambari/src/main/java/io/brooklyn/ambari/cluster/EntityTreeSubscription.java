@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.api.mgmt.SubscriptionHandle;
+import org.apache.brooklyn.api.sensor.Sensor;
+import org.apache.brooklyn.api.sensor.SensorEvent;
+import org.apache.brooklyn.api.sensor.SensorEventListener;
+import org.apache.brooklyn.core.entity.AbstractEntity;
+import org.apache.brooklyn.core.entity.Entities;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Subscribes a root entity to sensors of the entities below it. Each entity of the tree has its children subscribed
+ * to, and the subscriptions follow the children added and removed, so that no event from the rest of the management
+ * context is delivered as it would be to a wildcard subscription.
+ * <p/>
+ * {@link AbstractEntity#CHILD_ADDED} and {@link AbstractEntity#CHILD_REMOVED} are delivered for the root entity as
+ * well, only once the subscriptions below the added child have been made: a listener reading the added child then
+ * misses none of its later changes.
+ */
+class EntityTreeSubscription {
+
+    private final EntityLocal root;
+    private final List<SensorListener<?>> sensorListeners = Lists.newArrayList();
+    private final Map<String, List<SubscriptionHandle>> handlesByEntityId = Maps.newHashMap();
+    @Nullable
+    private SensorEventListener<Entity> childAddedListener;
+    @Nullable
+    private SensorEventListener<Entity> childRemovedListener;
+
+    EntityTreeSubscription(EntityLocal root) {
+        this.root = checkNotNull(root, "root");
+    }
+
+    /**
+     * Delivers the given sensor of the entities below the root entity to the listener.
+     */
+    <T> EntityTreeSubscription onSensor(Sensor<T> sensor, SensorEventListener<T> listener) {
+        sensorListeners.add(new SensorListener<T>(sensor, listener));
+        return this;
+    }
+
+    EntityTreeSubscription onChildAdded(SensorEventListener<Entity> listener) {
+        childAddedListener = listener;
+        return this;
+    }
+
+    EntityTreeSubscription onChildRemoved(SensorEventListener<Entity> listener) {
+        childRemovedListener = listener;
+        return this;
+    }
+
+    void subscribe() {
+        subscribeAt(root);
+    }
+
+    /**
+     * @return whether {@code entity} is the root entity or one of its descendants.
+     */
+    static boolean isRootOrBelow(Entity root, @Nullable Entity entity) {
+        for (Entity ancestor = entity; ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor.getId().equals(root.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void subscribeAt(Entity entity) {
+        if (handlesByEntityId.containsKey(entity.getId())) {
+            return;
+        }
+        List<SubscriptionHandle> handles = Lists.newArrayList();
+        handles.add(root.subscriptions().subscribe(entity, AbstractEntity.CHILD_ADDED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                if (event.getValue() != null && isRootOrBelow(root, event.getSource())) {
+                    subscribeAt(event.getValue());
+                    if (childAddedListener != null) {
+                        childAddedListener.onEvent(event);
+                    }
+                }
+            }
+        }));
+        handles.add(root.subscriptions().subscribe(entity, AbstractEntity.CHILD_REMOVED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                if (event.getValue() != null && isRootOrBelow(root, event.getSource())) {
+                    unsubscribeAt(event.getValue());
+                    if (childRemovedListener != null) {
+                        childRemovedListener.onEvent(event);
+                    }
+                }
+            }
+        }));
+        for (SensorListener<?> sensorListener : sensorListeners) {
+            handles.add(sensorListener.subscribeToChildren(entity));
+        }
+        handlesByEntityId.put(entity.getId(), handles);
+        // Made after the CHILD_ADDED subscription, so that no child is missed
+        for (Entity child : entity.getChildren()) {
+            subscribeAt(child);
+        }
+    }
+
+    private synchronized void unsubscribeAt(Entity entity) {
+        for (Entity descendant : Entities.descendantsAndSelf(entity)) {
+            List<SubscriptionHandle> handles = handlesByEntityId.remove(descendant.getId());
+            if (handles != null) {
+                for (SubscriptionHandle handle : handles) {
+                    root.subscriptions().unsubscribe(handle);
+                }
+            }
+        }
+    }
+
+    private class SensorListener<T> {
+
+        private final Sensor<T> sensor;
+        private final SensorEventListener<T> listener;
+
+        private SensorListener(Sensor<T> sensor, SensorEventListener<T> listener) {
+            this.sensor = checkNotNull(sensor, "sensor");
+            this.listener = checkNotNull(listener, "listener");
+        }
+
+        private SubscriptionHandle subscribeToChildren(Entity parent) {
+            return root.subscriptions().subscribeToChildren(parent, sensor, new SensorEventListener<T>() {
+                @Override
+                public void onEvent(SensorEvent<T> event) {
+                    // Events may still be delivered for a child removed in the meantime
+                    if (isRootOrBelow(root, event.getSource())) {
+                        listener.onEvent(event);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.util.collections.MutableList;
+import org.apache.brooklyn.util.collections.MutableMap;
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.SetMultimap;
+
+import io.brooklyn.ambari.rest.domain.Bindings;
+import io.brooklyn.ambari.rest.domain.Blueprint;
+import io.brooklyn.ambari.rest.domain.HostComponent;
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.rest.domain.Recommendation;
+import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
+
+/**
+ * Merges the host groups of an Ambari recommendation which have the same components. The stack advisor recommends one
+ * host group per host, so the blueprint of a large cluster would otherwise have as many host groups as hosts.
+ * <p/>
+ * Each merged host group keeps the name of the first host group it was made of, and its cardinality is the number of
+ * hosts bound to it. Host group configurations are not carried over, as the stack advisor does not recommend any.
+ */
+public class HostGroupMerger {
+
+    private HostGroupMerger() {
+    }
+
+    /**
+     * @return a recommendation with at most one host group per distinct set of components, or {@code null} if the
+     * given recommendation is {@code null}.
+     */
+    @Nullable
+    public static RecommendationWrapper merge(@Nullable RecommendationWrapper recommendationWrapper) {
+        if (recommendationWrapper == null
+                || recommendationWrapper.getStack() == null
+                || recommendationWrapper.getRecommendation() == null
+                || recommendationWrapper.getRecommendation().getBlueprint() == null
+                || recommendationWrapper.getRecommendation().getBindings() == null) {
+            return recommendationWrapper;
+        }
+        final Recommendation recommendation = recommendationWrapper.getRecommendation();
+
+        final Map<Set<String>, String> mergedNameByComponents = MutableMap.of();
+        final Map<String, String> mergedNameByName = MutableMap.of();
+        final Map<String, List<String>> componentsByMergedName = MutableMap.of();
+        for (HostGroup hostGroup : recommendation.getBlueprint().getHostGroups()) {
+            final List<String> components = MutableList.of();
+            for (HostComponent component : hostGroup.getComponents()) {
+                components.add(component.getName());
+            }
+            final Set<String> key = ImmutableSortedSet.copyOf(components);
+            String mergedName = mergedNameByComponents.get(key);
+            if (mergedName == null) {
+                mergedName = hostGroup.getName();
+                mergedNameByComponents.put(key, mergedName);
+                componentsByMergedName.put(mergedName, components);
+            }
+            mergedNameByName.put(hostGroup.getName(), mergedName);
+        }
+
+        // A host bound to several host groups of the same merged host group counts once
+        final SetMultimap<String, String> hostsByMergedName = MultimapBuilder.linkedHashKeys().linkedHashSetValues().build();
+        for (HostGroup hostGroup : recommendation.getBindings().getHostGroups()) {
+            final String mergedName = mergedNameByName.containsKey(hostGroup.getName())
+                    ? mergedNameByName.get(hostGroup.getName())
+                    : hostGroup.getName();
+            for (Map<String, String> host : hostGroup.getHosts()) {
+                if (StringUtils.isNotBlank(host.get("fqdn"))) {
+                    hostsByMergedName.put(mergedName, host.get("fqdn"));
+                }
+            }
+        }
+
+        final Blueprint.Builder blueprintBuilder = new Blueprint.Builder();
+        for (Map.Entry<String, List<String>> entry : componentsByMergedName.entrySet()) {
+            blueprintBuilder.addHostGroup(new HostGroup.Builder()
+                    .setName(entry.getKey())
+                    .addComponents(entry.getValue())
+                    .setCardinality(hostsByMergedName.get(entry.getKey()).size())
+                    .build());
+        }
+        final Bindings.Builder bindingsBuilder = new Bindings.Builder();
+        for (String mergedName : hostsByMergedName.keySet()) {
+            bindingsBuilder.addHostGroup(new HostGroup.Builder()
+                    .setName(mergedName)
+                    .addHosts(ImmutableList.copyOf(hostsByMergedName.get(mergedName)))
+                    .build());
+        }
+
+        return new RecommendationWrapper.Builder()
+                .setStack(recommendationWrapper.getStack())
+                .setRecommendation(new Recommendation.Builder()
+                        .setBlueprint(blueprintBuilder.build())
+                        .setBindings(bindingsBuilder.build())
+                        .build())
+                .build();
+    }
+}
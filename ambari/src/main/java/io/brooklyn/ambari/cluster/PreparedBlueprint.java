@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+
+import io.brooklyn.ambari.rest.domain.HostGroup;
+
+/**
+ * A blueprint registered with the Ambari server ahead of the cluster deployment, along with the host groups and the
+ * configuration it was registered with. The deployment can use it as long as it still needs the same blueprint.
+ */
+public class PreparedBlueprint {
+
+    private static final Gson GSON = new Gson();
+
+    private final String name;
+    private final String hostGroups;
+    private final String configuration;
+
+    public PreparedBlueprint(String name, List<HostGroup> hostGroups, Map<String, Map> configuration) {
+        this.name = name;
+        // Kept serialised, as sent to Ambari, so later changes to the given objects do not affect the comparison. As
+        // plain JSON so that it is persisted along with the cluster.
+        this.hostGroups = GSON.toJson(hostGroups);
+        this.configuration = GSON.toJson(configuration);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether a blueprint with the given name, host groups and configuration is the same as this one.
+     */
+    public boolean matches(String name, List<HostGroup> hostGroups, Map<String, Map> configuration) {
+        final JsonParser parser = new JsonParser();
+        return this.name.equals(name)
+                && parser.parse(this.hostGroups).equals(GSON.toJsonTree(hostGroups))
+                && parser.parse(this.configuration).equals(GSON.toJsonTree(configuration));
+    }
+}
@@ -48,9 +48,17 @@ public final class RegisteredHostEventListener implements SensorEventListener<Li
     @Override
     public void onEvent(SensorEvent<List<String>> event) {
         List<String> hosts = event.getValue();
+        if (hosts == null) {
+            return;
+        }
         Integer initialClusterSize = entity.getAttribute(AmbariCluster.EXPECTED_AGENTS);
+        if (initialClusterSize != null) {
+            entity.sensors().set(AmbariCluster.PENDING_AGENTS, Math.max(0, initialClusterSize - hosts.size()));
+        }
         Boolean initialised = entity.getAttribute(AmbariCluster.CLUSTER_SERVICES_INITIALISE_CALLED);
-        if (hosts != null && hosts.size() == initialClusterSize && !Boolean.TRUE.equals(initialised)) {
+        if (Boolean.TRUE.equals(initialised)) {
+            entity.addLateAgents();
+        } else if (entity.isReadyToDeploy(hosts)) {
             try {
                 if (pauseOnDeployment) {
                     entity.getMutableEntityType().addEffector(createDeployClusterEffector());
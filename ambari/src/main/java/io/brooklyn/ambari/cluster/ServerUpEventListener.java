@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import org.apache.brooklyn.api.sensor.SensorEvent;
+import org.apache.brooklyn.api.sensor.SensorEventListener;
+
+import io.brooklyn.ambari.AmbariCluster;
+
+public final class ServerUpEventListener implements SensorEventListener<Boolean> {
+
+    private final AmbariCluster entity;
+
+    public ServerUpEventListener(AmbariCluster entity) {
+        this.entity = entity;
+    }
+
+    @Override
+    public void onEvent(SensorEvent<Boolean> sensorEvent) {
+        if (Boolean.TRUE.equals(sensorEvent.getValue())) {
+            entity.prepareBlueprint();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package io.brooklyn.ambari.hostgroup;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -29,6 +30,7 @@ import org.apache.brooklyn.api.entity.EntitySpec;
 import org.apache.brooklyn.core.entity.Entities;
 import org.apache.brooklyn.entity.group.DynamicClusterImpl;
 import org.apache.brooklyn.entity.software.base.SameServerEntity;
+import org.apache.brooklyn.util.collections.MutableSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +38,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
 import io.brooklyn.ambari.AmbariCluster;
-import io.brooklyn.ambari.EtcHostsManager;
 import io.brooklyn.ambari.agent.AmbariAgent;
 import io.brooklyn.ambari.agent.AmbariAgentImpl;
 
@@ -56,8 +57,13 @@ public class AmbariHostGroupImpl extends DynamicClusterImpl implements AmbariHos
 
     @Override
     public List<String> getHostFQDNs() {
+        // The host groups of the roles of a services based deployment have members they are not the parent of
+        Set<AmbariAgent> agents = MutableSet.copyOf(Entities.descendants(this, AmbariAgent.class));
+        for (Entity member : getMembers()) {
+            agents.addAll(MutableSet.copyOf(Entities.descendantsAndSelf(member, AmbariAgent.class)));
+        }
         ImmutableList.Builder<String> builder = ImmutableList.builder();
-        for (AmbariAgent agent : Entities.descendants(this, AmbariAgent.class)) {
+        for (AmbariAgent agent : agents) {
             String fqdn = agent.getFqdn();
             if (fqdn != null) {
                 builder.add(fqdn);
@@ -77,7 +83,7 @@ public class AmbariHostGroupImpl extends DynamicClusterImpl implements AmbariHos
         Collection<Entity> entities = super.resizeByDelta(delta);
 
         if (delta > 0) {
-            EtcHostsManager.setHostsOnMachines(getAmbariCluster().getAmbariNodes(), getConfig(AmbariCluster.ETC_HOST_ADDRESS));
+            getAmbariCluster().setHostsOnAmbariNodes();
             if (getAmbariCluster().isClusterComplete()) {
                 final List<AmbariAgent> ambariAgents = getAmbariAgents(entities);
                 getAmbariCluster().addHostsToHostGroup(getDisplayName(), ambariAgents);
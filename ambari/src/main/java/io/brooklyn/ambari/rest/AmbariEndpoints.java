@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableClassToInstanceMap;
+import com.google.common.collect.ImmutableList;
+
+import io.brooklyn.ambari.rest.endpoint.AlertGroupEndpoint;
+import io.brooklyn.ambari.rest.endpoint.AlertTargetEndpoint;
+import io.brooklyn.ambari.rest.endpoint.BlueprintEndpoint;
+import io.brooklyn.ambari.rest.endpoint.ClusterEndpoint;
+import io.brooklyn.ambari.rest.endpoint.ConfigurationEnpoint;
+import io.brooklyn.ambari.rest.endpoint.HostEndpoint;
+import io.brooklyn.ambari.rest.endpoint.RequestEndpoint;
+import io.brooklyn.ambari.rest.endpoint.ServiceEndpoint;
+import io.brooklyn.ambari.rest.endpoint.StackEndpoint;
+import io.brooklyn.ambari.rest.endpoint.UsersEndpoint;
+import retrofit.RestAdapter;
+
+/**
+ * Immutable registry of the Retrofit proxies for every Ambari REST endpoint, all created once from the same
+ * {@link RestAdapter}. When the adapter changes, a new registry should be built and swapped in as a whole.
+ */
+public class AmbariEndpoints {
+
+    public static final List<Class<?>> ENDPOINTS = ImmutableList.<Class<?>>of(
+            AlertGroupEndpoint.class,
+            AlertTargetEndpoint.class,
+            BlueprintEndpoint.class,
+            ClusterEndpoint.class,
+            ConfigurationEnpoint.class,
+            HostEndpoint.class,
+            RequestEndpoint.class,
+            ServiceEndpoint.class,
+            StackEndpoint.class,
+            UsersEndpoint.class);
+
+    private final ImmutableClassToInstanceMap<Object> endpoints;
+
+    public AmbariEndpoints(RestAdapter restAdapter) {
+        Preconditions.checkNotNull(restAdapter, "RestAdapter must not be null");
+
+        ImmutableClassToInstanceMap.Builder<Object> builder = ImmutableClassToInstanceMap.builder();
+        for (Class<?> endpoint : ENDPOINTS) {
+            putEndpoint(builder, restAdapter, endpoint);
+        }
+        this.endpoints = builder.build();
+    }
+
+    private <T> void putEndpoint(ImmutableClassToInstanceMap.Builder<Object> builder, RestAdapter restAdapter, Class<T> endpoint) {
+        builder.put(endpoint, restAdapter.create(endpoint));
+    }
+
+    /**
+     * Returns the proxy for the given endpoint interface.
+     *
+     * @param endpoint the endpoint interface, one of {@link #ENDPOINTS}.
+     * @param <T> the endpoint type.
+     * @return the cached proxy.
+     * @throws IllegalArgumentException if the interface is not a known Ambari endpoint.
+     */
+    public <T> T get(Class<T> endpoint) {
+        T proxy = endpoints.getInstance(endpoint);
+        Preconditions.checkArgument(proxy != null, "Unknown Ambari endpoint %s", endpoint);
+        return proxy;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Pulls the few values the Ambari server entity polls for out of Ambari REST API responses, in a single streaming pass
+ * and without building a JSON tree. Anything else in the response is skipped.
+ */
+public class AmbariJsonExtractor {
+
+    private AmbariJsonExtractor() {
+    }
+
+    /**
+     * Reads {@code items[*].Hosts.host_name}, as returned by {@code /api/v1/hosts}.
+     *
+     * @return the host names, empty if the response has none.
+     * @throws JsonSyntaxException if the response is not valid JSON.
+     */
+    public static List<String> readHostNames(byte[] json) {
+        try (JsonReader reader = newReader(json)) {
+            return readHostNames(reader);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Reads {@code Requests.request_status} and {@code Requests.progress_percent}, as returned by
+     * {@code /api/v1/clusters/{cluster}/requests/{id}}.
+     *
+     * @return the request status, with {@code null} values for the fields the response does not have.
+     * @throws JsonSyntaxException if the response is not valid JSON.
+     */
+    public static RequestStatus readRequestStatus(byte[] json) {
+        try (JsonReader reader = newReader(json)) {
+            return readRequestStatus(reader);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static JsonReader newReader(byte[] json) {
+        Reader in = new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8);
+        return new JsonReader(in);
+    }
+
+    private static List<String> readHostNames(JsonReader reader) throws IOException {
+        List<String> hostNames = Lists.newArrayList();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("items") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String hostName = readHostName(reader);
+                    if (hostName != null) {
+                        hostNames.add(hostName);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return hostNames;
+    }
+
+    @Nullable
+    private static String readHostName(JsonReader reader) throws IOException {
+        String hostName = null;
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("Hosts") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("host_name") && reader.peek() == JsonToken.STRING) {
+                        hostName = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return hostName;
+    }
+
+    private static RequestStatus readRequestStatus(JsonReader reader) throws IOException {
+        String status = null;
+        Double progressPercent = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("Requests") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("request_status") && reader.peek() == JsonToken.STRING) {
+                        status = reader.nextString();
+                    } else if (name.equals("progress_percent") && reader.peek() == JsonToken.NUMBER) {
+                        progressPercent = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new RequestStatus(status, progressPercent);
+    }
+
+    public static class RequestStatus {
+
+        private final String status;
+        private final Double progressPercent;
+
+        public RequestStatus(@Nullable String status, @Nullable Double progressPercent) {
+            this.status = status;
+            this.progressPercent = progressPercent;
+        }
+
+        @Nullable
+        public String getStatus() {
+            return status;
+        }
+
+        @Nullable
+        public Double getProgressPercent() {
+            return progressPercent;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.brooklyn.ambari.rest.domain.Request;
+import io.brooklyn.ambari.rest.endpoint.RequestEndpoint;
+
+/**
+ * Tracks the completion of outstanding Ambari requests. Instead of polling each request on its own thread, a single
+ * thread fetches the status of every outstanding request of a cluster with one call per tick, and completes a future
+ * per request.
+ */
+public class AmbariRequestTracker implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmbariRequestTracker.class);
+
+    /**
+     * The states in which a request has ended without completing. Any other state, or none yet, means the request is
+     * still pending.
+     */
+    static final List<String> FAILED_STATES = ImmutableList.of("FAILED", "ABORTED", "TIMEDOUT");
+
+    private static final String POLLED_FIELDS = "Requests/id,Requests/request_status,Requests/progress_percent";
+
+    private final Supplier<RequestEndpoint> requestEndpoint;
+    private final PollingPolicy pollingPolicy;
+    private final RequestProgressListener progressListener;
+    private final RequestStatusListener statusListener;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentMap<String, ConcurrentMap<Integer, TrackedRequest>> outstanding = new ConcurrentHashMap<>();
+    private final Object scheduleLock = new Object();
+    private ScheduledFuture<?> nextPoll;
+
+    protected AmbariRequestTracker(Builder builder) {
+        this.requestEndpoint = builder.requestEndpoint;
+        this.pollingPolicy = builder.pollingPolicy;
+        this.progressListener = builder.progressListener;
+        this.statusListener = builder.statusListener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ambari-request-tracker-%d")
+                .setDaemon(true)
+                .build());
+        scheduleNextPoll(pollingPolicy.getInitialInterval());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts tracking the given request.
+     *
+     * @param cluster the cluster the request belongs to.
+     * @param request the request returned by the Ambari REST API.
+     * @param timeout the time after which the returned future fails with a {@link TimeoutException}.
+     * @return a future completed with the last polled state of the request once it is {@code COMPLETED}, or failed if
+     * the request ends in one of the {@link #FAILED_STATES}.
+     */
+    public ListenableFuture<Request> track(String cluster, Request request, Duration timeout) {
+        Preconditions.checkNotNull(cluster, "Cluster must not be null");
+        Preconditions.checkNotNull(request, "Request must not be null");
+        Preconditions.checkNotNull(request.getRequestInfo(), "Request must have an ID");
+        Preconditions.checkNotNull(timeout, "Timeout must not be null");
+        Preconditions.checkState(!executor.isShutdown(), "Request tracker is closed");
+
+        TrackedRequest trackedRequest = new TrackedRequest(request, System.currentTimeMillis() + timeout.toMilliseconds());
+        TrackedRequest existing;
+        // Guards against a poll dropping the map of the cluster between the lookup and the insertion
+        synchronized (outstanding) {
+            ConcurrentMap<Integer, TrackedRequest> clusterRequests = outstanding.get(cluster);
+            if (clusterRequests == null) {
+                clusterRequests = new ConcurrentHashMap<>();
+                outstanding.put(cluster, clusterRequests);
+            }
+            existing = clusterRequests.putIfAbsent(request.getRequestInfo().getId(), trackedRequest);
+        }
+        if (existing != null) {
+            return existing.future;
+        }
+
+        resetToInitialInterval();
+        return trackedRequest.future;
+    }
+
+    /**
+     * Tracks the given request, like {@link #track(String, Request, Duration)}, but fails the returned future with
+     * the given error message rather than a {@link TimeoutException} if the request does not complete in time.
+     */
+    public ListenableFuture<Request> track(String cluster, Request request, Duration timeout, final String errorMessage) {
+        return Futures.withFallback(track(cluster, request, timeout), new FutureFallback<Request>() {
+            @Override
+            public ListenableFuture<Request> create(Throwable t) {
+                return Futures.immediateFailedFuture(t instanceof TimeoutException ? new RuntimeException(errorMessage) : t);
+            }
+        });
+    }
+
+    /**
+     * @return the last known progress in percent of the outstanding requests, by request ID.
+     */
+    public Map<Integer, Double> getProgress() {
+        Map<Integer, Double> progress = Maps.newHashMap();
+        for (Map<Integer, TrackedRequest> clusterRequests : outstanding.values()) {
+            for (Map.Entry<Integer, TrackedRequest> entry : clusterRequests.entrySet()) {
+                if (entry.getValue().progress != null) {
+                    progress.put(entry.getKey(), entry.getValue().progress);
+                }
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * @return the number of requests not yet completed.
+     */
+    public int getOutstandingCount() {
+        int count = 0;
+        for (Map<Integer, TrackedRequest> clusterRequests : outstanding.values()) {
+            count += clusterRequests.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of clusters with requests not yet completed.
+     */
+    int getClusterCount() {
+        return outstanding.size();
+    }
+
+    /**
+     * Brings the next poll forward to the initial interval of the polling policy, so that a new request does not wait
+     * behind the backed off poll of older ones. It is not polled right away: Ambari has only just accepted it.
+     */
+    private void resetToInitialInterval() {
+        synchronized (scheduleLock) {
+            if (nextPoll.getDelay(TimeUnit.MILLISECONDS) > pollingPolicy.getInitialInterval().toMilliseconds() && nextPoll.cancel(false)) {
+                scheduleNextPoll(pollingPolicy.getInitialInterval());
+            }
+        }
+    }
+
+    /**
+     * @return the delay until the next poll.
+     */
+    Duration getNextPollDelay() {
+        synchronized (scheduleLock) {
+            return Duration.millis(nextPoll.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void scheduleNextPoll(Duration delay) {
+        synchronized (scheduleLock) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            nextPoll = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll();
+                    } finally {
+                        scheduleNextPoll(nextDelay());
+                    }
+                }
+            }, delay.toMilliseconds(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The next poll happens as soon as the most urgent outstanding request needs it.
+     */
+    private Duration nextDelay() {
+        Duration delay = null;
+        for (Map<Integer, TrackedRequest> clusterRequests : outstanding.values()) {
+            for (TrackedRequest trackedRequest : clusterRequests.values()) {
+                Duration requestDelay = trackedRequest.pollingState.nextDelay();
+                if (delay == null || requestDelay.isShorterThan(delay)) {
+                    delay = requestDelay;
+                }
+            }
+        }
+        return delay != null ? delay : pollingPolicy.getInitialInterval();
+    }
+
+    void poll() {
+        for (Map.Entry<String, ConcurrentMap<Integer, TrackedRequest>> entry : outstanding.entrySet()) {
+            ConcurrentMap<Integer, TrackedRequest> clusterRequests = entry.getValue();
+            if (clusterRequests.isEmpty()) {
+                continue;
+            }
+            try {
+                for (Request request : requestEndpoint.get().getRequests(entry.getKey(), POLLED_FIELDS, idPredicate(clusterRequests.keySet())).getRequests()) {
+                    if (request.getRequestInfo() != null) {
+                        update(clusterRequests, request);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Transient failures are retried on the next tick, until the request times out
+                LOG.debug("Failed to poll Ambari requests of cluster {}: {}", entry.getKey(), e.toString());
+            }
+            expire(clusterRequests);
+            synchronized (outstanding) {
+                if (clusterRequests.isEmpty()) {
+                    outstanding.remove(entry.getKey(), clusterRequests);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ambari's {@code Requests/id.in(...)} predicate has no {@code name=value} form, so the IDs are matched by
+     * equality instead, e.g. {@code 1|Requests/id=2} as the value of {@code Requests/id}.
+     */
+    static String idPredicate(Iterable<Integer> ids) {
+        return Joiner.on("|Requests/id=").join(ids);
+    }
+
+    private void update(ConcurrentMap<Integer, TrackedRequest> clusterRequests, Request request) {
+        int id = request.getRequestInfo().getId();
+        String status = request.getRequestInfo().getStatus();
+        TrackedRequest trackedRequest = clusterRequests.get(id);
+        if (trackedRequest == null) {
+            return;
+        }
+        Double progress = request.getRequestInfo().getProgressPercent();
+        trackedRequest.pollingState.update(progress);
+        if (progress != null) {
+            trackedRequest.progress = progress;
+        }
+        boolean statusChanged = status != null && !status.equals(trackedRequest.status);
+        if (status != null) {
+            trackedRequest.status = status;
+        }
+        if (FAILED_STATES.contains(status)) {
+            clusterRequests.remove(id);
+            trackedRequest.future.setException(new RuntimeException(
+                    "Request fails with state " + status +
+                            ". Check here for details " + trackedRequest.request.getHref()));
+        } else if (StringUtils.equals(status, "COMPLETED")) {
+            clusterRequests.remove(id);
+            trackedRequest.future.set(request);
+        }
+        if (progressListener != null && progress != null) {
+            progressListener.onProgress(trackedRequest.request, progress);
+        }
+        if (statusListener != null && statusChanged) {
+            statusListener.onStatus(trackedRequest.request, status);
+        }
+    }
+
+    private void expire(ConcurrentMap<Integer, TrackedRequest> clusterRequests) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, TrackedRequest> entry : clusterRequests.entrySet()) {
+            if (entry.getValue().deadline <= now && clusterRequests.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().future.setException(new TimeoutException(
+                        String.format("Request %s did not complete in time", entry.getValue().request.getHref())));
+            }
+        }
+    }
+
+    /**
+     * Stops polling and cancels the futures of all outstanding requests.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (Map<Integer, TrackedRequest> clusterRequests : outstanding.values()) {
+            for (TrackedRequest trackedRequest : clusterRequests.values()) {
+                trackedRequest.future.cancel(false);
+            }
+            clusterRequests.clear();
+        }
+        outstanding.clear();
+    }
+
+    private class TrackedRequest {
+
+        private final Request request;
+        private final long deadline;
+        private final SettableFuture<Request> future = SettableFuture.create();
+        private final PollingPolicy.State pollingState = pollingPolicy.newState();
+        private volatile Double progress;
+        private volatile String status;
+
+        TrackedRequest(Request request, long deadline) {
+            this.request = request;
+            this.deadline = deadline;
+            this.status = request.getRequestInfo().getStatus();
+        }
+    }
+
+    public static class Builder {
+
+        private Supplier<RequestEndpoint> requestEndpoint;
+        private PollingPolicy pollingPolicy;
+        private RequestProgressListener progressListener;
+        private RequestStatusListener statusListener;
+
+        /**
+         * @param requestEndpoint supplies the endpoint to poll with, looked up on each tick so that credential
+         *                        changes are picked up.
+         */
+        public Builder requestEndpoint(Supplier<RequestEndpoint> requestEndpoint) {
+            this.requestEndpoint = requestEndpoint;
+            return this;
+        }
+
+        public Builder pollingPolicy(PollingPolicy pollingPolicy) {
+            this.pollingPolicy = pollingPolicy;
+            return this;
+        }
+
+        public Builder progressListener(RequestProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public Builder statusListener(RequestStatusListener statusListener) {
+            this.statusListener = statusListener;
+            return this;
+        }
+
+        public AmbariRequestTracker build() {
+            Preconditions.checkNotNull(this.requestEndpoint, "Request endpoint must not be null");
+
+            if (this.pollingPolicy == null) {
+                this.pollingPolicy = PollingPolicy.builder().build();
+            }
+
+            return new AmbariRequestTracker(this);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.net.HttpHeaders;
+
+import retrofit.RestAdapter;
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * Decorates a Retrofit {@link Client} with wire logging. Unlike {@link RestAdapter#setLogLevel(RestAdapter.LogLevel)},
+ * only one request in {@code sampleRate} is logged, bodies are cut after {@code maxBodyBytes} and requests that are
+ * not sampled do not pay for any buffering. The adapter using this client should be left at
+ * {@link RestAdapter.LogLevel#NONE}.
+ */
+public class AmbariRestLoggingClient implements Client {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmbariRestLoggingClient.class);
+
+    private final Client client;
+    private final RestAdapter.LogLevel logLevel;
+    private final int sampleRate;
+    private final int maxBodyBytes;
+    private final RestAdapter.Log log;
+    private final AtomicLong requestCount = new AtomicLong();
+
+    protected AmbariRestLoggingClient(Builder builder) {
+        this.client = builder.client;
+        this.logLevel = builder.logLevel;
+        this.sampleRate = builder.sampleRate;
+        this.maxBodyBytes = builder.maxBodyBytes;
+        this.log = builder.log;
+    }
+
+    public static Builder wrap(Client client) {
+        return new Builder(client);
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        if (!logLevel.log() || requestCount.getAndIncrement() % sampleRate != 0) {
+            return client.execute(request);
+        }
+
+        log.log(String.format("---> HTTP %s %s", request.getMethod(), request.getUrl()));
+        if (logHeaders()) {
+            for (Header header : request.getHeaders()) {
+                log.log(formatHeader(header));
+            }
+        }
+        if (logBodies() && request.getBody() != null) {
+            log.log(formatBody(request.getBody()));
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Response response;
+        try {
+            response = client.execute(request);
+        } catch (IOException e) {
+            log.log(String.format("<--- HTTP ERROR %s %s (%dms)", request.getUrl(), e, stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+            throw e;
+        }
+
+        log.log(String.format("<--- HTTP %d %s (%dms)", response.getStatus(), response.getUrl(), stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+        if (logHeaders()) {
+            for (Header header : response.getHeaders()) {
+                log.log(formatHeader(header));
+            }
+        }
+        if (logBodies() && response.getBody() != null) {
+            return new Response(response.getUrl(), response.getStatus(), response.getReason(), response.getHeaders(),
+                    new LoggingTypedInput(response.getBody()));
+        }
+        return response;
+    }
+
+    private boolean logHeaders() {
+        return logLevel.ordinal() >= RestAdapter.LogLevel.HEADERS.ordinal();
+    }
+
+    /**
+     * Retrofit logs the arguments and converted result of a call from {@link RestAdapter.LogLevel#HEADERS_AND_ARGS}
+     * upwards. A client only sees them as the request and response bodies, so those are logged instead.
+     */
+    private boolean logBodies() {
+        return logLevel.ordinal() >= RestAdapter.LogLevel.HEADERS_AND_ARGS.ordinal();
+    }
+
+    private String formatHeader(Header header) {
+        // Never write credentials to the logs
+        return HttpHeaders.AUTHORIZATION.equalsIgnoreCase(header.getName())
+                ? header.getName() + ": ****"
+                : header.toString();
+    }
+
+    private String formatBody(TypedOutput body) throws IOException {
+        BoundedOutputStream outputStream = new BoundedOutputStream(maxBodyBytes);
+        body.writeTo(outputStream);
+        return outputStream.format();
+    }
+
+    public static class Builder {
+
+        private final Client client;
+        private RestAdapter.LogLevel logLevel = RestAdapter.LogLevel.FULL;
+        private int sampleRate = 1;
+        private int maxBodyBytes = 4096;
+        private RestAdapter.Log log = new RestAdapter.Log() {
+            @Override
+            public void log(String message) {
+                LOG.info(message);
+            }
+        };
+
+        public Builder(Client client) {
+            this.client = client;
+        }
+
+        public Builder logLevel(RestAdapter.LogLevel logLevel) {
+            this.logLevel = logLevel;
+            return this;
+        }
+
+        /**
+         * @param sampleRate log one request every {@code sampleRate} requests.
+         */
+        public Builder sampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        public Builder maxBodyBytes(int maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+            return this;
+        }
+
+        public Builder log(RestAdapter.Log log) {
+            this.log = log;
+            return this;
+        }
+
+        public AmbariRestLoggingClient build() {
+            Preconditions.checkNotNull(this.client, "Client must not be null");
+            Preconditions.checkNotNull(this.logLevel, "Log level must not be null");
+            Preconditions.checkNotNull(this.log, "Log must not be null");
+            Preconditions.checkArgument(this.sampleRate > 0, "Sample rate must be positive");
+            Preconditions.checkArgument(this.maxBodyBytes >= 0, "Max body bytes must not be negative");
+
+            return new AmbariRestLoggingClient(this);
+        }
+    }
+
+    /**
+     * Keeps the first bytes written and counts the rest.
+     */
+    private static class BoundedOutputStream extends OutputStream {
+
+        private final ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        private final int limit;
+        private long total;
+
+        BoundedOutputStream(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            if (total < limit) {
+                kept.write(b);
+            }
+            total++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (total < limit) {
+                kept.write(b, off, (int) Math.min(len, limit - total));
+            }
+            total += len;
+        }
+
+        String format() {
+            String content = new String(kept.toByteArray(), StandardCharsets.UTF_8);
+            return total > limit
+                    ? String.format("%s... (truncated, %d bytes total)", content, total)
+                    : String.format("%s (%d bytes)", content, total);
+        }
+    }
+
+    /**
+     * Logs the beginning of the response body once the consumer closes the stream, without buffering the whole body.
+     */
+    private class LoggingTypedInput implements TypedInput {
+
+        private final TypedInput body;
+
+        LoggingTypedInput(TypedInput body) {
+            this.body = body;
+        }
+
+        @Override
+        public String mimeType() {
+            return body.mimeType();
+        }
+
+        @Override
+        public long length() {
+            return body.length();
+        }
+
+        @Override
+        public InputStream in() throws IOException {
+            final BoundedOutputStream captured = new BoundedOutputStream(maxBodyBytes);
+            return new FilterInputStream(body.in()) {
+                private boolean logged;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        captured.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        captured.write(b, off, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (!logged) {
+                        logged = true;
+                        log.log(captured.format());
+                        log.log("<--- END HTTP");
+                    }
+                }
+            };
+        }
+    }
+}
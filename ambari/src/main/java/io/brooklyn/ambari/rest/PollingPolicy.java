@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+/**
+ * Decides how long to wait before polling an Ambari request again.
+ * <p>
+ * While the progress of a request does not move, the interval grows exponentially up to {@code maxInterval}, but never
+ * beyond the completion time estimated from the progress rate observed so far. As soon as the progress moves, the
+ * interval drops back to {@code initialInterval}. A random jitter spreads the polls of concurrent requests.
+ * <p>
+ * Instances are immutable; the state of a poll loop is kept in a {@link PollingPolicy.State}.
+ */
+public class PollingPolicy {
+
+    /**
+     * Polls every second, without backoff.
+     */
+    public static final PollingPolicy FIXED = builder()
+            .initialInterval(Duration.ONE_SECOND)
+            .maxInterval(Duration.ONE_SECOND)
+            .multiplier(1)
+            .jitter(0)
+            .build();
+
+    private static final Random RANDOM = new Random();
+
+    private final Duration initialInterval;
+    private final Duration maxInterval;
+    private final double multiplier;
+    private final double jitter;
+
+    protected PollingPolicy(Builder builder) {
+        this.initialInterval = builder.initialInterval;
+        this.maxInterval = builder.maxInterval;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public State newState() {
+        return new State(Ticker.systemTicker());
+    }
+
+    State newState(Ticker ticker) {
+        return new State(ticker);
+    }
+
+    public Duration getInitialInterval() {
+        return initialInterval;
+    }
+
+    public Duration getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * Keeps track of the observed progress of one poll loop. Not thread-safe.
+     */
+    public class State {
+
+        private final Ticker ticker;
+        private final long startTime;
+        private long interval = initialInterval.toMilliseconds();
+        private double lastProgress = -1;
+        private long lastProgressTime;
+
+        private State(Ticker ticker) {
+            this.ticker = ticker;
+            this.startTime = now();
+        }
+
+        private long now() {
+            return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+        }
+
+        /**
+         * Records the progress returned by the latest poll.
+         *
+         * @param progress the progress in percent, or {@code null} if unknown.
+         * @return {@code true} if the progress moved since the previous poll.
+         */
+        public boolean update(Double progress) {
+            long now = now();
+            boolean progressed = progress != null && lastProgress >= 0 && progress > lastProgress;
+            if (progress != null && (lastProgress < 0 || progressed)) {
+                lastProgress = progress;
+                lastProgressTime = now;
+            }
+            if (progressed) {
+                interval = initialInterval.toMilliseconds();
+            } else {
+                interval = Math.min((long) (interval * multiplier), maxInterval.toMilliseconds());
+            }
+            interval = Math.max(Math.min(interval, estimatedRemaining(now)), initialInterval.toMilliseconds());
+            return progressed;
+        }
+
+        /**
+         * @return the delay before the next poll.
+         */
+        public Duration nextDelay() {
+            double factor = 1 + jitter * (2 * RANDOM.nextDouble() - 1);
+            return Duration.millis(Math.max(0, (long) (interval * factor)));
+        }
+
+        private long estimatedRemaining(long now) {
+            if (lastProgress <= 0 || lastProgressTime <= startTime) {
+                return Long.MAX_VALUE;
+            }
+            double rate = lastProgress / (lastProgressTime - startTime);
+            return (long) ((100 - lastProgress) / rate) - (now - lastProgressTime);
+        }
+    }
+
+    public static class Builder {
+
+        private Duration initialInterval = Duration.ONE_SECOND;
+        private Duration maxInterval = Duration.THIRTY_SECONDS;
+        private double multiplier = 2;
+        private double jitter = 0.2;
+
+        public Builder initialInterval(Duration initialInterval) {
+            this.initialInterval = initialInterval;
+            return this;
+        }
+
+        public Builder maxInterval(Duration maxInterval) {
+            this.maxInterval = maxInterval;
+            return this;
+        }
+
+        public Builder multiplier(double multiplier) {
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param jitter the fraction by which each delay is randomly shortened or lengthened, between 0 and 1.
+         */
+        public Builder jitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        public PollingPolicy build() {
+            Preconditions.checkNotNull(this.initialInterval, "Initial interval must not be null");
+            Preconditions.checkNotNull(this.maxInterval, "Max interval must not be null");
+            Preconditions.checkArgument(!this.initialInterval.isLongerThan(this.maxInterval),
+                    "Initial interval must not be longer than the max interval");
+            Preconditions.checkArgument(this.multiplier >= 1, "Multiplier must be at least 1");
+            Preconditions.checkArgument(this.jitter >= 0 && this.jitter < 1, "Jitter must be between 0 and 1");
+
+            return new PollingPolicy(this);
+        }
+    }
+}
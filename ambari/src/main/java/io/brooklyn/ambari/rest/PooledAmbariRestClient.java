@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.net.HttpHeaders;
+
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * Retrofit {@link Client} backed by a pooled, keep-alive Apache {@link org.apache.http.client.HttpClient}. Request
+ * bodies are written straight to the connection and response bodies are handed to Retrofit as a stream, so neither is
+ * copied in memory on the way through.
+ */
+public class PooledAmbariRestClient implements Client, Closeable {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    protected PooledAmbariRestClient(Builder builder) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(builder.maxTotal);
+        connectionManager.setDefaultMaxPerRoute(builder.maxPerRoute);
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(builder.idleTimeout.toMilliseconds(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        RequestBuilder requestBuilder = RequestBuilder.create(request.getMethod()).setUri(request.getUrl());
+        for (Header header : request.getHeaders()) {
+            // The entity provides the length itself, the client would reject a duplicate header
+            if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getName())) {
+                requestBuilder.addHeader(header.getName(), header.getValue());
+            }
+        }
+        if (request.getBody() != null) {
+            requestBuilder.setEntity(new TypedOutputEntity(request.getBody()));
+        }
+        HttpUriRequest httpRequest = requestBuilder.build();
+
+        HttpResponse response = httpClient.execute(httpRequest);
+
+        List<Header> headers = Lists.newArrayList();
+        for (org.apache.http.Header header : response.getAllHeaders()) {
+            headers.add(new Header(header.getName(), header.getValue()));
+        }
+        HttpEntity entity = response.getEntity();
+
+        return new Response(request.getUrl(),
+                response.getStatusLine().getStatusCode(),
+                response.getStatusLine().getReasonPhrase() != null ? response.getStatusLine().getReasonPhrase() : "",
+                headers,
+                entity != null ? new HttpEntityTypedInput(entity) : null);
+    }
+
+    /**
+     * Returns a snapshot of the connection pool usage.
+     *
+     * @return the total statistics of the underlying connection pool.
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    public static class Builder {
+
+        private int maxTotal = 20;
+        private int maxPerRoute = 10;
+        private Duration idleTimeout = Duration.THIRTY_SECONDS;
+
+        public Builder maxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        public Builder maxPerRoute(int maxPerRoute) {
+            this.maxPerRoute = maxPerRoute;
+            return this;
+        }
+
+        public Builder idleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public PooledAmbariRestClient build() {
+            Preconditions.checkArgument(this.maxTotal > 0, "Pool size must be positive");
+            Preconditions.checkArgument(this.maxPerRoute > 0, "Max connections per route must be positive");
+            Preconditions.checkNotNull(this.idleTimeout, "Idle timeout must not be null");
+
+            return new PooledAmbariRestClient(this);
+        }
+    }
+
+    static class TypedOutputEntity extends AbstractHttpEntity {
+
+        private final TypedOutput typedOutput;
+
+        TypedOutputEntity(TypedOutput typedOutput) {
+            this.typedOutput = typedOutput;
+            setContentType(typedOutput.mimeType());
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return typedOutput.length();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            // Only used by callers that read the body back, e.g. wire logging, so buffering here is fine
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            typedOutput.writeTo(outputStream);
+            return new ByteArrayInputStream(outputStream.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            typedOutput.writeTo(outputStream);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * Exposes the response entity to Retrofit without buffering it. Closing the stream, which Retrofit does once the
+     * body has been converted, hands the connection back to the pool.
+     */
+    private static class HttpEntityTypedInput implements TypedInput {
+
+        private final HttpEntity entity;
+
+        HttpEntityTypedInput(HttpEntity entity) {
+            this.entity = entity;
+        }
+
+        @Override
+        public String mimeType() {
+            return entity.getContentType() != null ? entity.getContentType().getValue() : "application/octet-stream";
+        }
+
+        @Override
+        public long length() {
+            return entity.getContentLength();
+        }
+
+        @Override
+        public InputStream in() throws IOException {
+            return entity.getContent();
+        }
+    }
+}
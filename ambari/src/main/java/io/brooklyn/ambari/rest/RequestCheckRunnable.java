@@ -20,27 +20,35 @@
 package io.brooklyn.ambari.rest;
 
 import java.net.URI;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
+import org.apache.brooklyn.util.exceptions.Exceptions;
 import org.apache.brooklyn.util.http.HttpTool;
 import org.apache.brooklyn.util.repeat.Repeater;
 import org.apache.brooklyn.util.time.Duration;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.utils.HttpClientUtils;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.jayway.jsonpath.JsonPath;
+import com.google.gson.JsonSyntaxException;
 
 import io.brooklyn.ambari.rest.domain.Request;
 
+/**
+ * Waits for an Ambari request to complete.
+ *
+ * @deprecated since the request tracker was introduced; use {@link AmbariRequestTracker#track(String, Request, Duration, String)}
+ * and compose on the returned future instead. A check built with a {@link Builder#tracker(AmbariRequestTracker, String) tracker}
+ * waits on that tracker; one without polls the request on its own.
+ */
+@Deprecated
 public class RequestCheckRunnable implements Runnable {
 
-    private static final List<String> VALID_STATES = ImmutableList.of("IN_PROGRESS", "COMPLETED", "PENDING");
-
     private final Builder builder;
 
     protected RequestCheckRunnable(Builder builder) {
@@ -53,18 +61,57 @@ public class RequestCheckRunnable implements Runnable {
 
     @Override
     public void run() {
+        if (builder.tracker != null) {
+            await();
+            return;
+        }
+        try {
+            check();
+        } finally {
+            if (builder.closeHttpClient) {
+                HttpClientUtils.closeQuietly(builder.httpClient);
+            }
+        }
+    }
+
+    private void await() {
+        try {
+            builder.tracker.track(builder.cluster, builder.request, builder.timeout, builder.errorMessage).get();
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private void check() {
+        final PollingPolicy.State pollingState = builder.pollingPolicy.newState();
         boolean done = Repeater.create(String.format("Request %s status check", builder.request.toString()))
-                .every(Duration.ONE_SECOND)
+                .delayOnIteration(new Function<Integer, Duration>() {
+                    @Override
+                    public Duration apply(Integer iteration) {
+                        return pollingState.nextDelay();
+                    }
+                })
                 .until(new Callable<Boolean>() {
                     @Override
                     public Boolean call() throws Exception {
-                        final String json = HttpTool.httpGet(builder.httpClient, URI.create(builder.request.getHref()), builder.headers).getContentAsString();
-                        final String status = JsonPath.read(json, "$.Requests.request_status");
-                        if (!VALID_STATES.contains(status)) {
+                        final byte[] json = HttpTool.httpGet(builder.httpClient, URI.create(builder.request.getHref()), builder.headers).getContent();
+                        final AmbariJsonExtractor.RequestStatus requestStatus = AmbariJsonExtractor.readRequestStatus(json);
+                        final String status = requestStatus.getStatus();
+                        if (status == null) {
+                            throw new JsonSyntaxException("No Requests.request_status in the response of " + builder.request.getHref());
+                        }
+                        if (AmbariRequestTracker.FAILED_STATES.contains(status)) {
                             throw new RuntimeException(
                                     "Request fails with state " + status +
                                             ". Check here for details " + builder.request.getHref());
                         }
+                        final Double progress = requestStatus.getProgressPercent();
+                        pollingState.update(progress);
+                        if (builder.progressListener != null && progress != null) {
+                            builder.progressListener.onProgress(builder.request, progress);
+                        }
                         return StringUtils.equals(status, "COMPLETED");
                     }
                 })
@@ -84,6 +131,11 @@ public class RequestCheckRunnable implements Runnable {
         private Duration timeout;
         private String errorMessage;
         private HttpClient httpClient;
+        private boolean closeHttpClient;
+        private PollingPolicy pollingPolicy;
+        private RequestProgressListener progressListener;
+        private AmbariRequestTracker tracker;
+        private String cluster;
 
         public Builder(Request request) {
             this.request = request;
@@ -109,6 +161,26 @@ public class RequestCheckRunnable implements Runnable {
             return this;
         }
 
+        public Builder pollingPolicy(PollingPolicy pollingPolicy) {
+            this.pollingPolicy = pollingPolicy;
+            return this;
+        }
+
+        public Builder progressListener(RequestProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        /**
+         * Waits on the given tracker rather than polling the request separately. The client, headers, polling policy
+         * and progress listener of this builder are then unused: the tracker has its own.
+         */
+        public Builder tracker(AmbariRequestTracker tracker, String cluster) {
+            this.tracker = tracker;
+            this.cluster = cluster;
+            return this;
+        }
+
         public RequestCheckRunnable build() {
             Preconditions.checkNotNull(this.request);
 
@@ -121,8 +193,15 @@ public class RequestCheckRunnable implements Runnable {
             if (StringUtils.isEmpty(this.errorMessage)) {
                 this.errorMessage = String.format("The request did not finish with the status \"COMPLETED\" or within %s", this.timeout.toString());
             }
-            if (this.httpClient == null) {
+            if (this.pollingPolicy == null) {
+                this.pollingPolicy = PollingPolicy.builder().build();
+            }
+            if (this.tracker != null) {
+                Preconditions.checkNotNull(this.cluster, "Cluster must not be null");
+            } else if (this.httpClient == null) {
+                // Prefer a shared client: this one is only used for this check and closed after it
                 this.httpClient = HttpTool.httpClientBuilder().build();
+                this.closeHttpClient = true;
             }
 
             return new RequestCheckRunnable(this);
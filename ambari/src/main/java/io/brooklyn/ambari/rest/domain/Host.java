@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest.domain;
+
+import javax.annotation.Nullable;
+
+import com.google.gson.annotations.SerializedName;
+
+public class Host {
+
+    @SerializedName("href")
+    private String href;
+
+    @SerializedName("Hosts")
+    private HostInfo hostInfo;
+
+    @Nullable
+    public String getHref() {
+        return href;
+    }
+
+    @Nullable
+    public HostInfo getHostInfo() {
+        return hostInfo;
+    }
+
+    public static class HostInfo {
+
+        @SerializedName("host_name")
+        private String hostName;
+
+        @SerializedName("cpu_count")
+        private Integer cpuCount;
+
+        @SerializedName("total_mem")
+        private Long totalMemory;
+
+        @SerializedName("os_type")
+        private String osType;
+
+        @Nullable
+        public String getHostName() {
+            return hostName;
+        }
+
+        @Nullable
+        public Integer getCpuCount() {
+            return cpuCount;
+        }
+
+        /**
+         * @return the total memory of the host, in kB.
+         */
+        @Nullable
+        public Long getTotalMemory() {
+            return totalMemory;
+        }
+
+        @Nullable
+        public String getOsType() {
+            return osType;
+        }
+    }
+}
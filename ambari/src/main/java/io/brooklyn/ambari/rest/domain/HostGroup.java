@@ -44,6 +44,9 @@ public class HostGroup {
     @SerializedName("hosts")
     private List<Map<String, String>> hosts;
 
+    @SerializedName("cardinality")
+    private String cardinality;
+
     public HostGroup() {
         this.configurations = MutableList.of();
         this.components = MutableList.of();
@@ -70,11 +73,17 @@ public class HostGroup {
         return hosts;
     }
 
+    @Nullable
+    public String getCardinality() {
+        return cardinality;
+    }
+
     public static class Builder {
 
         private String name;
         private final List<String> components;
         private final List<String> hosts;
+        private Integer cardinality;
 
         public Builder() {
             this.components = MutableList.of();
@@ -110,11 +119,17 @@ public class HostGroup {
             return this;
         }
 
+        public Builder setCardinality(Integer cardinality) {
+            this.cardinality = cardinality;
+            return this;
+        }
+
         public HostGroup build() {
             Preconditions.checkNotNull(this.name);
 
             HostGroup hostGroup = new HostGroup();
             hostGroup.name = this.name;
+            hostGroup.cardinality = this.cardinality != null ? String.valueOf(this.cardinality) : null;
             for (String component : components) {
                 hostGroup.components.add(new HostComponent.Builder().setName(component).build());
             }
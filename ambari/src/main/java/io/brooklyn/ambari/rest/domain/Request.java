@@ -55,6 +55,9 @@ public class Request {
         @SerializedName("id")
         private int id;
 
+        @SerializedName("progress_percent")
+        private Double progressPercent;
+
         @Nullable
         public String getCluster() {
             return cluster;
@@ -73,5 +76,10 @@ public class Request {
         public int getId() {
             return id;
         }
+
+        @Nullable
+        public Double getProgressPercent() {
+            return progressPercent;
+        }
     }
 }
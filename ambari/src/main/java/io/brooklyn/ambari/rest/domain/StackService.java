@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest.domain;
+
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.util.collections.MutableList;
+
+import com.google.gson.annotations.SerializedName;
+
+public class StackService {
+
+    @SerializedName("href")
+    private String href;
+
+    @SerializedName("StackServices")
+    private StackServiceInfo serviceInfo;
+
+    @SerializedName("components")
+    private List<StackServiceComponent> components;
+
+    public StackService() {
+        this.components = MutableList.of();
+    }
+
+    @Nullable
+    public String getHref() {
+        return href;
+    }
+
+    @Nullable
+    public StackServiceInfo getServiceInfo() {
+        return serviceInfo;
+    }
+
+    @Nonnull
+    public List<StackServiceComponent> getComponents() {
+        return components;
+    }
+
+    public static class StackServiceInfo {
+
+        @SerializedName("service_name")
+        private String service;
+
+        @Nullable
+        public String getService() {
+            return service;
+        }
+    }
+
+    public static class StackServiceComponent {
+
+        @SerializedName("StackServiceComponents")
+        private StackServiceComponentInfo componentInfo;
+
+        @Nullable
+        public StackServiceComponentInfo getComponentInfo() {
+            return componentInfo;
+        }
+    }
+
+    public static class StackServiceComponentInfo {
+
+        @SerializedName("component_name")
+        private String component;
+
+        @SerializedName("component_category")
+        private String category;
+
+        @SerializedName("cardinality")
+        private String cardinality;
+
+        @Nullable
+        public String getComponent() {
+            return component;
+        }
+
+        /**
+         * @return {@code MASTER}, {@code SLAVE} or {@code CLIENT}.
+         */
+        @Nullable
+        public String getCategory() {
+            return category;
+        }
+
+        /**
+         * @return how many hosts the component can be on, e.g. {@code 1}, {@code 1-2}, {@code 1+} or {@code ALL}.
+         */
+        @Nullable
+        public String getCardinality() {
+            return cardinality;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import io.brooklyn.ambari.rest.domain.Blueprint;
 import io.brooklyn.ambari.rest.domain.Blueprints;
 import retrofit.client.Response;
 import retrofit.http.Body;
+import retrofit.http.DELETE;
 import retrofit.http.GET;
 import retrofit.http.POST;
 import retrofit.http.Path;
@@ -39,4 +40,7 @@ public interface BlueprintEndpoint {
 
     @POST("/api/v1/blueprints/{blueprint}")
     Response createBlueprint(@Path("blueprint") String blueprint, @Body Map body);
+
+    @DELETE("/api/v1/blueprints/{blueprint}")
+    Response deleteBlueprint(@Path("blueprint") String blueprint);
 }
@@ -23,15 +23,33 @@ import java.util.List;
 import java.util.Map;
 
 import io.brooklyn.ambari.rest.domain.HostComponents;
+import io.brooklyn.ambari.rest.domain.Hosts;
 import io.brooklyn.ambari.rest.domain.Request;
 import retrofit.client.Response;
 import retrofit.http.Body;
+import retrofit.http.EncodedQuery;
 import retrofit.http.GET;
 import retrofit.http.POST;
 import retrofit.http.Path;
 
 public interface HostEndpoint {
 
+    /**
+     * @param fields the partial response fields, e.g. {@code Hosts/cpu_count,Hosts/total_mem}. They are sent as is,
+     *               not URL-encoded.
+     */
+    @GET("/api/v1/hosts")
+    Hosts getHosts(@EncodedQuery("fields") String fields);
+
+    /**
+     * @param fields the partial response fields, e.g. {@code Hosts/cpu_count,Hosts/total_mem}.
+     * @param hostNamePredicate the value of the {@code Hosts/host_name} predicate: a host name, or several joined as an
+     *                          Ambari OR predicate, e.g. {@code a.example.com|Hosts/host_name=b.example.com}. Both
+     *                          are sent as is, not URL-encoded.
+     */
+    @GET("/api/v1/hosts")
+    Hosts getHosts(@EncodedQuery("fields") String fields, @EncodedQuery("Hosts/host_name") String hostNamePredicate);
+
     @POST("/api/v1/clusters/{cluster}/hosts/{host}")
     Response addHost(@Path("cluster") String cluster, @Path("host") String host);
 
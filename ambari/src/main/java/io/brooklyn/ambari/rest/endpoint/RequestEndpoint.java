@@ -21,6 +21,7 @@ package io.brooklyn.ambari.rest.endpoint;
 
 import io.brooklyn.ambari.rest.domain.Request;
 import io.brooklyn.ambari.rest.domain.Requests;
+import retrofit.http.EncodedQuery;
 import retrofit.http.GET;
 import retrofit.http.Path;
 
@@ -29,6 +30,14 @@ public interface RequestEndpoint {
     @GET("/api/v1/clusters/{cluster}/requests")
     Requests getRequests(@Path("cluster") String cluster);
 
+    /**
+     * @param fields the partial response fields, e.g. {@code Requests/id,Requests/request_status}.
+     * @param idPredicate the value of the {@code Requests/id} predicate: a request ID, or several joined as an Ambari
+     *                    OR predicate, e.g. {@code 1|Requests/id=2}. It is sent as is, not URL-encoded.
+     */
+    @GET("/api/v1/clusters/{cluster}/requests")
+    Requests getRequests(@Path("cluster") String cluster, @EncodedQuery("fields") String fields, @EncodedQuery("Requests/id") String idPredicate);
+
     @GET("/api/v1/clusters/{cluster}/requests/{id}")
     Request getRequest(@Path("cluster") String cluster, @Path("id") int id);
 }
@@ -22,8 +22,11 @@ package io.brooklyn.ambari.rest.endpoint;
 import java.util.Map;
 
 import io.brooklyn.ambari.rest.domain.RecommendationWrappers;
+import io.brooklyn.ambari.rest.domain.StackServices;
 import retrofit.client.Response;
 import retrofit.http.Body;
+import retrofit.http.EncodedQuery;
+import retrofit.http.GET;
 import retrofit.http.POST;
 import retrofit.http.PUT;
 import retrofit.http.Path;
@@ -33,6 +36,13 @@ public interface StackEndpoint {
     @POST("/api/v1/stacks/{stack}/versions/{version}/recommendations")
     RecommendationWrappers getRecommendations(@Path("stack") String stack, @Path("version") String version, @Body Map body);
 
+    /**
+     * @param fields the partial response fields, e.g. {@code components/StackServiceComponents/cardinality}. They are
+     *               sent as is, not URL-encoded.
+     */
+    @GET("/api/v1/stacks/{stack}/versions/{version}/services")
+    StackServices getStackServices(@Path("stack") String stack, @Path("version") String version, @EncodedQuery("fields") String fields);
+
     @PUT("/api/v1/stacks/{stack}/versions/{version}/operating_systems/{os}/repositories/{repository}")
     Response updateStackRepository(@Path("stack") String stack, @Path("version") String version, @Path("os") String os, @Path("repository") String repository, @Body Map body);
 }
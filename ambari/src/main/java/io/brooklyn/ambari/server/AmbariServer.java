@@ -25,19 +25,26 @@ import java.util.Map;
 import org.apache.brooklyn.api.catalog.Catalog;
 import org.apache.brooklyn.api.entity.ImplementedBy;
 import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.config.ConfigKey;
 import org.apache.brooklyn.core.annotation.Effector;
 import org.apache.brooklyn.core.annotation.EffectorParam;
+import org.apache.brooklyn.core.config.ConfigKeys;
 import org.apache.brooklyn.core.sensor.BasicAttributeSensorAndConfigKey;
 import org.apache.brooklyn.core.sensor.PortAttributeSensorAndConfigKey;
+import org.apache.brooklyn.core.sensor.BasicNotificationSensor;
 import org.apache.brooklyn.core.sensor.Sensors;
+import org.apache.brooklyn.util.time.Duration;
 
 import com.google.common.reflect.TypeToken;
 
 import io.brooklyn.ambari.AmbariNode;
 import io.brooklyn.ambari.rest.AmbariApiException;
+import io.brooklyn.ambari.rest.RequestCheckRunnable;
 import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
 import io.brooklyn.ambari.rest.domain.RecommendationWrappers;
 import io.brooklyn.ambari.rest.domain.Request;
+import io.brooklyn.ambari.rest.domain.StackServices;
+import retrofit.RestAdapter;
 
 @Catalog(name = "Ambari Server", description = "Ambari Server: part of an ambari cluster used to install and monitor a hadoop cluster.")
 @ImplementedBy(AmbariServerImpl.class)
@@ -55,10 +62,41 @@ public interface AmbariServer extends AmbariNode {
             "ambari.server.registeredHosts",
             "List of registered agent names");
 
+    BasicNotificationSensor<String> HOST_ADDED = new BasicNotificationSensor<String>(
+            String.class,
+            "ambari.server.hostAdded",
+            "Name of an agent that registered, emitted before REGISTERED_HOSTS is updated");
+
+    BasicNotificationSensor<String> HOST_REMOVED = new BasicNotificationSensor<String>(
+            String.class,
+            "ambari.server.hostRemoved",
+            "Name of an agent that is no longer registered, emitted before REGISTERED_HOSTS is updated");
+
     AttributeSensor<Boolean> URL_REACHABLE = Sensors.newBooleanSensor("ambari.server.urlReachable");
 
+    AttributeSensor<String> PACKAGE_CACHE_URL = Sensors.newStringSensor(
+            "ambari.server.packageCacheUrl",
+            "Url of the Ambari package repository cache running on the server, once it accepts connections, or empty if "
+                    + "it could not be started");
+
     AttributeSensor<String> CLUSTER_STATE = Sensors.newStringSensor("ambari.server.clusterState");
 
+    AttributeSensor<Request> CLUSTER_REQUEST = Sensors.newSensor(
+            Request.class,
+            "ambari.server.clusterRequest",
+            "Cluster creation request followed by CLUSTER_STATE, kept so that it is followed again after a rebind");
+
+    ConfigKey<Duration> CLUSTER_REQUEST_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "ambari.server.clusterRequestTimeout",
+            "Time after which the cluster creation request stops being polled for CLUSTER_STATE",
+            Duration.hours(2));
+
+    @SuppressWarnings("serial")
+    AttributeSensor<Map<Integer, Double>> REQUESTS_PROGRESS = Sensors.newSensor(
+            new TypeToken<Map<Integer, Double>>() {},
+            "ambari.server.requests.progress",
+            "Progress in percent of the outstanding Ambari requests, by request ID");
+
     AttributeSensor<String> USERNAME = Sensors.newStringSensor(
             "ambari.server.http.user", 
             "Ambari Server's http username.");
@@ -68,11 +106,85 @@ public interface AmbariServer extends AmbariNode {
                     "ambari.server.http.password", 
                     "Ambari Server's http password");
 
+    ConfigKey<Integer> REST_POOL_MAX_TOTAL = ConfigKeys.newIntegerConfigKey(
+            "ambari.server.rest.pool.maxTotal",
+            "Maximum number of pooled HTTP connections to the Ambari REST API",
+            20);
+
+    ConfigKey<Integer> REST_POOL_MAX_PER_ROUTE = ConfigKeys.newIntegerConfigKey(
+            "ambari.server.rest.pool.maxPerRoute",
+            "Maximum number of pooled HTTP connections per route to the Ambari REST API",
+            10);
+
+    ConfigKey<Duration> REST_POOL_IDLE_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "ambari.server.rest.pool.idleTimeout",
+            "Time after which an idle pooled HTTP connection to the Ambari REST API is closed",
+            Duration.THIRTY_SECONDS);
+
+    AttributeSensor<Integer> REST_POOL_LEASED = Sensors.newIntegerSensor(
+            "ambari.server.rest.pool.leased",
+            "Number of pooled HTTP connections to the Ambari REST API currently in use");
+
+    AttributeSensor<Integer> REST_POOL_AVAILABLE = Sensors.newIntegerSensor(
+            "ambari.server.rest.pool.available",
+            "Number of idle pooled HTTP connections to the Ambari REST API kept alive");
+
+    AttributeSensor<Integer> REST_POOL_PENDING = Sensors.newIntegerSensor(
+            "ambari.server.rest.pool.pending",
+            "Number of requests waiting for a pooled HTTP connection to the Ambari REST API");
+
+    ConfigKey<RestAdapter.LogLevel> REST_LOG_LEVEL = ConfigKeys.newConfigKey(
+            RestAdapter.LogLevel.class,
+            "ambari.server.rest.logLevel",
+            "Wire logging level for the Ambari REST API: NONE, BASIC, HEADERS, HEADERS_AND_ARGS or FULL",
+            RestAdapter.LogLevel.FULL);
+
+    ConfigKey<Integer> REST_LOG_SAMPLE_RATE = ConfigKeys.newIntegerConfigKey(
+            "ambari.server.rest.logSampleRate",
+            "Log only one in this many Ambari REST API requests; 1 logs every request",
+            1);
+
+    ConfigKey<Integer> REST_LOG_MAX_BODY_BYTES = ConfigKeys.newIntegerConfigKey(
+            "ambari.server.rest.logMaxBodyBytes",
+            "Number of bytes after which logged Ambari REST API bodies are truncated",
+            4096);
+
+    ConfigKey<String> RECOMMENDATION_CACHE_DIR = ConfigKeys.newStringConfigKey(
+            "ambari.server.recommendationCache.dir",
+            "Directory on the Brooklyn server where stack advisor recommendations are cached, e.g. "
+                    + "~/.brooklyn/ambari/recommendations; the cache is disabled unless it is set",
+            null);
+
+    ConfigKey<Integer> RECOMMENDATION_CACHE_SIZE = ConfigKeys.newIntegerConfigKey(
+            "ambari.server.recommendationCache.size",
+            "Number of stack advisor recommendations kept in the cache, the least recently used being evicted first; "
+                    + "0 disables the cache",
+            50);
+
+    AttributeSensor<Integer> RECOMMENDATION_CACHE_HITS = Sensors.newIntegerSensor(
+            "ambari.server.recommendationCache.hits",
+            "Number of stack advisor recommendations served from the cache");
+
+    AttributeSensor<Integer> RECOMMENDATION_CACHE_MISSES = Sensors.newIntegerSensor(
+            "ambari.server.recommendationCache.misses",
+            "Number of stack advisor recommendations which were not in the cache, or could not be looked up as the "
+                    + "hardware of some of the hosts was not known yet");
+
     /**
      * @throws IllegalStateException if times out.
      */
     public void waitForServiceUp();
 
+    /**
+     * Creates a status check for the given request, which waits on the request tracker of this server.
+     *
+     * @param request the request to check.
+     * @return a builder, to customise the check further.
+     * @deprecated since the request tracker was introduced; the effectors of this server follow their own requests.
+     */
+    @Deprecated
+    public RequestCheckRunnable.Builder checkRequest(Request request);
+
     /**
      * Retrieves the Ambari recommendations for the given hosts / services from the REST API.
      *
@@ -84,6 +196,16 @@ public interface AmbariServer extends AmbariNode {
      */
     public RecommendationWrappers getRecommendations(String stackName, String stackVersion, List<String> hosts, List<String> services);
 
+    /**
+     * Retrieves the services of the given stack, with the category and cardinality of their components, from the REST
+     * API. They are only retrieved once per stack.
+     *
+     * @param stackName    the stack name to use.
+     * @param stackVersion the stack version to use.
+     * @return the services of the stack.
+     */
+    public StackServices getStackServices(String stackName, String stackVersion);
+
     /**
      * Creates a new blueprint and deploys it, based on the Ambari recommendations. If an error occurred, the method
      * will throw an {@link AmbariApiException} for the error to be propagated properly to the tree.
@@ -96,6 +218,35 @@ public interface AmbariServer extends AmbariNode {
      */
     public Request deployCluster(String clusterName, String blueprintName, RecommendationWrapper recommendationWrapper, Map config) throws AmbariApiException;
 
+    /**
+     * Registers the blueprint of the given Ambari recommendation, without creating a cluster from it. If an error
+     * occurred, the method will throw an {@link AmbariApiException}.
+     *
+     * @param blueprintName         the blueprint name to use.
+     * @param recommendationWrapper the Ambari recommendation holding the blueprint.
+     * @param config                the additional configuration for the Hadoop services.
+     */
+    public void createBlueprint(String blueprintName, RecommendationWrapper recommendationWrapper, Map config) throws AmbariApiException;
+
+    /**
+     * Deletes a blueprint registered by {@link #createBlueprint(String, RecommendationWrapper, Map)}. If an error
+     * occurred, the method will throw an {@link AmbariApiException}.
+     *
+     * @param blueprintName the blueprint name.
+     */
+    public void deleteBlueprint(String blueprintName) throws AmbariApiException;
+
+    /**
+     * Creates a cluster from an already registered blueprint, binding its host groups to the hosts of the given Ambari
+     * recommendation. If an error occurred, the method will throw an {@link AmbariApiException}.
+     *
+     * @param clusterName           the cluster name to use.
+     * @param blueprintName         the name of the registered blueprint.
+     * @param recommendationWrapper the Ambari recommendation holding the bindings.
+     * @return a request corresponding to the Ambari's operation.
+     */
+    public Request createClusterFromBlueprint(String clusterName, String blueprintName, RecommendationWrapper recommendationWrapper) throws AmbariApiException;
+
     @Effector(description = "Adds a new host to a cluster")
     public void addHostToCluster(@EffectorParam(name = "Cluster name") String cluster,
                                  @EffectorParam(name = "Host FQDN") String hostName);
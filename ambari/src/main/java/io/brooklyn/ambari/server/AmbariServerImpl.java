@@ -19,20 +19,25 @@
 
 package io.brooklyn.ambari.server;
 
+import java.io.Closeable;
+import java.io.File;
 import java.net.URI;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nullable;
 
-import com.jayway.jsonpath.PathNotFoundException;
 import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.api.location.Location;
 import org.apache.brooklyn.api.location.MachineLocation;
-import org.apache.brooklyn.api.mgmt.Task;
+import org.apache.brooklyn.api.sensor.AttributeSensor;
 import org.apache.brooklyn.core.annotation.EffectorParam;
 import org.apache.brooklyn.core.entity.Attributes;
 import org.apache.brooklyn.core.entity.Entities;
@@ -41,51 +46,74 @@ import org.apache.brooklyn.core.location.Machines;
 import org.apache.brooklyn.core.location.access.BrooklynAccessUtils;
 import org.apache.brooklyn.enricher.stock.Enrichers;
 import org.apache.brooklyn.entity.software.base.SoftwareProcessImpl;
+import org.apache.brooklyn.feed.function.FunctionFeed;
+import org.apache.brooklyn.feed.function.FunctionPollConfig;
 import org.apache.brooklyn.feed.http.HttpFeed;
 import org.apache.brooklyn.feed.http.HttpPollConfig;
 import org.apache.brooklyn.feed.http.HttpValueFunctions;
 import org.apache.brooklyn.util.collections.MutableMap;
-import org.apache.brooklyn.util.core.task.DynamicTasks;
-import org.apache.brooklyn.util.core.task.Tasks;
+import org.apache.brooklyn.util.exceptions.Exceptions;
 import org.apache.brooklyn.util.executor.HttpExecutorFactory;
 import org.apache.brooklyn.util.guava.Functionals;
 import org.apache.brooklyn.util.guava.Maybe;
 import org.apache.brooklyn.util.http.HttpTool;
+import org.apache.brooklyn.util.http.HttpToolResponse;
+import org.apache.brooklyn.util.os.Os;
+import org.apache.brooklyn.util.stream.Streams;
 import org.apache.brooklyn.util.text.Identifiers;
 import org.apache.brooklyn.util.text.Strings;
 import org.apache.brooklyn.util.time.Duration;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.net.HostAndPort;
 import com.google.common.net.HttpHeaders;
-import com.google.gson.JsonElement;
-import com.jayway.jsonpath.JsonPath;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import io.brooklyn.ambari.AmbariCluster;
+import io.brooklyn.ambari.LayoutEngine;
 import io.brooklyn.ambari.rest.AmbariApiException;
+import io.brooklyn.ambari.rest.AmbariEndpoints;
+import io.brooklyn.ambari.rest.AmbariJsonExtractor;
 import io.brooklyn.ambari.rest.AmbariRequestInterceptor;
+import io.brooklyn.ambari.rest.AmbariRequestTracker;
 import io.brooklyn.ambari.rest.AmbariRestClient;
+import io.brooklyn.ambari.rest.AmbariRestLoggingClient;
+import io.brooklyn.ambari.rest.PooledAmbariRestClient;
 import io.brooklyn.ambari.rest.RequestCheckRunnable;
+import io.brooklyn.ambari.rest.RequestProgressListener;
+import io.brooklyn.ambari.rest.RequestStatusListener;
 import io.brooklyn.ambari.rest.domain.AlertTargets;
+import io.brooklyn.ambari.rest.domain.Host;
 import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.rest.domain.Hosts;
 import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
 import io.brooklyn.ambari.rest.domain.RecommendationWrappers;
 import io.brooklyn.ambari.rest.domain.Request;
+import io.brooklyn.ambari.rest.domain.StackServices;
 import io.brooklyn.ambari.rest.endpoint.AlertGroupEndpoint;
 import io.brooklyn.ambari.rest.endpoint.AlertTargetEndpoint;
 import io.brooklyn.ambari.rest.endpoint.BlueprintEndpoint;
 import io.brooklyn.ambari.rest.endpoint.ClusterEndpoint;
 import io.brooklyn.ambari.rest.endpoint.ConfigurationEnpoint;
 import io.brooklyn.ambari.rest.endpoint.HostEndpoint;
+import io.brooklyn.ambari.rest.endpoint.RequestEndpoint;
 import io.brooklyn.ambari.rest.endpoint.ServiceEndpoint;
 import io.brooklyn.ambari.rest.endpoint.StackEndpoint;
 import io.brooklyn.ambari.rest.endpoint.UsersEndpoint;
@@ -100,16 +128,24 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
     public static final List<? extends Map<?, ?>> CONFIGURATIONS = ImmutableList.of(ImmutableMap.of("nagios-env", ImmutableMap.of("nagios_contact", "admin@localhost")));
     private volatile HttpFeed serviceUpHttpFeed;
     private volatile HttpFeed hostsHttpFeed;
-    private volatile HttpFeed clusterHttpFeed;
+    private volatile FunctionFeed restPoolFeed;
+    private final RegisteredHostIndex hostIndex = new RegisteredHostIndex();
+    private volatile AmbariRequestTracker requestTracker;
+    private RecommendationCache recommendationCache;
+    private final ConcurrentMap<String, StackServices> stackServices = Maps.newConcurrentMap();
     private String ambariUri;
 
-    private RestAdapter restAdapter;
+    private volatile AmbariEndpoints endpoints;
     private Client ambariRestClient;
+    private Client loggingRestClient;
 
     private UsernamePasswordCredentials usernamePasswordCredentials;
 
+    private static final Set<String> UNFINISHED_STATES = ImmutableSet.of("PENDING", "IN_PROGRESS");
     private static final String USERNAME = "admin";
     private static final String INITIAL_PASSWORD = "admin";
+    private static final String HOST_SHAPE_FIELDS = "Hosts/host_name,Hosts/cpu_count,Hosts/total_mem,Hosts/os_type";
+    private static final int HOST_SHAPES_BATCH_SIZE = 50;
 
     private Map<String, Integer> registeredAlertNotifications;
 
@@ -118,6 +154,22 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
         return AmbariServerDriver.class;
     }
 
+    @Override
+    public void rebind() {
+        // Before the sensors reconnect, so that the first poll does not report every known host as added again
+        hostIndex.restore(getAttribute(REGISTERED_HOSTS));
+        super.rebind();
+
+        // The request tracker is not persisted, so an unfinished cluster creation must be followed again
+        Request clusterRequest = getAttribute(CLUSTER_REQUEST);
+        if (requestTracker != null && clusterRequest != null && UNFINISHED_STATES.contains(getAttribute(CLUSTER_STATE))) {
+            String clusterName = clusterRequest.getRequestInfo().getCluster() != null
+                    ? clusterRequest.getRequestInfo().getCluster()
+                    : getConfig(AmbariCluster.CLUSTER_NAME);
+            followClusterRequest(clusterName, clusterRequest);
+        }
+    }
+
     @Override
     protected void connectSensors() {
         super.connectSensors();
@@ -131,9 +183,20 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                     .httpExecutorProps(location.get().getAllConfig(true))
                     .build();
         } else {
-            ambariRestClient = new AmbariRestClient();
+            // Shared by every endpoint call and request poll of this server, and only closed with the sensors
+            PooledAmbariRestClient pooledRestClient = PooledAmbariRestClient.builder()
+                    .maxTotal(getConfig(REST_POOL_MAX_TOTAL))
+                    .maxPerRoute(getConfig(REST_POOL_MAX_PER_ROUTE))
+                    .idleTimeout(getConfig(REST_POOL_IDLE_TIMEOUT))
+                    .build();
+            connectRestPoolSensors(pooledRestClient);
+            ambariRestClient = pooledRestClient;
         }
-
+        loggingRestClient = AmbariRestLoggingClient.wrap(ambariRestClient)
+                .logLevel(getConfig(REST_LOG_LEVEL))
+                .sampleRate(getConfig(REST_LOG_SAMPLE_RATE))
+                .maxBodyBytes(getConfig(REST_LOG_MAX_BODY_BYTES))
+                .build();
 
         HostAndPort hp = BrooklynAccessUtils.getBrooklynAccessibleAddress(this, getAttribute(HTTP_PORT));
 
@@ -146,11 +209,26 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                 USERNAME,
                 getAttribute(AmbariServer.PASSWORD) == null ? INITIAL_PASSWORD : getAttribute(AmbariServer.PASSWORD));
 
-        restAdapter = new RestAdapter.Builder()
-                .setEndpoint(ambariUri)
-                .setClient(ambariRestClient)
-                .setRequestInterceptor(new AmbariRequestInterceptor(usernamePasswordCredentials))
-                .setLogLevel(RestAdapter.LogLevel.FULL)
+        endpoints = newEndpoints();
+        requestTracker = AmbariRequestTracker.builder()
+                .requestEndpoint(new Supplier<RequestEndpoint>() {
+                    @Override
+                    public RequestEndpoint get() {
+                        return endpoints.get(RequestEndpoint.class);
+                    }
+                })
+                .progressListener(new RequestProgressListener() {
+                    @Override
+                    public void onProgress(Request request, double progressPercent) {
+                        sensors().set(REQUESTS_PROGRESS, requestTracker.getProgress());
+                    }
+                })
+                .statusListener(new RequestStatusListener() {
+                    @Override
+                    public void onStatus(Request request, String status) {
+                        onRequestStatus(request, status);
+                    }
+                })
                 .build();
 
         serviceUpHttpFeed = HttpFeed.builder()
@@ -170,70 +248,270 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
         connectAuthenticatedSensors();
     }
 
-    Function<JsonElement, List<String>> getHosts() {
-        Function<JsonElement, List<String>> path = new Function<JsonElement, List<String>>() {
-            @Nullable
+    private AmbariEndpoints newEndpoints() {
+        // Wire logging is done by loggingRestClient, so that it can be sampled and truncated
+        return new AmbariEndpoints(new RestAdapter.Builder()
+                .setEndpoint(ambariUri)
+                .setClient(loggingRestClient)
+                .setRequestInterceptor(new AmbariRequestInterceptor(usernamePasswordCredentials))
+                .setLogLevel(RestAdapter.LogLevel.NONE)
+                .build());
+    }
+
+    private void connectRestPoolSensors(final PooledAmbariRestClient pooledRestClient) {
+        restPoolFeed = FunctionFeed.builder()
+                .entity(this)
+                .period(Duration.FIVE_SECONDS)
+                .poll(new FunctionPollConfig<PoolStats, Integer>(REST_POOL_LEASED)
+                        .supplier(poolStats(pooledRestClient))
+                        .onSuccess(new Function<PoolStats, Integer>() {
+                            @Override
+                            public Integer apply(PoolStats poolStats) {
+                                return poolStats.getLeased();
+                            }
+                        }))
+                .poll(new FunctionPollConfig<PoolStats, Integer>(REST_POOL_AVAILABLE)
+                        .supplier(poolStats(pooledRestClient))
+                        .onSuccess(new Function<PoolStats, Integer>() {
+                            @Override
+                            public Integer apply(PoolStats poolStats) {
+                                return poolStats.getAvailable();
+                            }
+                        }))
+                .poll(new FunctionPollConfig<PoolStats, Integer>(REST_POOL_PENDING)
+                        .supplier(poolStats(pooledRestClient))
+                        .onSuccess(new Function<PoolStats, Integer>() {
+                            @Override
+                            public Integer apply(PoolStats poolStats) {
+                                return poolStats.getPending();
+                            }
+                        }))
+                .build();
+    }
+
+    private Supplier<PoolStats> poolStats(final PooledAmbariRestClient pooledRestClient) {
+        return new Supplier<PoolStats>() {
             @Override
-            public List<String> apply(@Nullable JsonElement jsonElement) {
-                try {
-                    String jsonString = jsonElement.toString();
-                    return JsonPath.read(jsonString, "$.items[*].Hosts.host_name");
-                } catch (PathNotFoundException e) {
-                    return ImmutableList.of();
-                }
+            public PoolStats get() {
+                return pooledRestClient.getPoolStats();
             }
         };
-        return path;
     }
 
-    Function<JsonElement, String> getRequestState() {
-        Function<JsonElement, String> path = new Function<JsonElement, String>() {
+    Function<HttpToolResponse, List<String>> getHosts() {
+        Function<HttpToolResponse, List<String>> path = new Function<HttpToolResponse, List<String>>() {
             @Nullable
             @Override
-            public String apply(@Nullable JsonElement jsonElement) {
-                String jsonString = jsonElement.toString();
-                return JsonPath.read(jsonString, "$.Requests.request_status");
+            public List<String> apply(@Nullable HttpToolResponse response) {
+                return AmbariJsonExtractor.readHostNames(response.getContent());
             }
         };
         return path;
     }
 
+    /**
+     * Updates {@link #hostIndex} with the polled hosts and emits {@link AmbariServer#HOST_ADDED} and
+     * {@link AmbariServer#HOST_REMOVED} for the difference. The returned list is the same instance for as long as the
+     * hosts do not change, so {@link AmbariServer#REGISTERED_HOSTS} is only republished when they do.
+     */
+    private Function<List<String>, List<String>> indexHosts() {
+        return new Function<List<String>, List<String>>() {
+            @Override
+            public List<String> apply(List<String> hosts) {
+                RegisteredHostIndex.Delta delta = hostIndex.update(hosts);
+                if (!delta.isEmpty()) {
+                    LOG.debug("Registered hosts of {} changed: added {}, removed {}",
+                            new Object[] {AmbariServerImpl.this, delta.getAdded(), delta.getRemoved()});
+                }
+                for (String host : delta.getRemoved()) {
+                    sensors().emit(HOST_REMOVED, host);
+                }
+                for (String host : delta.getAdded()) {
+                    sensors().emit(HOST_ADDED, host);
+                }
+                return hostIndex.getHosts();
+            }
+        };
+    }
+
+    /**
+     * Keeps the last known hosts when a poll fails, rather than reporting every host as removed and then added again.
+     */
+    private Function<Object, List<String>> indexedHosts() {
+        return new Function<Object, List<String>>() {
+            @Override
+            public List<String> apply(Object input) {
+                return hostIndex.getHosts();
+            }
+        };
+    }
+
     @Override
     public void disconnectSensors() {
         super.disconnectSensors();
         disconnectServiceUpIsRunning();
 
         if (serviceUpHttpFeed != null) serviceUpHttpFeed.stop();
+        if (restPoolFeed != null) restPoolFeed.stop();
+        if (requestTracker != null) requestTracker.close();
 
         disconnectAuthenticatedSensors();
+
+        if (ambariRestClient instanceof Closeable) {
+            Streams.closeQuietly((Closeable) ambariRestClient);
+        }
+    }
+
+    @Override
+    @Deprecated
+    public RequestCheckRunnable.Builder checkRequest(Request request) {
+        String cluster = request.getRequestInfo() != null && request.getRequestInfo().getCluster() != null
+                ? request.getRequestInfo().getCluster()
+                : getConfig(AmbariCluster.CLUSTER_NAME);
+        return RequestCheckRunnable.check(request).tracker(requestTracker, cluster);
     }
 
     @Override
     public RecommendationWrappers getRecommendations(String stackName, String stackVersion, List<String> hosts, List<String> services) {
         waitForServiceUp();
 
-        return restAdapter.create(StackEndpoint.class).getRecommendations(stackName, stackVersion, ImmutableMap.builder()
+        final RecommendationCache cache = getRecommendationCache();
+        final Map<String, String> shapesByHost = cache != null ? getHostShapes(endpoints.get(HostEndpoint.class), hosts) : null;
+        if (cache != null) {
+            RecommendationWrappers cached = shapesByHost != null ? cache.get(stackName, stackVersion, services, shapesByHost) : null;
+            if (cached != null) {
+                LOG.info("{} reusing the cached recommendation for {} on {} hosts", new Object[] {this, services, hosts.size()});
+                incrementSensor(RECOMMENDATION_CACHE_HITS);
+                return cached;
+            }
+            incrementSensor(RECOMMENDATION_CACHE_MISSES);
+        }
+
+        RecommendationWrappers recommendationWrappers = endpoints.get(StackEndpoint.class).getRecommendations(stackName, stackVersion, ImmutableMap.builder()
                 .put("hosts", hosts)
                 .put("services", services)
                 .put("recommend", "host_groups")
                 .build());
+        if (shapesByHost != null) {
+            cache.put(stackName, stackVersion, services, shapesByHost, recommendationWrappers);
+        }
+        return recommendationWrappers;
+    }
+
+    @Override
+    public StackServices getStackServices(String stackName, String stackVersion) {
+        final String stack = stackName + "-" + stackVersion;
+        StackServices result = stackServices.get(stack);
+        if (result == null) {
+            waitForServiceUp();
+            result = endpoints.get(StackEndpoint.class).getStackServices(stackName, stackVersion, LayoutEngine.STACK_SERVICES_FIELDS);
+            stackServices.putIfAbsent(stack, result);
+        }
+        return result;
+    }
+
+    @Nullable
+    private synchronized RecommendationCache getRecommendationCache() {
+        Integer size = getConfig(RECOMMENDATION_CACHE_SIZE);
+        String dir = getConfig(RECOMMENDATION_CACHE_DIR);
+        if (size == null || size <= 0 || Strings.isBlank(dir)) {
+            return null;
+        }
+        if (recommendationCache == null) {
+            recommendationCache = new RecommendationCache(new File(Os.tidyPath(dir)), size,
+                    getConfig(SUGGESTED_VERSION));
+        }
+        return recommendationCache;
+    }
+
+    /**
+     * Fetches only the given hosts, a batch at a time to bound the length of the URL.
+     *
+     * @return the shape of each of the given hosts, or {@code null} if Ambari does not know them all, or not fully.
+     */
+    @Nullable
+    static Map<String, String> getHostShapes(HostEndpoint hostEndpoint, List<String> hosts) {
+        final Set<String> hostNames = ImmutableSet.copyOf(hosts);
+        final Map<String, String> shapesByHost = MutableMap.of();
+        try {
+            for (List<String> batch : Iterables.partition(hostNames, HOST_SHAPES_BATCH_SIZE)) {
+                Hosts registeredHosts = hostEndpoint.getHosts(HOST_SHAPE_FIELDS, Joiner.on("|Hosts/host_name=").join(batch));
+                for (Host host : registeredHosts.getHosts()) {
+                    Host.HostInfo hostInfo = host.getHostInfo();
+                    if (hostInfo != null && hostNames.contains(hostInfo.getHostName())) {
+                        String shape = RecommendationCache.getHostShape(hostInfo.getCpuCount(), hostInfo.getTotalMemory(), hostInfo.getOsType());
+                        if (shape == null) {
+                            LOG.debug("Ambari does not know the hardware of {} yet, so the recommendation is not cached", hostInfo.getHostName());
+                            return null;
+                        }
+                        shapesByHost.put(hostInfo.getHostName(), shape);
+                    }
+                }
+            }
+        } catch (RetrofitError retrofitError) {
+            LOG.warn("Cannot get the hosts to look up the cached recommendations: {}", retrofitError.getMessage());
+            return null;
+        }
+        return shapesByHost.size() == hostNames.size() ? shapesByHost : null;
+    }
+
+    private synchronized void incrementSensor(AttributeSensor<Integer> sensor) {
+        Integer value = getAttribute(sensor);
+        sensors().set(sensor, value != null ? value + 1 : 1);
     }
 
     @Override
     public Request deployCluster(String clusterName, String blueprintName, RecommendationWrapper recommendationWrapper, Map config) throws AmbariApiException {
+        createBlueprint(blueprintName, recommendationWrapper, config);
+        return createClusterFromBlueprint(clusterName, blueprintName, recommendationWrapper);
+    }
+
+    @Override
+    public void createBlueprint(String blueprintName, RecommendationWrapper recommendationWrapper, Map config) throws AmbariApiException {
         Preconditions.checkNotNull(recommendationWrapper);
         Preconditions.checkNotNull(recommendationWrapper.getStack());
         Preconditions.checkNotNull(recommendationWrapper.getRecommendation());
         Preconditions.checkNotNull(recommendationWrapper.getRecommendation().getBlueprint());
-        Preconditions.checkNotNull(recommendationWrapper.getRecommendation().getBindings());
 
+        final BlueprintEndpoint blueprintEndpoint = endpoints.get(BlueprintEndpoint.class);
+        final Map<Object, Object> blueprint = ImmutableMap.builder()
+                .put("host_groups", recommendationWrapper.getRecommendation().getBlueprint().getHostGroups())
+                .put("configurations", getConfigurations(config))
+                .put("Blueprints", recommendationWrapper.getStack())
+                .build();
         try {
-            restAdapter.create(BlueprintEndpoint.class).createBlueprint(blueprintName, ImmutableMap.builder()
-                    .put("host_groups", recommendationWrapper.getRecommendation().getBlueprint().getHostGroups())
-                    .put("configurations", getConfigurations(config))
-                    .put("Blueprints", recommendationWrapper.getStack())
-                    .build());
+            blueprintEndpoint.createBlueprint(blueprintName, blueprint);
+        } catch (RetrofitError retrofitError) {
+            if (retrofitError.getResponse() == null || retrofitError.getResponse().getStatus() != 409) {
+                throw new AmbariApiException(retrofitError);
+            }
+            // Typically registered ahead of the deployment before Brooklyn was restarted
+            LOG.info("{} replacing the blueprint {} already registered", this, blueprintName);
+            try {
+                blueprintEndpoint.deleteBlueprint(blueprintName);
+                blueprintEndpoint.createBlueprint(blueprintName, blueprint);
+            } catch (RetrofitError replaceError) {
+                throw new AmbariApiException(replaceError);
+            }
+        }
+    }
+
+    @Override
+    public void deleteBlueprint(String blueprintName) throws AmbariApiException {
+        try {
+            endpoints.get(BlueprintEndpoint.class).deleteBlueprint(blueprintName);
+        } catch (RetrofitError retrofitError) {
+            throw new AmbariApiException(retrofitError);
+        }
+    }
 
+    @Override
+    public Request createClusterFromBlueprint(String clusterName, String blueprintName, RecommendationWrapper recommendationWrapper) throws AmbariApiException {
+        Preconditions.checkNotNull(recommendationWrapper);
+        Preconditions.checkNotNull(recommendationWrapper.getRecommendation());
+        Preconditions.checkNotNull(recommendationWrapper.getRecommendation().getBindings());
+
+        try {
             List<HostGroup> confHostGroupsList = recommendationWrapper.getRecommendation().getBindings().getHostGroups();
             List<HostGroup> nonZeroHostGroupList = new LinkedList<>();
 
@@ -243,21 +521,69 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                 }
             }
 
-            return restAdapter.create(ClusterEndpoint.class).createCluster(clusterName, ImmutableMap.builder()
+            Request request = endpoints.get(ClusterEndpoint.class).createCluster(clusterName, ImmutableMap.builder()
                     .put("blueprint", blueprintName)
                     .put("default_password", usernamePasswordCredentials.getPassword())
                     .put("host_groups", nonZeroHostGroupList)
                     .build());
+            trackClusterState(clusterName, request);
+            return request;
         } catch (RetrofitError retrofitError) {
             throw new AmbariApiException(retrofitError);
         }
     }
 
+    /**
+     * Makes {@link AmbariServer#CLUSTER_STATE} follow the status of the given cluster creation request. The request is
+     * polled with the other outstanding requests of the cluster, and no longer once it reaches a final status.
+     */
+    private void trackClusterState(final String clusterName, final Request request) {
+        if (request == null || request.getRequestInfo() == null) {
+            LOG.warn("No request returned for the creation of cluster {} on {}; {} will not be updated",
+                    new Object[] {clusterName, this, CLUSTER_STATE.getName()});
+            return;
+        }
+        String status = request.getRequestInfo().getStatus();
+        sensors().set(CLUSTER_REQUEST, request);
+        sensors().set(CLUSTER_STATE, status != null ? status : "PENDING");
+        followClusterRequest(clusterName, request);
+    }
+
+    /**
+     * Updates {@link AmbariServer#CLUSTER_STATE} when the status of the cluster creation request changes.
+     */
+    void onRequestStatus(Request request, String status) {
+        Request clusterRequest = getAttribute(CLUSTER_REQUEST);
+        if (clusterRequest != null && clusterRequest.getRequestInfo() != null
+                && clusterRequest.getRequestInfo().getId() == request.getRequestInfo().getId()) {
+            sensors().set(CLUSTER_STATE, status);
+        }
+    }
+
+    private void followClusterRequest(final String clusterName, Request request) {
+        Futures.addCallback(requestTracker.track(clusterName, request, getConfig(CLUSTER_REQUEST_TIMEOUT)), new FutureCallback<Request>() {
+            @Override
+            public void onSuccess(Request result) {
+                LOG.info("Creation of cluster {} completed on {}", clusterName, AmbariServerImpl.this);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof TimeoutException) {
+                    LOG.warn("Stopped tracking the creation of cluster {} on {} after {}",
+                            new Object[] {clusterName, AmbariServerImpl.this, getConfig(CLUSTER_REQUEST_TIMEOUT)});
+                } else {
+                    LOG.warn("Creation of cluster {} failed on {}: {}", new Object[] {clusterName, AmbariServerImpl.this, t.getMessage()});
+                }
+            }
+        });
+    }
+
     @Override
     public void addHostToCluster(@EffectorParam(name = "Cluster name") String cluster,
                                  @EffectorParam(name = "Host FQDN") String hostName) {
         waitForServiceUp();
-        restAdapter.create(HostEndpoint.class).addHost(cluster, hostName);
+        endpoints.get(HostEndpoint.class).addHost(cluster, hostName);
 
     }
 
@@ -277,7 +603,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
     @Override
     public void updateStackRepository(@EffectorParam(name = "Stack Name") String stackName, @EffectorParam(name = "Stack Version") String stackVersion, @EffectorParam(name = "Operating System") String os, @EffectorParam(name = "Repository Name") String repoName, @EffectorParam(name = "Repository URL") String url) {
         waitForServiceUp();
-        restAdapter.create(StackEndpoint.class)
+        endpoints.get(StackEndpoint.class)
                 .updateStackRepository(stackName, stackVersion, os, repoName, ImmutableMap.builder()
                         .put("Repositories", ImmutableMap.builder()
                                 .put("base_url", url)
@@ -293,8 +619,8 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                                     @EffectorParam(name = "configuration", description = "Services Configuration", nullable = true, defaultValue = EffectorParam.MAGIC_STRING_MEANING_NULL) Map<String, Map<Object, Object>> configuration) {
         waitForServiceUp();
 
-        final ServiceEndpoint serviceEndpoint = restAdapter.create(ServiceEndpoint.class);
-        final HostEndpoint hostEndpoint = restAdapter.create(HostEndpoint.class);
+        final ServiceEndpoint serviceEndpoint = endpoints.get(ServiceEndpoint.class);
+        final HostEndpoint hostEndpoint = endpoints.get(HostEndpoint.class);
 
         // Step 1 - Add the service to the cluster
         serviceEndpoint.addService(cluster, service);
@@ -313,46 +639,26 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
             }
         }
 
-        final Task installationTask = Tasks.builder()
-                .name(String.format("Install %s service", service))
-                .description(String.format("Install %s service on specified hosts through Ambari REST API", service))
-                .body(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Step 5 - Install the service
-                        final Request request = serviceEndpoint.updateService(cluster, service, ImmutableMap.builder()
-                                .put("RequestInfo", ImmutableMap.builder()
-                                        .put("context", String.format("Install %s service", service))
-                                        .build())
-                                .put("ServiceInfo", ImmutableMap.builder()
-                                        .put("state", "INSTALLED")
-                                        .build())
-                                .build());
-
-                        RequestCheckRunnable.check(request)
-                                .headers(ImmutableMap.of(HttpHeaders.AUTHORIZATION, HttpTool.toBasicAuthorizationValue(usernamePasswordCredentials)))
-                                .errorMessage(String.format("Error during installation of service \"%s\". Please check the Ambari console for more details: %s", service, ambariUri))
-                                .build()
-                                .run();
-                    }
-                }).build();
-        final Task startTask = Tasks.builder()
-                .name(String.format("Start %s service", service))
-                .description(String.format("Start %s service on specified hosts through Ambari REST API", service))
-                .body(new Runnable() {
+        // Step 5 - Install the service, then step 6 - start it once installed
+        awaitRequest(installAndStartService(cluster, service));
+    }
+
+    /**
+     * Asks Ambari to install the given service, then to start it once installed.
+     *
+     * @return a future completed once the service has started, or failed if either request fails.
+     */
+    protected ListenableFuture<Request> installAndStartService(final String cluster, final String service) {
+        return Futures.transform(
+                updateServiceState(cluster, service, "INSTALLED", String.format("Install %s service", service),
+                        String.format("Error during installation of service \"%s\". Please check the Ambari console for more details: %s", service, ambariUri)),
+                new AsyncFunction<Request, Request>() {
                     @Override
-                    public void run() {
-                        // Step 6 - Start the service
-                        startService(cluster, service);
+                    public ListenableFuture<Request> apply(Request installed) {
+                        return startServiceRequest(cluster, service);
                     }
-                }).build();
-
-        // Queue the "Installation" subtask and wait for its completion. If something goes wrong during execution, an
-        // exception will be thrown which will stop the effector and prevent the "start" subtask to run.
-        DynamicTasks.queue(installationTask);
-        // Queue the "Start" subtask. At this point, everything went fine. If something goes wrong during execution, an
-        // exception will be thrown which will stop the effector.
-        DynamicTasks.queue(startTask);
+                },
+                getExecutionContext());
     }
 
     @Override
@@ -360,7 +666,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                                            @EffectorParam(name = "Component configuration key") String configurationKey,
                                            @EffectorParam(name = "Component configuration") Map<Object, Object> configuration) {
         waitForServiceUp();
-        restAdapter.create(ConfigurationEnpoint.class).createConfiguration(cluster, ImmutableMap.builder()
+        endpoints.get(ConfigurationEnpoint.class).createConfiguration(cluster, ImmutableMap.builder()
                 .put("Clusters", ImmutableMap.builder()
                         .put("desired_configs", ImmutableMap.builder()
                                 .put("type", configurationKey)
@@ -373,20 +679,25 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
 
     @Override
     public void addHostsToHostGroup(final String blueprintName, final String hostgroupName, final List<String> hosts, final String cluster) {
+        awaitRequest(addHosts(blueprintName, hostgroupName, hosts, cluster));
+    }
+
+    /**
+     * Asks Ambari to add the given hosts to the given host group.
+     *
+     * @return a future completed once the hosts are added and their components installed.
+     */
+    protected ListenableFuture<Request> addHosts(String blueprintName, String hostgroupName, List<String> hosts, String cluster) {
         Iterable<Map> hostGroupMapping = Iterables.transform(hosts, fqdnsToMaps(blueprintName, hostgroupName));
         LOG.info("hosts " + hostGroupMapping.iterator().hasNext());
 
-        HostEndpoint hostEndpoint = restAdapter.create(HostEndpoint.class);
+        HostEndpoint hostEndpoint = endpoints.get(HostEndpoint.class);
         Request request = hostEndpoint.addHosts(
                 cluster,
                 Lists.newArrayList(hostGroupMapping));
 
-        RequestCheckRunnable.check(request)
-                .headers(ImmutableMap.of(HttpHeaders.AUTHORIZATION, HttpTool.toBasicAuthorizationValue(usernamePasswordCredentials)))
-                .timeout(Duration.ONE_HOUR)
-                .errorMessage(String.format("Error during adding %s to %s", hosts, hostgroupName))
-                .build()
-                .run();
+        return requestTracker.track(cluster, request, Duration.ONE_HOUR,
+                String.format("Error during adding %s to %s", hosts, hostgroupName));
     }
 
     private Function<String, Map> fqdnsToMaps(final String blueprintName, final String hostgroupName) {
@@ -451,7 +762,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
     protected void createAlertNotification(Map<String, Object> ambariAlertNotifications) {
         ImmutableMap<String, Map<String, Object>> alertTargetRequest = ImmutableMap.of("AlertTarget", ambariAlertNotifications);
 
-        restAdapter.create(AlertTargetEndpoint.class).createAlertNotification(alertTargetRequest);
+        endpoints.get(AlertTargetEndpoint.class).createAlertNotification(alertTargetRequest);
 
         registeredAlertNotifications = listAlertTargets();
     }
@@ -489,7 +800,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
     }
 
     protected Map<String, Integer> listAlertTargets() {
-        AlertTargets alertTargets = restAdapter.create(AlertTargetEndpoint.class).listAlertNotifications();
+        AlertTargets alertTargets = endpoints.get(AlertTargetEndpoint.class).listAlertNotifications();
 
         Map<String, Integer> result = MutableMap.of();
         for (Map<String, Object> item: alertTargets.getItems()) {
@@ -502,7 +813,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
     protected void updateAlertTarget(Integer targetId, Map<String, Object> ambariAlertNotifications) {
         ImmutableMap<String, Map<String, Object>> alertTargetRequest = ImmutableMap.of("AlertTarget", ambariAlertNotifications);
 
-        restAdapter.create(AlertTargetEndpoint.class).editAlertNotification(targetId, alertTargetRequest);
+        endpoints.get(AlertTargetEndpoint.class).editAlertNotification(targetId, alertTargetRequest);
     }
 
     @Override
@@ -513,7 +824,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
         if (!registeredAlertNotifications.containsKey(name)) {
             throw new UnsupportedOperationException(String.valueOf(Strings.format("Alert with name %s doesn't exist and cannot be deleted.", name)));
         }
-        restAdapter.create(AlertTargetEndpoint.class).deleteAlertNotification(registeredAlertNotifications.get(name));
+        endpoints.get(AlertTargetEndpoint.class).deleteAlertNotification(registeredAlertNotifications.get(name));
     }
 
     @Override
@@ -525,7 +836,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                 .put("definitions", definitions)
                 .build());
 
-        restAdapter.create(AlertGroupEndpoint.class).createAlertGroup(getConfig(AmbariCluster.CLUSTER_NAME), alertGroupRequest);
+        endpoints.get(AlertGroupEndpoint.class).createAlertGroup(getConfig(AmbariCluster.CLUSTER_NAME), alertGroupRequest);
     }
 
     @Override
@@ -533,20 +844,44 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                              @EffectorParam(name = "Service name") final String service) {
         waitForServiceUp();
 
-        final Request request = restAdapter.create(ServiceEndpoint.class).updateService(cluster, service, ImmutableMap.builder()
+        awaitRequest(startServiceRequest(cluster, service));
+    }
+
+    private ListenableFuture<Request> startServiceRequest(String cluster, String service) {
+        return updateServiceState(cluster, service, "STARTED", String.format("Start %s service", service),
+                String.format("Error during the start of service \"%s\". Please check the Ambari console for more details: %s", service, ambariUri));
+    }
+
+    /**
+     * Asks Ambari to bring the given service to the given state.
+     *
+     * @return a future completed once the request completes, polled with the other requests of the cluster.
+     */
+    private ListenableFuture<Request> updateServiceState(String cluster, String service, String state, String context, String errorMessage) {
+        final Request request = endpoints.get(ServiceEndpoint.class).updateService(cluster, service, ImmutableMap.builder()
                 .put("RequestInfo", ImmutableMap.builder()
-                        .put("context", String.format("Start %s service", service))
+                        .put("context", context)
                         .build())
                 .put("ServiceInfo", ImmutableMap.builder()
-                        .put("state", "STARTED")
+                        .put("state", state)
                         .build())
                 .build());
 
-        RequestCheckRunnable.check(request)
-                .headers(ImmutableMap.of(HttpHeaders.AUTHORIZATION, HttpTool.toBasicAuthorizationValue(usernamePasswordCredentials)))
-                .errorMessage(String.format("Error during the start of service \"%s\". Please check the Ambari console for more details: %s", service, ambariUri))
-                .build()
-                .run();
+        return requestTracker.track(cluster, request, Duration.FIVE_MINUTES, errorMessage);
+    }
+
+    /**
+     * Effectors complete once their Ambari requests do, as their callers expect, so each waits here for its future.
+     * Nothing else waits on a request: the requests are polled by {@link #requestTracker}, and the futures composed.
+     */
+    private Request awaitRequest(ListenableFuture<Request> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            throw Exceptions.propagate(e);
+        }
     }
 
     @Override
@@ -584,7 +919,7 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
     }
 
     public void setRestAdapter(RestAdapter restAdapter) {
-        this.restAdapter = restAdapter;
+        this.endpoints = new AmbariEndpoints(restAdapter);
     }
 
     @Override
@@ -618,14 +953,10 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
 
             waitForServiceUp();
 
-            restAdapter.create(UsersEndpoint.class).updateUser(userRequest);
+            endpoints.get(UsersEndpoint.class).updateUser(userRequest);
 
-            restAdapter = new RestAdapter.Builder()
-                    .setEndpoint(ambariUri)
-                    .setClient(ambariRestClient)
-                    .setRequestInterceptor(new AmbariRequestInterceptor(usernamePasswordCredentials))
-                    .setLogLevel(RestAdapter.LogLevel.FULL)
-                    .build();
+            // Swap all endpoint proxies at once so concurrent callers never mix credentials
+            endpoints = newEndpoints();
 
             disconnectAuthenticatedSensors();
             connectAuthenticatedSensors();
@@ -639,30 +970,17 @@ public class AmbariServerImpl extends SoftwareProcessImpl implements AmbariServe
                 .entity(this)
                 .period(1000, TimeUnit.MILLISECONDS)
                 .baseUri(String.format("%s/api/v1/hosts", ambariUri))
+                .baseUriVars(ImmutableMap.of("fields", "Hosts/host_name", "minimal_response", "true"))
                 .credentials(usernamePasswordCredentials.getUserName(), usernamePasswordCredentials.getPassword())
                 .header(HttpHeaders.AUTHORIZATION, HttpTool.toBasicAuthorizationValue(usernamePasswordCredentials))
                 .poll(new HttpPollConfig<List<String>>(REGISTERED_HOSTS)
-                        .onSuccess(Functionals.chain(HttpValueFunctions.jsonContents(), getHosts()))
-                        .onFailureOrException(Functions.<List<String>>constant(ImmutableList.<String>of())))
-                .build();
-
-        clusterHttpFeed = HttpFeed.builder()
-                .entity(this)
-                .period(1000, TimeUnit.MILLISECONDS)
-                .baseUri(String.format("%s/api/v1/clusters/%s/requests/%d",
-                        ambariUri,
-                        getConfig(AmbariCluster.CLUSTER_NAME),
-                        1))
-                .credentials(usernamePasswordCredentials.getUserName(), usernamePasswordCredentials.getPassword())
-                .header(HttpHeaders.AUTHORIZATION, HttpTool.toBasicAuthorizationValue(usernamePasswordCredentials))
-                .poll(new HttpPollConfig<String>(CLUSTER_STATE)
-                        .onSuccess(Functionals.chain(HttpValueFunctions.jsonContents(), getRequestState()))
-                        .onFailureOrException(Functions.<String>constant(null)))
+                        .onSuccess(Functionals.chain(getHosts(), indexHosts()))
+                        .onFailureOrException(indexedHosts())
+                        .suppressDuplicates(true))
                 .build();
     }
 
     private void disconnectAuthenticatedSensors() {
         if (hostsHttpFeed != null) hostsHttpFeed.stop();
-        if (clusterHttpFeed != null) clusterHttpFeed.stop();
     }
 }
@@ -30,9 +30,12 @@ import org.apache.brooklyn.api.entity.EntityLocal;
 import org.apache.brooklyn.core.entity.Entities;
 import org.apache.brooklyn.entity.java.JavaSoftwareProcessSshDriver;
 import org.apache.brooklyn.entity.software.base.SoftwareProcess;
+import org.apache.brooklyn.entity.software.base.lifecycle.ScriptHelper;
 import org.apache.brooklyn.location.ssh.SshMachineLocation;
 import org.apache.brooklyn.util.collections.MutableMap;
 import org.apache.brooklyn.util.ssh.BashCommands;
+import org.apache.brooklyn.util.stream.Streams;
+import org.apache.brooklyn.util.text.Identifiers;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
@@ -40,6 +43,11 @@ import com.google.common.collect.Iterables;
 
 import io.brooklyn.ambari.AmbariCluster;
 import io.brooklyn.ambari.AmbariInstallCommands;
+import io.brooklyn.ambari.AmbariNode;
+import io.brooklyn.ambari.EtcHostsStrategy;
+import io.brooklyn.ambari.HostsDnsCommands;
+import io.brooklyn.ambari.PackageCacheCommands;
+import io.brooklyn.ambari.SingleSessionScript;
 import io.brooklyn.ambari.service.CustomService;
 
 public class AmbariServerSshDriver extends JavaSoftwareProcessSshDriver implements AmbariServerDriver {
@@ -50,6 +58,9 @@ public class AmbariServerSshDriver extends JavaSoftwareProcessSshDriver implemen
                     entity.getConfig(SoftwareProcess.SUGGESTED_VERSION),
                     entity.getConfig(AmbariCluster.REPO_BASE_URL));
 
+    private SingleSessionScript singleSessionScript;
+    private boolean pendingInstallCheck;
+
     public AmbariServerSshDriver(EntityLocal entity, SshMachineLocation machine) {
         super(entity, machine);
     }
@@ -73,24 +84,66 @@ public class AmbariServerSshDriver extends JavaSoftwareProcessSshDriver implemen
 
     @Override
     public void stop() {
-        newScript(STOPPING).body.append(sudo("ambari-server stop")).execute();
+        newScript(STOPPING).body.append(sudo("ambari-server stop"), PackageCacheCommands.stopCache()).execute();
     }
 
     @Override
     public void install() {
         String fqdn = String.format("%s-%s.%s", entity.getConfig(AmbariCluster.SERVER_HOST_GROUP).toLowerCase(), entity.getId().toLowerCase(), entity.getConfig(AmbariCluster.DOMAIN_NAME));
         getEntity().setFqdn(fqdn);
-        ImmutableList<String> commands =
-                ImmutableList.<String>builder()
-                        .add(ambariInstallHelper.installAmbariRequirements(getMachine()))
-                        .addAll(BashCommands.setHostname(fqdn))
-                        .add(installPackage("ambari-server"))
-                        .build();
-
-        newScript(INSTALLING).body
+        AmbariCluster ambariCluster = getParentAmbariCluster();
+        if (ambariCluster != null && Boolean.TRUE.equals(ambariCluster.getConfig(AmbariCluster.PACKAGE_CACHE))) {
+            startPackageCache(ambariCluster.getConfig(AmbariCluster.PACKAGE_CACHE_PORT),
+                    entity.getAttribute(ambariCluster.getConfig(AmbariCluster.ETC_HOST_ADDRESS)));
+        }
+        List<String> installedCommands = ImmutableList.<String>builder()
+                .add(ambariInstallHelper.startNtp())
+                .addAll(BashCommands.setHostname(fqdn))
+                .build();
+        List<String> installCommands = ImmutableList.<String>builder()
+                .add(ambariInstallHelper.installAmbariRequirements(getMachine(), ambariCluster))
+                .addAll(BashCommands.setHostname(fqdn))
+                .add(installPackage("ambari-server"))
+                .build();
+        ImmutableList.Builder<String> builder = ImmutableList.<String>builder();
+        // The machine skips the install steps itself if it has the server already, in the same session
+        builder.add(ambariInstallHelper.ifInstalled("ambari-server", installedCommands, installCommands));
+
+        if (ambariCluster != null && ambariCluster.getConfig(AmbariCluster.ETC_HOSTS_STRATEGY) == EtcHostsStrategy.DNS) {
+            builder.addAll(HostsDnsCommands.installResponder(entity.getAttribute(ambariCluster.getConfig(AmbariCluster.ETC_HOST_ADDRESS))));
+        }
+        ImmutableList<String> commands = builder.build();
+
+        if (isSingleSession()) {
+            singleSessionScript = new SingleSessionScript();
+            singleSessionScript.addPhase(INSTALLING, commands);
+            pendingInstallCheck = true;
+            return;
+        }
+        ScriptHelper script = newScript(INSTALLING).body
                 .append(commands)
                 .failOnNonZeroResultCode()
+                .gatherOutput();
+        script.execute();
+        entity.sensors().set(AmbariNode.INSTALL_SKIPPED, ambariInstallHelper.isInstalled(script.getResultStdout()));
+    }
+
+    /**
+     * Starts the package cache before the server itself is installed, so that the agents waiting for it can go ahead.
+     */
+    private void startPackageCache(int port, String address) {
+        String uploadedScript = "/tmp/brooklyn-package-cache-" + Identifiers.makeRandomId(8) + ".py";
+        copyResource(PackageCacheCommands.SCRIPT_URL, uploadedScript);
+        int result = newScript("installing package cache").body
+                .append(PackageCacheCommands.startCache(uploadedScript, address, port, entity.getConfig(AmbariCluster.REPO_BASE_URL)))
                 .execute();
+        if (result != 0) {
+            // The agents then install from the upstream repository straight away, rather than after their timeout
+            log.warn("Package cache failed to start on {} (exit code {}), agents will use the upstream repository", entity, result);
+            entity.sensors().set(AmbariServer.PACKAGE_CACHE_URL, "");
+            return;
+        }
+        entity.sensors().set(AmbariServer.PACKAGE_CACHE_URL, String.format("http://%s:%d", address, port));
     }
 
     @Override
@@ -99,8 +152,10 @@ public class AmbariServerSshDriver extends JavaSoftwareProcessSshDriver implemen
         ImmutableList.Builder<String> builder = ImmutableList.<String>builder();
 
         if (!extraStackDefinitions.isEmpty()) {
-            for (String extraStackDefinition : extraStackDefinitions) {
-                String tmpLocation = copyToTmp(extraStackDefinition);
+            for (int i = 0; i < extraStackDefinitions.size(); i++) {
+                String tmpLocation = isSingleSession()
+                        ? addToSingleSessionScript(i, extraStackDefinitions.get(i))
+                        : copyToTmp(extraStackDefinitions.get(i));
                 builder.add(getUnpackCommand(tmpLocation));
             }
         }
@@ -114,6 +169,10 @@ public class AmbariServerSshDriver extends JavaSoftwareProcessSshDriver implemen
 
         builder.add(sudo("ambari-server setup -s"));
 
+        if (isSingleSession()) {
+            getSingleSessionScript().addPhase(CUSTOMIZING, builder.build());
+            return;
+        }
         newScript(CUSTOMIZING)
                 .body.append(builder.build())
                 .failOnNonZeroResultCode()
@@ -122,12 +181,43 @@ public class AmbariServerSshDriver extends JavaSoftwareProcessSshDriver implemen
 
     @Override
     public void launch() {
+        if (isSingleSession()) {
+            String output = getSingleSessionScript()
+                    .addPhase(LAUNCHING, ImmutableList.of(sudo("ambari-server start")))
+                    .run(getMachine(), newScript(LAUNCHING));
+            singleSessionScript = null;
+            if (pendingInstallCheck) {
+                entity.sensors().set(AmbariNode.INSTALL_SKIPPED, ambariInstallHelper.isInstalled(output));
+                pendingInstallCheck = false;
+            }
+            return;
+        }
         newScript(LAUNCHING)
                 .body.append(sudo("ambari-server start"))
                 .failOnNonZeroResultCode()
                 .execute();
     }
 
+    private boolean isSingleSession() {
+        return Boolean.TRUE.equals(entity.getConfig(AmbariCluster.SINGLE_SESSION_LIFECYCLE));
+    }
+
+    /**
+     * @return the script the phases are gathered in until launch; a new one if install did not run, e.g. on restart.
+     */
+    private SingleSessionScript getSingleSessionScript() {
+        if (singleSessionScript == null) {
+            singleSessionScript = new SingleSessionScript();
+        }
+        return singleSessionScript;
+    }
+
+    private String addToSingleSessionScript(int index, String extraStackDefinition) {
+        String filename = extraStackDefinition.substring(extraStackDefinition.lastIndexOf('/') + 1);
+        return getSingleSessionScript().addFile(index + "-" + filename,
+                Streams.readFullyAndClose(resource.getResourceFromUrl(extraStackDefinition)));
+    }
+
     private String copyToTmp(String extraStackDefinition) {
         String filename = extraStackDefinition.substring(extraStackDefinition.lastIndexOf('/') + 1);
         String destination = "/tmp/" + filename;
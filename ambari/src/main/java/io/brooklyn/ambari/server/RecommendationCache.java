@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.server;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.util.collections.MutableList;
+import org.apache.brooklyn.util.collections.MutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import io.brooklyn.ambari.rest.domain.RecommendationWrappers;
+
+/**
+ * Keeps the stack advisor recommendations on disk, keyed by Ambari server version, stack, services and the shape of the
+ * hosts (see {@link #getHostShape(Integer, Long, String)}) rather than their names. A recommendation for hosts of the same shapes
+ * is reused with the host names swapped: the hosts of each shape are paired by name order.
+ * <p/>
+ * Entries are evicted least recently used first once there are more than the given maximum. Errors reading or writing
+ * the cache are logged and treated as misses, so the cache never fails a deployment.
+ */
+public class RecommendationCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecommendationCache.class);
+
+    private static final Gson GSON = new Gson();
+    private static final String SUFFIX = ".json";
+
+    private final File directory;
+    private final int maxEntries;
+    private final String serverVersion;
+
+    /**
+     * @param serverVersion the version of the Ambari server, as its stack advisor may recommend differently.
+     */
+    public RecommendationCache(File directory, int maxEntries, @Nullable String serverVersion) {
+        this.directory = checkNotNull(directory, "directory");
+        this.maxEntries = maxEntries;
+        this.serverVersion = String.valueOf(serverVersion);
+    }
+
+    /**
+     * @return the shape of a host, as far as the stack advisor is concerned, or {@code null} if Ambari does not know
+     * it fully yet. The memory is rounded to the GB, as hosts of the same type report slightly different totals.
+     */
+    @Nullable
+    public static String getHostShape(@Nullable Integer cpuCount, @Nullable Long totalMemoryKb, @Nullable String osType) {
+        if (cpuCount == null || totalMemoryKb == null || osType == null) {
+            return null;
+        }
+        long memoryGb = Math.round(totalMemoryKb / (1024.0 * 1024.0));
+        return String.format("%dcpu/%dg/%s", cpuCount, memoryGb, osType);
+    }
+
+    /**
+     * @param shapesByHost the shape of each host the recommendation is for.
+     * @return the cached recommendation for hosts of the same shapes, with the given host names, or {@code null}.
+     */
+    @Nullable
+    public synchronized RecommendationWrappers get(String stackName, String stackVersion, Collection<String> services, Map<String, String> shapesByHost) {
+        File file = getFile(stackName, stackVersion, services, shapesByHost);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Entry entry = GSON.fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), Entry.class);
+            List<String> hosts = getSortedHosts(shapesByHost);
+            if (entry == null || entry.recommendations == null || entry.hosts == null || entry.hosts.size() != hosts.size()) {
+                return null;
+            }
+            Map<String, String> renames = MutableMap.of();
+            for (int i = 0; i < hosts.size(); i++) {
+                renames.put(entry.hosts.get(i), hosts.get(i));
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return GSON.fromJson(rename(entry.recommendations, renames), RecommendationWrappers.class);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot read cached recommendation {}, ignoring it: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Caches the given recommendation for hosts of the same shapes, evicting the least recently used ones if needed.
+     */
+    public synchronized void put(String stackName, String stackVersion, Collection<String> services, Map<String, String> shapesByHost,
+            RecommendationWrappers recommendationWrappers) {
+        File file = getFile(stackName, stackVersion, services, shapesByHost);
+        Entry entry = new Entry();
+        entry.hosts = getSortedHosts(shapesByHost);
+        entry.recommendations = GSON.toJsonTree(recommendationWrappers);
+        try {
+            Files.createDirectories(directory.toPath());
+            File temp = File.createTempFile("recommendation", ".tmp", directory);
+            Files.write(temp.toPath(), GSON.toJson(entry).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot cache recommendation in {}: {}", file, e.toString());
+            return;
+        }
+        evict();
+    }
+
+    private void evict() {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SUFFIX);
+            }
+        });
+        if (files == null || files.length <= maxEntries) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length - maxEntries; i++) {
+            LOG.debug("Evicting cached recommendation {}", files[i]);
+            if (!files[i].delete()) {
+                LOG.warn("Cannot evict cached recommendation {}", files[i]);
+            }
+        }
+    }
+
+    private File getFile(String stackName, String stackVersion, Collection<String> services, Map<String, String> shapesByHost) {
+        List<String> shapes = MutableList.of();
+        for (String host : getSortedHosts(shapesByHost)) {
+            shapes.add(shapesByHost.get(host));
+        }
+        String key = Joiner.on('\n').join(serverVersion, stackName, stackVersion,
+                Joiner.on(',').join(Ordering.natural().sortedCopy(services)),
+                Joiner.on(',').join(shapes));
+        return new File(directory, Hashing.sha1().hashString(key, StandardCharsets.UTF_8).toString() + SUFFIX);
+    }
+
+    /**
+     * @return the host names ordered by shape, then by name.
+     */
+    private static List<String> getSortedHosts(final Map<String, String> shapesByHost) {
+        return ImmutableList.copyOf(new Ordering<String>() {
+            @Override
+            public int compare(String host1, String host2) {
+                int byShape = shapesByHost.get(host1).compareTo(shapesByHost.get(host2));
+                return byShape != 0 ? byShape : host1.compareTo(host2);
+            }
+        }.sortedCopy(shapesByHost.keySet()));
+    }
+
+    private static JsonElement rename(JsonElement element, Map<String, String> renames) {
+        if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString() && renames.containsKey(element.getAsString())) {
+            return new JsonPrimitive(renames.get(element.getAsString()));
+        } else if (element.isJsonArray()) {
+            JsonArray renamed = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                renamed.add(rename(item, renames));
+            }
+            return renamed;
+        } else if (element.isJsonObject()) {
+            JsonObject renamed = new JsonObject();
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                renamed.add(member.getKey(), rename(member.getValue(), renames));
+            }
+            return renamed;
+        }
+        return element;
+    }
+
+    private static class Entry {
+        private List<String> hosts;
+        private JsonElement recommendations;
+    }
+}
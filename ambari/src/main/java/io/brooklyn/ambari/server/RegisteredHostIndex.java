@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Incremental index of the hosts registered with an Ambari server. Each poll result is diffed against the index, so
+ * callers only have to act, and publish, when hosts actually come or go.
+ * <p>
+ * Hosts keep the position they were first seen at, so a snapshot does not change when Ambari reorders its response.
+ */
+public class RegisteredHostIndex {
+
+    private final Set<String> hosts = Sets.newLinkedHashSet();
+    private List<String> snapshot = ImmutableList.of();
+
+    /**
+     * Replaces the indexed hosts with the given ones.
+     *
+     * @return the hosts added and removed since the previous update.
+     */
+    public synchronized Delta update(Collection<String> hostNames) {
+        Set<String> current = ImmutableSet.copyOf(hostNames);
+        Set<String> added = ImmutableSet.copyOf(Sets.difference(current, hosts));
+        Set<String> removed = ImmutableSet.copyOf(Sets.difference(hosts, current));
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            hosts.removeAll(removed);
+            hosts.addAll(added);
+            snapshot = ImmutableList.copyOf(hosts);
+        }
+        return new Delta(added, removed);
+    }
+
+    /**
+     * Seeds the index with hosts already known and published, e.g. after a rebind, so that the next update only
+     * reports the hosts that changed since.
+     */
+    public synchronized void restore(Collection<String> hostNames) {
+        hosts.clear();
+        if (hostNames != null) {
+            hosts.addAll(hostNames);
+        }
+        snapshot = ImmutableList.copyOf(hosts);
+    }
+
+    /**
+     * @return the indexed hosts. The same instance is returned for as long as the hosts do not change.
+     */
+    public synchronized List<String> getHosts() {
+        return snapshot;
+    }
+
+    public static class Delta {
+
+        private final Set<String> added;
+        private final Set<String> removed;
+
+        public Delta(Set<String> added, Set<String> removed) {
+            this.added = added;
+            this.removed = removed;
+        }
+
+        public Set<String> getAdded() {
+            return added;
+        }
+
+        public Set<String> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+    }
+}
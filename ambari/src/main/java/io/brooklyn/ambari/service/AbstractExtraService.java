@@ -19,8 +19,10 @@
 
 package io.brooklyn.ambari.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -33,7 +35,9 @@ import org.apache.commons.collections.CollectionUtils;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import io.brooklyn.ambari.AmbariCluster;
 import io.brooklyn.ambari.FunctionRunningCallable;
@@ -95,6 +99,50 @@ public abstract class AbstractExtraService extends BasicStartableImpl implements
         return Tasks.parallel("Parallel invocation of " + fn + " on ambari nodes", tasks);
     }
 
+    /**
+     * Utility method that will execute the given function on the Ambari agents of the given cluster which have one of
+     * the given components installed on them. The agents are found through {@link AmbariCluster#COMPONENT_HOSTS}.
+     * The executions will be done in a parallel.
+     * @param ambariCluster the cluster whose agents to execute the function on.
+     * @param fn the function to execute.
+     * @param components the list of components for which we want to function to be executed.
+     * @return a new pool of tasks.
+     */
+    protected Task<List<?>> parallelListenerTask(final AmbariCluster ambariCluster, final Function<AmbariAgent, ?> fn, List<String> components) {
+        return parallelListenerTask(getAmbariAgentsWithComponents(ambariCluster, components), fn, components);
+    }
+
+    /**
+     * Utility method that returns the Ambari agents of the given cluster which have one of the given components
+     * installed on them, as published by {@link AmbariCluster#COMPONENT_HOSTS}.
+     * @param ambariCluster the cluster to look the agents up in.
+     * @param components the components to look for.
+     * @return the agents, in the order of the components then of their FQDN. Empty if the cluster has not assigned
+     * components yet.
+     */
+    protected List<AmbariAgent> getAmbariAgentsWithComponents(AmbariCluster ambariCluster, Collection<String> components) {
+        Preconditions.checkNotNull(components);
+
+        Map<String, List<String>> componentHosts = ambariCluster.getAttribute(AmbariCluster.COMPONENT_HOSTS);
+        if (componentHosts == null) {
+            return ImmutableList.of();
+        }
+        Set<String> fqdns = Sets.newLinkedHashSet();
+        for (String component : components) {
+            if (componentHosts.containsKey(component)) {
+                fqdns.addAll(componentHosts.get(component));
+            }
+        }
+        List<AmbariAgent> ambariAgents = Lists.newArrayList();
+        for (String fqdn : fqdns) {
+            AmbariAgent ambariAgent = ambariCluster.getAmbariAgentByFqdn(fqdn);
+            if (ambariAgent != null) {
+                ambariAgents.add(ambariAgent);
+            }
+        }
+        return ambariAgents;
+    }
+
     /**
      * Utility method that will execute the given function on the given nodes, only if they have one of the given components
      * installed on them. The executions will be done in a parallel.
@@ -41,6 +41,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import io.brooklyn.ambari.AmbariCluster;
@@ -93,11 +94,11 @@ public class RangerImpl extends AbstractExtraService implements Ranger {
             Entities.submit(this, rangerServerRequirementsTasks).get();
 
             LOG.info("{} performing Ranger requirements on Ambari nodes with {} components installed", this, REQUIRES_JDBC_DRIVER);
-            Task<List<?>> rangerAgentRequirementsTasks = parallelListenerTask(ambariCluster.getAmbariAgents(), new AmbariAgentRequirementsFunction(), REQUIRES_JDBC_DRIVER);
+            Task<List<?>> rangerAgentRequirementsTasks = parallelListenerTask(ambariCluster, new AmbariAgentRequirementsFunction(), REQUIRES_JDBC_DRIVER);
             Entities.submit(this, rangerAgentRequirementsTasks).get();
 
             LOG.info("{} performing Ranger requirements on the Ranger host", this);
-            Task<List<?>> mysqlRequirementTasks = parallelListenerTask(ambariCluster.getAmbariAgents(), new MysqlRequirementsFunction(), REQUIRES_MYSQL_CLIENT);
+            Task<List<?>> mysqlRequirementTasks = parallelListenerTask(ambariCluster, new MysqlRequirementsFunction(), REQUIRES_MYSQL_CLIENT);
             Entities.submit(this, mysqlRequirementTasks).get();
         } catch (ExecutionException|InterruptedException ex) {
             // If something failed, we propagate the exception.
@@ -112,14 +113,9 @@ public class RangerImpl extends AbstractExtraService implements Ranger {
 
     @Nullable
     private String getFqdnFor(AmbariCluster ambariCluster, String component) {
-        for (AmbariAgent ambariAgent : ambariCluster.getAmbariAgents()) {
-            Preconditions.checkNotNull(ambariAgent.getAttribute(AmbariAgent.COMPONENTS));
-            if (!ambariAgent.getAttribute(AmbariAgent.COMPONENTS).contains(component)) {
-                continue;
-            }
-            return ambariAgent.getFqdn();
-        }
-        return null;
+        Map<String, List<String>> componentHosts = ambariCluster.getAttribute(AmbariCluster.COMPONENT_HOSTS);
+        Preconditions.checkNotNull(componentHosts);
+        return componentHosts.containsKey(component) ? Iterables.getFirst(componentHosts.get(component), null) : null;
     }
 
     class AmbariServerRequirementsFunction extends AbstractExtraServicesTask<AmbariServer> {
@@ -0,0 +1,189 @@
+#!/usr/bin/env python
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Caching proxy for the Ambari package repository, run by Brooklyn on the Ambari server.
+#
+# Usage: package-cache.py PORT UPSTREAM_URL CACHE_DIR [ADDRESS [USER]]
+#
+# Listens on ADDRESS, or on all the addresses if not given, and runs as USER once listening if given.
+# Serves PATH from UPSTREAM_URL/PATH. Packages (.deb and .rpm files), which never change for a given name, are kept in
+# CACHE_DIR: each one is downloaded once, even when several nodes ask for it at the same time. Everything else, i.e.
+# the repository metadata, is always fetched from upstream. STATUS_PATH is answered without reaching upstream, so that
+# the cache can be probed. Runs on Python 2.6 and later, including Python 3.
+
+import hashlib
+import os
+import pwd
+import shutil
+import sys
+import tempfile
+import threading
+
+try:
+    from BaseHTTPServer import BaseHTTPRequestHandler, HTTPServer
+    from SocketServer import ThreadingMixIn
+    from urllib2 import HTTPError, urlopen
+except ImportError:
+    from http.server import BaseHTTPRequestHandler, HTTPServer
+    from socketserver import ThreadingMixIn
+    from urllib.error import HTTPError
+    from urllib.request import urlopen
+
+CACHED_EXTENSIONS = ('.deb', '.rpm')
+STATUS_PATH = '/.package-cache/status'
+CHUNK_SIZE = 64 * 1024
+
+
+class PackageCache(object):
+
+    def __init__(self, upstream, directory):
+        self.upstream = upstream.rstrip('/')
+        self.directory = directory
+        self.locks = {}
+        self.locks_lock = threading.Lock()
+
+    def fetch(self, path):
+        return urlopen(self.upstream + path)
+
+    def get(self, path):
+        """Returns the file holding the package at path, downloading it first if it is not in the cache yet."""
+        key = hashlib.sha1(path.encode('utf-8')).hexdigest()
+        target = os.path.join(self.directory, key)
+        lock = self._lock(key)
+        lock.acquire()
+        try:
+            if not os.path.exists(target):
+                self._download(path, target)
+        finally:
+            lock.release()
+        return target
+
+    def _lock(self, key):
+        self.locks_lock.acquire()
+        try:
+            return self.locks.setdefault(key, threading.Lock())
+        finally:
+            self.locks_lock.release()
+
+    def _download(self, path, target):
+        response = self.fetch(path)
+        fd, downloading = tempfile.mkstemp(dir=self.directory)
+        try:
+            try:
+                out = os.fdopen(fd, 'wb')
+                try:
+                    shutil.copyfileobj(response, out, CHUNK_SIZE)
+                finally:
+                    out.close()
+                os.rename(downloading, target)
+            except:
+                if os.path.exists(downloading):
+                    os.remove(downloading)
+                raise
+        finally:
+            response.close()
+
+
+class PackageCacheHandler(BaseHTTPRequestHandler):
+
+    def do_GET(self):
+        self.serve(True)
+
+    def do_HEAD(self):
+        self.serve(False)
+
+    def serve(self, send_body):
+        path = self.path.split('?', 1)[0]
+        if not path.startswith('/') or '..' in path.split('/'):
+            self.send_error(400)
+            return
+        if path == STATUS_PATH:
+            self.send_status(send_body)
+            return
+        try:
+            if send_body and path.endswith(CACHED_EXTENSIONS):
+                self.send_file(self.server.cache.get(path))
+            else:
+                self.send_upstream(self.server.cache.fetch(path), send_body)
+        except HTTPError:
+            self.send_error(sys.exc_info()[1].code)
+        except Exception:
+            self.send_error(502, str(sys.exc_info()[1]))
+
+    def send_status(self, send_body):
+        self.send_response(200)
+        self.send_header('Content-Type', 'text/plain')
+        self.send_header('Content-Length', '3')
+        self.end_headers()
+        if send_body:
+            self.wfile.write('OK\n'.encode('ascii'))
+
+    def send_file(self, name):
+        self.send_response(200)
+        self.send_header('Content-Type', 'application/octet-stream')
+        self.send_header('Content-Length', str(os.path.getsize(name)))
+        self.end_headers()
+        source = open(name, 'rb')
+        try:
+            shutil.copyfileobj(source, self.wfile, CHUNK_SIZE)
+        finally:
+            source.close()
+
+    def send_upstream(self, response, send_body):
+        try:
+            self.send_response(200)
+            for header in ('Content-Type', 'Content-Length', 'Last-Modified'):
+                value = response.info().get(header)
+                if value:
+                    self.send_header(header, value)
+            self.end_headers()
+            if send_body:
+                shutil.copyfileobj(response, self.wfile, CHUNK_SIZE)
+        finally:
+            response.close()
+
+
+class PackageCacheServer(ThreadingMixIn, HTTPServer):
+
+    daemon_threads = True
+    allow_reuse_address = True
+
+    def __init__(self, address, port, cache):
+        HTTPServer.__init__(self, (address, port), PackageCacheHandler)
+        self.cache = cache
+
+
+def drop_privileges(user):
+    entry = pwd.getpwnam(user)
+    os.setgroups([])
+    os.setgid(entry.pw_gid)
+    os.setuid(entry.pw_uid)
+
+
+def main(argv):
+    if len(argv) < 4 or len(argv) > 6:
+        sys.stderr.write('Usage: %s PORT UPSTREAM_URL CACHE_DIR [ADDRESS [USER]]\n' % argv[0])
+        return 2
+    port, upstream, directory = int(argv[1]), argv[2], argv[3]
+    address = len(argv) > 4 and argv[4] or ''
+    if not os.path.isdir(directory):
+        os.makedirs(directory)
+    server = PackageCacheServer(address, port, PackageCache(upstream, directory))
+    if len(argv) > 5:
+        drop_privileges(argv[5])
+    server.serve_forever()
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main(sys.argv))
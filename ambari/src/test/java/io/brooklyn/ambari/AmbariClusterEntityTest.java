@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.core.entity.Entities;
+import org.apache.brooklyn.core.entity.EntityInternal;
+import org.apache.brooklyn.core.test.BrooklynAppUnitTestSupport;
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import io.brooklyn.ambari.agent.AmbariAgent;
+import io.brooklyn.ambari.hostgroup.AmbariHostGroup;
+import io.brooklyn.ambari.rest.domain.Bindings;
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.server.AmbariServer;
+import io.brooklyn.ambari.server.AmbariServerMock;
+import io.brooklyn.ambari.service.AbstractExtraServiceTest.DummyExtraService;
+import io.brooklyn.ambari.service.ExtraService;
+
+public class AmbariClusterEntityTest extends BrooklynAppUnitTestSupport {
+
+    @Test
+    public void testAddedHostsJoinComponentHosts() {
+        AmbariCluster cluster = createCluster(null);
+        deployedOn(cluster, "a.example.com");
+        AmbariAgent added = addAgent(cluster, "b.example.com");
+
+        cluster.addHostsToHostGroup("workers", ImmutableList.of(added));
+
+        assertEquals(cluster.getAttribute(AmbariCluster.COMPONENT_HOSTS), ImmutableMap.of(
+                "DATANODE", ImmutableList.of("a.example.com", "b.example.com"),
+                "NODEMANAGER", ImmutableList.of("b.example.com")));
+        assertEquals(added.getComponents(), ImmutableList.of("DATANODE", "NODEMANAGER"));
+    }
+
+    @Test
+    public void testAddingHostsToUnknownHostGroupFails() {
+        AmbariCluster cluster = createCluster(null);
+        deployedOn(cluster, "a.example.com");
+        cluster.sensors().set(AmbariCluster.HOST_GROUP_COMPONENTS, ImmutableMap.<String, List<String>>of(
+                "masters", ImmutableList.of("NAMENODE")));
+        AmbariAgent added = addAgent(cluster, "b.example.com");
+
+        try {
+            ((AmbariClusterImpl) Entities.deproxy(cluster)).addHostsToHostGroup("workers", ImmutableList.of(added));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("no such host group"), e.getMessage());
+        }
+        assertEquals(cluster.getAttribute(AmbariCluster.CLUSTER_HOSTS), ImmutableList.of("a.example.com"));
+    }
+
+    @Test
+    public void testLateAgentsJoinComponentHosts() {
+        AmbariCluster cluster = createCluster(0.5);
+        deployedOn(cluster, "a.example.com");
+        AmbariAgent late = addAgent(cluster, "b.example.com");
+        AmbariServerMock server = getServer(cluster);
+        server.sensors().set(AmbariServer.CLUSTER_STATE, "COMPLETED");
+        server.sensors().set(AmbariServer.REGISTERED_HOSTS, ImmutableList.of("a.example.com", "b.example.com"));
+
+        cluster.addLateAgents();
+
+        assertEquals(cluster.getAttribute(AmbariCluster.COMPONENT_HOSTS).get("NODEMANAGER"), ImmutableList.of("b.example.com"));
+        assertEquals(late.getComponents(), ImmutableList.of("DATANODE", "NODEMANAGER"));
+        assertEventuallyAdded(server, ImmutableList.of("b.example.com"));
+    }
+
+    @Test
+    public void testHostsAlreadyInClusterAreNotAddedAgain() {
+        AmbariCluster cluster = createCluster(null);
+        deployedOn(cluster, "a.example.com");
+        AmbariAgent deployed = getAgent(cluster, "a.example.com");
+        AmbariAgent added = addAgent(cluster, "b.example.com");
+
+        cluster.addHostsToHostGroup("workers", ImmutableList.of(deployed, added));
+        cluster.addHostsToHostGroup("workers", ImmutableList.of(added));
+
+        assertEquals(cluster.getAttribute(AmbariCluster.CLUSTER_HOSTS), ImmutableList.of("a.example.com", "b.example.com"));
+        assertEventuallyAdded(getServer(cluster), ImmutableList.of("b.example.com"));
+    }
+
+    @Test
+    public void testLateAgentsAreNotAddedBeforeClusterIsComplete() {
+        AmbariCluster cluster = createCluster(0.5);
+        deployedOn(cluster, "a.example.com");
+        addAgent(cluster, "b.example.com");
+        AmbariServerMock server = getServer(cluster);
+        server.sensors().set(AmbariServer.CLUSTER_STATE, "IN_PROGRESS");
+        server.sensors().set(AmbariServer.REGISTERED_HOSTS, ImmutableList.of("a.example.com", "b.example.com"));
+
+        cluster.addLateAgents();
+
+        assertEquals(cluster.getAttribute(AmbariCluster.CLUSTER_HOSTS), ImmutableList.of("a.example.com"));
+        assertEquals(server.getAddedHosts(), ImmutableList.of());
+    }
+
+    @Test
+    public void testIsReadyToDeployOnQuorumOfWorkers() {
+        AmbariClusterImpl cluster = (AmbariClusterImpl) Entities.deproxy(createCluster(0.5));
+        addAgent(cluster, "a.example.com");
+        addAgent(cluster, "b.example.com");
+
+        assertFalse(cluster.isReadyToDeploy(ImmutableList.<String>of()));
+        assertTrue(cluster.isReadyToDeploy(ImmutableList.of("b.example.com")));
+    }
+
+    @Test
+    public void testIsReadyToDeployWaitsForHostGroupsWithExtraMasterComponents() {
+        AmbariClusterImpl cluster = (AmbariClusterImpl) Entities.deproxy(createCluster(0.5, EntitySpec.create(DummyExtraService.class)
+                .configure(ExtraService.BIND_TO, "workers")
+                .configure(ExtraService.COMPONENT_NAMES, ImmutableList.of("HBASE_MASTER"))));
+        addAgent(cluster, "a.example.com");
+        addAgent(cluster, "b.example.com");
+
+        assertFalse(cluster.isReadyToDeploy(ImmutableList.of("b.example.com")));
+        assertTrue(cluster.isReadyToDeploy(ImmutableList.of("a.example.com", "b.example.com")));
+    }
+
+    @Test
+    public void testServicesDeploymentHasOneHostGroupPerRole() {
+        AmbariCluster cluster = app.createAndManageChild(EntitySpec.create(AmbariCluster.class)
+                .configure(AmbariCluster.SERVER_SPEC, EntitySpec.create(AmbariServerMock.class))
+                .configure(AmbariCluster.INITIAL_SIZE, 3));
+        ((EntityInternal) cluster).addLocations(ImmutableList.of(app.newSimulatedLocation()));
+        AmbariAgent master = addAgent(cluster, "a.example.com");
+        AmbariAgent worker = addAgent(cluster, "b.example.com");
+        addAgent(cluster, "c.example.com");
+        Map<String, List<String>> hostGroupComponents = ImmutableMap.<String, List<String>>of(
+                "host-group-1", ImmutableList.of("NAMENODE"),
+                "host-group-2", ImmutableList.of("DATANODE"));
+        cluster.sensors().set(AmbariCluster.HOST_GROUP_COMPONENTS, hostGroupComponents);
+        cluster.sensors().set(AmbariCluster.SCALE_OUT_HOST_GROUP, "host-group-2");
+        cluster.sensors().set(AmbariCluster.CLUSTER_HOSTS, ImmutableList.of("a.example.com", "b.example.com"));
+
+        ((AmbariClusterImpl) Entities.deproxy(cluster)).createRoleHostGroups(new Bindings.Builder()
+                .addHostGroup(new HostGroup.Builder().setName("host-group-1").addHost("a.example.com").build())
+                .addHostGroup(new HostGroup.Builder().setName("host-group-2").addHost("b.example.com").build())
+                .build(), hostGroupComponents);
+
+        AmbariHostGroup masters = getHostGroup(cluster, "host-group-1");
+        AmbariHostGroup workers = getHostGroup(cluster, "host-group-2");
+        assertEquals(masters.getHostFQDNs(), ImmutableList.of("a.example.com"));
+        assertEquals(masters.getComponents(), ImmutableList.of("NAMENODE"));
+        assertEquals(workers.getHostFQDNs(), ImmutableList.of("b.example.com"));
+        assertEquals(master.getParent(), getHostGroup(cluster, "host-group"));
+        assertEquals(worker.getParent(), getHostGroup(cluster, "host-group"));
+
+        cluster.addHostsToHostGroup("host-group", ImmutableList.of(getAgent(cluster, "c.example.com")));
+
+        assertEquals(workers.getHostFQDNs(), ImmutableList.of("b.example.com", "c.example.com"));
+        assertEquals(cluster.getAttribute(AmbariCluster.COMPONENT_HOSTS).get("DATANODE"), ImmutableList.of("c.example.com"));
+        assertEventuallyAdded(getServer(cluster), ImmutableList.of("c.example.com"));
+    }
+
+    private AmbariCluster createCluster(Double quorum, EntitySpec<?>... extraServices) {
+        return app.createAndManageChild(createClusterSpec(quorum, extraServices));
+    }
+
+    static EntitySpec<AmbariCluster> createClusterSpec(Double quorum, EntitySpec<?>... extraServices) {
+        EntitySpec<AmbariCluster> spec = EntitySpec.create(AmbariCluster.class)
+                .configure(AmbariCluster.SERVER_SPEC, EntitySpec.create(AmbariServerMock.class))
+                .configure(AmbariCluster.DEPLOYMENT_QUORUM, quorum)
+                .child(EntitySpec.create(AmbariHostGroup.class)
+                        .displayName("workers")
+                        .configure(AmbariHostGroup.INITIAL_SIZE, 2)
+                        .configure(AmbariHostGroup.HADOOP_COMPONENTS, ImmutableList.of("DATANODE", "NODEMANAGER")));
+        for (EntitySpec<?> extraService : extraServices) {
+            spec.child(extraService);
+        }
+        return spec;
+    }
+
+    /**
+     * Publishes what the deployment of the cluster on the given host would have.
+     */
+    private void deployedOn(AmbariCluster cluster, String fqdn) {
+        addAgent(cluster, fqdn);
+        cluster.sensors().set(AmbariCluster.HOST_GROUP_COMPONENTS, ImmutableMap.<String, List<String>>of(
+                "workers", ImmutableList.of("DATANODE", "NODEMANAGER")));
+        cluster.sensors().set(AmbariCluster.COMPONENT_HOSTS, ImmutableMap.<String, List<String>>of(
+                "DATANODE", ImmutableList.of(fqdn)));
+        cluster.sensors().set(AmbariCluster.CLUSTER_HOSTS, ImmutableList.of(fqdn));
+    }
+
+    static AmbariAgent addAgent(AmbariCluster cluster, String fqdn) {
+        AmbariHostGroup hostGroup = Iterables.getOnlyElement(Entities.descendants(cluster, AmbariHostGroup.class));
+        AmbariAgent ambariAgent = hostGroup.addChild(EntitySpec.create(AmbariAgent.class));
+        ambariAgent.setFqdn(fqdn);
+        return ambariAgent;
+    }
+
+    private AmbariHostGroup getHostGroup(AmbariCluster cluster, String name) {
+        for (AmbariHostGroup hostGroup : Iterables.filter(cluster.getChildren(), AmbariHostGroup.class)) {
+            if (hostGroup.getDisplayName().equals(name)) {
+                return hostGroup;
+            }
+        }
+        throw new AssertionError("No host group " + name);
+    }
+
+    private AmbariAgent getAgent(AmbariCluster cluster, String fqdn) {
+        AmbariAgent ambariAgent = cluster.getAmbariAgentByFqdn(fqdn);
+        assertNotNull(ambariAgent, fqdn);
+        return ambariAgent;
+    }
+
+    private AmbariServerMock getServer(AmbariCluster cluster) {
+        return (AmbariServerMock) cluster.getMasterAmbariServer();
+    }
+
+    private void assertEventuallyAdded(final AmbariServerMock server, final List<String> hosts) {
+        Asserts.succeedsEventually(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(server.getAddedHosts(), hosts);
+            }
+        });
+    }
+}
@@ -21,14 +21,22 @@ package io.brooklyn.ambari;
 import static org.apache.brooklyn.test.Asserts.assertThat;
 import static org.apache.brooklyn.util.collections.CollectionFunctionals.contains;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import io.brooklyn.ambari.AmbariClusterImpl;
+import io.brooklyn.ambari.rest.domain.Bindings;
+import io.brooklyn.ambari.rest.domain.Blueprint;
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.rest.domain.Recommendation;
 
 public class AmbariClusterImplTest {
     private AmbariClusterImpl ambariCluster = new AmbariClusterImpl();
@@ -118,4 +126,40 @@ public class AmbariClusterImplTest {
         
         assertEquals(tmpMap.get("oozie-site").get("oozie.service.ProxyUserService.proxyuser.hue.hosts"), "localhost");
     }
+
+    @Test
+    public void testScaleOutHostGroupIsLargestWithoutMasters() {
+        Recommendation recommendation = recommendation(
+                ImmutableList.of("NAMENODE", "DATANODE"), ImmutableList.of("host-1", "host-2", "host-3"),
+                ImmutableList.of("DATANODE", "HDFS_CLIENT"), ImmutableList.of("host-4", "host-5"),
+                ImmutableList.of("DATANODE"), ImmutableList.of("host-6"));
+
+        assertEquals("host-group-2", AmbariClusterImpl.getScaleOutHostGroup(recommendation, ImmutableSet.of("NAMENODE")));
+    }
+
+    @Test
+    public void testNoScaleOutHostGroupWhenAllHaveMasters() {
+        Recommendation recommendation = recommendation(
+                ImmutableList.of("NAMENODE", "DATANODE"), ImmutableList.of("host-1"),
+                ImmutableList.of("RESOURCEMANAGER", "DATANODE"), ImmutableList.of("host-2"));
+
+        assertNull(AmbariClusterImpl.getScaleOutHostGroup(recommendation, ImmutableSet.of("NAMENODE", "RESOURCEMANAGER")));
+    }
+
+    /**
+     * @param componentsAndHosts the components and then the hosts of each host group.
+     */
+    private Recommendation recommendation(List<String>... componentsAndHosts) {
+        Blueprint.Builder blueprintBuilder = new Blueprint.Builder();
+        Bindings.Builder bindingsBuilder = new Bindings.Builder();
+        for (int i = 0; i < componentsAndHosts.length; i += 2) {
+            String name = String.format("host-group-%d", i / 2 + 1);
+            blueprintBuilder.addHostGroup(new HostGroup.Builder().setName(name).addComponents(componentsAndHosts[i]).build());
+            bindingsBuilder.addHostGroup(new HostGroup.Builder().setName(name).addHosts(componentsAndHosts[i + 1]).build());
+        }
+        return new Recommendation.Builder()
+                .setBlueprint(blueprintBuilder.build())
+                .setBindings(bindingsBuilder.build())
+                .build();
+    }
 }
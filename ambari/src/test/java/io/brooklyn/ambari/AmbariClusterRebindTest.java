@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.core.entity.Entities;
+import org.apache.brooklyn.core.entity.EntityAsserts;
+import org.apache.brooklyn.core.mgmt.rebind.RebindTestFixtureWithApp;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.server.AmbariServerMock;
+import io.brooklyn.ambari.service.AbstractExtraServiceTest.DummyExtraService;
+import io.brooklyn.ambari.service.ExtraService;
+
+public class AmbariClusterRebindTest extends RebindTestFixtureWithApp {
+
+    @Test
+    public void testExtraComponentsAreKnownAfterRebind() throws Exception {
+        AmbariCluster cluster = origApp.createAndManageChild(AmbariClusterEntityTest.createClusterSpec(0.5, EntitySpec.create(DummyExtraService.class)
+                .configure(ExtraService.BIND_TO, "workers")
+                .configure(ExtraService.COMPONENT_NAMES, ImmutableList.of("HBASE_MASTER"))));
+        AmbariClusterEntityTest.addAgent(cluster, "a.example.com");
+        AmbariClusterEntityTest.addAgent(cluster, "b.example.com");
+
+        rebind();
+        AmbariClusterImpl newCluster = (AmbariClusterImpl) Entities.deproxy(Iterables.getOnlyElement(newApp.getChildren()));
+
+        assertFalse(newCluster.isReadyToDeploy(ImmutableList.of("b.example.com")));
+        assertTrue(newCluster.isReadyToDeploy(ImmutableList.of("a.example.com", "b.example.com")));
+    }
+
+    @Test
+    public void testPreparedBlueprintIsKnownAfterRebind() throws Exception {
+        AmbariCluster cluster = origApp.createAndManageChild(AmbariClusterEntityTest.createClusterSpec(null));
+        cluster.prepareBlueprint();
+        EntityAsserts.assertAttributeEventuallyNonNull(cluster, AmbariCluster.PREPARED_BLUEPRINT);
+        AmbariServerMock server = (AmbariServerMock) cluster.getMasterAmbariServer();
+        List<HostGroup> hostGroups = server.getRecommendationWrapper().getRecommendation().getBlueprint().getHostGroups();
+        Map<String, Map> configuration = server.getConfig();
+
+        rebind();
+        AmbariCluster newCluster = (AmbariCluster) Iterables.getOnlyElement(newApp.getChildren());
+        newCluster.prepareBlueprint();
+
+        assertTrue(newCluster.getAttribute(AmbariCluster.PREPARED_BLUEPRINT).matches(
+                cluster.getConfig(AmbariCluster.BLUEPRINT_NAME), hostGroups, configuration));
+        assertNull(((AmbariServerMock) newCluster.getMasterAmbariServer()).getBlueprintName());
+    }
+}
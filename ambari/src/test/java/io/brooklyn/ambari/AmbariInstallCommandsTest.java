@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.brooklyn.core.location.BasicOsDetails;
+import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.os.Os;
+import org.apache.brooklyn.util.stream.Streams;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+
+public class AmbariInstallCommandsTest {
+
+    private static final String REPO_BASE_URL = "http://repo.example.com";
+    private static final String APT_KEY_URL = "http://keys.example.com/ambari.asc";
+
+    private final AmbariInstallCommands installCommands = new AmbariInstallCommands("2.2.0.0", REPO_BASE_URL);
+    private List<String> fetched;
+    private RepositoryResourceCache resources;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        fetched = Lists.newArrayList();
+        resources = new RepositoryResourceCache(new Function<String, String>() {
+            @Override
+            public String apply(String url) {
+                fetched.add(url);
+                return "content of " + url;
+            }
+        });
+    }
+
+    @Test
+    public void testPreProvisionedAptCarriesRepoAndKey() {
+        SshMachineLocation machine = machine("Ubuntu", "14.04");
+
+        Optional<String> commands = installCommands.installPreProvisionedAmbariRequirements(machine, resources, APT_KEY_URL);
+
+        String repoUrl = REPO_BASE_URL + "/ambari/ubuntu14/2.x/updates/2.2.0.0/ambari.list";
+        assertEquals(fetched, ImmutableList.of(repoUrl, APT_KEY_URL));
+        assertTrue(commands.isPresent());
+        assertTrue(commands.get().contains(base64("content of " + repoUrl) + " | base64 -d > /etc/apt/sources.list.d/ambari.list"), commands.get());
+        assertTrue(commands.get().contains(base64("content of " + APT_KEY_URL) + " | base64 -d | apt-key add -"), commands.get());
+        assertFalse(commands.get().contains(REPO_BASE_URL), commands.get());
+        assertFalse(commands.get().contains("keyserver"), commands.get());
+        // Nothing is copied ahead of the commands, which may not run if the machine turns out to be installed already
+        verify(machine, never()).copyTo(any(InputStream.class), anyString());
+    }
+
+    @Test
+    public void testPreProvisionedYumOnlyCarriesRepo() {
+        SshMachineLocation machine = machine("CentOS", "6.7");
+
+        Optional<String> commands = installCommands.installPreProvisionedAmbariRequirements(machine, resources, APT_KEY_URL);
+
+        assertEquals(fetched, ImmutableList.of(REPO_BASE_URL + "/ambari/centos6/2.x/updates/2.2.0.0/ambari.repo"));
+        assertTrue(commands.get().contains("/etc/yum.repos.d/ambari.repo"), commands.get());
+        assertFalse(commands.get().contains("apt-key"), commands.get());
+    }
+
+    @Test
+    public void testResourcesAreFetchedOnceForAllMachines() {
+        installCommands.installPreProvisionedAmbariRequirements(machine("Ubuntu", "14.04"), resources, APT_KEY_URL);
+        installCommands.installPreProvisionedAmbariRequirements(machine("Ubuntu", "14.04"), resources, APT_KEY_URL);
+
+        assertEquals(fetched.size(), 2);
+    }
+
+    @Test
+    public void testPreProvisionedRepoPointsAtPackageCache() {
+        SshMachineLocation machine = machine("CentOS", "6.7");
+        RepositoryResourceCache repoResources = new RepositoryResourceCache(new Function<String, String>() {
+            @Override
+            public String apply(String url) {
+                return "baseurl=" + REPO_BASE_URL + "/ambari/centos6/2.x/updates/2.2.0.0";
+            }
+        });
+
+        Optional<String> commands = new AmbariInstallCommands("2.2.0.0", REPO_BASE_URL + "/", "http://10.0.0.1:8090")
+                .installPreProvisionedAmbariRequirements(machine, repoResources, APT_KEY_URL);
+
+        assertTrue(commands.get().contains(base64("baseurl=http://10.0.0.1:8090/ambari/centos6/2.x/updates/2.2.0.0")), commands.get());
+    }
+
+    @Test
+    public void testUnknownOsIsNotPreProvisioned() {
+        SshMachineLocation machine = machine(null, null);
+
+        assertFalse(installCommands.installPreProvisionedAmbariRequirements(machine, resources, APT_KEY_URL).isPresent());
+        assertTrue(fetched.isEmpty());
+        verify(machine, never()).copyTo(any(InputStream.class), anyString());
+    }
+
+    /**
+     * Runs the command carrying the repository definition, which must come out unchanged whatever it contains.
+     */
+    @Test(groups = "Integration")
+    public void testPreProvisionedRepoIsWrittenVerbatim() throws Exception {
+        final String definition = "[AMBARI.2.2.0.0-2.x]\nname='Ambari 2.x' \"$HOME\" `id`\nbaseurl=http://repo.example.com/\n";
+        RepositoryResourceCache repoResources = new RepositoryResourceCache(new Function<String, String>() {
+            @Override
+            public String apply(String url) {
+                return definition;
+            }
+        });
+        String command = installCommands.installPreProvisionedAmbariRequirements(machine("CentOS", "6.7"), repoResources, APT_KEY_URL).get();
+        String write = command.substring(command.indexOf("echo " + base64(definition)), command.indexOf(" > /etc/yum.repos.d/ambari.repo"));
+
+        Process process = new ProcessBuilder("bash", "-c", write).start();
+        String output = Streams.readFullyString(process.getInputStream());
+
+        assertEquals(process.waitFor(), 0);
+        assertEquals(output, definition);
+    }
+
+    @Test
+    public void testInstalledWhenVersionNtpAndRepoMatch() {
+        assertTrue(installCommands.isInstalled("BROOKLYN_AMBARI_VERSION=2.2.0.0-1310\nBROOKLYN_AMBARI_NTP=true\nBROOKLYN_AMBARI_REPO=true\n"));
+        assertTrue(installCommands.isInstalled("BROOKLYN_AMBARI_VERSION=2.2.0.0\nBROOKLYN_AMBARI_NTP=true\nBROOKLYN_AMBARI_REPO=true\n"));
+    }
+
+    @Test
+    public void testNotInstalledWhenAnythingDiffers() {
+        assertFalse(installCommands.isInstalled(null));
+        assertFalse(installCommands.isInstalled("BROOKLYN_AMBARI_VERSION=\nBROOKLYN_AMBARI_NTP=true\nBROOKLYN_AMBARI_REPO=true\n"));
+        assertFalse(installCommands.isInstalled("BROOKLYN_AMBARI_VERSION=2.2.0.01-1\nBROOKLYN_AMBARI_NTP=true\nBROOKLYN_AMBARI_REPO=true\n"));
+        assertFalse(installCommands.isInstalled("BROOKLYN_AMBARI_VERSION=2.1.2.0-377\nBROOKLYN_AMBARI_NTP=true\nBROOKLYN_AMBARI_REPO=true\n"));
+        assertFalse(installCommands.isInstalled("BROOKLYN_AMBARI_VERSION=2.2.0.0-1310\nBROOKLYN_AMBARI_REPO=true\n"));
+        assertFalse(installCommands.isInstalled("BROOKLYN_AMBARI_VERSION=2.2.0.0-1310\nBROOKLYN_AMBARI_NTP=true\n"));
+    }
+
+    /**
+     * Runs the check against stand-in {@code dpkg-query} and {@code ntpd} commands.
+     */
+    @Test(groups = "Integration")
+    public void testCheckInstalledReportsPackageVersionAndNtp() throws Exception {
+        File bin = Files.createTempDir();
+        try {
+            writeExecutable(new File(bin, "dpkg-query"), "#!/bin/sh\nprintf 'install ok installed 2.2.0.0-1310'\n");
+            writeExecutable(new File(bin, "ntpd"), "#!/bin/sh\n");
+
+            ProcessBuilder processBuilder = new ProcessBuilder("bash", "-c", Joiner.on('\n').join(installCommands.checkInstalled("ambari-agent")))
+                    .redirectErrorStream(true);
+            processBuilder.environment().put("PATH", bin.getAbsolutePath() + File.pathSeparator + System.getenv("PATH"));
+            Process process = processBuilder.start();
+            String output = Streams.readFullyString(process.getInputStream());
+
+            assertEquals(process.waitFor(), 0, output);
+            assertTrue(output.contains("BROOKLYN_AMBARI_VERSION=2.2.0.0-1310\n"), output);
+            assertTrue(output.contains("BROOKLYN_AMBARI_NTP=true\n"), output);
+        } finally {
+            Os.deleteRecursively(bin);
+        }
+    }
+
+    /**
+     * Runs the machine-side check against stand-in commands; the machine has no Ambari repository, so it is not installed.
+     */
+    @Test(groups = "Integration")
+    public void testIfInstalledDecidesOnMachine() throws Exception {
+        File bin = Files.createTempDir();
+        try {
+            writeExecutable(new File(bin, "dpkg-query"), "#!/bin/sh\nprintf 'install ok installed 2.2.0.0-1310'\n");
+            writeExecutable(new File(bin, "ntpd"), "#!/bin/sh\n");
+
+            String command = installCommands.ifInstalled("ambari-agent",
+                    ImmutableList.of("echo fast path"), ImmutableList.of("echo full install"));
+            ProcessBuilder processBuilder = new ProcessBuilder("bash", "-e", "-c", command).redirectErrorStream(true);
+            processBuilder.environment().put("PATH", bin.getAbsolutePath() + File.pathSeparator + System.getenv("PATH"));
+            Process process = processBuilder.start();
+            String output = Streams.readFullyString(process.getInputStream());
+
+            assertEquals(process.waitFor(), 0, output);
+            assertTrue(output.contains("BROOKLYN_AMBARI_VERSION=2.2.0.0-1310\n"), output);
+            assertTrue(output.contains("full install"), output);
+            assertFalse(output.contains("fast path"), output);
+            assertFalse(installCommands.isInstalled(output));
+        } finally {
+            Os.deleteRecursively(bin);
+        }
+    }
+
+    private void writeExecutable(File file, String content) throws Exception {
+        Files.write(content, file, StandardCharsets.UTF_8);
+        assertTrue(file.setExecutable(true));
+    }
+
+    private SshMachineLocation machine(String osName, String osVersion) {
+        SshMachineLocation machine = mock(SshMachineLocation.class);
+        when(machine.getOsDetails()).thenReturn(new BasicOsDetails(osName, "x86_64", osVersion));
+        return machine;
+    }
+
+    private static String base64(String content) {
+        return BaseEncoding.base64().encode(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
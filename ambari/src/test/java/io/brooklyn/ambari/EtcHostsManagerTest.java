@@ -23,14 +23,19 @@ import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.api.entity.EntitySpec;
@@ -41,7 +46,10 @@ import org.apache.brooklyn.core.test.BrooklynAppUnitTestSupport;
 import org.apache.brooklyn.core.test.entity.TestApplication;
 import org.apache.brooklyn.entity.stock.BasicEntity;
 import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.stream.Streams;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.ImmutableMap;
@@ -105,6 +113,231 @@ public class EtcHostsManagerTest extends BrooklynAppUnitTestSupport {
         assertTrue(argument2.getValue().toString().contains("1.2.4.3"));
     }
 
+    @Test
+    public void testSetHostsOnMachinesRespectsMaxConcurrency() {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Answer<Integer> slowExec = new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Exception {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                Thread.sleep(50);
+                running.decrementAndGet();
+                return 0;
+            }
+        };
+
+        List<SshMachineLocation> locations = Lists.newArrayList();
+        List<Entity> entities = Lists.newArrayList();
+        for (int i = 0; i < 6; i++) {
+            SshMachineLocation location = mockLocation();
+            when(location.execCommands(anyString(), anyList())).thenAnswer(slowExec);
+            locations.add(location);
+            entities.add(entityWithCustomLocation(app, "host" + i + ".example.com", "1.2.3." + i, location));
+        }
+
+        EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2);
+
+        for (SshMachineLocation location : locations) {
+            verify(location).execCommands(anyString(), anyList());
+        }
+        assertTrue(maxRunning.get() <= 2, "Max concurrent updates " + maxRunning.get());
+        assertTrue(maxRunning.get() > 1, "Updates did not run in parallel");
+    }
+
+    @Test
+    public void testSetHostsOnMachinesCollectsFailures() {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        SshMachineLocation failing = mockLocation();
+        SshMachineLocation working = mockLocation();
+        when(failing.execCommands(anyString(), anyList())).thenThrow(new IllegalStateException("Connection refused"));
+
+        List<Entity> entities = Lists.newArrayList(
+                entityWithCustomLocation(app, "a.example.com", "1.2.3.4", failing),
+                entityWithCustomLocation(app, "b.example.com", "1.2.4.3", working));
+
+        try {
+            EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 1);
+            fail("Expected the failure of a.example.com to be reported");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("1 of 2 machines"), e.getMessage());
+            assertTrue(e.getMessage().contains("Connection refused"), e.getMessage());
+        }
+        verify(working).execCommands(anyString(), anyList());
+    }
+
+    @Test
+    public void testRenderHostsBlock() {
+        String block = EtcHostsManager.renderHostsBlock(ImmutableMap.of(
+                "1.2.4.3", "b.example.com.",
+                "1.2.3.4", "a.example.com",
+                "1.4.2.3", "c"));
+
+        assertEquals(block, EtcHostsManager.BLOCK_BEGIN + "\n"
+                + "1.2.3.4 a.example.com a\n"
+                + "1.2.4.3 b.example.com b\n"
+                + "1.4.2.3 c\n"
+                + EtcHostsManager.BLOCK_END + "\n");
+    }
+
+    @Test
+    public void testSetHostsOnMachinesWithManagedBlockUploadsBlockOnce() throws Exception {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        SshMachineLocation location = mockLocation();
+
+        List<Entity> entities = Lists.newArrayList(
+                entityWithCustomLocation(app, "a.example.com", "1.2.3.4", location),
+                entityWithCustomLocation(app, "b.example.com", "1.2.4.3", mockLocation()));
+
+        EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK);
+
+        ArgumentCaptor<InputStream> block = ArgumentCaptor.forClass(InputStream.class);
+        ArgumentCaptor<String> destination = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<List> commands = ArgumentCaptor.forClass(List.class);
+        verify(location).copyTo(block.capture(), destination.capture());
+        verify(location).execCommands(anyString(), commands.capture());
+
+        assertEquals(Streams.readFullyString(block.getValue()), EtcHostsManager.BLOCK_BEGIN + "\n"
+                + "1.2.3.4 a.example.com a\n"
+                + "1.2.4.3 b.example.com b\n"
+                + EtcHostsManager.BLOCK_END + "\n");
+        String script = commands.getValue().toString();
+        assertTrue(script.contains("/^" + EtcHostsManager.BLOCK_BEGIN + "$/,/^" + EtcHostsManager.BLOCK_END + "$/d"), script);
+        assertTrue(script.contains(destination.getValue()), script);
+        assertTrue(script.contains("mv -f /etc/hosts.brooklyn /etc/hosts"), script);
+        assertFalse(script.contains(">> /etc/hosts"), script);
+    }
+
+    @Test
+    public void testSetHostsOnMachinesOnlySendsNewEntriesToExistingMachines() {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        SshMachineLocation existingLocation = mockLocation();
+        SshMachineLocation newLocation = mockLocation();
+        Entity existing = entityWithCustomLocation(app, "a.example.com", "1.2.3.4", existingLocation);
+        List<Entity> entities = Lists.newArrayList(existing);
+
+        Map<String, String> applied = EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.APPEND, null);
+        String appliedVersion = existing.getAttribute(AmbariNode.ETC_HOSTS_VERSION);
+        assertEquals(appliedVersion, EtcHostsManager.mappingVersion(applied, EtcHostsStrategy.APPEND));
+
+        Entity added = entityWithCustomLocation(app, "b.example.com", "1.2.4.3", newLocation);
+        entities.add(added);
+        EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.APPEND, applied);
+
+        ArgumentCaptor<List> existingCommands = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List> newCommands = ArgumentCaptor.forClass(List.class);
+        verify(existingLocation, times(2)).execCommands(anyString(), existingCommands.capture());
+        verify(newLocation).execCommands(anyString(), newCommands.capture());
+
+        String incremental = existingCommands.getAllValues().get(1).toString();
+        assertEquals(existingCommands.getAllValues().get(1).size(), 1, incremental);
+        assertTrue(incremental.contains("1.2.4.3 b.example.com b"), incremental);
+        assertFalse(incremental.contains("a.example.com"), incremental);
+        String full = newCommands.getValue().toString();
+        assertTrue(full.contains("a.example.com") && full.contains("b.example.com"), full);
+        assertEquals(existing.getAttribute(AmbariNode.ETC_HOSTS_VERSION), added.getAttribute(AmbariNode.ETC_HOSTS_VERSION));
+    }
+
+    @Test
+    public void testSetHostsOnMachinesRewritesBlockWhenAnEntryChanges() throws Exception {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        SshMachineLocation location = mockLocation();
+        Entity existing = entityWithCustomLocation(app, "a.example.com", "1.2.3.4", location);
+        Entity changing = entityWithCustomLocation(app, "b.example.com", "1.2.4.3", mockLocation());
+        List<Entity> entities = Lists.newArrayList(existing, changing);
+
+        Map<String, String> applied = EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK, null);
+        changing.sensors().set(AmbariNode.FQDN, "c.example.com");
+        EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK, applied);
+
+        ArgumentCaptor<InputStream> blocks = ArgumentCaptor.forClass(InputStream.class);
+        ArgumentCaptor<List> commands = ArgumentCaptor.forClass(List.class);
+        verify(location, times(2)).copyTo(blocks.capture(), anyString());
+        verify(location, times(2)).execCommands(anyString(), commands.capture());
+
+        // The whole block is replaced, rather than a second entry for 1.2.4.3 being added to it
+        assertEquals(Streams.readFullyString(blocks.getAllValues().get(1)), EtcHostsManager.BLOCK_BEGIN + "\n"
+                + "1.2.3.4 a.example.com a\n"
+                + "1.2.4.3 c.example.com c\n"
+                + EtcHostsManager.BLOCK_END + "\n");
+        String script = commands.getAllValues().get(1).toString();
+        assertTrue(script.contains("/^" + EtcHostsManager.BLOCK_BEGIN + "$/,/^" + EtcHostsManager.BLOCK_END + "$/d"), script);
+        assertEquals(existing.getAttribute(AmbariNode.ETC_HOSTS_VERSION),
+                EtcHostsManager.mappingVersion(EtcHostsManager.gatherIpHostnameMapping(entities, Attributes.ADDRESS), EtcHostsStrategy.MANAGED_BLOCK));
+    }
+
+    @Test
+    public void testSetHostsOnMachinesRewritesBlockWhenAHostIsRemoved() throws Exception {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        SshMachineLocation location = mockLocation();
+        Entity remaining = entityWithCustomLocation(app, "a.example.com", "1.2.3.4", location);
+        List<Entity> entities = Lists.newArrayList(
+                remaining,
+                entityWithCustomLocation(app, "b.example.com", "1.2.4.3", mockLocation()));
+
+        Map<String, String> applied = EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK, null);
+        entities.remove(1);
+        EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK, applied);
+
+        ArgumentCaptor<InputStream> blocks = ArgumentCaptor.forClass(InputStream.class);
+        verify(location, times(2)).copyTo(blocks.capture(), anyString());
+        verify(location, times(2)).execCommands(anyString(), anyList());
+
+        // The removed host is dropped, rather than the machine being stamped with the new version as it is
+        assertEquals(Streams.readFullyString(blocks.getAllValues().get(1)), EtcHostsManager.BLOCK_BEGIN + "\n"
+                + "1.2.3.4 a.example.com a\n"
+                + EtcHostsManager.BLOCK_END + "\n");
+    }
+
+    @Test
+    public void testSetHostsOnMachinesSkipsMachinesAtCurrentVersion() {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        SshMachineLocation location = mockLocation();
+        List<Entity> entities = Lists.newArrayList(
+                entityWithCustomLocation(app, "a.example.com", "1.2.3.4", location));
+
+        Map<String, String> applied = EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK, null);
+        EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK, applied);
+        // As after a rebind, where the applied mapping is lost but the machine still records its version
+        EtcHostsManager.setHostsOnMachines(entities, Attributes.ADDRESS, 2, EtcHostsStrategy.MANAGED_BLOCK, null);
+
+        verify(location).execCommands(anyString(), anyList());
+    }
+
+    @Test
+    public void testSetHostsOnDnsResponderOnlyUpdatesResponder() throws Exception {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        SshMachineLocation serverLocation = mockLocation();
+        SshMachineLocation agentLocation = mockLocation();
+        Entity server = entityWithCustomLocation(app, "server.example.com", "1.2.3.4", serverLocation);
+        List<Entity> entities = Lists.newArrayList(
+                server,
+                entityWithCustomLocation(app, "agent.example.com", "1.2.4.3", agentLocation));
+
+        EtcHostsManager.setHostsOnDnsResponder(server, entities, Attributes.ADDRESS);
+        EtcHostsManager.setHostsOnDnsResponder(server, entities, Attributes.ADDRESS);
+
+        ArgumentCaptor<InputStream> hosts = ArgumentCaptor.forClass(InputStream.class);
+        ArgumentCaptor<List> commands = ArgumentCaptor.forClass(List.class);
+        verify(serverLocation).copyTo(hosts.capture(), anyString());
+        verify(serverLocation).execCommands(anyString(), commands.capture());
+        verify(agentLocation, never()).execCommands(anyString(), anyList());
+
+        assertEquals(Streams.readFullyString(hosts.getValue()), "1.2.3.4 server.example.com server\n1.2.4.3 agent.example.com agent\n");
+        assertTrue(commands.getValue().toString().contains("pkill -HUP -x dnsmasq"), commands.getValue().toString());
+    }
+
+    private SshMachineLocation mockLocation() {
+        SshMachineLocation location = mock(SshMachineLocation.class);
+        TagSupport tagSupport = mock(TestTagSupport.class);
+        when(location.tags()).thenReturn(tagSupport);
+        return location;
+    }
+
     private Entity entityWithHostnameAndAddress(TestApplication app, String hostname, String address) {
         BasicEntity entity = app.createAndManageChild(EntitySpec.create(BasicEntity.class));
         entity.sensors().set(Attributes.HOSTNAME, hostname);
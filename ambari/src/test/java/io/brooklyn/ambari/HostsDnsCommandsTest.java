@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.os.Os;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+
+public class HostsDnsCommandsTest {
+
+    private static final int LOOPBACK_PORT = 15353;
+
+    @Test
+    public void testResponderConfig() {
+        List<String> config = HostsDnsCommands.responderConfig("10.0.0.1,127.0.0.1", 53, "/etc/hosts.d", "/etc/resolv.up");
+
+        assertTrue(config.contains("listen-address=10.0.0.1,127.0.0.1"), config.toString());
+        assertTrue(config.contains("addn-hosts=/etc/hosts.d"), config.toString());
+        assertTrue(config.contains("resolv-file=/etc/resolv.up"), config.toString());
+        assertTrue(config.contains("no-hosts"), config.toString());
+    }
+
+    @Test
+    public void testUseResponderConfiguresTheResolverOfTheDistribution() {
+        String commands = HostsDnsCommands.useResponder("10.0.0.1").toString();
+
+        assertTrue(commands.contains("{ echo 'nameserver 10.0.0.1'; grep -vxF 'nameserver 10.0.0.1' /etc/resolvconf/resolv.conf.d/head"), commands);
+        assertTrue(commands.contains("resolvconf -u"), commands);
+        assertTrue(commands.contains("echo 'prepend domain-name-servers 10.0.0.1;' >> /etc/dhcp/dhclient.conf"), commands);
+    }
+
+    /**
+     * Runs the commands against a copy of the configuration of a dhclient host, and checks that running them again
+     * leaves it unchanged.
+     */
+    @Test(groups = "Integration")
+    public void testUseResponderWithDhclient() throws Exception {
+        File etc = Os.newTempDir(getClass());
+        try {
+            write(new File(etc, "resolv.conf"), "search example.com\nnameserver 10.0.0.2\n");
+            write(new File(etc, "hosts"), "127.0.0.1 a.example.com a localhost\n");
+
+            runUseResponder(etc, "/usr/bin:/bin");
+            runUseResponder(etc, "/usr/bin:/bin");
+
+            assertEquals(read(new File(etc, "resolv.conf")), "nameserver 10.0.0.1\nsearch example.com\nnameserver 10.0.0.2\n");
+            assertEquals(read(new File(etc, "dhcp/dhclient.conf")), "prepend domain-name-servers 10.0.0.1;\n");
+            assertEquals(read(new File(etc, "hosts")), "127.0.0.1 localhost\n");
+        } finally {
+            Os.deleteRecursively(etc);
+        }
+    }
+
+    /**
+     * Runs the commands against a copy of the configuration of a resolvconf host, with a stub resolvconf, and checks
+     * that {@code /etc/resolv.conf} is left for resolvconf to regenerate.
+     */
+    @Test(groups = "Integration")
+    public void testUseResponderWithResolvconf() throws Exception {
+        File etc = Os.newTempDir(getClass());
+        File bin = Os.newTempDir(getClass());
+        try {
+            new File(etc, "resolvconf/resolv.conf.d").mkdirs();
+            write(new File(etc, "resolvconf/resolv.conf.d/head"), "# Dynamic resolv.conf(5) file\n");
+            write(new File(etc, "resolv.conf"), "nameserver 10.0.0.2\n");
+            write(new File(etc, "hosts"), "127.0.0.1 localhost\n");
+            File resolvconf = new File(bin, "resolvconf");
+            write(resolvconf, "#!/bin/sh\ntouch " + new File(bin, "updated").getAbsolutePath() + "\n");
+            resolvconf.setExecutable(true);
+
+            runUseResponder(etc, bin.getAbsolutePath() + ":/usr/bin:/bin");
+
+            assertEquals(read(new File(etc, "resolvconf/resolv.conf.d/head")), "nameserver 10.0.0.1\n# Dynamic resolv.conf(5) file\n");
+            assertEquals(read(new File(etc, "resolv.conf")), "nameserver 10.0.0.2\n");
+            assertFalse(new File(etc, "dhcp/dhclient.conf").exists());
+            assertTrue(new File(bin, "updated").exists());
+        } finally {
+            Os.deleteRecursively(etc);
+            Os.deleteRecursively(bin);
+        }
+    }
+
+    private void runUseResponder(File etc, String path) throws Exception {
+        ProcessBuilder bash = new ProcessBuilder("bash", "-c", Joiner.on(" && ").join(HostsDnsCommands.useResponder("10.0.0.1", etc.getAbsolutePath())));
+        bash.environment().put("PATH", path);
+        assertEquals(bash.inheritIO().start().waitFor(), 0);
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs the responder configuration with a local dnsmasq on the loopback address, and resolves through it.
+     */
+    @Test(groups = "Integration")
+    public void testLoopbackResponderAnswersAndReloads() throws Exception {
+        if (!new File("/usr/sbin/dnsmasq").canExecute()) {
+            throw new SkipException("dnsmasq is not installed");
+        }
+        File dir = Os.newTempDir(getClass());
+        File hosts = new File(dir, "hosts");
+        File upstream = new File(dir, "resolv.upstream");
+        File config = new File(dir, "dnsmasq.conf");
+        File pidFile = new File(dir, "dnsmasq.pid");
+        Files.write(hosts.toPath(), EtcHostsManager.renderHostsEntries(ImmutableMap.of("10.1.2.3", "a.ambari.local")).getBytes(StandardCharsets.UTF_8));
+        Files.write(upstream.toPath(), new byte[0]);
+        Files.write(config.toPath(), Joiner.on('\n').join(HostsDnsCommands.responderConfig(
+                "127.0.0.1", LOOPBACK_PORT, hosts.getAbsolutePath(), upstream.getAbsolutePath())).getBytes(StandardCharsets.UTF_8));
+
+        Process dnsmasq = new ProcessBuilder("/usr/sbin/dnsmasq", "--keep-in-foreground", "--conf-file=" + config.getAbsolutePath(),
+                "--pid-file=" + pidFile.getAbsolutePath()).inheritIO().start();
+        try {
+            assertResolves("a.ambari.local", "10.1.2.3");
+            assertResolves("a", "10.1.2.3");
+
+            Files.write(hosts.toPath(), EtcHostsManager.renderHostsEntries(ImmutableMap.of(
+                    "10.1.2.3", "a.ambari.local",
+                    "10.1.2.4", "b.ambari.local")).getBytes(StandardCharsets.UTF_8));
+            String pid = new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8).trim();
+            assertEquals(new ProcessBuilder("kill", "-HUP", pid).start().waitFor(), 0);
+
+            assertResolves("b.ambari.local", "10.1.2.4");
+        } finally {
+            dnsmasq.destroy();
+            dnsmasq.waitFor(10, TimeUnit.SECONDS);
+            Os.deleteRecursively(dir);
+        }
+    }
+
+    private void assertResolves(final String name, final String address) {
+        Asserts.succeedsEventually(new Runnable() {
+            @Override
+            public void run() {
+                Hashtable<String, String> env = new Hashtable<>();
+                env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+                env.put(Context.PROVIDER_URL, "dns://127.0.0.1:" + LOOPBACK_PORT);
+                try {
+                    DirContext context = new InitialDirContext(env);
+                    Attribute records = context.getAttributes(name, new String[] {"A"}).get("A");
+                    assertEquals(records.get(), address);
+                } catch (NamingException e) {
+                    throw new AssertionError(name + " did not resolve: " + e, e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.brooklyn.util.collections.MutableList;
+import org.apache.brooklyn.util.collections.MutableMap;
+import org.apache.brooklyn.util.collections.MutableSet;
+import org.apache.brooklyn.util.core.ResourceUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+
+import io.brooklyn.ambari.rest.domain.HostComponent;
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
+import io.brooklyn.ambari.rest.domain.RecommendationWrappers;
+import io.brooklyn.ambari.rest.domain.StackServices;
+
+public class LayoutEngineTest {
+
+    private static final List<String> SERVICES = ImmutableList.of("HDFS", "YARN", "MAPREDUCE2", "ZOOKEEPER", "AMBARI_METRICS");
+    private static final List<String> MASTERS = ImmutableList.of("NAMENODE", "SECONDARY_NAMENODE", "RESOURCEMANAGER",
+            "APP_TIMELINE_SERVER", "HISTORYSERVER", "METRICS_COLLECTOR");
+
+    private LayoutEngine layoutEngine;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        layoutEngine = new LayoutEngine(read("hdp-2.3-services.json", StackServices.class));
+    }
+
+    /**
+     * Checks the layout against a sample recommendation for the same stack, services and hosts: the same components,
+     * the same number of instances of each master, slaves only on the hosts without masters, and clients everywhere.
+     * <p/>
+     * The sample is hand-written in the format of the stack advisor, not recorded from an Ambari server, so the
+     * placement of each master is not compared.
+     */
+    @Test
+    public void testLayoutHasSameComponentsAndMasterCountsAsSampleRecommendation() {
+        RecommendationWrapper recommended = read("hdp-2.3-recommendation.json", RecommendationWrappers.class)
+                .getRecommendationWrappers().get(0);
+        Map<String, List<String>> recommendedHosts = getHostsByComponent(recommended);
+
+        RecommendationWrapper layout = layoutEngine.layout("HDP", "2.3", recommended.getHosts(), SERVICES);
+        Map<String, List<String>> layoutHosts = getHostsByComponent(layout);
+
+        assertEquals(layoutHosts.keySet(), recommendedHosts.keySet());
+        for (String master : MASTERS) {
+            assertEquals(layoutHosts.get(master).size(), recommendedHosts.get(master).size(), master);
+        }
+        assertEquals(layoutHosts.get("ZOOKEEPER_SERVER").size(), recommendedHosts.get("ZOOKEEPER_SERVER").size());
+        Map<String, Set<String>> layoutComponents = getComponentsByHost(layout);
+        for (String host : layoutHosts.get("DATANODE")) {
+            assertTrue(Collections.disjoint(layoutComponents.get(host), MASTERS), host + ": " + layoutComponents.get(host));
+            assertFalse(layoutComponents.get(host).contains("ZOOKEEPER_SERVER"), host);
+        }
+        assertEquals(layoutHosts.get("NODEMANAGER"), layoutHosts.get("DATANODE"));
+        assertEquals(layoutHosts.get("HDFS_CLIENT"), recommended.getHosts());
+        assertEquals(layoutHosts.get("METRICS_MONITOR"), recommended.getHosts());
+        assertEquals(layout.getStack().getName(), "HDP");
+        assertEquals(layout.getStack().getVersion(), "2.3");
+    }
+
+    @Test
+    public void testSingleHostGetsEverything() {
+        RecommendationWrapper layout = layoutEngine.layout("HDP", "2.3", ImmutableList.of("host-1"), ImmutableList.of("HDFS"));
+
+        List<HostGroup> hostGroups = layout.getRecommendation().getBlueprint().getHostGroups();
+        assertEquals(hostGroups.size(), 1);
+        assertEquals(getComponents(hostGroups.get(0)), ImmutableSet.of("NAMENODE", "SECONDARY_NAMENODE", "DATANODE", "HDFS_CLIENT"));
+    }
+
+    @Test
+    public void testLargeClusterHasFewHostGroups() {
+        List<String> hosts = MutableList.of();
+        for (int i = 0; i < 5000; i++) {
+            hosts.add(String.format("host-%d.example.com", i));
+        }
+
+        RecommendationWrapper layout = layoutEngine.layout("HDP", "2.3", hosts, SERVICES);
+
+        List<HostGroup> bindings = layout.getRecommendation().getBindings().getHostGroups();
+        assertTrue(bindings.size() <= LayoutEngine.MASTER_HOSTS + 1, "Too many host groups: " + bindings.size());
+        int boundHosts = 0;
+        for (HostGroup hostGroup : bindings) {
+            boundHosts += hostGroup.getHosts().size();
+        }
+        assertEquals(boundHosts, hosts.size());
+        assertEquals(getHostsByComponent(layout).get("DATANODE").size(), hosts.size() - LayoutEngine.MASTER_HOSTS);
+    }
+
+    @Test
+    public void testMasterComponents() {
+        Set<String> masterComponents = layoutEngine.getMasterComponents();
+
+        assertTrue(masterComponents.containsAll(MASTERS), masterComponents.toString());
+        assertFalse(masterComponents.contains("DATANODE"));
+        assertFalse(masterComponents.contains("HDFS_CLIENT"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownServiceThrowsEx() {
+        layoutEngine.layout("HDP", "2.3", ImmutableList.of("host-1"), ImmutableList.of("UNKNOWN"));
+    }
+
+    @Test
+    public void testParsesCardinality() {
+        assertEquals(LayoutEngine.Cardinality.parse("1-2").getMin(), 1);
+        assertEquals(LayoutEngine.Cardinality.parse("1-2").getMax(), 2);
+        assertEquals(LayoutEngine.Cardinality.parse("1+").getMax(), Integer.MAX_VALUE);
+        assertEquals(LayoutEngine.Cardinality.parse("3").getMin(), 3);
+        assertTrue(LayoutEngine.Cardinality.parse("ALL").isAll());
+        assertEquals(LayoutEngine.Cardinality.parse(null).getMin(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidCardinalityThrowsEx() {
+        LayoutEngine.Cardinality.parse("some");
+    }
+
+    private <T> T read(String resource, Class<T> type) {
+        return new Gson().fromJson(ResourceUtils.create(this).getResourceAsString("classpath://io/brooklyn/ambari/" + resource), type);
+    }
+
+    private Map<String, List<String>> getHostsByComponent(RecommendationWrapper recommendationWrapper) {
+        Map<String, List<String>> hostsByHostGroup = MutableMap.of();
+        for (HostGroup hostGroup : recommendationWrapper.getRecommendation().getBindings().getHostGroups()) {
+            List<String> hosts = MutableList.of();
+            for (Map<String, String> host : hostGroup.getHosts()) {
+                hosts.add(host.get("fqdn"));
+            }
+            hostsByHostGroup.put(hostGroup.getName(), hosts);
+        }
+        Map<String, List<String>> hostsByComponent = MutableMap.of();
+        for (HostGroup hostGroup : recommendationWrapper.getRecommendation().getBlueprint().getHostGroups()) {
+            for (String component : getComponents(hostGroup)) {
+                if (!hostsByComponent.containsKey(component)) {
+                    hostsByComponent.put(component, MutableList.<String>of());
+                }
+                hostsByComponent.get(component).addAll(hostsByHostGroup.get(hostGroup.getName()));
+            }
+        }
+        for (List<String> hosts : hostsByComponent.values()) {
+            Collections.sort(hosts);
+        }
+        return hostsByComponent;
+    }
+
+    private Map<String, Set<String>> getComponentsByHost(RecommendationWrapper recommendationWrapper) {
+        Map<String, Set<String>> componentsByHost = MutableMap.of();
+        for (Map.Entry<String, List<String>> entry : getHostsByComponent(recommendationWrapper).entrySet()) {
+            for (String host : entry.getValue()) {
+                if (!componentsByHost.containsKey(host)) {
+                    componentsByHost.put(host, MutableSet.<String>of());
+                }
+                componentsByHost.get(host).add(entry.getKey());
+            }
+        }
+        return componentsByHost;
+    }
+
+    private ImmutableSet<String> getComponents(HostGroup hostGroup) {
+        ImmutableSet.Builder<String> components = ImmutableSet.builder();
+        for (HostComponent component : hostGroup.getComponents()) {
+            components.add(component.getName());
+        }
+        return components.build();
+    }
+}
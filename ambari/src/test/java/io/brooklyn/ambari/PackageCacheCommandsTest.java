@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.core.ResourceUtils;
+import org.apache.brooklyn.util.core.http.BetterMockWebServer;
+import org.apache.brooklyn.util.net.Networking;
+import org.apache.brooklyn.util.os.Os;
+import org.apache.brooklyn.util.stream.Streams;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.net.HostAndPort;
+import com.google.mockwebserver.Dispatcher;
+import com.google.mockwebserver.MockResponse;
+import com.google.mockwebserver.RecordedRequest;
+
+public class PackageCacheCommandsTest {
+
+    private static final String PACKAGE = "/ambari/ubuntu14/2.x/updates/2.2.0.0/pool/main/a/ambari-agent/ambari-agent_2.2.0.0_amd64.deb";
+    private static final String METADATA = "/ambari/ubuntu14/2.x/updates/2.2.0.0/dists/Ambari/main/binary-amd64/Packages";
+
+    private BetterMockWebServer repo;
+    private Process cache;
+    private File tempDir;
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (cache != null) {
+            cache.destroy();
+        }
+        if (repo != null) {
+            repo.shutdown();
+        }
+        if (tempDir != null) {
+            Os.deleteRecursively(tempDir);
+        }
+    }
+
+    @Test
+    public void testStripTrailingSlash() {
+        assertEquals(PackageCacheCommands.stripTrailingSlash("http://repo.example.com/"), "http://repo.example.com");
+        assertEquals(PackageCacheCommands.stripTrailingSlash("http://repo.example.com"), "http://repo.example.com");
+    }
+
+    @Test
+    public void testStartCacheBindsAndProbesTheCacheItself() {
+        String commands = PackageCacheCommands.startCache("/tmp/package-cache.py", "10.0.0.1", 8090, "http://repo.example.com").toString();
+
+        assertTrue(commands.contains("'http://repo.example.com' " + PackageCacheCommands.CACHE_DIR + " 10.0.0.1 " + PackageCacheCommands.USER), commands);
+        assertTrue(commands.contains("curl -sf -o /dev/null http://10.0.0.1:8090" + PackageCacheCommands.STATUS_PATH), commands);
+    }
+
+    @Test(groups = "Integration")
+    public void testUseCacheRewritesRepoDefinition() throws Exception {
+        tempDir = Files.createTempDir();
+        File repoList = new File(tempDir, "ambari.list");
+        Files.write("deb http://repo.example.com/ambari/ubuntu14/2.x/updates/2.2.0.0 Ambari main\n", repoList, StandardCharsets.UTF_8);
+
+        bash(PackageCacheCommands.useCache(repoList.getAbsolutePath(), "http://repo.example.com/", "http://10.0.0.1:8090"));
+
+        assertEquals(Files.toString(repoList, StandardCharsets.UTF_8),
+                "deb http://10.0.0.1:8090/ambari/ubuntu14/2.x/updates/2.2.0.0 Ambari main\n");
+    }
+
+    /**
+     * Runs the cache script in front of a stand-in repository and checks that concurrent downloads of a package reach
+     * the repository once, while the metadata is always passed through. Needs python on the path.
+     */
+    @Test(groups = "Integration")
+    public void testPackagesAreDownloadedOnce() throws Exception {
+        final AtomicInteger packageRequests = new AtomicInteger();
+        final AtomicInteger metadataRequests = new AtomicInteger();
+        repo = BetterMockWebServer.newInstanceLocalhost();
+        repo.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals(PACKAGE)) {
+                    packageRequests.incrementAndGet();
+                    return new MockResponse().setBody("package").setBytesPerSecond(64);
+                } else if (request.getPath().equals(METADATA)) {
+                    metadataRequests.incrementAndGet();
+                    return new MockResponse().setBody("Package: ambari-agent");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        repo.play();
+
+        final int port = startCache(String.format("http://%s:%d", repo.getHostName(), repo.getPort()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> downloads = Lists.newArrayList();
+            for (int i = 0; i < 4; i++) {
+                downloads.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return get(port, PACKAGE);
+                    }
+                }));
+            }
+            for (Future<String> download : downloads) {
+                assertEquals(download.get(), "package");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(get(port, PACKAGE), "package");
+        assertEquals(get(port, METADATA), "Package: ambari-agent");
+        assertEquals(get(port, METADATA), "Package: ambari-agent");
+
+        assertEquals(packageRequests.get(), 1);
+        assertEquals(metadataRequests.get(), 2);
+    }
+
+    /**
+     * Checks that the status of the cache, which the install probes, is answered without reaching the repository.
+     */
+    @Test(groups = "Integration")
+    public void testStatusIsAnsweredByTheCache() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        repo = BetterMockWebServer.newInstanceLocalhost();
+        repo.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                requests.incrementAndGet();
+                return new MockResponse().setResponseCode(503);
+            }
+        });
+        repo.play();
+
+        int port = startCache(String.format("http://%s:%d", repo.getHostName(), repo.getPort()));
+
+        assertEquals(get(port, PackageCacheCommands.STATUS_PATH), "OK\n");
+        assertEquals(requests.get(), 0);
+    }
+
+    private int startCache(String upstream) throws Exception {
+        tempDir = Files.createTempDir();
+        File script = new File(tempDir, "package-cache.py");
+        Files.write(ResourceUtils.create(this).getResourceAsString(PackageCacheCommands.SCRIPT_URL), script, StandardCharsets.UTF_8);
+
+        final int port = Networking.nextAvailablePort(48090);
+        cache = new ProcessBuilder("python3", script.getAbsolutePath(), String.valueOf(port), upstream,
+                new File(tempDir, "packages").getAbsolutePath(), "127.0.0.1")
+                .redirectErrorStream(true)
+                .redirectOutput(new File(tempDir, "package-cache.log"))
+                .start();
+        Asserts.succeedsEventually(new Runnable() {
+            @Override
+            public void run() {
+                Asserts.assertTrue(Networking.isReachable(HostAndPort.fromParts("127.0.0.1", port)));
+            }
+        });
+        return port;
+    }
+
+    private String get(int port, String path) throws Exception {
+        InputStream in = new URL("http://127.0.0.1:" + port + path).openStream();
+        try {
+            return Streams.readFullyString(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void bash(String command) throws Exception {
+        Process process = new ProcessBuilder("bash", "-c", command).redirectErrorStream(true).start();
+        assertEquals(process.waitFor(), 0, Streams.readFullyString(process.getInputStream()));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+public class RepositoryResourceCacheTest {
+
+    private static final int MACHINES = 20;
+    private static final String URL = "http://repo.example.com/ambari.list";
+
+    @Test
+    public void testConcurrentLookupsFetchOnce() throws Exception {
+        final AtomicInteger fetches = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(MACHINES);
+        final RepositoryResourceCache cache = new RepositoryResourceCache(new Function<String, String>() {
+            @Override
+            public String apply(String url) {
+                fetches.incrementAndGet();
+                return "deb http://repo.example.com/ambari Ambari main";
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(MACHINES);
+        try {
+            List<Future<String>> lookups = Lists.newArrayList();
+            for (int i = 0; i < MACHINES; i++) {
+                lookups.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        started.countDown();
+                        started.await();
+                        return cache.get(URL);
+                    }
+                }));
+            }
+            for (Future<String> lookup : lookups) {
+                assertEquals(lookup.get(), "deb http://repo.example.com/ambari Ambari main");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(fetches.get(), 1);
+    }
+
+    @Test
+    public void testFailedFetchIsRetried() {
+        final AtomicInteger fetches = new AtomicInteger();
+        RepositoryResourceCache cache = new RepositoryResourceCache(new Function<String, String>() {
+            @Override
+            public String apply(String url) {
+                if (fetches.incrementAndGet() == 1) {
+                    throw new IllegalStateException("Connection refused");
+                }
+                return "content";
+            }
+        });
+
+        try {
+            cache.get(URL);
+            fail("Expected the first fetch to fail");
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "Connection refused");
+        }
+        assertEquals(cache.get(URL), "content");
+        assertEquals(fetches.get(), 2);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.brooklyn.util.stream.Streams;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class SingleSessionScriptTest {
+
+    @Test
+    public void testPhasesAreMarkedInOrder() {
+        SingleSessionScript script = new SingleSessionScript()
+                .addPhase("installing", ImmutableList.of("install"))
+                .addPhase("launching", ImmutableList.of("launch", "check"));
+
+        assertEquals(script.getCommands(), ImmutableList.of(
+                "echo 'BROOKLYN_AMBARI_PHASE=installing'", "install",
+                "echo 'BROOKLYN_AMBARI_PHASE=launching'", "launch", "check"));
+    }
+
+    @Test
+    public void testFilesAreExtractedBeforeThePhasesAndRemovedAfter() {
+        SingleSessionScript script = new SingleSessionScript();
+        String path = script.addFile("ambari-agent.ini", bytes("[server]"));
+        script.addPhase("customizing", ImmutableList.of("mv " + path + " /etc/ambari-agent/conf/ambari-agent.ini"));
+
+        List<String> commands = script.getCommands();
+
+        assertTrue(commands.get(1).startsWith("unzip -o -q " + script.getArchivePath() + " -d "), commands.get(1));
+        assertTrue(commands.get(1).endsWith(" " + path.substring(0, path.lastIndexOf('/'))), commands.get(1));
+        assertEquals(commands.get(commands.size() - 2), "mv " + path + " /etc/ambari-agent/conf/ambari-agent.ini");
+        assertTrue(commands.get(commands.size() - 1).contains("rm -rf " + path.substring(0, path.lastIndexOf('/'))));
+    }
+
+    @Test
+    public void testArchiveHoldsTheFiles() throws Exception {
+        SingleSessionScript script = new SingleSessionScript();
+        script.addFile("ambari-agent.ini", bytes("[server]"));
+        script.addFile("0-stack.tar", bytes("stack"));
+
+        List<String> names = Lists.newArrayList();
+        List<String> contents = Lists.newArrayList();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(script.getArchive()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                names.add(entry.getName());
+                contents.add(new String(Streams.readFully(zip), StandardCharsets.UTF_8));
+            }
+        }
+
+        assertEquals(names, ImmutableList.of("ambari-agent.ini", "0-stack.tar"));
+        assertEquals(contents, ImmutableList.of("[server]", "stack"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateFileThrowsEx() {
+        SingleSessionScript script = new SingleSessionScript();
+        script.addFile("ambari-agent.ini", bytes("a"));
+        script.addFile("ambari-agent.ini", bytes("b"));
+    }
+
+    @Test
+    public void testLastPhaseIsReadFromOutput() {
+        String output = "BROOKLYN_AMBARI_PHASE=installing\nReading package lists...\nBROOKLYN_AMBARI_PHASE=launching\n";
+
+        assertEquals(SingleSessionScript.getLastPhase(output), "launching");
+        assertNull(SingleSessionScript.getLastPhase("Reading package lists...\n"));
+        assertNull(SingleSessionScript.getLastPhase(null));
+    }
+
+    /**
+     * Runs the script with bash, the way the machine would, from an archive written where it would be uploaded.
+     */
+    @Test(groups = "Integration")
+    public void testScriptStopsInFailingPhase() throws Exception {
+        File target = File.createTempFile("single-session", ".ini");
+        try {
+            SingleSessionScript script = new SingleSessionScript();
+            String path = script.addFile("ambari-agent.ini", bytes("[server]\n"));
+            script.addPhase("customizing", ImmutableList.of("mv " + path + " " + target.getAbsolutePath()))
+                    .addPhase("launching", ImmutableList.of("false", "echo unreachable"))
+                    .addPhase("checking running", ImmutableList.of("true"));
+            Files.write(script.getArchive(), new File(script.getArchivePath()));
+
+            Process process = new ProcessBuilder("bash", "-e", "-c", Joiner.on('\n').join(script.getCommands()))
+                    .redirectErrorStream(true)
+                    .start();
+            String output = Streams.readFullyString(process.getInputStream());
+
+            assertEquals(process.waitFor(), 1, output);
+            assertEquals(SingleSessionScript.getLastPhase(output), "launching");
+            assertFalse(output.contains("unreachable"), output);
+            assertEquals(Files.toString(target, StandardCharsets.UTF_8), "[server]\n");
+            assertFalse(new File(script.getArchivePath()).exists());
+        } finally {
+            target.delete();
+        }
+    }
+
+    private byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
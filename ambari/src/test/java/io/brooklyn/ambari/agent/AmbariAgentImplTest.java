@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.agent;
+
+import static org.testng.Assert.assertEquals;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.core.test.BrooklynAppUnitTestSupport;
+import org.apache.brooklyn.core.test.entity.TestEntity;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+import io.brooklyn.ambari.server.AmbariServer;
+
+public class AmbariAgentImplTest extends BrooklynAppUnitTestSupport {
+
+    @Test
+    public void testPackageCacheUrlOnceServerHasIt() {
+        Entity server = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        server.sensors().set(AmbariServer.PACKAGE_CACHE_URL, "http://10.0.0.1:8090");
+
+        assertEquals(resolve(server, Duration.ONE_MINUTE), "http://10.0.0.1:8090");
+    }
+
+    @Test
+    public void testPackageCacheUrlIsEmptyWhenServerCouldNotStartIt() {
+        Entity server = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        server.sensors().set(AmbariServer.PACKAGE_CACHE_URL, "");
+
+        assertEquals(resolve(server, Duration.ONE_MINUTE), "");
+    }
+
+    @Test
+    public void testPackageCacheUrlIsEmptyAfterTimeout() {
+        Entity server = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+
+        assertEquals(resolve(server, Duration.millis(100)), "");
+    }
+
+    private String resolve(Entity server, Duration timeout) {
+        TestEntity agent = app.createAndManageChild(EntitySpec.create(TestEntity.class)
+                .configure(TestEntity.CONF_NAME, AmbariAgentImpl.packageCacheUrlWhenReady(server, timeout)));
+        return agent.getConfig(TestEntity.CONF_NAME);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.core.entity.Entities;
+import org.apache.brooklyn.core.test.BrooklynAppUnitTestSupport;
+import org.apache.brooklyn.entity.stock.BasicEntity;
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Iterables;
+
+import io.brooklyn.ambari.agent.AmbariAgent;
+
+public class AgentFqdnIndexTest extends BrooklynAppUnitTestSupport {
+
+    @Test
+    public void testFollowsFqdnChanges() {
+        final AgentFqdnIndex index = subscribedIndex();
+        final AmbariAgent agent = app.createAndManageChild(EntitySpec.create(AmbariAgent.class));
+
+        agent.setFqdn("a.example.com");
+        assertEventuallyIndexed(index, 1);
+        assertEquals(index.get("a.example.com"), agent);
+
+        agent.setFqdn("b.example.com");
+        Asserts.succeedsEventually(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(index.get("b.example.com"), agent);
+                assertEquals(index.size(), 1);
+            }
+        });
+    }
+
+    @Test
+    public void testRemovedHostGroupIsDropped() {
+        AgentFqdnIndex index = subscribedIndex();
+        Entity hostGroup = app.createAndManageChild(EntitySpec.create(BasicEntity.class));
+        for (int i = 0; i < 2; i++) {
+            hostGroup.addChild(EntitySpec.create(AmbariAgent.class)).setFqdn("host-" + i + ".example.com");
+        }
+        assertEventuallyIndexed(index, 2);
+
+        app.removeChild(hostGroup);
+
+        assertEventuallyIndexed(index, 0);
+    }
+
+    @Test
+    public void testMissRebuildsFromEntityTree() {
+        AgentFqdnIndex index = new AgentFqdnIndex(app);
+        AmbariAgent agent = app.createAndManageChild(EntitySpec.create(AmbariAgent.class));
+        agent.setFqdn("a.example.com");
+
+        assertEquals(index.get("a.example.com"), agent);
+        assertNull(index.get("b.example.com"));
+    }
+
+    @Test
+    public void testIgnoresAgentsOutsideRoot() {
+        BasicEntity root = app.createAndManageChild(EntitySpec.create(BasicEntity.class));
+        AgentFqdnIndex index = new AgentFqdnIndex((EntityLocal) root);
+        index.subscribe();
+        root.addChild(EntitySpec.create(AmbariAgent.class)).setFqdn("a.example.com");
+        app.createAndManageChild(EntitySpec.create(AmbariAgent.class)).setFqdn("b.example.com");
+
+        assertEventuallyIndexed(index, 1);
+        assertNull(index.get("b.example.com"));
+    }
+
+    @Test
+    public void testMissScansAgentsOnceSubscribed() {
+        AgentFqdnIndex index = spy(new AgentFqdnIndex(app));
+        index.subscribe();
+        Entity hostGroup = app.createAndManageChild(EntitySpec.create(BasicEntity.class));
+        AmbariAgent agent = hostGroup.addChild(EntitySpec.create(AmbariAgent.class));
+        agent.setFqdn("a.example.com");
+        assertEventuallyIndexed(index, 1);
+
+        // As if the event of the agent had not been delivered yet
+        index.remove(agent);
+        assertEquals(index.size(), 0);
+
+        assertEquals(index.get("a.example.com"), agent);
+        assertEquals(index.size(), 1);
+        verify(index, times(1)).rebuild();
+
+        assertNull(index.get("b.example.com"));
+        verify(index, times(2)).rebuild();
+    }
+
+    @Test
+    public void testIndexesAgentsOfAddedSubtree() {
+        AgentFqdnIndex index = subscribedIndex();
+        EntitySpec<BasicEntity> hostGroupSpec = EntitySpec.create(BasicEntity.class)
+                .child(EntitySpec.create(BasicEntity.class)
+                        .child(EntitySpec.create(AmbariAgent.class)));
+        Entity hostGroup = app.createAndManageChild(hostGroupSpec);
+        AmbariAgent nested = Iterables.getOnlyElement(Entities.descendants(hostGroup, AmbariAgent.class));
+        nested.setFqdn("a.example.com");
+
+        assertEventuallyIndexed(index, 1);
+        assertEquals(index.get("a.example.com"), nested);
+    }
+
+    private AgentFqdnIndex subscribedIndex() {
+        AgentFqdnIndex index = new AgentFqdnIndex(app);
+        index.subscribe();
+        return index;
+    }
+
+    private void assertEventuallyIndexed(final AgentFqdnIndex index, final int size) {
+        Asserts.succeedsEventually(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(index.size(), size);
+            }
+        });
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class DeploymentQuorumTest {
+
+    private static final List<String> WORKER_COMPONENTS = ImmutableList.of("DATANODE", "NODEMANAGER");
+
+    @Test
+    public void testWorkerGroupHasOnlyWorkerOrClientComponents() {
+        DeploymentQuorum quorum = new DeploymentQuorum(0.5, WORKER_COMPONENTS);
+
+        assertTrue(quorum.isWorkerGroup(ImmutableList.of("DATANODE", "NODEMANAGER", "HDFS_CLIENT")));
+        assertTrue(quorum.isWorkerGroup(ImmutableList.<String>of()));
+        assertTrue(quorum.isWorkerGroup(null));
+        assertFalse(quorum.isWorkerGroup(ImmutableList.of("DATANODE", "NAMENODE")));
+    }
+
+    @Test
+    public void testWaitsForEveryMasterHost() {
+        DeploymentQuorum quorum = new DeploymentQuorum(0.5, WORKER_COMPONENTS)
+                .addHostGroup(ImmutableList.of("NAMENODE", "RESOURCEMANAGER"), 2, ImmutableList.of("master-1", "master-2"))
+                .addHostGroup(ImmutableList.of("DATANODE"), 4, ImmutableList.of("worker-1", "worker-2", "worker-3", "worker-4"));
+
+        assertFalse(quorum.isReached(ImmutableList.of("master-1", "worker-1", "worker-2", "worker-3", "worker-4")));
+        assertTrue(quorum.isReached(ImmutableList.of("master-1", "master-2", "worker-1", "worker-3")));
+    }
+
+    @Test
+    public void testWaitsForFractionOfWorkersRoundedUp() {
+        DeploymentQuorum quorum = new DeploymentQuorum(0.5, WORKER_COMPONENTS)
+                .addMasterHosts(1, ImmutableList.of("server"))
+                .addHostGroup(ImmutableList.of("DATANODE"), 3, ImmutableList.of("worker-1", "worker-2", "worker-3"));
+
+        assertEquals(quorum.getRequiredWorkers(), 2);
+        assertFalse(quorum.isReached(ImmutableList.of("server", "worker-1")));
+        assertTrue(quorum.isReached(ImmutableList.of("server", "worker-1", "worker-2")));
+    }
+
+    @Test
+    public void testHostsNotStartedYetCountAsPending() {
+        // A master whose VM has not come up yet has no FQDN, so the hosts known so far are not enough
+        DeploymentQuorum quorum = new DeploymentQuorum(0.5, WORKER_COMPONENTS)
+                .addHostGroup(ImmutableList.of("NAMENODE"), 2, ImmutableList.of("master-1"))
+                .addHostGroup(ImmutableList.of("DATANODE"), 2, ImmutableList.of("worker-1", "worker-2"));
+
+        assertFalse(quorum.isReached(ImmutableList.of("master-1", "worker-1", "worker-2")));
+    }
+
+    @Test
+    public void testUnknownHostsAreIgnored() {
+        DeploymentQuorum quorum = new DeploymentQuorum(1, WORKER_COMPONENTS)
+                .addHostGroup(ImmutableList.of("DATANODE"), 2, ImmutableList.of("worker-1", "worker-2"));
+
+        assertFalse(quorum.isReached(ImmutableList.of("worker-1", "other")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testFractionAboveOneThrowsEx() {
+        new DeploymentQuorum(1.5, WORKER_COMPONENTS);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.util.collections.MutableList;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import io.brooklyn.ambari.rest.domain.Bindings;
+import io.brooklyn.ambari.rest.domain.Blueprint;
+import io.brooklyn.ambari.rest.domain.HostComponent;
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.rest.domain.Recommendation;
+import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
+import io.brooklyn.ambari.rest.domain.Stack;
+
+public class HostGroupMergerTest {
+
+    @Test
+    public void testHostGroupsWithSameComponentsAreMerged() {
+        RecommendationWrapper merged = HostGroupMerger.merge(recommendation(
+                ImmutableList.of("NAMENODE", "ZOOKEEPER_SERVER"),
+                ImmutableList.of("DATANODE", "NODEMANAGER"),
+                ImmutableList.of("NODEMANAGER", "DATANODE"),
+                ImmutableList.of("DATANODE", "NODEMANAGER")));
+
+        List<HostGroup> blueprintHostGroups = merged.getRecommendation().getBlueprint().getHostGroups();
+        assertEquals(names(blueprintHostGroups), ImmutableList.of("host-group-1", "host-group-2"));
+        assertEquals(components(blueprintHostGroups.get(0)), ImmutableList.of("NAMENODE", "ZOOKEEPER_SERVER"));
+        assertEquals(components(blueprintHostGroups.get(1)), ImmutableList.of("DATANODE", "NODEMANAGER"));
+        assertEquals(blueprintHostGroups.get(0).getCardinality(), "1");
+        assertEquals(blueprintHostGroups.get(1).getCardinality(), "3");
+
+        List<HostGroup> bindingHostGroups = merged.getRecommendation().getBindings().getHostGroups();
+        assertEquals(names(bindingHostGroups), ImmutableList.of("host-group-1", "host-group-2"));
+        assertEquals(hosts(bindingHostGroups.get(0)), ImmutableList.of("host-1"));
+        assertEquals(hosts(bindingHostGroups.get(1)), ImmutableList.of("host-2", "host-3", "host-4"));
+        assertEquals(merged.getStack().getName(), "HDP");
+    }
+
+    @Test
+    public void testDistinctHostGroupsAreKept() {
+        RecommendationWrapper merged = HostGroupMerger.merge(recommendation(
+                ImmutableList.of("NAMENODE"),
+                ImmutableList.of("SECONDARY_NAMENODE"),
+                ImmutableList.of("DATANODE")));
+
+        assertEquals(names(merged.getRecommendation().getBlueprint().getHostGroups()),
+                ImmutableList.of("host-group-1", "host-group-2", "host-group-3"));
+    }
+
+    @Test
+    public void testRepeatedHostIsBoundOnce() {
+        RecommendationWrapper merged = HostGroupMerger.merge(recommendation(
+                new Blueprint.Builder()
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-1").addComponents(ImmutableList.of("DATANODE")).build())
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-2").addComponents(ImmutableList.of("DATANODE")).build())
+                        .build(),
+                new Bindings.Builder()
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-1").addHosts(ImmutableList.of("host-1", "host-1")).build())
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-2").addHosts(ImmutableList.of("host-1", "host-2")).build())
+                        .build()));
+
+        assertEquals(hosts(merged.getRecommendation().getBindings().getHostGroups().get(0)), ImmutableList.of("host-1", "host-2"));
+        assertEquals(merged.getRecommendation().getBlueprint().getHostGroups().get(0).getCardinality(), "2");
+    }
+
+    @Test
+    public void testBindingsInAnotherOrderAreMergedByName() {
+        RecommendationWrapper merged = HostGroupMerger.merge(recommendation(
+                new Blueprint.Builder()
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-1").addComponents(ImmutableList.of("NAMENODE")).build())
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-2").addComponents(ImmutableList.of("DATANODE")).build())
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-3").addComponents(ImmutableList.of("DATANODE")).build())
+                        .build(),
+                new Bindings.Builder()
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-3").addHost("host-3").build())
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-1").addHost("host-1").build())
+                        .addHostGroup(new HostGroup.Builder().setName("host-group-2").addHost("host-2").build())
+                        .build()));
+
+        List<HostGroup> blueprintHostGroups = merged.getRecommendation().getBlueprint().getHostGroups();
+        assertEquals(names(blueprintHostGroups), ImmutableList.of("host-group-1", "host-group-2"));
+        assertEquals(blueprintHostGroups.get(0).getCardinality(), "1");
+        assertEquals(blueprintHostGroups.get(1).getCardinality(), "2");
+
+        List<HostGroup> bindingHostGroups = merged.getRecommendation().getBindings().getHostGroups();
+        assertEquals(names(bindingHostGroups), ImmutableList.of("host-group-2", "host-group-1"));
+        assertEquals(hosts(bindingHostGroups.get(0)), ImmutableList.of("host-3", "host-2"));
+        assertEquals(hosts(bindingHostGroups.get(1)), ImmutableList.of("host-1"));
+    }
+
+    @Test
+    public void testNullRecommendationGivesNull() {
+        assertNull(HostGroupMerger.merge(null));
+    }
+
+    private RecommendationWrapper recommendation(List<String>... componentsByHost) {
+        Blueprint.Builder blueprintBuilder = new Blueprint.Builder();
+        Bindings.Builder bindingsBuilder = new Bindings.Builder();
+        for (int i = 0; i < componentsByHost.length; i++) {
+            String name = String.format("host-group-%d", i + 1);
+            blueprintBuilder.addHostGroup(new HostGroup.Builder().setName(name).addComponents(componentsByHost[i]).build());
+            bindingsBuilder.addHostGroup(new HostGroup.Builder().setName(name).addHost(String.format("host-%d", i + 1)).build());
+        }
+        return recommendation(blueprintBuilder.build(), bindingsBuilder.build());
+    }
+
+    private RecommendationWrapper recommendation(Blueprint blueprint, Bindings bindings) {
+        return new RecommendationWrapper.Builder()
+                .setStack(new Stack.Builder().setName("HDP").setVersion("2.3").build())
+                .setRecommendation(new Recommendation.Builder()
+                        .setBlueprint(blueprint)
+                        .setBindings(bindings)
+                        .build())
+                .build();
+    }
+
+    private List<String> names(List<HostGroup> hostGroups) {
+        List<String> names = MutableList.of();
+        for (HostGroup hostGroup : hostGroups) {
+            names.add(hostGroup.getName());
+        }
+        return names;
+    }
+
+    private List<String> components(HostGroup hostGroup) {
+        List<String> components = MutableList.of();
+        for (HostComponent component : hostGroup.getComponents()) {
+            components.add(component.getName());
+        }
+        return components;
+    }
+
+    private List<String> hosts(HostGroup hostGroup) {
+        List<String> hosts = MutableList.of();
+        for (Map<String, String> host : hostGroup.getHosts()) {
+            hosts.add(host.get("fqdn"));
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.cluster;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.util.collections.MutableMap;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import io.brooklyn.ambari.rest.domain.HostGroup;
+
+public class PreparedBlueprintTest {
+
+    private static final Map<String, Map> CONFIGURATION = ImmutableMap.<String, Map>of(
+            "hdfs-site", ImmutableMap.of("dfs.replication", "2"));
+
+    @Test
+    public void testSameBlueprintMatches() {
+        PreparedBlueprint preparedBlueprint = new PreparedBlueprint("mybp", hostGroups("NAMENODE", "DATANODE"), CONFIGURATION);
+
+        assertTrue(preparedBlueprint.matches("mybp", hostGroups("NAMENODE", "DATANODE"), MutableMap.copyOf(CONFIGURATION)));
+    }
+
+    @Test
+    public void testDifferentComponentsDoNotMatch() {
+        PreparedBlueprint preparedBlueprint = new PreparedBlueprint("mybp", hostGroups("NAMENODE", "DATANODE"), CONFIGURATION);
+
+        assertFalse(preparedBlueprint.matches("mybp", hostGroups("NAMENODE", "NODEMANAGER"), CONFIGURATION));
+    }
+
+    @Test
+    public void testDifferentConfigurationDoesNotMatch() {
+        PreparedBlueprint preparedBlueprint = new PreparedBlueprint("mybp", hostGroups("NAMENODE", "DATANODE"), CONFIGURATION);
+
+        assertFalse(preparedBlueprint.matches("mybp", hostGroups("NAMENODE", "DATANODE"), ImmutableMap.<String, Map>of(
+                "hdfs-site", ImmutableMap.of("dfs.replication", "3"))));
+    }
+
+    @Test
+    public void testDifferentNameDoesNotMatch() {
+        PreparedBlueprint preparedBlueprint = new PreparedBlueprint("mybp", hostGroups("NAMENODE", "DATANODE"), CONFIGURATION);
+
+        assertFalse(preparedBlueprint.matches("otherbp", hostGroups("NAMENODE", "DATANODE"), CONFIGURATION));
+    }
+
+    @Test
+    public void testLaterChangesToHostGroupsAreIgnored() {
+        List<HostGroup> hostGroups = hostGroups("NAMENODE", "DATANODE");
+        PreparedBlueprint preparedBlueprint = new PreparedBlueprint("mybp", hostGroups, CONFIGURATION);
+
+        hostGroups.get(0).getComponents().clear();
+
+        assertTrue(preparedBlueprint.matches("mybp", hostGroups("NAMENODE", "DATANODE"), CONFIGURATION));
+    }
+
+    private List<HostGroup> hostGroups(String masterComponent, String workerComponent) {
+        return ImmutableList.of(
+                new HostGroup.Builder().setName("master").addComponents(ImmutableList.of(masterComponent)).build(),
+                new HostGroup.Builder().setName("worker").addComponents(ImmutableList.of(workerComponent)).build());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.Test;
+
+import io.brooklyn.ambari.rest.endpoint.HostEndpoint;
+import retrofit.RestAdapter;
+
+public class AmbariEndpointsTest {
+
+    @Test(expectedExceptions = NullPointerException.class, expectedExceptionsMessageRegExp = "RestAdapter must not be null")
+    public void constructorThrowsExIfAdapterIsNull() {
+        new AmbariEndpoints(null);
+    }
+
+    @Test
+    public void createsEveryEndpointOnce() {
+        AmbariEndpoints endpoints = new AmbariEndpoints(newRestAdapter());
+
+        for (Class<?> endpoint : AmbariEndpoints.ENDPOINTS) {
+            assertNotNull(endpoints.get(endpoint));
+            assertSame(endpoints.get(endpoint), endpoints.get(endpoint));
+        }
+    }
+
+    @Test
+    public void newAdapterGivesNewProxies() {
+        AmbariEndpoints endpoints = new AmbariEndpoints(newRestAdapter());
+        AmbariEndpoints swapped = new AmbariEndpoints(newRestAdapter());
+
+        assertNotSame(endpoints.get(HostEndpoint.class), swapped.get(HostEndpoint.class));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unknownEndpointThrowsEx() {
+        new AmbariEndpoints(newRestAdapter()).get(Runnable.class);
+    }
+
+    private RestAdapter newRestAdapter() {
+        return new RestAdapter.Builder()
+                .setEndpoint("http://localhost:8080")
+                .build();
+    }
+}
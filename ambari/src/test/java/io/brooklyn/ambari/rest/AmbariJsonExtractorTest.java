@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.jayway.jsonpath.JsonPath;
+
+public class AmbariJsonExtractorTest {
+
+    private static final int HOSTS = 1000;
+
+    @Test
+    public void testReadsHostNames() {
+        List<String> hostNames = AmbariJsonExtractor.readHostNames(bytes(hostsJson(3)));
+
+        assertEquals(hostNames, ImmutableList.of("host-0.example.com", "host-1.example.com", "host-2.example.com"));
+    }
+
+    @Test
+    public void testMissingItemsGivesNoHostNames() {
+        assertTrue(AmbariJsonExtractor.readHostNames(bytes("{}")).isEmpty());
+        assertTrue(AmbariJsonExtractor.readHostNames(bytes("{\"items\":[{\"href\":\"x\"},{\"Hosts\":{}}]}")).isEmpty());
+    }
+
+    @Test
+    public void testReadsRequestStatusAndProgress() {
+        AmbariJsonExtractor.RequestStatus requestStatus = AmbariJsonExtractor.readRequestStatus(bytes(
+                "{\"href\":\"http://example.com\",\"Requests\":{\"id\":1,\"tasks\":[{\"a\":[1,2]}],\"request_status\":\"IN_PROGRESS\",\"progress_percent\":12.5}}"));
+
+        assertEquals(requestStatus.getStatus(), "IN_PROGRESS");
+        assertEquals(requestStatus.getProgressPercent(), 12.5);
+    }
+
+    @Test
+    public void testMissingRequestFieldsAreNull() {
+        AmbariJsonExtractor.RequestStatus requestStatus = AmbariJsonExtractor.readRequestStatus(bytes("{\"Requests\":{}}"));
+
+        assertNull(requestStatus.getStatus());
+        assertNull(requestStatus.getProgressPercent());
+    }
+
+    @Test(expectedExceptions = JsonSyntaxException.class)
+    public void testInvalidJsonThrowsEx() {
+        AmbariJsonExtractor.readRequestStatus(bytes("Invalid body: No Json"));
+    }
+
+    @Test(expectedExceptions = JsonSyntaxException.class)
+    public void testUnexpectedJsonThrowsEx() {
+        AmbariJsonExtractor.readHostNames(bytes("[]"));
+    }
+
+    /**
+     * The streaming extraction must give the same host names, in the same order, as the JsonPath query it replaced.
+     */
+    @Test
+    public void testHostNamesMatchJsonPath() {
+        byte[] json = bytes(hostsJson(HOSTS));
+
+        List<String> hostNames = AmbariJsonExtractor.readHostNames(json);
+
+        assertEquals(hostNames.size(), HOSTS);
+        assertEquals(hostNames, readWithJsonPath(json));
+    }
+
+    private List<String> readWithJsonPath(byte[] json) {
+        String jsonString = new JsonParser().parse(new String(json, StandardCharsets.UTF_8)).toString();
+        return JsonPath.read(jsonString, "$.items[*].Hosts.host_name");
+    }
+
+    private String hostsJson(int hosts) {
+        StringBuilder json = new StringBuilder("{\"href\":\"http://ambari.example.com:8080/api/v1/hosts\",\"items\":[");
+        for (int i = 0; i < hosts; i++) {
+            json.append(i > 0 ? "," : "")
+                    .append("{\"href\":\"http://ambari.example.com:8080/api/v1/hosts/host-").append(i).append(".example.com\",")
+                    .append("\"Hosts\":{\"host_name\":\"host-").append(i).append(".example.com\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.brooklyn.ambari.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Future;
+
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.core.http.BetterMockWebServer;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Suppliers;
+import com.google.gson.Gson;
+import com.google.mockwebserver.MockResponse;
+import com.google.mockwebserver.RecordedRequest;
+
+import io.brooklyn.ambari.rest.domain.Request;
+import io.brooklyn.ambari.rest.endpoint.RequestEndpoint;
+import retrofit.RestAdapter;
+
+/**
+ * Tracks many requests against a real HTTP server through the pooled client, to make sure the tracker neither leaks
+ * connections nor threads, nor the state of the requests it has completed.
+ * <p>
+ * The mock server writes headers and body separately, so each keep-alive round trip waits for a delayed ACK: the
+ * test takes about 45s, hence the Integration group.
+ */
+public class AmbariRequestTrackerLeakTest {
+
+    private static final String TRACKER_THREAD_PREFIX = "ambari-request-tracker-";
+    private static final String CLUSTER = "Cluster1";
+    private static final int CYCLES = 1000;
+
+    private BetterMockWebServer server;
+    private PooledAmbariRestClient pooledRestClient;
+    private AmbariRequestTracker tracker;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        server = BetterMockWebServer.newInstanceLocalhost();
+        server.play();
+
+        pooledRestClient = PooledAmbariRestClient.builder().build();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (tracker != null) {
+            tracker.close();
+        }
+        if (pooledRestClient != null) {
+            pooledRestClient.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test(groups = "Integration")
+    public void testTrackAndPollCyclesReuseOneConnectionAndOneThread() throws Exception {
+        final int trackerThreadsBefore = trackerThreadCount();
+        RequestEndpoint requestEndpoint = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setClient(pooledRestClient)
+                .build()
+                .create(RequestEndpoint.class);
+        // Polled by the test only, so that each cycle is one track and one poll
+        tracker = AmbariRequestTracker.builder()
+                .requestEndpoint(Suppliers.ofInstance(requestEndpoint))
+                .pollingPolicy(PollingPolicy.builder()
+                        .initialInterval(Duration.ONE_HOUR)
+                        .maxInterval(Duration.ONE_HOUR)
+                        .build())
+                .build();
+
+        for (int id = 0; id < CYCLES; id++) {
+            Future<Request> future = tracker.track(CLUSTER, request(id, "PENDING"), Duration.ONE_HOUR);
+            server.enqueue(new MockResponse().setBody(String.format("{\"items\":[%s]}", item(id, "COMPLETED"))));
+            tracker.poll();
+
+            assertEquals(future.get().getRequestInfo().getStatus(), "COMPLETED");
+            assertEquals(pooledRestClient.getPoolStats().getLeased(), 0);
+        }
+
+        int connections = 0;
+        for (int id = 0; id < CYCLES; id++) {
+            RecordedRequest recorded = server.takeRequest();
+            assertEquals(recorded.getPath(), String.format("/api/v1/clusters/%s/requests"
+                    + "?fields=Requests/id,Requests/request_status,Requests/progress_percent&Requests/id=%d", CLUSTER, id));
+            if (recorded.getSequenceNumber() == 0) {
+                connections++;
+            }
+        }
+        assertEquals(connections, 1);
+        assertEquals(pooledRestClient.getPoolStats().getLeased(), 0);
+        assertEquals(pooledRestClient.getPoolStats().getAvailable(), 1);
+        assertEquals(tracker.getOutstandingCount(), 0);
+        assertEquals(tracker.getClusterCount(), 0);
+        assertEquals(trackerThreadCount(), trackerThreadsBefore + 1);
+
+        tracker.close();
+        Asserts.succeedsEventually(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(trackerThreadCount() <= trackerThreadsBefore,
+                        "Tracker threads " + trackerThreadCount() + ", expected at most " + trackerThreadsBefore);
+            }
+        });
+    }
+
+    private int trackerThreadCount() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(TRACKER_THREAD_PREFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Request request(int id, String status) {
+        return new Gson().fromJson(item(id, status), Request.class);
+    }
+
+    private String item(int id, String status) {
+        return String.format("{\"href\":\"http://www.example.com/%d\",\"Requests\":{\"id\":%d,\"request_status\":\"%s\"}}", id, id, status);
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.Gson;
+
+import io.brooklyn.ambari.rest.domain.Request;
+import io.brooklyn.ambari.rest.domain.Requests;
+import io.brooklyn.ambari.rest.endpoint.RequestEndpoint;
+
+public class AmbariRequestTrackerTest {
+
+    private static final String CLUSTER = "Cluster1";
+
+    // Polls so rarely that the tests drive the polling themselves
+    private static final PollingPolicy MANUAL = PollingPolicy.builder()
+            .initialInterval(Duration.ONE_HOUR)
+            .maxInterval(Duration.ONE_HOUR)
+            .build();
+
+    private StubRequestEndpoint requestEndpoint;
+    private AmbariRequestTracker tracker;
+
+    private static class StubRequestEndpoint implements RequestEndpoint {
+
+        private final List<String> calls = Lists.newArrayList();
+        private String response = "{\"items\":[]}";
+
+        @Override
+        public Requests getRequests(String cluster) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Requests getRequests(String cluster, String fields, String idPredicate) {
+            calls.add(cluster + "?fields=" + fields + "&Requests/id=" + idPredicate);
+            return new Gson().fromJson(response, Requests.class);
+        }
+
+        @Override
+        public Request getRequest(String cluster, int id) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        requestEndpoint = new StubRequestEndpoint();
+        tracker = AmbariRequestTracker.builder()
+                .requestEndpoint(Suppliers.<RequestEndpoint>ofInstance(requestEndpoint))
+                .pollingPolicy(MANUAL)
+                .build();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (tracker != null) {
+            tracker.close();
+        }
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testNullEndpointThrowsExOnBuild() {
+        AmbariRequestTracker.builder().build();
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testNullRequestThrowsEx() {
+        tracker.track(CLUSTER, null, Duration.ONE_HOUR);
+    }
+
+    @Test
+    public void testOutstandingRequestsArePolledInOneCall() throws Exception {
+        ListenableFuture<Request> first = tracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+        ListenableFuture<Request> second = tracker.track(CLUSTER, request(2, "PENDING"), Duration.ONE_HOUR);
+
+        requestEndpoint.response = items(item(1, "IN_PROGRESS"), item(2, "COMPLETED"));
+        tracker.poll();
+
+        assertEquals(requestEndpoint.calls.size(), 1);
+        assertTrue(requestEndpoint.calls.get(0).matches(
+                CLUSTER + "\\?fields=Requests/id,Requests/request_status,Requests/progress_percent&Requests/id=(1\\|Requests/id=2|2\\|Requests/id=1)"), requestEndpoint.calls.get(0));
+        assertFalse(first.isDone());
+        assertEquals(second.get().getRequestInfo().getStatus(), "COMPLETED");
+        assertEquals(tracker.getOutstandingCount(), 1);
+
+        requestEndpoint.response = items(item(1, "COMPLETED"));
+        tracker.poll();
+
+        assertEquals(requestEndpoint.calls.get(1), CLUSTER + "?fields=Requests/id,Requests/request_status,Requests/progress_percent&Requests/id=1");
+        assertTrue(first.isDone());
+        assertEquals(tracker.getOutstandingCount(), 0);
+
+        tracker.poll();
+        assertEquals(requestEndpoint.calls.size(), 2);
+    }
+
+    @Test
+    public void testFailedRequestFailsFuture() throws Exception {
+        ListenableFuture<Request> future = tracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+
+        requestEndpoint.response = items(item(1, "FAILED"));
+        tracker.poll();
+
+        try {
+            future.get();
+            fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            assertEquals(e.getCause().getMessage(), "Request fails with state FAILED. Check here for details http://www.example.com/1");
+        }
+    }
+
+    @Test
+    public void testAbortedAndTimedOutRequestsFailFutures() throws Exception {
+        ListenableFuture<Request> aborted = tracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+        ListenableFuture<Request> timedOut = tracker.track(CLUSTER, request(2, "PENDING"), Duration.ONE_HOUR);
+
+        requestEndpoint.response = items(item(1, "ABORTED"), item(2, "TIMEDOUT"));
+        tracker.poll();
+
+        for (ListenableFuture<Request> future : ImmutableList.of(aborted, timedOut)) {
+            try {
+                future.get();
+                fail("Expected the request to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().startsWith("Request fails with state "), e.getCause().getMessage());
+            }
+        }
+        assertEquals(tracker.getOutstandingCount(), 0);
+    }
+
+    @Test
+    public void testQueuedUnknownAndMissingStatesArePending() throws Exception {
+        ListenableFuture<Request> future = tracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+
+        requestEndpoint.response = items(item(1, "QUEUED"));
+        tracker.poll();
+        requestEndpoint.response = items(item(1, "SCHEDULED"));
+        tracker.poll();
+        requestEndpoint.response = "{\"items\":[{\"href\":\"http://www.example.com/1\",\"Requests\":{\"id\":1}}]}";
+        tracker.poll();
+
+        assertFalse(future.isDone());
+        assertEquals(tracker.getOutstandingCount(), 1);
+
+        requestEndpoint.response = items(item(1, "COMPLETED"));
+        tracker.poll();
+
+        assertEquals(future.get().getRequestInfo().getStatus(), "COMPLETED");
+    }
+
+    @Test
+    public void testTimeoutFailsWithErrorMessage() throws Exception {
+        requestEndpoint.response = items(item(1, "IN_PROGRESS"));
+        AmbariRequestTracker fastTracker = AmbariRequestTracker.builder()
+                .requestEndpoint(Suppliers.<RequestEndpoint>ofInstance(requestEndpoint))
+                .pollingPolicy(PollingPolicy.builder()
+                        .initialInterval(Duration.millis(10))
+                        .maxInterval(Duration.millis(10))
+                        .build())
+                .build();
+        try {
+            fastTracker.track(CLUSTER, request(1, "PENDING"), Duration.millis(100), "Too slow").get();
+            fail("Expected the request to time out");
+        } catch (ExecutionException e) {
+            assertEquals(e.getCause().getMessage(), "Too slow");
+        } finally {
+            fastTracker.close();
+        }
+    }
+
+    @Test
+    public void testFailureReasonIsKeptWithErrorMessage() throws Exception {
+        ListenableFuture<Request> future = tracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR, "Too slow");
+
+        requestEndpoint.response = items(item(1, "ABORTED"));
+        tracker.poll();
+
+        try {
+            future.get();
+            fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            assertEquals(e.getCause().getMessage(), "Request fails with state ABORTED. Check here for details http://www.example.com/1");
+        }
+    }
+
+    @Test
+    public void testClusterIsForgottenOnceItsRequestsFinish() {
+        tracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+        tracker.track("Cluster2", request(2, "PENDING"), Duration.ONE_HOUR);
+        assertEquals(tracker.getClusterCount(), 2);
+
+        requestEndpoint.response = items(item(1, "COMPLETED"));
+        tracker.poll();
+
+        assertEquals(tracker.getClusterCount(), 1);
+
+        // A new request of a forgotten cluster is tracked again
+        tracker.track(CLUSTER, request(3, "PENDING"), Duration.ONE_HOUR);
+        assertEquals(tracker.getClusterCount(), 2);
+        assertEquals(tracker.getOutstandingCount(), 2);
+    }
+
+    @Test
+    public void testNewRequestResetsBackedOffPollToInitialInterval() throws Exception {
+        requestEndpoint.response = items(item(1, "IN_PROGRESS"));
+        AmbariRequestTracker backingOffTracker = AmbariRequestTracker.builder()
+                .requestEndpoint(Suppliers.<RequestEndpoint>ofInstance(requestEndpoint))
+                .pollingPolicy(PollingPolicy.builder()
+                        .initialInterval(Duration.millis(50))
+                        .maxInterval(Duration.ONE_HOUR)
+                        .multiplier(1000)
+                        .jitter(0)
+                        .build())
+                .build();
+        try {
+            backingOffTracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+            // Without progress, the first poll backs the next one off to 50s
+            long deadline = System.currentTimeMillis() + 10000;
+            while (backingOffTracker.getNextPollDelay().isShorterThan(Duration.seconds(30))
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(backingOffTracker.getNextPollDelay().isLongerThan(Duration.seconds(30)));
+
+            backingOffTracker.track(CLUSTER, request(2, "PENDING"), Duration.ONE_HOUR);
+
+            assertFalse(backingOffTracker.getNextPollDelay().isLongerThan(Duration.millis(50)));
+        } finally {
+            backingOffTracker.close();
+        }
+    }
+
+    @Test
+    public void testPollFailureIsRetried() throws Exception {
+        final StubRequestEndpoint failing = new StubRequestEndpoint() {
+            @Override
+            public Requests getRequests(String cluster, String fields, String idPredicate) {
+                throw new RuntimeException("Connection refused");
+            }
+        };
+        final List<RequestEndpoint> current = Lists.<RequestEndpoint>newArrayList(failing);
+        AmbariRequestTracker retryingTracker = AmbariRequestTracker.builder()
+                .requestEndpoint(new Supplier<RequestEndpoint>() {
+                    @Override
+                    public RequestEndpoint get() {
+                        return current.get(0);
+                    }
+                })
+                .pollingPolicy(MANUAL)
+                .build();
+        try {
+            ListenableFuture<Request> future = retryingTracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+            retryingTracker.poll();
+            assertFalse(future.isDone());
+
+            requestEndpoint.response = items(item(1, "COMPLETED"));
+            current.set(0, requestEndpoint);
+            retryingTracker.poll();
+            assertTrue(future.isDone());
+        } finally {
+            retryingTracker.close();
+        }
+    }
+
+    @Test
+    public void testProgressIsReported() {
+        final Map<Integer, Double> reported = Maps.newHashMap();
+        AmbariRequestTracker reportingTracker = AmbariRequestTracker.builder()
+                .requestEndpoint(Suppliers.<RequestEndpoint>ofInstance(requestEndpoint))
+                .pollingPolicy(MANUAL)
+                .progressListener(new RequestProgressListener() {
+                    @Override
+                    public void onProgress(Request request, double progressPercent) {
+                        reported.put(request.getRequestInfo().getId(), progressPercent);
+                    }
+                })
+                .build();
+        try {
+            reportingTracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+
+            requestEndpoint.response = "{\"items\":[{\"Requests\":{\"id\":1,\"request_status\":\"IN_PROGRESS\",\"progress_percent\":42.5}}]}";
+            reportingTracker.poll();
+
+            assertEquals(reported, ImmutableMap.of(1, 42.5));
+            assertEquals(reportingTracker.getProgress(), ImmutableMap.of(1, 42.5));
+        } finally {
+            reportingTracker.close();
+        }
+    }
+
+    @Test
+    public void testStatusChangesAreReportedUntilFinalStatus() {
+        final List<String> reported = Lists.newArrayList();
+        AmbariRequestTracker reportingTracker = AmbariRequestTracker.builder()
+                .requestEndpoint(Suppliers.<RequestEndpoint>ofInstance(requestEndpoint))
+                .pollingPolicy(MANUAL)
+                .statusListener(new RequestStatusListener() {
+                    @Override
+                    public void onStatus(Request request, String status) {
+                        reported.add(request.getRequestInfo().getId() + ":" + status);
+                    }
+                })
+                .build();
+        try {
+            reportingTracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+
+            requestEndpoint.response = items(item(1, "PENDING"));
+            reportingTracker.poll();
+            requestEndpoint.response = items(item(1, "IN_PROGRESS"));
+            reportingTracker.poll();
+            reportingTracker.poll();
+            requestEndpoint.response = items(item(1, "ABORTED"));
+            reportingTracker.poll();
+            reportingTracker.poll();
+
+            assertEquals(reported, ImmutableList.of("1:IN_PROGRESS", "1:ABORTED"));
+            assertEquals(requestEndpoint.calls.size(), 4);
+        } finally {
+            reportingTracker.close();
+        }
+    }
+
+    @Test
+    public void testCloseCancelsOutstandingRequests() {
+        ListenableFuture<Request> future = tracker.track(CLUSTER, request(1, "PENDING"), Duration.ONE_HOUR);
+        tracker.close();
+
+        assertTrue(future.isCancelled());
+        assertEquals(tracker.getOutstandingCount(), 0);
+    }
+
+    @Test(expectedExceptions = ExecutionException.class)
+    public void testExpiredRequestFailsWithTimeout() throws Exception {
+        ListenableFuture<Request> future = tracker.track(CLUSTER, request(1, "PENDING"), Duration.ZERO);
+        requestEndpoint.response = items(item(1, "IN_PROGRESS"));
+        tracker.poll();
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+            throw e;
+        }
+    }
+
+    private Request request(int id, String status) {
+        return new Gson().fromJson(item(id, status), Request.class);
+    }
+
+    private String item(int id, String status) {
+        return String.format("{\"href\":\"http://www.example.com/%d\",\"Requests\":{\"id\":%d,\"request_status\":\"%s\"}}", id, id, status);
+    }
+
+    private String items(String... items) {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < items.length; i++) {
+            json.append(i > 0 ? "," : "").append(items[i]);
+        }
+        return json.append("]}").toString();
+    }
+}
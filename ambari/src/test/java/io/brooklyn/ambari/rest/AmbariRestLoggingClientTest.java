@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.util.core.http.BetterMockWebServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.mockwebserver.MockResponse;
+
+import retrofit.RestAdapter;
+import retrofit.client.Client;
+import retrofit.client.UrlConnectionClient;
+import retrofit.http.Body;
+import retrofit.http.GET;
+import retrofit.http.Header;
+import retrofit.http.POST;
+
+public class AmbariRestLoggingClientTest {
+
+    private BetterMockWebServer server;
+    private List<String> logged;
+    private RestAdapter.Log log;
+
+    private interface Service {
+        @GET("/testGetService")
+        Map<String, String> get(@Header("Authorization") String authorization);
+
+        @POST("/testPostService")
+        Map<String, String> post(@Body Map<String, String> body);
+    }
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        server = BetterMockWebServer.newInstanceLocalhost();
+        server.play();
+
+        logged = Lists.newArrayList();
+        log = new RestAdapter.Log() {
+            @Override
+            public void log(String message) {
+                logged.add(message);
+            }
+        };
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void buildThrowsExIfSampleRateIsNotPositive() {
+        AmbariRestLoggingClient.wrap(new UrlConnectionClient()).sampleRate(0).build();
+    }
+
+    @Test
+    public void testNoneLogsNothing() {
+        server.enqueue(new MockResponse().setBody("{}"));
+        newService(AmbariRestLoggingClient.wrap(new UrlConnectionClient())
+                .logLevel(RestAdapter.LogLevel.NONE)
+                .log(log)
+                .build()).get("Basic secret");
+
+        assertTrue(logged.isEmpty());
+    }
+
+    @Test
+    public void testOnlyOneInNRequestsIsLogged() {
+        Service service = newService(AmbariRestLoggingClient.wrap(new UrlConnectionClient())
+                .logLevel(RestAdapter.LogLevel.BASIC)
+                .sampleRate(3)
+                .log(log)
+                .build());
+        for (int i = 0; i < 6; i++) {
+            server.enqueue(new MockResponse().setBody("{}"));
+            service.get("Basic secret");
+        }
+
+        // request + response line for the 1st and 4th requests
+        assertEquals(logged.size(), 4);
+        assertTrue(logged.get(0).startsWith("---> HTTP GET "));
+        assertTrue(logged.get(1).startsWith("<--- HTTP 200 "));
+    }
+
+    @Test
+    public void testAuthorizationHeaderIsMasked() {
+        server.enqueue(new MockResponse().setBody("{}"));
+        newService(AmbariRestLoggingClient.wrap(new UrlConnectionClient())
+                .logLevel(RestAdapter.LogLevel.HEADERS)
+                .log(log)
+                .build()).get("Basic secret");
+
+        assertTrue(logged.contains("Authorization: ****"));
+        for (String message : logged) {
+            assertFalse(message.contains("secret"), message);
+        }
+    }
+
+    @Test
+    public void testFullTruncatesBodies() {
+        String value = Strings.repeat("a", 100);
+        server.enqueue(new MockResponse().setBody("{\"key\":\"" + value + "\"}"));
+        Map<String, String> result = newService(AmbariRestLoggingClient.wrap(new UrlConnectionClient())
+                .logLevel(RestAdapter.LogLevel.FULL)
+                .maxBodyBytes(10)
+                .log(log)
+                .build()).post(ImmutableMap.of("key", value));
+
+        // The response is still fully readable by the converter
+        assertEquals(result.get("key"), value);
+        assertTrue(logged.contains("{\"key\":\"aa... (truncated, 110 bytes total)"), logged.toString());
+        assertEquals(countTruncated(), 2);
+        assertEquals(logged.get(logged.size() - 1), "<--- END HTTP");
+    }
+
+    @Test
+    public void testFullLogsSmallBodiesWhole() {
+        server.enqueue(new MockResponse().setBody("{}"));
+        newService(AmbariRestLoggingClient.wrap(new UrlConnectionClient())
+                .logLevel(RestAdapter.LogLevel.FULL)
+                .log(log)
+                .build()).post(ImmutableMap.of("key", "value"));
+
+        assertTrue(logged.contains("{\"key\":\"value\"} (15 bytes)"), logged.toString());
+        assertTrue(logged.contains("{} (2 bytes)"), logged.toString());
+    }
+
+    @Test
+    public void testHeadersAndArgsLogsBodies() {
+        server.enqueue(new MockResponse().setBody("{}"));
+        newService(AmbariRestLoggingClient.wrap(new UrlConnectionClient())
+                .logLevel(RestAdapter.LogLevel.HEADERS_AND_ARGS)
+                .log(log)
+                .build()).post(ImmutableMap.of("key", "value"));
+
+        assertTrue(logged.contains("{\"key\":\"value\"} (15 bytes)"), logged.toString());
+        assertTrue(logged.contains("{} (2 bytes)"), logged.toString());
+    }
+
+    @Test
+    public void testHeadersDoesNotLogBodies() {
+        server.enqueue(new MockResponse().setBody("{}"));
+        newService(AmbariRestLoggingClient.wrap(new UrlConnectionClient())
+                .logLevel(RestAdapter.LogLevel.HEADERS)
+                .log(log)
+                .build()).post(ImmutableMap.of("key", "value"));
+
+        for (String message : logged) {
+            assertFalse(message.contains("bytes)"), message);
+        }
+    }
+
+    private int countTruncated() {
+        int count = 0;
+        for (String message : logged) {
+            if (message.contains("truncated")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Service newService(Client client) {
+        return new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setClient(client)
+                .build()
+                .create(Service.class);
+    }
+}
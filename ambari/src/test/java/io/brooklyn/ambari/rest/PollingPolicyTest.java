@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+public class PollingPolicyTest {
+
+    private static class ManualTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(Duration duration) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(duration.toMilliseconds());
+        }
+    }
+
+    private final PollingPolicy policy = PollingPolicy.builder()
+            .initialInterval(Duration.ONE_SECOND)
+            .maxInterval(Duration.ONE_MINUTE)
+            .multiplier(2)
+            .jitter(0)
+            .build();
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInitialLongerThanMaxThrowsExOnBuild() {
+        PollingPolicy.builder().initialInterval(Duration.ONE_MINUTE).maxInterval(Duration.ONE_SECOND).build();
+    }
+
+    @Test
+    public void testFixedPolicyPollsEverySecond() {
+        PollingPolicy.State state = PollingPolicy.FIXED.newState();
+        for (int i = 0; i < 5; i++) {
+            state.update(null);
+            assertEquals(state.nextDelay(), Duration.ONE_SECOND);
+        }
+    }
+
+    @Test
+    public void testBacksOffUpToMaxWithoutProgress() {
+        PollingPolicy.State state = policy.newState(new ManualTicker());
+
+        state.update(null);
+        assertEquals(state.nextDelay(), Duration.seconds(2));
+        state.update(null);
+        assertEquals(state.nextDelay(), Duration.seconds(4));
+        for (int i = 0; i < 10; i++) {
+            state.update(null);
+        }
+        assertEquals(state.nextDelay(), Duration.ONE_MINUTE);
+    }
+
+    @Test
+    public void testProgressResetsInterval() {
+        ManualTicker ticker = new ManualTicker();
+        PollingPolicy.State state = policy.newState(ticker);
+
+        assertFalse(state.update(0.0));
+        assertFalse(state.update(0.0));
+        assertFalse(state.update(0.0));
+        assertEquals(state.nextDelay(), Duration.seconds(8));
+
+        ticker.advance(Duration.seconds(8));
+        assertTrue(state.update(1.0));
+        assertEquals(state.nextDelay(), Duration.ONE_SECOND);
+    }
+
+    @Test
+    public void testIntervalIsCappedByEstimatedCompletion() {
+        ManualTicker ticker = new ManualTicker();
+        PollingPolicy.State state = policy.newState(ticker);
+
+        state.update(0.0);
+        // 90% in 90 seconds, so about 10 seconds left
+        ticker.advance(Duration.seconds(90));
+        state.update(90.0);
+        for (int i = 0; i < 10; i++) {
+            state.update(90.0);
+        }
+        assertEquals(state.nextDelay(), Duration.seconds(10));
+
+        // Past the estimated completion, poll as often as when progress moves
+        ticker.advance(Duration.seconds(20));
+        state.update(90.0);
+        assertEquals(state.nextDelay(), Duration.ONE_SECOND);
+    }
+
+    @Test
+    public void testJitterStaysWithinBounds() {
+        PollingPolicy jittery = PollingPolicy.builder()
+                .initialInterval(Duration.seconds(10))
+                .maxInterval(Duration.seconds(10))
+                .jitter(0.5)
+                .build();
+        PollingPolicy.State state = jittery.newState();
+        for (int i = 0; i < 100; i++) {
+            long delay = state.nextDelay().toMilliseconds();
+            assertTrue(delay >= 5000 && delay <= 15000, "Delay " + delay);
+        }
+    }
+}
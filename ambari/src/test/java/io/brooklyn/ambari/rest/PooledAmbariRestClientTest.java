@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.rest;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.util.core.http.BetterMockWebServer;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Suppliers;
+import com.google.common.io.CharStreams;
+import com.google.gson.Gson;
+import com.google.mockwebserver.MockResponse;
+import com.google.mockwebserver.RecordedRequest;
+
+import io.brooklyn.ambari.rest.domain.Request;
+import io.brooklyn.ambari.rest.endpoint.RequestEndpoint;
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+import retrofit.http.Body;
+import retrofit.http.GET;
+import retrofit.http.POST;
+import retrofit.mime.TypedString;
+
+public class PooledAmbariRestClientTest {
+
+    private BetterMockWebServer server;
+    private PooledAmbariRestClient pooledRestClient;
+    private Service service;
+
+    private interface Service {
+        @GET("/testGetService")
+        Map<String, String> get();
+
+        @GET("/testGetService")
+        Response getResponse();
+
+        @POST("/testPostService")
+        Response post(@Body List<String> body);
+    }
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        server = BetterMockWebServer.newInstanceLocalhost();
+        server.play();
+
+        pooledRestClient = PooledAmbariRestClient.builder()
+                .maxTotal(2)
+                .maxPerRoute(2)
+                .idleTimeout(Duration.ONE_MINUTE)
+                .build();
+
+        service = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setClient(pooledRestClient)
+                .build()
+                .create(Service.class);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (pooledRestClient != null) {
+            pooledRestClient.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetRestCall() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody("{\"key\":\"value\"}"));
+        Map<String, String> result = service.get();
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals(request.getPath(), "/testGetService");
+        assertEquals(result.get("key"), "value");
+    }
+
+    @Test
+    public void testPostRestCall() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody("{}"));
+        service.post(Arrays.asList("Brooklyn", "Ambari"));
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals(request.getPath(), "/testPostService");
+        assertEquals(request.getHeader("Content-Length"), "21");
+        assertEquals(request.getUtf8Body(), "[\"Brooklyn\",\"Ambari\"]");
+    }
+
+    @Test
+    public void testConnectionIsReused() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+        service.get();
+        service.getResponse();
+        service.post(Arrays.asList("Brooklyn", "Ambari"));
+
+        assertEquals(server.takeRequest().getSequenceNumber(), 0);
+        assertEquals(server.takeRequest().getSequenceNumber(), 1);
+        assertEquals(server.takeRequest().getSequenceNumber(), 2);
+        assertEquals(pooledRestClient.getPoolStats().getLeased(), 0);
+        assertEquals(pooledRestClient.getPoolStats().getAvailable(), 1);
+    }
+
+    @Test
+    public void testErrorBodyIsReadable() {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("Server error"));
+        try {
+            service.get();
+        } catch (RetrofitError retrofitError) {
+            assertEquals(new AmbariApiException(retrofitError).getMessage(),
+                    "Error from the Ambari REST API - HTTP/500 [" + retrofitError.getUrl() + "]:\nServer error");
+        }
+        assertEquals(pooledRestClient.getPoolStats().getLeased(), 0);
+    }
+
+    @Test
+    public void testRequestEntityContentCanBeReadBack() throws Exception {
+        TypedString body = new TypedString("[\"Brooklyn\",\"Ambari\"]");
+        PooledAmbariRestClient.TypedOutputEntity entity = new PooledAmbariRestClient.TypedOutputEntity(body);
+
+        assertEquals(CharStreams.toString(new InputStreamReader(entity.getContent(), Charsets.UTF_8)), "[\"Brooklyn\",\"Ambari\"]");
+        assertEquals(entity.getContentLength(), 21);
+        // The entity is repeatable, so a second read gives the same body
+        assertEquals(CharStreams.toString(new InputStreamReader(entity.getContent(), Charsets.UTF_8)), "[\"Brooklyn\",\"Ambari\"]");
+    }
+
+    @Test
+    public void testRequestPollsReuseTheSharedClient() throws Exception {
+        RequestEndpoint requestEndpoint = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setClient(pooledRestClient)
+                .build()
+                .create(RequestEndpoint.class);
+        AmbariRequestTracker tracker = AmbariRequestTracker.builder()
+                .requestEndpoint(Suppliers.ofInstance(requestEndpoint))
+                .pollingPolicy(PollingPolicy.builder()
+                        .initialInterval(Duration.ONE_HOUR)
+                        .maxInterval(Duration.ONE_HOUR)
+                        .build())
+                .build();
+        try {
+            Request request = new Gson().fromJson("{\"href\":\"http://www.example.com/1\",\"Requests\":{\"id\":1,\"request_status\":\"PENDING\"}}", Request.class);
+            tracker.track("Cluster1", request, Duration.ONE_HOUR);
+            for (int i = 0; i < 10; i++) {
+                server.enqueue(new MockResponse().setBody("{\"items\":[{\"Requests\":{\"id\":1,\"request_status\":\"IN_PROGRESS\"}}]}"));
+                tracker.poll();
+            }
+        } finally {
+            tracker.close();
+        }
+
+        // Every poll went over the same pooled connection, which is still open and back in the pool
+        for (int i = 0; i < 10; i++) {
+            assertEquals(server.takeRequest().getSequenceNumber(), i);
+        }
+        assertEquals(pooledRestClient.getPoolStats().getLeased(), 0);
+        assertEquals(pooledRestClient.getPoolStats().getAvailable(), 1);
+
+        server.enqueue(new MockResponse().setBody("{\"key\":\"value\"}"));
+        assertEquals(service.get().get("key"), "value");
+        assertEquals(server.takeRequest().getSequenceNumber(), 10);
+    }
+}
@@ -21,12 +21,15 @@ package io.brooklyn.ambari.rest;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import org.apache.brooklyn.util.exceptions.PropagatedRuntimeException;
 import org.apache.brooklyn.util.time.Duration;
@@ -41,10 +44,14 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
-import com.jayway.jsonpath.PathNotFoundException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.gson.JsonSyntaxException;
 
 import io.brooklyn.ambari.rest.domain.Request;
 
+@SuppressWarnings("deprecation")
 public class RequestCheckRunnableTest {
 
     class MyCustomException extends Exception {}
@@ -83,7 +90,7 @@ public class RequestCheckRunnableTest {
                 .run();
     }
 
-    @Test(expectedExceptions = PathNotFoundException.class)
+    @Test(expectedExceptions = JsonSyntaxException.class)
     public void testInvalidReponseThrowsParseEx() throws IOException {
         new RequestCheckRunnable.Builder(mockRequest("http://www.example.com"))
                 .client(mockHttpClient("Invalid body: No Json"))
@@ -109,6 +116,55 @@ public class RequestCheckRunnableTest {
         assertNull(throwable);
     }
 
+    @Test
+    public void testProgressIsReported() throws IOException {
+        final List<Double> reported = Lists.newArrayList();
+        new RequestCheckRunnable.Builder(mockRequest("http://www.example.com"))
+                .client(mockHttpClient("{\"Requests\":{\"request_status\": \"COMPLETED\", \"progress_percent\": 100.0}}"))
+                .pollingPolicy(PollingPolicy.FIXED)
+                .progressListener(new RequestProgressListener() {
+                    @Override
+                    public void onProgress(Request request, double progressPercent) {
+                        reported.add(progressPercent);
+                    }
+                })
+                .build()
+                .run();
+
+        assertEquals(reported, ImmutableList.of(100.0));
+    }
+
+    @Test
+    public void testCheckWithTrackerWaitsOnTracker() {
+        Request request = mockRequest("http://www.example.com");
+        AmbariRequestTracker tracker = mock(AmbariRequestTracker.class);
+        when(tracker.track("cluster", request, Duration.FIVE_SECONDS, ERROR_MESSAGE)).thenReturn(Futures.immediateFuture(request));
+
+        new RequestCheckRunnable.Builder(request)
+                .tracker(tracker, "cluster")
+                .timeout(Duration.FIVE_SECONDS)
+                .errorMessage(ERROR_MESSAGE)
+                .build()
+                .run();
+
+        verify(tracker).track("cluster", request, Duration.FIVE_SECONDS, ERROR_MESSAGE);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class, expectedExceptionsMessageRegExp = ERROR_MESSAGE)
+    public void testCheckWithTrackerPropagatesFailure() {
+        Request request = mockRequest("http://www.example.com");
+        AmbariRequestTracker tracker = mock(AmbariRequestTracker.class);
+        when(tracker.track("cluster", request, Duration.FIVE_SECONDS, ERROR_MESSAGE))
+                .thenReturn(Futures.<Request>immediateFailedFuture(new RuntimeException(ERROR_MESSAGE)));
+
+        new RequestCheckRunnable.Builder(request)
+                .tracker(tracker, "cluster")
+                .timeout(Duration.FIVE_SECONDS)
+                .errorMessage(ERROR_MESSAGE)
+                .build()
+                .run();
+    }
+
     private Request mockRequest(String url) {
         Request request = mock(Request.class);
         when(request.getHref()).thenReturn(url);
@@ -22,14 +22,34 @@ package io.brooklyn.ambari.server;
 import static org.apache.brooklyn.test.Asserts.assertThat;
 import static org.apache.brooklyn.util.collections.CollectionFunctionals.contains;
 import static org.apache.brooklyn.util.collections.CollectionFunctionals.sizeEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.core.entity.Entities;
+import org.apache.brooklyn.core.test.entity.TestApplication;
+import org.apache.brooklyn.util.http.HttpToolResponse;
 import org.testng.annotations.Test;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+
+import io.brooklyn.ambari.rest.domain.Hosts;
+import io.brooklyn.ambari.rest.domain.Request;
+import io.brooklyn.ambari.rest.endpoint.HostEndpoint;
 
 public class AmbariServerImplTest {
 
@@ -66,17 +86,78 @@ public class AmbariServerImplTest {
 
     @Test
     public void testClusterStateIsreturned() {
-        String clusterState = ambariServer.getRequestState().apply(getAsJsonObject(JSON_CLUSTER_STATE));
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        try {
+            AmbariServer server = app.createAndManageChild(EntitySpec.create(AmbariServerMock.class));
+            Request request = new Gson().fromJson(JSON_CLUSTER_STATE, Request.class);
+            server.sensors().set(AmbariServer.CLUSTER_REQUEST, request);
+
+            ((AmbariServerImpl) Entities.deproxy(server)).onRequestStatus(request, request.getRequestInfo().getStatus());
+
+            assertEquals("IN_PROGRESS", server.getAttribute(AmbariServer.CLUSTER_STATE));
+        } finally {
+            Entities.destroyAll(app.getManagementContext());
+        }
+    }
+
+    @Test
+    public void testOtherRequestsDoNotChangeClusterState() {
+        TestApplication app = TestApplication.Factory.newManagedInstanceForTests();
+        try {
+            AmbariServer server = app.createAndManageChild(EntitySpec.create(AmbariServerMock.class));
+            server.sensors().set(AmbariServer.CLUSTER_REQUEST, new Gson().fromJson(JSON_CLUSTER_STATE, Request.class));
+            server.sensors().set(AmbariServer.CLUSTER_STATE, "IN_PROGRESS");
+
+            Request other = new Gson().fromJson("{\"Requests\":{\"id\":2,\"request_status\":\"FAILED\"}}", Request.class);
+            ((AmbariServerImpl) Entities.deproxy(server)).onRequestStatus(other, "FAILED");
+
+            assertEquals("IN_PROGRESS", server.getAttribute(AmbariServer.CLUSTER_STATE));
+        } finally {
+            Entities.destroyAll(app.getManagementContext());
+        }
+    }
+
+    @Test
+    public void testRecommendationCacheIsOptIn() {
+        assertNull(AmbariServer.RECOMMENDATION_CACHE_DIR.getDefaultValue());
+    }
+
+    @Test
+    public void testHostShapesAreFetchedForRequestedHostsOnly() {
+        HostEndpoint hostEndpoint = mock(HostEndpoint.class);
+        when(hostEndpoint.getHosts(anyString(), anyString())).thenReturn(new Gson().fromJson("{\"items\":["
+                + "{\"Hosts\":{\"host_name\":\"a.example.com\",\"cpu_count\":4,\"total_mem\":16000000,\"os_type\":\"centos6\"}},"
+                + "{\"Hosts\":{\"host_name\":\"b.example.com\",\"cpu_count\":4,\"total_mem\":16000000,\"os_type\":\"centos6\"}}"
+                + "]}", Hosts.class));
+
+        Map<String, String> shapes = AmbariServerImpl.getHostShapes(hostEndpoint, ImmutableList.of("a.example.com", "b.example.com"));
+
+        assertEquals(ImmutableSet.of("a.example.com", "b.example.com"), shapes.keySet());
+        verify(hostEndpoint).getHosts("Hosts/host_name,Hosts/cpu_count,Hosts/total_mem,Hosts/os_type",
+                "a.example.com|Hosts/host_name=b.example.com");
+        verifyNoMoreInteractions(hostEndpoint);
+    }
 
-        assertEquals("IN_PROGRESS", clusterState);
+    @Test
+    public void testHostShapesAreFetchedInBatches() {
+        HostEndpoint hostEndpoint = mock(HostEndpoint.class);
+        when(hostEndpoint.getHosts(anyString(), anyString())).thenReturn(new Gson().fromJson("{\"items\":[]}", Hosts.class));
+        List<String> hosts = Lists.newArrayList();
+        for (int i = 0; i < 120; i++) {
+            hosts.add("host-" + i + ".example.com");
+        }
+
+        // None of them is known, so there is no shape to cache by
+        assertNull(AmbariServerImpl.getHostShapes(hostEndpoint, hosts));
+        verify(hostEndpoint, times(3)).getHosts(anyString(), anyString());
     }
 
     private List<String> getHostsFromJson(String json) {
-        return ambariServer.getHosts().apply(getAsJsonObject(json));
+        return ambariServer.getHosts().apply(getAsResponse(json));
     }
 
-    private JsonObject getAsJsonObject(String jsonWithOneHost) {
-        return new JsonParser().parse(jsonWithOneHost).getAsJsonObject();
+    private HttpToolResponse getAsResponse(String json) {
+        return new HttpToolResponse(200, ImmutableMap.<String, List<String>>of(), json.getBytes(StandardCharsets.UTF_8), 0, 0, 0);
     }
 
     private static final String JSON_CLUSTER_STATE = "{\n" +
@@ -18,6 +18,7 @@
  */
 package io.brooklyn.ambari.server;
 
+import java.util.List;
 import java.util.Map;
 
 import org.apache.brooklyn.api.entity.ImplementedBy;
@@ -33,4 +34,6 @@ public interface AmbariServerMock extends AmbariServer {
     RecommendationWrapper getRecommendationWrapper();
 
     Map getConfig();
+
+    List<String> getAddedHosts();
 }
@@ -20,8 +20,12 @@ package io.brooklyn.ambari.server;
 
 import static org.mockito.Mockito.mock;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
+import com.google.common.collect.Lists;
+
 import io.brooklyn.ambari.rest.AmbariApiException;
 import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
 import io.brooklyn.ambari.rest.domain.Request;
@@ -44,10 +48,15 @@ public class AmbariServerMockImpl extends AmbariServerImpl implements AmbariServ
         return config;
     }
 
+    public List<String> getAddedHosts() {
+        return addedHosts;
+    }
+
     private String clusterName;
     private String blueprintName;
     private RecommendationWrapper recommendationWrapper;
     private Map config;
+    private final List<String> addedHosts = Collections.synchronizedList(Lists.<String>newArrayList());
 
     @Override
     public void waitForServiceUp() {
@@ -61,4 +70,28 @@ public class AmbariServerMockImpl extends AmbariServerImpl implements AmbariServ
         this.config = config;
         return mock(Request.class);
     }
+
+    @Override
+    public void createBlueprint(String blueprintName, RecommendationWrapper recommendationWrapper, Map config) throws AmbariApiException {
+        this.blueprintName = blueprintName;
+        this.recommendationWrapper = recommendationWrapper;
+        this.config = config;
+    }
+
+    @Override
+    public void deleteBlueprint(String blueprintName) throws AmbariApiException {
+        this.blueprintName = null;
+    }
+
+    @Override
+    public Request createClusterFromBlueprint(String clusterName, String blueprintName, RecommendationWrapper recommendationWrapper) throws AmbariApiException {
+        this.clusterName = clusterName;
+        this.recommendationWrapper = recommendationWrapper;
+        return mock(Request.class);
+    }
+
+    @Override
+    public void addHostsToHostGroup(String blueprintName, String hostgroupName, List<String> hosts, String cluster) {
+        addedHosts.addAll(hosts);
+    }
 }
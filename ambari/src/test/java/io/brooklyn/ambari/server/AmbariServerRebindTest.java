@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.server;
+
+import static org.testng.Assert.assertEquals;
+
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.core.entity.Entities;
+import org.apache.brooklyn.core.mgmt.rebind.RebindTestFixtureWithApp;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Iterables;
+import com.google.gson.Gson;
+
+import io.brooklyn.ambari.rest.domain.Request;
+
+public class AmbariServerRebindTest extends RebindTestFixtureWithApp {
+
+    @Test
+    public void testClusterRequestIsFollowedAfterRebind() throws Exception {
+        AmbariServer server = origApp.createAndManageChild(EntitySpec.create(AmbariServerMock.class));
+        Request request = new Gson().fromJson(
+                "{\"href\":\"http://ambari.example.com:8080/api/v1/clusters/c1/requests/7\",\"Requests\":{\"id\":7,\"request_status\":\"PENDING\"}}",
+                Request.class);
+        server.sensors().set(AmbariServer.CLUSTER_REQUEST, request);
+        server.sensors().set(AmbariServer.CLUSTER_STATE, "PENDING");
+
+        rebind();
+        AmbariServer newServer = (AmbariServer) Iterables.getOnlyElement(newApp.getChildren());
+        AmbariServerImpl newServerImpl = (AmbariServerImpl) Entities.deproxy(newServer);
+
+        assertEquals(newServer.getAttribute(AmbariServer.CLUSTER_REQUEST).getRequestInfo().getId(), 7);
+
+        newServerImpl.onRequestStatus(request, "IN_PROGRESS");
+        assertEquals(newServer.getAttribute(AmbariServer.CLUSTER_STATE), "IN_PROGRESS");
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.brooklyn.util.os.Os;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+
+import io.brooklyn.ambari.rest.domain.HostGroup;
+import io.brooklyn.ambari.rest.domain.RecommendationWrapper;
+import io.brooklyn.ambari.rest.domain.RecommendationWrappers;
+
+public class RecommendationCacheTest {
+
+    private static final String SMALL = RecommendationCache.getHostShape(4, 16L * 1024 * 1024, "centos6");
+    private static final String LARGE = RecommendationCache.getHostShape(16, 64L * 1024 * 1024, "centos6");
+    private static final List<String> SERVICES = ImmutableList.of("YARN", "HDFS");
+
+    private File directory;
+    private RecommendationCache cache;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("recommendations").toFile();
+        cache = new RecommendationCache(directory, 2, "2.2.0.0");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (directory != null) {
+            Os.deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testMissingRecommendationGivesNull() {
+        assertNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL)));
+    }
+
+    @Test
+    public void testRecommendationIsReusedWithNewHostNames() {
+        cache.put("HDP", "2.3", SERVICES, ImmutableMap.of("old-1", LARGE, "old-2", SMALL, "old-3", SMALL),
+                recommendation("old-1", "old-2", "old-3"));
+
+        RecommendationWrappers cached = cache.get("HDP", "2.3", ImmutableList.of("HDFS", "YARN"),
+                ImmutableMap.of("new-3", SMALL, "new-1", SMALL, "new-2", LARGE));
+
+        assertNotNull(cached);
+        RecommendationWrapper recommendationWrapper = cached.getRecommendationWrappers().get(0);
+        List<HostGroup> bindings = recommendationWrapper.getRecommendation().getBindings().getHostGroups();
+        assertEquals(bindings.get(0).getHosts().get(0).get("fqdn"), "new-2");
+        assertEquals(bindings.get(1).getHosts().get(0).get("fqdn"), "new-1");
+        assertEquals(bindings.get(2).getHosts().get(0).get("fqdn"), "new-3");
+        assertEquals(recommendationWrapper.getHosts(), ImmutableList.of("new-2", "new-1", "new-3"));
+    }
+
+    @Test
+    public void testDifferentShapesMiss() {
+        cache.put("HDP", "2.3", SERVICES, ImmutableMap.of("old-1", SMALL), recommendation("old-1"));
+
+        assertNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("new-1", LARGE)));
+        assertNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("new-1", SMALL, "new-2", SMALL)));
+        assertNull(cache.get("HDP", "2.4", SERVICES, ImmutableMap.of("new-1", SMALL)));
+        assertNull(cache.get("HDP", "2.3", ImmutableList.of("HDFS"), ImmutableMap.of("new-1", SMALL)));
+    }
+
+    @Test
+    public void testOtherServerVersionMisses() {
+        cache.put("HDP", "2.3", SERVICES, ImmutableMap.of("old-1", SMALL), recommendation("old-1"));
+
+        assertNull(new RecommendationCache(directory, 2, "2.1.2").get("HDP", "2.3", SERVICES, ImmutableMap.of("new-1", SMALL)));
+        assertNotNull(new RecommendationCache(directory, 2, "2.2.0.0").get("HDP", "2.3", SERVICES, ImmutableMap.of("new-1", SMALL)));
+    }
+
+    @Test
+    public void testUnknownHardwareHasNoShape() {
+        assertNull(RecommendationCache.getHostShape(null, 16L * 1024 * 1024, "centos6"));
+        assertNull(RecommendationCache.getHostShape(4, null, "centos6"));
+        assertNull(RecommendationCache.getHostShape(4, 16L * 1024 * 1024, null));
+    }
+
+    @Test
+    public void testMemoryIsRoundedToTheGigabyte() {
+        assertEquals(RecommendationCache.getHostShape(4, 16L * 1024 * 1024 - 2000, "centos6"), SMALL);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        cache.put("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL), recommendation("a"));
+        cache.put("HDP", "2.3", SERVICES, ImmutableMap.of("a", LARGE), recommendation("a"));
+        ageFiles();
+        assertNotNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL)));
+
+        cache.put("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL, "b", SMALL), recommendation("a", "b"));
+
+        assertNotNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL)));
+        assertNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("a", LARGE)));
+        assertNotNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL, "b", SMALL)));
+    }
+
+    @Test
+    public void testCorruptEntryIsAMiss() throws Exception {
+        cache.put("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL), recommendation("a"));
+        for (File file : directory.listFiles()) {
+            Files.write(file.toPath(), "not json".getBytes());
+        }
+
+        assertNull(cache.get("HDP", "2.3", SERVICES, ImmutableMap.of("a", SMALL)));
+    }
+
+    // File modification times can be as coarse as a second
+    private void ageFiles() {
+        for (File file : directory.listFiles()) {
+            file.setLastModified(file.lastModified() - 60000);
+        }
+    }
+
+    private RecommendationWrappers recommendation(String... hosts) {
+        StringBuilder bindings = new StringBuilder();
+        StringBuilder hostList = new StringBuilder();
+        for (int i = 0; i < hosts.length; i++) {
+            bindings.append(i > 0 ? "," : "")
+                    .append(String.format("{\"name\":\"host-group-%d\",\"hosts\":[{\"fqdn\":\"%s\"}]}", i + 1, hosts[i]));
+            hostList.append(i > 0 ? "," : "").append('"').append(hosts[i]).append('"');
+        }
+        return new Gson().fromJson(String.format("{\"resources\":[{\"hosts\":[%s],\"Versions\":{\"stack_name\":\"HDP\",\"stack_version\":\"2.3\"},"
+                + "\"recommendations\":{\"blueprint\":{\"host_groups\":[]},\"blueprint_cluster_binding\":{\"host_groups\":[%s]}}}]}",
+                hostList, bindings), RecommendationWrappers.class);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.brooklyn.ambari.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class RegisteredHostIndexTest {
+
+    @Test
+    public void testFirstUpdateAddsAllHosts() {
+        RegisteredHostIndex index = new RegisteredHostIndex();
+
+        RegisteredHostIndex.Delta delta = index.update(ImmutableList.of("host-1", "host-2"));
+
+        assertEquals(delta.getAdded(), ImmutableSet.of("host-1", "host-2"));
+        assertTrue(delta.getRemoved().isEmpty());
+        assertEquals(index.getHosts(), ImmutableList.of("host-1", "host-2"));
+    }
+
+    @Test
+    public void testUnchangedHostsGiveEmptyDeltaAndSameSnapshot() {
+        RegisteredHostIndex index = new RegisteredHostIndex();
+        index.update(ImmutableList.of("host-1", "host-2"));
+        Object snapshot = index.getHosts();
+
+        RegisteredHostIndex.Delta delta = index.update(ImmutableList.of("host-2", "host-1"));
+
+        assertTrue(delta.isEmpty());
+        assertSame(index.getHosts(), snapshot);
+    }
+
+    @Test
+    public void testDeltaHoldsAddedAndRemovedHosts() {
+        RegisteredHostIndex index = new RegisteredHostIndex();
+        index.update(ImmutableList.of("host-1", "host-2", "host-3"));
+
+        RegisteredHostIndex.Delta delta = index.update(ImmutableList.of("host-4", "host-3", "host-1"));
+
+        assertEquals(delta.getAdded(), ImmutableSet.of("host-4"));
+        assertEquals(delta.getRemoved(), ImmutableSet.of("host-2"));
+        assertEquals(index.getHosts(), ImmutableList.of("host-1", "host-3", "host-4"));
+    }
+
+    @Test
+    public void testEmptyUpdateRemovesAllHosts() {
+        RegisteredHostIndex index = new RegisteredHostIndex();
+        index.update(ImmutableList.of("host-1"));
+
+        RegisteredHostIndex.Delta delta = index.update(ImmutableList.<String>of());
+
+        assertEquals(delta.getRemoved(), ImmutableSet.of("host-1"));
+        assertTrue(index.getHosts().isEmpty());
+    }
+
+    @Test
+    public void testRestoredHostsAreNotReportedAgain() {
+        RegisteredHostIndex index = new RegisteredHostIndex();
+        index.restore(ImmutableList.of("host-1", "host-2"));
+
+        RegisteredHostIndex.Delta delta = index.update(ImmutableList.of("host-2", "host-3", "host-1"));
+
+        assertEquals(delta.getAdded(), ImmutableSet.of("host-3"));
+        assertTrue(delta.getRemoved().isEmpty());
+        assertEquals(index.getHosts(), ImmutableList.of("host-1", "host-2", "host-3"));
+    }
+
+    @Test
+    public void testRestoringNothingGivesEmptyIndex() {
+        RegisteredHostIndex index = new RegisteredHostIndex();
+        index.update(ImmutableList.of("host-1"));
+
+        index.restore(null);
+
+        assertTrue(index.getHosts().isEmpty());
+    }
+}
@@ -19,6 +19,8 @@
 
 package io.brooklyn.ambari.service;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
 
@@ -27,13 +29,16 @@ import java.util.Map;
 
 import org.apache.brooklyn.api.entity.EntitySpec;
 import org.apache.brooklyn.api.entity.ImplementedBy;
+import org.apache.brooklyn.core.entity.Entities;
 import org.apache.brooklyn.core.test.BrooklynAppUnitTestSupport;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import io.brooklyn.ambari.AmbariCluster;
+import io.brooklyn.ambari.agent.AmbariAgent;
 
 public class AbstractExtraServiceTest extends BrooklynAppUnitTestSupport {
 
@@ -97,6 +102,41 @@ public class AbstractExtraServiceTest extends BrooklynAppUnitTestSupport {
         }
     }
 
+    @Test
+    public void getAmbariAgentsWithComponentsUsesComponentHosts() {
+        AmbariAgent agent1 = agentWithFqdn("host-1.example.com");
+        AmbariAgent agent2 = agentWithFqdn("host-2.example.com");
+        AmbariCluster ambariCluster = mock(AmbariCluster.class);
+        when(ambariCluster.getAttribute(AmbariCluster.COMPONENT_HOSTS)).thenReturn(ImmutableMap.<String, List<String>>of(
+                "NAMENODE", ImmutableList.of("host-2.example.com"),
+                "DATANODE", ImmutableList.of("host-1.example.com", "host-2.example.com", "host-3.example.com")));
+        when(ambariCluster.getAmbariAgentByFqdn("host-1.example.com")).thenReturn(agent1);
+        when(ambariCluster.getAmbariAgentByFqdn("host-2.example.com")).thenReturn(agent2);
+        DummyExtraServiceImpl extraService = (DummyExtraServiceImpl) Entities.deproxy(
+                app.createAndManageChild(createDummyExtraServiceSpec(null, "DUMMY", null)));
+
+        assertEquals(extraService.getAmbariAgentsWithComponents(ambariCluster, ImmutableList.of("NAMENODE", "DATANODE")),
+                ImmutableList.of(agent2, agent1));
+        assertEquals(extraService.getAmbariAgentsWithComponents(ambariCluster, ImmutableList.of("HBASE_MASTER")),
+                ImmutableList.of());
+    }
+
+    @Test
+    public void getAmbariAgentsWithComponentsIsEmptyBeforeDeployment() {
+        AmbariCluster ambariCluster = mock(AmbariCluster.class);
+        DummyExtraServiceImpl extraService = (DummyExtraServiceImpl) Entities.deproxy(
+                app.createAndManageChild(createDummyExtraServiceSpec(null, "DUMMY", null)));
+
+        assertEquals(extraService.getAmbariAgentsWithComponents(ambariCluster, ImmutableList.of("NAMENODE")),
+                ImmutableList.of());
+    }
+
+    private AmbariAgent agentWithFqdn(String fqdn) {
+        AmbariAgent ambariAgent = app.createAndManageChild(EntitySpec.create(AmbariAgent.class));
+        ambariAgent.setFqdn(fqdn);
+        return ambariAgent;
+    }
+
     private EntitySpec<DummyExtraService> createDummyExtraServiceSpec(String bindTo, String serviceName, List<String> componentsName) {
         return EntitySpec.create(DummyExtraService.class)
                 .configure(DummyExtraService.BIND_TO, bindTo)